@@ -1,6 +1,8 @@
 package bms;
 
-import bms.building.BuildingInitialiser;
+import bms.building.Building;
+import bms.building.MutationLog;
+import bms.building.SaveJournal;
 import bms.display.View;
 import bms.display.ViewModel;
 import bms.exceptions.FileFormatException;
@@ -16,21 +18,29 @@ import java.util.List;
  * @ass2_given
  */
 public class Launcher extends Application {
+    /**
+     * Command line option selecting lazy loading of buildings.
+     */
+    private static final String LAZY_OPTION = "--lazy";
 
     /**
      * Entry point to the GUI.
      * <p>
-     * Command line arguments: [filename]
+     * Command line arguments: [--lazy] [filename]
      * <p>
      * where <code>filename</code> is the path of the file containing the
-     * buildings to be displayed by the GUI.
+     * buildings to be displayed by the GUI. With <code>--lazy</code>, each
+     * building's floors and rooms are only read from the file when the
+     * building is first used (see
+     * {@link bms.building.BuildingInitialiser#loadBuildingsLazy(String)}).
      *
      * @param args command line arguments
      * @ass2_given
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: [filename]");
+        if (args.length != 1
+                && !(args.length == 2 && args[0].equals(LAZY_OPTION))) {
+            System.out.println("Usage: [" + LAZY_OPTION + "] [filename]");
             System.out.println("You need to add a command line argument to your"
                     + " program in IntelliJ. Go to \"Run > Edit Configurations "
                     + "> Launcher > Program Arguments\" and add your file name "
@@ -49,13 +59,24 @@ public class Launcher extends Application {
     @Override
     public void start(Stage stage) {
         List<String> params = getParameters().getRaw();
+        boolean lazy = params.size() == 2;
+        String filename = params.get(params.size() - 1);
 
         View view;
         try {
-            view = new View(stage, new ViewModel(
-                    BuildingInitialiser.loadBuildings(params.get(0))));
+            // Also applies any quicksave journal saved next to the file
+            SaveJournal journal = new SaveJournal(filename);
+            List<Building> buildings = journal.load(lazy);
+            MutationLog mutationLog = MutationLog.open(filename);
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> closeMutationLog(mutationLog), "bms-shutdown"));
+            ViewModel viewModel = new ViewModel(buildings, journal,
+                    mutationLog);
+            // Replays changes made since the file was last saved
+            viewModel.recover();
+            view = new View(stage, viewModel);
         } catch (IOException | FileFormatException e) {
-            System.err.println("Error loading from file \"" + params.get(0)
+            System.err.println("Error loading from file \"" + filename
                     + "\". Stack trace below:");
             e.printStackTrace();
             Platform.exit();
@@ -65,4 +86,18 @@ public class Launcher extends Application {
 
         view.run();
     }
+
+    /**
+     * Writes any changes still buffered by the mutation log and closes it.
+     *
+     * @param mutationLog log to close
+     */
+    private static void closeMutationLog(MutationLog mutationLog) {
+        try {
+            mutationLog.close();
+        } catch (IOException e) {
+            System.err.println("Error writing mutation log: "
+                    + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,217 @@
+package bms;
+
+import bms.building.Building;
+import bms.building.SaveJournal;
+import bms.exceptions.FileFormatException;
+import bms.room.RoomState;
+import bms.sensors.ReadingStorage;
+import bms.sensors.SensorStore;
+import bms.simulation.SimulationEngine;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command line entry point that runs the Building Management System
+ * simulation without the GUI, and saves the result.
+ * <p>
+ * Command line arguments: [--lazy] [--per-building]
+ * [--speed minutesPerSecond] [--sample minutes] [--readings storage]
+ * filename minutes output
+ * <ul>
+ * <li><code>filename</code> is the save file to load, together with any
+ * quicksave journal saved next to it</li>
+ * <li><code>minutes</code> is the number of simulated minutes to run</li>
+ * <li><code>output</code> is the file the simulated buildings are saved to
+ * at the end</li>
+ * <li><code>--lazy</code> only reads each building's floors when they are
+ * first used (see
+ * {@link bms.building.BuildingInitialiser#loadBuildingsLazy(String)});
+ * maintenance schedules of buildings not yet read do not advance</li>
+ * <li><code>--per-building</code> elapses each building on a thread of its
+ * own (see {@link bms.simulation.BuildingExecutor})</li>
+ * <li><code>--speed</code> runs at the given number of simulated minutes per
+ * second, instead of as fast as possible</li>
+ * <li><code>--sample</code> sets the number of simulated minutes between
+ * room state samples (default
+ * {@value SimulationEngine#DEFAULT_SAMPLE_INTERVAL}; 0 for none)</li>
+ * <li><code>--readings</code> sets where sensor readings are kept:
+ * <code>heap</code> (the default), <code>direct</code> or
+ * <code>mapped</code> (see {@link ReadingStorage})</li>
+ * </ul>
+ * Once finished, the time taken, the share of samples in which rooms were
+ * in each state, and the memory used by the Java heap and by sensor
+ * readings, including the memory saved by sensors sharing identical
+ * readings, are printed.
+ * Changes recorded only in the GUI's mutation log are not replayed; open
+ * and save the file in the GUI first to include them.
+ */
+public class Simulator {
+    /**
+     * Command line option selecting lazy loading of buildings.
+     */
+    private static final String LAZY_OPTION = "--lazy";
+    /**
+     * Command line option elapsing each building on its own thread.
+     */
+    private static final String PER_BUILDING_OPTION = "--per-building";
+    /**
+     * Command line option setting the simulation speed.
+     */
+    private static final String SPEED_OPTION = "--speed";
+    /**
+     * Command line option setting the room state sample interval.
+     */
+    private static final String SAMPLE_OPTION = "--sample";
+    /**
+     * Command line option setting where sensor readings are kept.
+     */
+    private static final String READINGS_OPTION = "--readings";
+    /**
+     * Number of bytes in a mebibyte, for reporting memory use.
+     */
+    private static final double MEBIBYTE = 1024 * 1024;
+
+    /**
+     * Runs the simulation.
+     *
+     * @param args command line arguments
+     * @throws InterruptedException if interrupted while keeping to the set
+     *                              speed
+     */
+    public static void main(String[] args) throws InterruptedException {
+        boolean lazy = false;
+        boolean perBuilding = false;
+        double speed = 0;
+        int sampleInterval = SimulationEngine.DEFAULT_SAMPLE_INTERVAL;
+        ReadingStorage storage = ReadingStorage.HEAP;
+        int index = 0;
+        try {
+            while (index < args.length && args[index].startsWith("--")) {
+                switch (args[index]) {
+                    case LAZY_OPTION:
+                        lazy = true;
+                        index++;
+                        break;
+                    case PER_BUILDING_OPTION:
+                        perBuilding = true;
+                        index++;
+                        break;
+                    case SPEED_OPTION:
+                        speed = Double.parseDouble(args[index + 1]);
+                        index += 2;
+                        break;
+                    case SAMPLE_OPTION:
+                        sampleInterval = Integer.parseInt(args[index + 1]);
+                        index += 2;
+                        break;
+                    case READINGS_OPTION:
+                        storage = ReadingStorage.valueOf(
+                                args[index + 1].toUpperCase(Locale.ROOT));
+                        index += 2;
+                        break;
+                    default:
+                        usage();
+                }
+            }
+        } catch (IllegalArgumentException
+                | ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        if (args.length - index != 3) {
+            usage();
+        }
+        String filename = args[index];
+        String output = args[index + 2];
+        long minutes = 0;
+        try {
+            minutes = Long.parseLong(args[index + 1]);
+        } catch (NumberFormatException e) {
+            usage();
+        }
+
+        SensorStore.setReadingStorage(storage);
+        try {
+            SaveJournal journal = new SaveJournal(filename);
+            List<Building> buildings = journal.load(lazy);
+            SimulationEngine engine = new SimulationEngine(buildings);
+            engine.setSpeed(speed);
+            engine.setSampleInterval(sampleInterval);
+            engine.setPerBuildingThreads(perBuilding);
+
+            long startTime = System.nanoTime();
+            engine.run(minutes);
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+            engine.writeSnapshot(output);
+            report(engine, elapsedMillis);
+        } catch (IOException | FileFormatException e) {
+            System.err.println("Error simulating file \"" + filename
+                    + "\". Stack trace below:");
+            e.printStackTrace();
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+        }
+    }
+
+    /**
+     * Prints how long the simulation took and the share of samples in
+     * which rooms were in each state.
+     *
+     * @param engine        engine that ran the simulation
+     * @param elapsedMillis wall-clock time taken, in milliseconds
+     */
+    private static void report(SimulationEngine engine, long elapsedMillis) {
+        System.out.printf("Simulated %d minutes in %d ms%n",
+                engine.getMinutesRun(), elapsedMillis);
+        Map<RoomState, Long> counts = engine.getRoomStateCounts();
+        long total = 0;
+        for (long count : counts.values()) {
+            total += count;
+        }
+        System.out.printf("Room states over %d samples:%n",
+                engine.getSampleCount());
+        for (Map.Entry<RoomState, Long> entry : counts.entrySet()) {
+            System.out.printf("  %-11s %d (%.1f%%)%n", entry.getKey(),
+                    entry.getValue(),
+                    total == 0 ? 0.0 : 100.0 * entry.getValue() / total);
+        }
+        reportMemory();
+    }
+
+    /**
+     * Prints the memory used by the Java heap after a garbage collection,
+     * and the memory used by sensor readings on and off the heap.
+     */
+    private static void reportMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("Memory (sensor readings kept %s):%n",
+                SensorStore.getReadingStorage().name().toLowerCase(
+                        Locale.ROOT));
+        System.out.printf("  %-24s %.1f MiB%n", "Heap in use",
+                heapUsed / MEBIBYTE);
+        System.out.printf("  %-24s %.1f MiB%n", "Readings on heap",
+                SensorStore.getReadingBytes(false) / MEBIBYTE);
+        System.out.printf("  %-24s %.1f MiB%n", "Readings off heap",
+                SensorStore.getReadingBytes(true) / MEBIBYTE);
+        System.out.printf("  %-24s %.1f MiB%n", "Saved by shared readings",
+                SensorStore.getSharedReadingBytes() / MEBIBYTE);
+    }
+
+    /**
+     * Prints the command line usage and exits.
+     */
+    private static void usage() {
+        System.out.println("Usage: [" + LAZY_OPTION + "] ["
+                + PER_BUILDING_OPTION + "] [" + SPEED_OPTION
+                + " minutesPerSecond] [" + SAMPLE_OPTION + " minutes] ["
+                + READINGS_OPTION + " heap|direct|mapped] "
+                + "filename minutes output");
+        System.exit(1);
+    }
+}
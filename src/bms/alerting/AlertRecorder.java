@@ -0,0 +1,41 @@
+package bms.alerting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Subscriber that keeps every alert it receives in memory, such as for
+ * showing recent alerts or checking which alerts a scenario raises.
+ */
+public class AlertRecorder implements AlertSubscriber {
+    /**
+     * Alerts received, in order.
+     */
+    private final List<HazardAlert> alerts = new ArrayList<>();
+
+    /**
+     * Records the alert.
+     *
+     * @param alert alert published
+     */
+    @Override
+    public synchronized void onAlert(HazardAlert alert) {
+        this.alerts.add(alert);
+    }
+
+    /**
+     * Returns a new list of the alerts received so far, in order.
+     *
+     * @return alerts received
+     */
+    public synchronized List<HazardAlert> getAlerts() {
+        return new ArrayList<>(this.alerts);
+    }
+
+    /**
+     * Forgets every alert received so far.
+     */
+    public synchronized void clear() {
+        this.alerts.clear();
+    }
+}
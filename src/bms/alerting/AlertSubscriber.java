@@ -0,0 +1,17 @@
+package bms.alerting;
+
+/**
+ * Receives the alerts published by a {@link HazardAlertMonitor}.
+ */
+public interface AlertSubscriber {
+    /**
+     * Called once for each alert, in the order the alerts were detected.
+     * <p>
+     * Alerts are delivered on the thread delivering the monitor's queue,
+     * never on the thread elapsing time, so a slow subscriber does not hold
+     * up the simulation.
+     *
+     * @param alert alert published
+     */
+    void onAlert(HazardAlert alert);
+}
@@ -0,0 +1,151 @@
+package bms.alerting;
+
+import bms.room.RoomType;
+
+/**
+ * A rule for when hazard levels across a floor or building are high enough
+ * to evacuate it.
+ * <p>
+ * A policy trips when more than a given percentage of the rooms in its
+ * scope have a hazard level above a given level; for example, more than 30%
+ * of the rooms on a floor above 75. Rooms without a hazard evaluator count
+ * as having a hazard level of 0.
+ */
+public final class EscalationPolicy {
+    /**
+     * Part of the building the policy looks at.
+     */
+    private final EscalationScope scope;
+
+    /**
+     * Hazard level rooms must be above to count towards the policy.
+     */
+    private final int hazardLevel;
+
+    /**
+     * Percentage of rooms that must be above the hazard level to trip.
+     */
+    private final int percentage;
+
+    /**
+     * Type of room to evacuate when tripped; null for all rooms.
+     */
+    private final RoomType roomType;
+
+    /**
+     * Creates a new policy that evacuates every room in its scope when
+     * tripped.
+     *
+     * @param scope       part of the building the policy looks at
+     * @param hazardLevel hazard level rooms must be above to count
+     * @param percentage  percentage of the rooms in the scope that must be
+     *                    above the hazard level for the policy to trip
+     * @throws IllegalArgumentException if hazardLevel is negative, or
+     *                                  percentage is not between 0 and 100
+     *                                  inclusive
+     */
+    public EscalationPolicy(EscalationScope scope, int hazardLevel,
+                            int percentage) throws IllegalArgumentException {
+        this(scope, hazardLevel, percentage, null);
+    }
+
+    /**
+     * Creates a new policy that evacuates the rooms of the given type in its
+     * scope when tripped.
+     *
+     * @param scope       part of the building the policy looks at
+     * @param hazardLevel hazard level rooms must be above to count
+     * @param percentage  percentage of the rooms in the scope that must be
+     *                    above the hazard level for the policy to trip
+     * @param roomType    type of room to evacuate; null for all rooms
+     * @throws IllegalArgumentException if hazardLevel is negative, or
+     *                                  percentage is not between 0 and 100
+     *                                  inclusive
+     */
+    public EscalationPolicy(EscalationScope scope, int hazardLevel,
+                            int percentage, RoomType roomType)
+            throws IllegalArgumentException {
+        if (hazardLevel < 0) {
+            throw new IllegalArgumentException(
+                    "Hazard level must not be negative");
+        }
+        if (percentage < 0 || percentage > 100) {
+            throw new IllegalArgumentException(
+                    "Percentage must be between 0 and 100");
+        }
+        this.scope = scope;
+        this.hazardLevel = hazardLevel;
+        this.percentage = percentage;
+        this.roomType = roomType;
+    }
+
+    /**
+     * Returns the part of the building the policy looks at.
+     *
+     * @return scope of the policy
+     */
+    public EscalationScope getScope() {
+        return this.scope;
+    }
+
+    /**
+     * Returns the hazard level rooms must be above to count towards the
+     * policy.
+     *
+     * @return hazard level
+     */
+    public int getHazardLevel() {
+        return this.hazardLevel;
+    }
+
+    /**
+     * Returns the percentage of rooms that must be above the hazard level
+     * for the policy to trip.
+     *
+     * @return percentage of rooms
+     */
+    public int getPercentage() {
+        return this.percentage;
+    }
+
+    /**
+     * Returns the type of room evacuated when the policy trips.
+     *
+     * @return type of room to evacuate; null for all rooms
+     */
+    public RoomType getRoomType() {
+        return this.roomType;
+    }
+
+    /**
+     * Returns whether the policy trips with the given number of rooms above
+     * its hazard level, out of the given number of rooms in its scope.
+     *
+     * @param above number of rooms above the hazard level
+     * @param rooms number of rooms in the scope
+     * @return true if more than the policy's percentage of rooms are above
+     * its hazard level
+     */
+    public boolean trips(int above, int rooms) {
+        return (long) above * 100 > (long) this.percentage * rooms;
+    }
+
+    /**
+     * Returns the human-readable string representation of this policy.
+     * <p>
+     * The format of the string to return is
+     * "Scope: over percentage% of rooms above hazardLevel[ (roomType)]"
+     * where the room type is only given if the policy evacuates a single
+     * type of room.
+     * <p>
+     * For example: "FLOOR: over 30% of rooms above 75"
+     *
+     * @return string representation of this policy
+     */
+    @Override
+    public String toString() {
+        return this.scope + ": over " + this.percentage + "% of rooms above "
+                + this.hazardLevel
+                + (this.roomType == null ? "" : " (" + this.roomType + ")");
+    }
+}
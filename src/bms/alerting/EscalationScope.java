@@ -0,0 +1,12 @@
+package bms.alerting;
+
+/**
+ * Enum to represent the part of a building an escalation policy looks at,
+ * and evacuates when it trips.
+ */
+public enum EscalationScope {
+    /** Each floor of the building on its own */
+    FLOOR,
+    /** The whole building */
+    BUILDING
+}
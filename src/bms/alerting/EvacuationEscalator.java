@@ -0,0 +1,468 @@
+package bms.alerting;
+
+import bms.building.Building;
+import bms.exceptions.FireDrillException;
+import bms.floor.Floor;
+import bms.hazardevaluation.HazardEvaluator;
+import bms.hazardevaluation.HazardListener;
+import bms.hazardevaluation.IncrementalHazardEvaluator;
+import bms.room.Room;
+import bms.util.FireDrill;
+import bms.util.TimedItem;
+import bms.util.TimedItemManager;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evacuates floors and buildings automatically when their rooms' hazard
+ * levels trip an escalation policy.
+ * <p>
+ * For each watched building, the escalator counts the rooms on each floor,
+ * and in the whole building, that are above each policy's hazard level.
+ * The counts are kept up to date by listening to the rooms' hazard
+ * evaluators (see {@link HazardListener}), so only rooms whose level
+ * changed are looked at. Once attached to a timed item manager (see
+ * {@link #attach(TimedItemManager)}), the escalator checks the policies of
+ * each floor and building whose counts changed every minute, after the
+ * manager's other items have been elapsed. When a policy trips, its floor
+ * or building starts a fire drill (see {@link FireDrill}) in the policy's
+ * rooms.
+ * <p>
+ * A policy evacuates only when it starts to hold; it is not repeated each
+ * minute while the policy still holds, so a drill cancelled by hand stays
+ * cancelled until the policy stops holding and trips again. Evacuations
+ * are never cancelled automatically.
+ * <p>
+ * Watching a building turns on its incremental hazards (see
+ * {@link Building#setIncrementalHazards(boolean)}), which must stay on for
+ * the escalator to see changes. The escalator follows the floors, rooms and
+ * hazard evaluators the building had when it was watched; a building whose
+ * layout or evaluators have since changed should be watched again.
+ */
+public class EvacuationEscalator implements TimedItem, HazardListener {
+    /**
+     * Policies checked, in the order they were given.
+     */
+    private final EscalationPolicy[] policies;
+
+    /**
+     * State of each watched building.
+     */
+    private final Map<Building, Watched> watched = new IdentityHashMap<>();
+
+    /**
+     * Room followed by each hazard evaluator listened to.
+     */
+    private final Map<HazardEvaluator, Followed> followed =
+            new IdentityHashMap<>();
+
+    /**
+     * Watched buildings with floors whose counts changed since the last
+     * check.
+     */
+    private final List<Watched> changed = new ArrayList<>();
+
+    /**
+     * Number of evacuations started.
+     */
+    private long evacuations;
+
+    /**
+     * Manager this escalator is registered with; null if not attached.
+     * <p>
+     * Attaching and detaching lock this field's lock rather than the
+     * escalator, since the manager calls {@link #elapseOneMinute()} while
+     * holding its own lock.
+     */
+    private volatile TimedItemManager manager;
+
+    /**
+     * Lock held while attaching to or detaching from a manager.
+     */
+    private final Object attachLock = new Object();
+
+    /**
+     * Counts kept for a watched building.
+     */
+    private static final class Watched {
+        /**
+         * Building watched.
+         */
+        private final Building building;
+
+        /**
+         * Floors of the building when it was watched.
+         */
+        private final Floor[] floors;
+
+        /**
+         * Number of rooms on each floor.
+         */
+        private final int[] rooms;
+
+        /**
+         * Number of rooms in the building.
+         */
+        private int totalRooms;
+
+        /**
+         * Number of rooms above each policy's hazard level, by policy and
+         * then floor.
+         */
+        private final int[][] above;
+
+        /**
+         * Number of rooms in the building above each policy's hazard level.
+         */
+        private final int[] totalAbove;
+
+        /**
+         * Whether each policy held on each floor when last checked, by
+         * policy and then floor.
+         */
+        private final boolean[][] holding;
+
+        /**
+         * Whether each policy held across the building when last checked.
+         */
+        private final boolean[] totalHolding;
+
+        /**
+         * Whether each floor's counts changed since the last check.
+         */
+        private final boolean[] floorChanged;
+
+        /**
+         * Indices of the floors whose counts changed since the last check.
+         */
+        private int[] changedFloors;
+
+        /**
+         * Number of floors whose counts changed since the last check.
+         */
+        private int changedCount;
+
+        /**
+         * Creates the counts for a building with the given floors, with no
+         * rooms counted.
+         *
+         * @param building building watched
+         * @param floors   floors of the building
+         * @param policies number of policies
+         */
+        private Watched(Building building, Floor[] floors, int policies) {
+            this.building = building;
+            this.floors = floors;
+            this.rooms = new int[floors.length];
+            this.above = new int[policies][floors.length];
+            this.totalAbove = new int[policies];
+            this.holding = new boolean[policies][floors.length];
+            this.totalHolding = new boolean[policies];
+            this.floorChanged = new boolean[floors.length];
+            this.changedFloors = new int[floors.length];
+        }
+
+        /**
+         * Records that the counts of the given floor changed.
+         *
+         * @param floor index of the floor
+         * @return true if no floor of the building had changed since the
+         * last check
+         */
+        private boolean floorChanged(int floor) {
+            if (this.floorChanged[floor]) {
+                return false;
+            }
+            this.floorChanged[floor] = true;
+            this.changedFloors[this.changedCount++] = floor;
+            return this.changedCount == 1;
+        }
+    }
+
+    /**
+     * A room followed through its hazard evaluator.
+     */
+    private static final class Followed {
+        /**
+         * Building the room is in.
+         */
+        private final Watched watched;
+
+        /**
+         * Index of the floor the room is on.
+         */
+        private final int floor;
+
+        /**
+         * Hazard level the room is counted at.
+         */
+        private int level;
+
+        /**
+         * Creates a followed room, not yet counted.
+         *
+         * @param watched building the room is in
+         * @param floor   index of the floor the room is on
+         */
+        private Followed(Watched watched, int floor) {
+            this.watched = watched;
+            this.floor = floor;
+        }
+    }
+
+    /**
+     * Creates a new escalator checking the given policies, watching no
+     * buildings.
+     *
+     * @param policies policies to check
+     */
+    public EvacuationEscalator(List<EscalationPolicy> policies) {
+        this.policies = policies.toArray(new EscalationPolicy[0]);
+    }
+
+    /**
+     * Returns the policies checked by this escalator.
+     *
+     * @return policies checked
+     */
+    public List<EscalationPolicy> getPolicies() {
+        return new ArrayList<>(List.of(this.policies));
+    }
+
+    /**
+     * Starts watching the rooms of the given building, or starts over with
+     * its current floors and rooms if already watched.
+     * <p>
+     * Every floor and the building are checked against the policies at the
+     * next check.
+     *
+     * @param building building to watch
+     * @throws IllegalStateException if the building's incremental hazards
+     *                               cannot be turned on
+     */
+    public void watch(Building building) {
+        unwatch(building);
+        building.setIncrementalHazards(true);
+        Floor[] floors = building.getFloors().toArray(new Floor[0]);
+        synchronized (this) {
+            Watched state = new Watched(building, floors,
+                    this.policies.length);
+            this.watched.put(building, state);
+            for (int floor = 0; floor < floors.length; floor++) {
+                for (Room room : floors[floor].getRooms()) {
+                    state.rooms[floor]++;
+                    state.totalRooms++;
+                    HazardEvaluator evaluator = room.getHazardEvaluator();
+                    if (evaluator instanceof IncrementalHazardEvaluator) {
+                        Followed entry = new Followed(state, floor);
+                        this.followed.put(evaluator, entry);
+                        ((IncrementalHazardEvaluator) evaluator)
+                                .addHazardListener(this);
+                        count(entry, evaluator.evaluateHazardLevel());
+                    }
+                }
+                if (state.floorChanged(floor)) {
+                    this.changed.add(state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops watching the given building, if watched.
+     * <p>
+     * Its incremental hazards are left on.
+     *
+     * @param building building to stop watching
+     */
+    public synchronized void unwatch(Building building) {
+        Watched state = this.watched.remove(building);
+        if (state == null) {
+            return;
+        }
+        this.changed.remove(state);
+        this.followed.entrySet().removeIf(entry -> {
+            if (entry.getValue().watched != state) {
+                return false;
+            }
+            ((IncrementalHazardEvaluator) entry.getKey())
+                    .removeHazardListener(this);
+            return true;
+        });
+    }
+
+    /**
+     * Moves a followed room's counts to the given hazard level.
+     *
+     * @param entry room to count
+     * @param level room's new hazard level
+     * @return true if the room's counts on any policy changed
+     */
+    private boolean count(Followed entry, int level) {
+        Watched state = entry.watched;
+        boolean changed = false;
+        for (int i = 0; i < this.policies.length; i++) {
+            int threshold = this.policies[i].getHazardLevel();
+            boolean wasAbove = entry.level > threshold;
+            boolean isAbove = level > threshold;
+            if (wasAbove != isAbove) {
+                int delta = isAbove ? 1 : -1;
+                state.above[i][entry.floor] += delta;
+                state.totalAbove[i] += delta;
+                changed = true;
+            }
+        }
+        entry.level = level;
+        return changed;
+    }
+
+    /**
+     * Updates the counts of the room followed through the given evaluator.
+     * <p>
+     * The level is read from the evaluator rather than taken from the
+     * arguments, since notifications from different threads may arrive out
+     * of order; whichever arrives last sees the latest level.
+     *
+     * @param evaluator evaluator whose hazard level changed
+     * @param previous  previous hazard level
+     * @param level     new hazard level
+     */
+    @Override
+    public synchronized void hazardLevelChanged(HazardEvaluator evaluator,
+                                                int previous, int level) {
+        Followed entry = this.followed.get(evaluator);
+        if (entry == null) {
+            return;
+        }
+        int current = evaluator.evaluateHazardLevel();
+        if (current != entry.level && count(entry, current)
+                && entry.watched.floorChanged(entry.floor)) {
+            this.changed.add(entry.watched);
+        }
+    }
+
+    /**
+     * Returns the number of evacuations this escalator has started.
+     *
+     * @return number of evacuations started
+     */
+    public synchronized long getEvacuationCount() {
+        return this.evacuations;
+    }
+
+    /**
+     * Registers this escalator with the given timed item manager, so that
+     * it checks its policies every minute elapsed on the manager.
+     * <p>
+     * An escalator is attached to at most one manager at a time; attaching
+     * it to another manager detaches it from the first.
+     *
+     * @param manager manager elapsing the sensors of the watched buildings
+     */
+    public void attach(TimedItemManager manager) {
+        synchronized (this.attachLock) {
+            if (manager == this.manager) {
+                return;
+            }
+            detach();
+            manager.registerTimedItem(this);
+            this.manager = manager;
+        }
+    }
+
+    /**
+     * Unregisters this escalator from its timed item manager, if attached.
+     */
+    public void detach() {
+        synchronized (this.attachLock) {
+            if (this.manager != null) {
+                this.manager.unregisterTimedItem(this);
+                this.manager = null;
+            }
+        }
+    }
+
+    /**
+     * Checks the policies of the floors and buildings whose counts changed,
+     * as the manager this escalator is attached to has just elapsed a
+     * minute.
+     */
+    @Override
+    public void elapseOneMinute() {
+        check();
+    }
+
+    /**
+     * Returns true, since the escalator follows the hazard levels of
+     * sensors elapsed by the same manager.
+     *
+     * @return true
+     */
+    @Override
+    public boolean readsOtherTimedItems() {
+        return true;
+    }
+
+    /**
+     * Checks the policies of every floor and building whose counts changed
+     * since the last check, and evacuates those where a policy has started
+     * to hold.
+     *
+     * @return number of evacuations started
+     */
+    public synchronized int check() {
+        int started = 0;
+        for (Watched state : this.changed) {
+            for (int i = 0; i < this.policies.length; i++) {
+                EscalationPolicy policy = this.policies[i];
+                if (policy.getScope() == EscalationScope.BUILDING) {
+                    boolean holds = policy.trips(state.totalAbove[i],
+                            state.totalRooms);
+                    if (holds && !state.totalHolding[i]
+                            && evacuate(state.building, policy)) {
+                        started++;
+                    }
+                    state.totalHolding[i] = holds;
+                    continue;
+                }
+                for (int j = 0; j < state.changedCount; j++) {
+                    int floor = state.changedFloors[j];
+                    boolean holds = policy.trips(state.above[i][floor],
+                            state.rooms[floor]);
+                    if (holds && !state.holding[i][floor]
+                            && evacuate(state.floors[floor], policy)) {
+                        started++;
+                    }
+                    state.holding[i][floor] = holds;
+                }
+            }
+            for (int j = 0; j < state.changedCount; j++) {
+                state.floorChanged[state.changedFloors[j]] = false;
+            }
+            state.changedCount = 0;
+        }
+        this.changed.clear();
+        this.evacuations += started;
+        return started;
+    }
+
+    /**
+     * Starts a fire drill in the rooms of the given policy's type.
+     *
+     * @param target floor or building to evacuate
+     * @param policy policy that tripped
+     * @return true if the fire drill was started
+     */
+    private boolean evacuate(FireDrill target, EscalationPolicy policy) {
+        try {
+            target.fireDrill(policy.getRoomType());
+            return true;
+        } catch (FireDrillException e) {
+            // The building has no rooms to evacuate
+            return false;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package bms.alerting;
+
+import bms.room.Room;
+import bms.sensors.HazardSensor;
+
+/**
+ * An alert that a room's hazard level, or the hazard level of one of its
+ * sensors, has crossed an alerting threshold.
+ * <p>
+ * Alerts are raised when a level reaches the raise threshold of a
+ * {@link HazardAlertMonitor}, and cleared when it falls back below the
+ * clear threshold.
+ */
+public final class HazardAlert {
+    /**
+     * Room the alert is about.
+     */
+    private final Room room;
+
+    /**
+     * Sensor whose level crossed the threshold; null if the room's hazard
+     * evaluator did.
+     */
+    private final HazardSensor sensor;
+
+    /**
+     * Whether the alert was raised, rather than cleared.
+     */
+    private final boolean raised;
+
+    /**
+     * Hazard level that crossed the threshold.
+     */
+    private final int level;
+
+    /**
+     * Minute of the timed item manager at which the crossing was detected.
+     */
+    private final long minute;
+
+    /**
+     * Creates a new alert.
+     *
+     * @param room   room the alert is about
+     * @param sensor sensor whose level crossed the threshold; null for the
+     *               room's hazard evaluator
+     * @param raised true if the alert was raised, false if it was cleared
+     * @param level  hazard level that crossed the threshold
+     * @param minute minute at which the crossing was detected
+     */
+    public HazardAlert(Room room, HazardSensor sensor, boolean raised,
+                       int level, long minute) {
+        this.room = room;
+        this.sensor = sensor;
+        this.raised = raised;
+        this.level = level;
+        this.minute = minute;
+    }
+
+    /**
+     * Returns the room the alert is about.
+     *
+     * @return room
+     */
+    public Room getRoom() {
+        return this.room;
+    }
+
+    /**
+     * Returns the sensor whose hazard level crossed the threshold, or null
+     * if the room's hazard evaluator did.
+     *
+     * @return sensor, or null
+     */
+    public HazardSensor getSensor() {
+        return this.sensor;
+    }
+
+    /**
+     * Returns whether the alert was raised, rather than cleared.
+     *
+     * @return true if raised, false if cleared
+     */
+    public boolean isRaised() {
+        return this.raised;
+    }
+
+    /**
+     * Returns the hazard level that crossed the threshold.
+     *
+     * @return hazard level
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Returns the minute of the timed item manager at which the crossing
+     * was detected.
+     *
+     * @return minute of the crossing
+     */
+    public long getMinute() {
+        return this.minute;
+    }
+
+    /**
+     * Returns the human-readable string representation of this alert.
+     * <p>
+     * The format of the string to return is
+     * "minute: RAISED|CLEARED room roomNumber source level level", where
+     * 'source' is the sensor's simple class name, or "HazardEvaluator" for
+     * the room's hazard evaluator.
+     * <p>
+     * For example: "1440: RAISED room 102 NoiseSensor level 100"
+     *
+     * @return string representation of this alert
+     */
+    @Override
+    public String toString() {
+        return this.minute + ": " + (this.raised ? "RAISED" : "CLEARED")
+                + " room " + this.room.getRoomNumber() + " "
+                + (this.sensor == null ? "HazardEvaluator"
+                : this.sensor.getClass().getSimpleName())
+                + " level " + this.level;
+    }
+}
@@ -0,0 +1,468 @@
+package bms.alerting;
+
+import bms.building.Building;
+import bms.floor.Floor;
+import bms.hazardevaluation.HazardEvaluator;
+import bms.room.Room;
+import bms.sensors.HazardSensor;
+import bms.sensors.Sensor;
+import bms.util.TimedItem;
+import bms.util.TimedItemManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the hazard levels of rooms and their sensors, and publishes an
+ * alert whenever one crosses an alerting threshold.
+ * <p>
+ * Each room's hazard evaluator and each of its hazard sensors is a source of
+ * alerts. Once attached to a timed item manager (see
+ * {@link #attach(TimedItemManager)}), the monitor checks every source each
+ * minute, after the manager's other items have been elapsed. A source's
+ * alert is raised when its level reaches the raise threshold, and cleared
+ * only once it falls below the (lower or equal) clear threshold, so a level
+ * hovering around one threshold does not raise and clear over and over. A
+ * crossing must also hold for the debounce period, a number of consecutive
+ * checks, before the alert changes, so a flapping sensor is ignored until it
+ * settles.
+ * <p>
+ * Alerts are put on a bounded queue, and delivered to subscribers either by
+ * a dispatcher thread (see {@link #start()}) or on request (see
+ * {@link #deliverPending()}). Checking never waits for subscribers: if the
+ * queue is full, the alert is dropped and counted (see
+ * {@link #getDroppedCount()}). The state of each source is kept in primitive
+ * arrays, so a check only allocates when it publishes an alert. Rooms in
+ * buildings with incremental hazards (see
+ * {@link Building#setIncrementalHazards(boolean)}) are checked without
+ * reading their sensors at all.
+ * <p>
+ * A monitor follows the rooms and sensors it was given when they were
+ * watched; rooms given a new hazard evaluator are checked using the new
+ * one. A monitor should be attached to the manager elapsing the rooms it
+ * watches, so with one manager per building (see
+ * {@link bms.simulation.BuildingExecutor}) each building needs its own
+ * monitor.
+ */
+public class HazardAlertMonitor implements TimedItem, AutoCloseable {
+    /**
+     * Hazard level at or above which an alert is raised.
+     */
+    private final int raiseLevel;
+
+    /**
+     * Hazard level below which a raised alert is cleared.
+     */
+    private final int clearLevel;
+
+    /**
+     * Number of consecutive checks a crossing must hold for before the
+     * alert changes.
+     */
+    private final int debounceChecks;
+
+    /**
+     * Room of each source.
+     */
+    private Room[] rooms = new Room[0];
+
+    /**
+     * Sensor of each source; null for a room's hazard evaluator.
+     */
+    private HazardSensor[] sensors = new HazardSensor[0];
+
+    /**
+     * Whether each source's alert is currently raised.
+     */
+    private boolean[] alerting = new boolean[0];
+
+    /**
+     * Number of consecutive checks for which each source has been on the
+     * other side of its threshold.
+     */
+    private int[] pending = new int[0];
+
+    /**
+     * Number of sources.
+     */
+    private int count;
+
+    /**
+     * Alerts waiting to be delivered.
+     */
+    private final BlockingQueue<HazardAlert> queue;
+
+    /**
+     * Number of alerts dropped because the queue was full.
+     */
+    private long dropped;
+
+    /**
+     * Number of times a subscriber threw an exception when given an alert.
+     */
+    private final AtomicLong failedDeliveries = new AtomicLong();
+
+    /**
+     * Subscribers alerts are delivered to.
+     */
+    private final List<AlertSubscriber> subscribers =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Manager this monitor is registered with; null if not attached.
+     * <p>
+     * Attaching and detaching lock this field's lock rather than the
+     * monitor, since the manager calls {@link #elapseOneMinute()} while
+     * holding its own lock.
+     */
+    private volatile TimedItemManager manager;
+
+    /**
+     * Lock held while attaching to or detaching from a manager.
+     */
+    private final Object attachLock = new Object();
+
+    /**
+     * Thread delivering alerts as they are queued; null if not started.
+     */
+    private Thread dispatcher;
+
+    /**
+     * Creates a new monitor with the given thresholds, watching nothing.
+     *
+     * @param raiseLevel     hazard level at or above which an alert is
+     *                       raised
+     * @param clearLevel     hazard level below which a raised alert is
+     *                       cleared
+     * @param debounceChecks number of consecutive checks a crossing must
+     *                       hold for before the alert changes
+     * @param queueCapacity  maximum number of alerts waiting to be delivered
+     * @throws IllegalArgumentException if clearLevel is greater than
+     *                                  raiseLevel, or debounceChecks or
+     *                                  queueCapacity is less than 1
+     */
+    public HazardAlertMonitor(int raiseLevel, int clearLevel,
+                              int debounceChecks, int queueCapacity)
+            throws IllegalArgumentException {
+        if (clearLevel > raiseLevel) {
+            throw new IllegalArgumentException(
+                    "Clear level must not be above the raise level");
+        }
+        if (debounceChecks < 1) {
+            throw new IllegalArgumentException(
+                    "Debounce period must be at least one check");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "Queue capacity must be at least 1");
+        }
+        this.raiseLevel = raiseLevel;
+        this.clearLevel = clearLevel;
+        this.debounceChecks = debounceChecks;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Starts watching every room in the given building.
+     *
+     * @param building building whose rooms to watch
+     */
+    public void watch(Building building) {
+        for (Floor floor : building.getFloors()) {
+            for (Room room : floor.getRooms()) {
+                watch(room);
+            }
+        }
+    }
+
+    /**
+     * Starts watching the given room's hazard evaluator and each of its
+     * hazard sensors.
+     * <p>
+     * Their alerts start out cleared.
+     *
+     * @param room room to watch
+     */
+    public synchronized void watch(Room room) {
+        addSource(room, null);
+        for (Sensor sensor : room.getSensors()) {
+            if (sensor instanceof HazardSensor) {
+                addSource(room, (HazardSensor) sensor);
+            }
+        }
+    }
+
+    /**
+     * Adds a source of alerts.
+     *
+     * @param room   room of the source
+     * @param sensor sensor of the source; null for the room's hazard
+     *               evaluator
+     */
+    private void addSource(Room room, HazardSensor sensor) {
+        if (this.count == this.rooms.length) {
+            int capacity = Math.max(16, this.count * 2);
+            this.rooms = Arrays.copyOf(this.rooms, capacity);
+            this.sensors = Arrays.copyOf(this.sensors, capacity);
+            this.alerting = Arrays.copyOf(this.alerting, capacity);
+            this.pending = Arrays.copyOf(this.pending, capacity);
+        }
+        this.rooms[this.count] = room;
+        this.sensors[this.count] = sensor;
+        this.count++;
+    }
+
+    /**
+     * Returns the number of sources being watched: one for each room's
+     * hazard evaluator, and one for each hazard sensor.
+     *
+     * @return number of sources
+     */
+    public synchronized int getSourceCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the number of sources whose alert is currently raised.
+     *
+     * @return number of raised alerts
+     */
+    public synchronized int getRaisedCount() {
+        int raised = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.alerting[i]) {
+                raised++;
+            }
+        }
+        return raised;
+    }
+
+    /**
+     * Adds a subscriber to deliver alerts to.
+     *
+     * @param subscriber subscriber to add
+     */
+    public void subscribe(AlertSubscriber subscriber) {
+        this.subscribers.add(subscriber);
+    }
+
+    /**
+     * Removes a subscriber added with {@link #subscribe(AlertSubscriber)}.
+     *
+     * @param subscriber subscriber to remove
+     */
+    public void unsubscribe(AlertSubscriber subscriber) {
+        this.subscribers.remove(subscriber);
+    }
+
+    /**
+     * Registers this monitor with the given timed item manager, so that it
+     * checks its sources every minute elapsed on the manager.
+     * <p>
+     * A monitor is attached to at most one manager at a time; attaching it
+     * to another manager detaches it from the first.
+     *
+     * @param manager manager elapsing the rooms watched
+     */
+    public void attach(TimedItemManager manager) {
+        synchronized (this.attachLock) {
+            if (manager == this.manager) {
+                return;
+            }
+            detach();
+            manager.registerTimedItem(this);
+            this.manager = manager;
+        }
+    }
+
+    /**
+     * Unregisters this monitor from its timed item manager, if attached.
+     */
+    public void detach() {
+        synchronized (this.attachLock) {
+            if (this.manager != null) {
+                this.manager.unregisterTimedItem(this);
+                this.manager = null;
+            }
+        }
+    }
+
+    /**
+     * Checks every source, as the manager this monitor is attached to has
+     * just elapsed a minute.
+     */
+    @Override
+    public void elapseOneMinute() {
+        TimedItemManager manager = this.manager;
+        check(manager == null ? 0 : manager.getMinutesElapsed());
+    }
+
+    /**
+     * Returns true, since the monitor reads the hazard levels of sensors
+     * and rooms elapsed by the same manager.
+     *
+     * @return true
+     */
+    @Override
+    public boolean readsOtherTimedItems() {
+        return true;
+    }
+
+    /**
+     * Checks the current hazard level of every source, and queues an alert
+     * for each source whose alert is raised or cleared.
+     *
+     * @param minute minute to record in any alerts
+     */
+    public synchronized void check(long minute) {
+        for (int i = 0; i < this.count; i++) {
+            int level = level(i);
+            boolean crossed = this.alerting[i] ? level < this.clearLevel
+                    : level >= this.raiseLevel;
+            if (!crossed) {
+                this.pending[i] = 0;
+            } else if (++this.pending[i] >= this.debounceChecks) {
+                this.pending[i] = 0;
+                this.alerting[i] = !this.alerting[i];
+                publish(new HazardAlert(this.rooms[i], this.sensors[i],
+                        this.alerting[i], level, minute));
+            }
+        }
+    }
+
+    /**
+     * Returns the current hazard level of a source.
+     *
+     * @param source index of the source
+     * @return hazard level; 0 for a room without a hazard evaluator
+     */
+    private int level(int source) {
+        HazardSensor sensor = this.sensors[source];
+        if (sensor != null) {
+            return sensor.getHazardLevel();
+        }
+        HazardEvaluator evaluator = this.rooms[source].getHazardEvaluator();
+        return evaluator == null ? 0 : evaluator.evaluateHazardLevel();
+    }
+
+    /**
+     * Queues an alert for delivery, or counts it as dropped if the queue is
+     * full.
+     *
+     * @param alert alert to queue
+     */
+    private void publish(HazardAlert alert) {
+        if (!this.queue.offer(alert)) {
+            this.dropped++;
+        }
+    }
+
+    /**
+     * Returns the number of alerts dropped because the queue was full when
+     * they were detected.
+     *
+     * @return number of alerts dropped
+     */
+    public synchronized long getDroppedCount() {
+        return this.dropped;
+    }
+
+    /**
+     * Delivers every queued alert to the subscribers on the calling thread.
+     * <p>
+     * This should not be used while a dispatcher thread is running (see
+     * {@link #start()}), which delivers alerts itself.
+     *
+     * @return number of alerts delivered
+     */
+    public int deliverPending() {
+        int delivered = 0;
+        HazardAlert alert;
+        while ((alert = this.queue.poll()) != null) {
+            deliver(alert);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Returns the number of times a subscriber threw an exception when given
+     * an alert.
+     *
+     * @return number of failed deliveries
+     */
+    public long getFailedDeliveryCount() {
+        return this.failedDeliveries.get();
+    }
+
+    /**
+     * Starts a daemon thread delivering alerts to the subscribers as soon
+     * as they are queued. Does nothing if the thread is already running.
+     */
+    public synchronized void start() {
+        if (this.dispatcher != null && this.dispatcher.isAlive()) {
+            return;
+        }
+        this.dispatcher = new Thread(() -> {
+            try {
+                while (true) {
+                    deliver(this.queue.take());
+                }
+            } catch (InterruptedException e) {
+                // Stopped by close()
+            }
+        }, "bms-alerts");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Delivers an alert to every subscriber.
+     * <p>
+     * A subscriber that throws is reported and counted (see
+     * {@link #getFailedDeliveryCount()}), and does not stop the alert from
+     * reaching the other subscribers, or later alerts from being delivered.
+     *
+     * @param alert alert to deliver
+     */
+    private void deliver(HazardAlert alert) {
+        for (AlertSubscriber subscriber : this.subscribers) {
+            try {
+                subscriber.onAlert(alert);
+            } catch (RuntimeException e) {
+                this.failedDeliveries.incrementAndGet();
+                System.err.println("Alert subscriber failed on \"" + alert
+                        + "\": " + e);
+            }
+        }
+    }
+
+    /**
+     * Detaches this monitor from its timed item manager and stops the
+     * dispatcher thread, if running.
+     * <p>
+     * Alerts still queued are left in the queue, and can be delivered with
+     * {@link #deliverPending()}.
+     */
+    @Override
+    public void close() {
+        detach();
+        Thread dispatcher;
+        synchronized (this) {
+            dispatcher = this.dispatcher;
+            this.dispatcher = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            try {
+                dispatcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
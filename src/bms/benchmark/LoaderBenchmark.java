@@ -0,0 +1,278 @@
+package bms.benchmark;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.exceptions.FileFormatException;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Command line benchmark comparing the save file loaders in
+ * {@link BuildingInitialiser}.
+ * <p>
+ * Command line arguments: generate|text|mapped|parallel|lazy|compare
+ * filename [sizeInMB|rounds]
+ * <ul>
+ * <li><code>generate</code> writes a synthetic save file of roughly
+ * <code>sizeInMB</code> megabytes (default 1024, i.e. 1 GB)</li>
+ * <li><code>text</code> loads the file with the line-based loader</li>
+ * <li><code>mapped</code> loads the file with the memory-mapped loader</li>
+ * <li><code>parallel</code> loads the file with the parallel, per-building
+ * loader</li>
+ * <li><code>lazy</code> indexes the file with the lazy loader, then loads
+ * the first building on its own</li>
+ * <li><code>compare</code> loads the file with the line-based and the
+ * memory-mapped loaders side by side, <code>rounds</code> times each
+ * (default 3), checks that they load the same buildings, and prints the
+ * time each took</li>
+ * </ul>
+ * Apart from <code>compare</code>, which discards the buildings it loads
+ * between rounds, each loader should be run in its own JVM, since every
+ * sensor loaded stays registered with the timed item manager. A 1 GB file
+ * needs a heap of several gigabytes, e.g. <code>-Xmx8g</code>, and twice
+ * that to compare the loaders.
+ */
+public class LoaderBenchmark {
+    /**
+     * Floors generated per building.
+     */
+    private static final int FLOORS = 10;
+    /**
+     * Rooms generated per floor.
+     */
+    private static final int ROOMS = 40;
+    /**
+     * Readings generated per sensor.
+     */
+    private static final int READINGS = 200;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command line arguments
+     * @throws IOException         if the file cannot be written or read
+     * @throws FileFormatException if the file is not a valid save file
+     */
+    public static void main(String[] args)
+            throws IOException, FileFormatException {
+        if (args.length < 2) {
+            System.out.println("Usage: generate|text|mapped|parallel|lazy"
+                    + "|compare filename [sizeInMB|rounds]");
+            System.exit(1);
+        }
+        String filename = args[1];
+        switch (args[0]) {
+            case "generate":
+                long megabytes = args.length > 2
+                        ? Long.parseLong(args[2]) : 1024;
+                generate(filename, megabytes * 1024 * 1024);
+                break;
+            case "text":
+                report("text", filename, System.nanoTime(),
+                        BuildingInitialiser.loadBuildings(filename));
+                break;
+            case "mapped":
+                report("mapped", filename, System.nanoTime(),
+                        BuildingInitialiser.loadBuildingsMapped(filename));
+                break;
+            case "parallel":
+                report("parallel", filename, System.nanoTime(),
+                        BuildingInitialiser.loadBuildingsParallel(filename));
+                break;
+            case "lazy":
+                long indexStart = System.nanoTime();
+                List<Building> buildings = BuildingInitialiser
+                        .loadBuildingsLazy(filename);
+                report("lazy", filename, indexStart, buildings);
+                if (!buildings.isEmpty()) {
+                    long loadStart = System.nanoTime();
+                    buildings.get(0).load();
+                    report("lazy (first building)", filename, loadStart,
+                            buildings);
+                }
+                break;
+            case "compare":
+                compare(filename, args.length > 2
+                        ? Integer.parseInt(args[2]) : 3);
+                break;
+            default:
+                System.out.println("Unknown mode: " + args[0]);
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Times the line-based and memory-mapped loaders on the same file.
+     * <p>
+     * The loaders take turns going first, so that neither always runs with
+     * a colder file cache or a fuller heap. The buildings loaded are
+     * compared on the first round, and discarded after every round.
+     *
+     * @param filename file to load
+     * @param rounds   number of times to load the file with each loader
+     * @throws IOException         if the file cannot be read
+     * @throws FileFormatException if the file is not a valid save file
+     */
+    private static void compare(String filename, int rounds)
+            throws IOException, FileFormatException {
+        long bestText = Long.MAX_VALUE;
+        long bestMapped = Long.MAX_VALUE;
+        for (int round = 1; round <= rounds; round++) {
+            long textMillis = 0;
+            long mappedMillis = 0;
+            List<Building> text = null;
+            List<Building> mapped = null;
+            for (int turn = 0; turn < 2; turn++) {
+                long start = System.nanoTime();
+                if ((turn == 0) == (round % 2 == 1)) {
+                    text = BuildingInitialiser.loadBuildings(filename);
+                    textMillis = (System.nanoTime() - start) / 1_000_000;
+                } else {
+                    mapped = BuildingInitialiser.loadBuildingsMapped(filename);
+                    mappedMillis = (System.nanoTime() - start) / 1_000_000;
+                }
+            }
+            if (round == 1 && !text.equals(mapped)) {
+                System.out.println("The loaders loaded different buildings");
+                System.exit(1);
+            }
+            discard(text);
+            discard(mapped);
+            text = null;
+            mapped = null;
+            System.gc();
+            System.out.printf("round %d: text %d ms, mapped %d ms%n", round,
+                    textMillis, mappedMillis);
+            bestText = Math.min(bestText, textMillis);
+            bestMapped = Math.min(bestMapped, mappedMillis);
+        }
+        System.out.printf("best of %d: text %d ms, mapped %d ms "
+                        + "(mapped is %.2fx as fast)%n", rounds, bestText,
+                bestMapped, (double) bestText / Math.max(1, bestMapped));
+    }
+
+    /**
+     * Unregisters the sensors and schedules of the given buildings, so they
+     * can be garbage collected.
+     *
+     * @param buildings buildings to discard
+     */
+    private static void discard(List<Building> buildings) {
+        for (Building building : buildings) {
+            building.discard();
+        }
+    }
+
+    /**
+     * Prints how long a load took and how much it loaded.
+     *
+     * @param mode      name of the loader used
+     * @param filename  file that was loaded
+     * @param startTime value of System.nanoTime() before loading
+     * @param buildings buildings loaded
+     */
+    private static void report(String mode, String filename, long startTime,
+                               List<Building> buildings) {
+        long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+        int rooms = 0;
+        for (Building building : buildings) {
+            // Buildings that were loaded lazily are not counted until used
+            if (building.isLoaded()) {
+                rooms += building.getFloors().size() * ROOMS;
+            }
+        }
+        System.out.printf("%s: loaded %d buildings (~%d rooms) from %s "
+                        + "in %d ms%n", mode, buildings.size(), rooms,
+                filename, elapsedMillis);
+    }
+
+    /**
+     * Writes a synthetic save file of at least the given size.
+     *
+     * @param filename    file to write
+     * @param targetBytes approximate size of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void generate(String filename, long targetBytes)
+            throws IOException {
+        Random random = new Random(2002);
+        String newline = System.lineSeparator();
+        long written = 0;
+        int buildingNumber = 0;
+        try (BufferedWriter out = new BufferedWriter(
+                new FileWriter(filename), 1 << 16)) {
+            while (written < targetBytes) {
+                StringBuilder building = new StringBuilder();
+                building.append("Synthetic Building ").append(buildingNumber++)
+                        .append(newline).append(FLOORS).append(newline);
+                for (int floor = 1; floor <= FLOORS; floor++) {
+                    building.append(floor).append(":60.00:60.00:")
+                            .append(ROOMS).append(":")
+                            .append(floor * 100).append(",")
+                            .append(floor * 100 + 1).append(newline);
+                    for (int room = 0; room < ROOMS; room++) {
+                        appendRoom(building, floor * 100 + room, room,
+                                random, newline);
+                    }
+                }
+                out.write(building.toString());
+                written += building.length();
+            }
+        }
+        System.out.printf("generated %d buildings (%d MB) in %s%n",
+                buildingNumber, written / (1024 * 1024), filename);
+    }
+
+    /**
+     * Appends a synthetic room and its sensors.
+     *
+     * @param out        builder to append to
+     * @param roomNumber number of the room
+     * @param index      index of the room on its floor
+     * @param random     source of readings
+     * @param newline    line separator
+     */
+    private static void appendRoom(StringBuilder out, int roomNumber,
+                                   int index, Random random, String newline) {
+        String[] types = {"STUDY", "LABORATORY", "OFFICE"};
+        boolean weighted = index % 2 == 0;
+        out.append(roomNumber).append(":").append(types[index % 3])
+                .append(":20.00:4:")
+                .append(weighted ? "WeightingBased" : "RuleBased")
+                .append(newline);
+        out.append("CarbonDioxideSensor:");
+        appendReadings(out, random, 400, 1200);
+        out.append(":5:700:300").append(weighted ? "@25" : "").append(newline);
+        out.append("NoiseSensor:");
+        appendReadings(out, random, 40, 80);
+        out.append(":2").append(weighted ? "@25" : "").append(newline);
+        out.append("OccupancySensor:");
+        appendReadings(out, random, 0, 40);
+        out.append(":3:40").append(weighted ? "@25" : "").append(newline);
+        out.append("TemperatureSensor:");
+        appendReadings(out, random, 18, 30);
+        out.append(weighted ? "@25" : "").append(newline);
+    }
+
+    /**
+     * Appends a comma-separated list of random readings.
+     *
+     * @param out    builder to append to
+     * @param random source of readings
+     * @param min    smallest reading (inclusive)
+     * @param max    largest reading (exclusive)
+     */
+    private static void appendReadings(StringBuilder out, Random random,
+                                       int min, int max) {
+        for (int i = 0; i < READINGS; i++) {
+            if (i > 0) {
+                out.append(",");
+            }
+            out.append(min + random.nextInt(max - min));
+        }
+    }
+}
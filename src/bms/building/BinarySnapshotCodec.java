@@ -0,0 +1,698 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import bms.floor.Floor;
+import bms.floor.MaintenanceSchedule;
+import bms.hazardevaluation.CustomRuleHazardEvaluator;
+import bms.hazardevaluation.HazardEvaluator;
+import bms.hazardevaluation.RuleBasedHazardEvaluator;
+import bms.hazardevaluation.WeightingBasedHazardEvaluator;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.NoiseSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.Sensor;
+import bms.sensors.TemperatureSensor;
+import bms.sensors.TimedSensor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, versioned binary encoding of a list of buildings.
+ * <p>
+ * This is an alternative to the text produced by {@link Building#encode()}
+ * for large snapshots. The structure mirrors the text format record for
+ * record, but:
+ * <ul>
+ * <li>counts, room numbers, attributes and weightings are written as
+ * unsigned (or zig-zag signed) variable-length integers</li>
+ * <li>sensor readings are written as zig-zag varints of the difference from
+ * the previous reading, so slowly changing traces take one byte per
+ * reading</li>
+ * <li>room types, sensor types and hazard evaluator types are written as
+ * small tags (room types by ordinal); a custom hazard rule is followed by
+ * its text</li>
+ * <li>floor dimensions and room areas are written as exact 8-byte doubles,
+ * rather than being rounded to two decimal places</li>
+ * </ul>
+ * Decoded buildings are equal (see {@link Building#equals(Object)}) to the
+ * buildings that were encoded. Decoding applies the same model checks as
+ * {@link BuildingInitialiser}; records are numbered in error messages in the
+ * same way as lines of the equivalent text save file. Counts and lengths
+ * read from a snapshot are not trusted: one that is negative, or larger than
+ * the rest of the snapshot, is reported as a FileFormatException.
+ */
+public class BinarySnapshotCodec {
+    /**
+     * Bytes at the start of every binary snapshot ("BMSB").
+     */
+    private static final int MAGIC = 0x424d5342;
+    /**
+     * Version of the format written by this codec.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size of the buffers used when reading and writing files.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Evaluator tag for a room without a hazard evaluator.
+     */
+    private static final int NO_EVALUATOR = 0;
+    /**
+     * Evaluator tag for a rule based hazard evaluator.
+     */
+    private static final int RULE_BASED = 1;
+    /**
+     * Evaluator tag for a weighting based hazard evaluator.
+     */
+    private static final int WEIGHTING_BASED = 2;
+    /**
+     * Evaluator tag for a custom rule hazard evaluator, followed by the
+     * evaluator's string representation.
+     */
+    private static final int CUSTOM_RULE = 3;
+
+    /**
+     * Sensor simple class names, indexed by sensor tag.
+     */
+    private static final String[] SENSOR_TYPES = {"TemperatureSensor",
+            "NoiseSensor", "OccupancySensor", "CarbonDioxideSensor"};
+
+    /**
+     * Writes a binary snapshot of the given buildings to a file.
+     *
+     * @param buildings buildings to write
+     * @param filename  path of the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(List<Building> buildings, String filename)
+            throws IOException {
+        try (OutputStream out = new FileOutputStream(filename)) {
+            write(buildings, out);
+        }
+    }
+
+    /**
+     * Reads the buildings in a binary snapshot file.
+     *
+     * @param filename path of the file to read
+     * @return buildings in the snapshot, in order
+     * @throws IOException         if the file cannot be read
+     * @throws FileFormatException if the file is not a valid snapshot
+     */
+    public static List<Building> load(String filename)
+            throws IOException, FileFormatException {
+        try (InputStream in = new FileInputStream(filename)) {
+            return read(in, new File(filename).length());
+        }
+    }
+
+    /**
+     * Writes a binary snapshot of the given buildings to a stream.
+     * <p>
+     * The stream is flushed but not closed.
+     *
+     * @param buildings buildings to write
+     * @param stream    stream to write to
+     * @throws IOException if writing to the stream fails
+     */
+    public static void write(List<Building> buildings, OutputStream stream)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        writeVarint(out, VERSION);
+        writeVarint(out, buildings.size());
+        for (Building building : buildings) {
+            byte[] name = building.getName().getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, name.length);
+            out.write(name);
+            List<Floor> floors = building.getFloors();
+            writeVarint(out, floors.size());
+            for (Floor floor : floors) {
+                writeFloor(out, floor);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a floor and its rooms.
+     *
+     * @param out   stream to write to
+     * @param floor floor to write
+     */
+    private static void writeFloor(DataOutputStream out, Floor floor)
+            throws IOException {
+        writeSignedVarint(out, floor.getFloorNumber());
+        out.writeDouble(floor.getWidth());
+        out.writeDouble(floor.getLength());
+        List<Room> rooms = floor.getRooms();
+        writeVarint(out, rooms.size());
+        MaintenanceSchedule schedule = floor.getMaintenanceSchedule();
+        if (schedule == null) {
+            writeVarint(out, 0);
+        } else {
+            List<Room> order = schedule.getRoomOrder();
+            writeVarint(out, order.size());
+            for (Room room : order) {
+                writeSignedVarint(out, room.getRoomNumber());
+            }
+        }
+        for (Room room : rooms) {
+            writeRoom(out, room);
+        }
+    }
+
+    /**
+     * Writes a room and its sensors.
+     *
+     * @param out  stream to write to
+     * @param room room to write
+     */
+    private static void writeRoom(DataOutputStream out, Room room)
+            throws IOException {
+        writeSignedVarint(out, room.getRoomNumber());
+        writeVarint(out, room.getType().ordinal());
+        out.writeDouble(room.getArea());
+
+        HazardEvaluator evaluator = room.getHazardEvaluator();
+        List<Integer> weightings = null;
+        if (evaluator == null) {
+            writeVarint(out, NO_EVALUATOR);
+        } else if (evaluator instanceof RuleBasedHazardEvaluator) {
+            writeVarint(out, RULE_BASED);
+        } else if (evaluator instanceof WeightingBasedHazardEvaluator) {
+            writeVarint(out, WEIGHTING_BASED);
+            weightings = ((WeightingBasedHazardEvaluator) evaluator)
+                    .getWeightings();
+        } else if (evaluator instanceof CustomRuleHazardEvaluator) {
+            writeVarint(out, CUSTOM_RULE);
+            byte[] rule = evaluator.toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, rule.length);
+            out.write(rule);
+        } else {
+            throw new IOException("Cannot write hazard evaluator "
+                    + evaluator + " in room " + room.getRoomNumber());
+        }
+
+        List<Sensor> sensors = room.getSensors();
+        writeVarint(out, sensors.size());
+        for (int i = 0; i < sensors.size(); i++) {
+            writeSensor(out, (TimedSensor) sensors.get(i));
+            if (weightings != null) {
+                writeVarint(out, weightings.get(i));
+            }
+        }
+    }
+
+    /**
+     * Writes a sensor, excluding any weighting.
+     *
+     * @param out    stream to write to
+     * @param sensor sensor to write
+     */
+    private static void writeSensor(DataOutputStream out, TimedSensor sensor)
+            throws IOException {
+        int tag = sensorTag(sensor.getClass().getSimpleName());
+        writeVarint(out, tag);
+        writeVarint(out, sensor.getUpdateFrequency());
+        int count = sensor.getReadingCount();
+        writeVarint(out, count);
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int reading = sensor.getReading(i);
+            writeSignedVarint(out, reading - previous);
+            previous = reading;
+        }
+        if (sensor instanceof OccupancySensor) {
+            writeVarint(out, ((OccupancySensor) sensor).getCapacity());
+        } else if (sensor instanceof CarbonDioxideSensor) {
+            writeVarint(out, ((CarbonDioxideSensor) sensor).getIdealValue());
+            writeVarint(out,
+                    ((CarbonDioxideSensor) sensor).getVariationLimit());
+        }
+    }
+
+    /**
+     * Returns the tag used for the sensor type with the given name.
+     *
+     * @param sensorType simple class name of a sensor
+     * @return index of the type in SENSOR_TYPES
+     * @throws IOException if the sensor type cannot be written
+     */
+    private static int sensorTag(String sensorType) throws IOException {
+        for (int i = 0; i < SENSOR_TYPES.length; i++) {
+            if (SENSOR_TYPES[i].equals(sensorType)) {
+                return i;
+            }
+        }
+        throw new IOException("Cannot write sensor of type " + sensorType);
+    }
+
+    /**
+     * Reads the buildings in a binary snapshot from a stream.
+     *
+     * @param stream stream to read from; read to the end of the snapshot
+     * @return buildings in the snapshot, in order
+     * @throws IOException         if reading from the stream fails
+     * @throws FileFormatException if the data is not a valid snapshot, or is
+     *                             a snapshot of a newer, unsupported version
+     */
+    public static List<Building> read(InputStream stream)
+            throws IOException, FileFormatException {
+        return read(stream, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the buildings in a binary snapshot of known size from a stream.
+     *
+     * @param stream stream to read from; read to the end of the snapshot
+     * @param size   number of bytes in the snapshot, or
+     *               {@link Long#MAX_VALUE} if not known
+     * @return buildings in the snapshot, in order
+     * @throws IOException         if reading from the stream fails
+     * @throws FileFormatException if the data is not a valid snapshot
+     */
+    private static List<Building> read(InputStream stream, long size)
+            throws IOException, FileFormatException {
+        return new Reader(new BufferedInputStream(stream, BUFFER_SIZE),
+                size).readBuildings();
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits per byte.
+     *
+     * @param out   stream to write to
+     * @param value value to write, treated as unsigned
+     */
+    private static void writeVarint(DataOutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Writes a signed variable-length integer using zig-zag encoding, so
+     * values close to zero take few bytes.
+     *
+     * @param out   stream to write to
+     * @param value value to write
+     */
+    private static void writeSignedVarint(DataOutputStream out, int value)
+            throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Stream that counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        /**
+         * Number of bytes read so far.
+         */
+        private long count;
+
+        /**
+         * Creates a stream counting the bytes read from the given stream.
+         *
+         * @param in stream to read from
+         */
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Reads a byte, counting it.
+         *
+         * @return byte read, or -1 at the end of the stream
+         * @throws IOException if reading fails
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return b;
+        }
+
+        /**
+         * Reads bytes into part of an array, counting them.
+         *
+         * @param b   array to read into
+         * @param off index of the first byte to read into
+         * @param len maximum number of bytes to read
+         * @return number of bytes read, or -1 at the end of the stream
+         * @throws IOException if reading fails
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                this.count += read;
+            }
+            return read;
+        }
+
+        /**
+         * Skips bytes, counting them.
+         *
+         * @param n maximum number of bytes to skip
+         * @return number of bytes skipped
+         * @throws IOException if skipping fails
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Decoder state for one snapshot.
+     */
+    private static class Reader {
+        /**
+         * Largest array allocated up front for a length read from a
+         * snapshot of unknown size; longer arrays grow as they are read.
+         */
+        private static final int CHUNK = 1 << 16;
+
+        /**
+         * Stream the snapshot is read from.
+         */
+        private final DataInputStream in;
+        /**
+         * Counts the bytes read from the snapshot.
+         */
+        private final CountingInputStream counter;
+        /**
+         * Number of bytes in the snapshot, or Long.MAX_VALUE if not known.
+         */
+        private final long size;
+        /**
+         * Number of the current record, counted as lines of the equivalent
+         * text save file.
+         */
+        private int record;
+
+        /**
+         * Creates a reader for the snapshot on the given stream.
+         *
+         * @param in   stream to read from
+         * @param size number of bytes in the snapshot, or Long.MAX_VALUE if
+         *             not known
+         */
+        private Reader(InputStream in, long size) {
+            this.counter = new CountingInputStream(in);
+            this.in = new DataInputStream(this.counter);
+            this.size = size;
+        }
+
+        /**
+         * Reads the header and all buildings in the snapshot.
+         *
+         * @return buildings read
+         */
+        private List<Building> readBuildings()
+                throws IOException, FileFormatException {
+            try {
+                if (this.in.readInt() != MAGIC) {
+                    throw new FileFormatException(
+                            "Not a binary building snapshot");
+                }
+                int version = readVarint();
+                if (version != VERSION) {
+                    throw new FileFormatException("Unsupported snapshot "
+                            + "version " + version);
+                }
+                int count = readLength("number of buildings");
+                List<Building> buildings = new ArrayList<>();
+                try {
+                    for (int i = 0; i < count; i++) {
+                        buildings.add(readBuilding());
+                    }
+                } catch (IOException | FileFormatException
+                        | RuntimeException e) {
+                    BuildingInitialiser.discard(buildings);
+                    throw e;
+                }
+                return buildings;
+            } catch (EOFException e) {
+                throw BuildingInitialiser.error(this.record,
+                        "unexpected end of snapshot", e);
+            }
+        }
+
+        /**
+         * Reads a building and its floors.
+         *
+         * @return building read
+         */
+        private Building readBuilding()
+                throws IOException, FileFormatException {
+            this.record++;
+            Building building = new Building(readString("building name"));
+            this.record++;
+            int numFloors = readLength("number of floors");
+            try {
+                for (int i = 0; i < numFloors; i++) {
+                    readFloor(building);
+                }
+            } catch (IOException | FileFormatException | RuntimeException e) {
+                // Stop elapsing the sensors already read
+                building.discard();
+                throw e;
+            }
+            return building;
+        }
+
+        /**
+         * Reads a floor and its rooms, adding the floor to the building.
+         *
+         * @param building building the floor belongs to
+         */
+        private void readFloor(Building building)
+                throws IOException, FileFormatException {
+            int floorRecord = ++this.record;
+            Floor floor = new Floor(readSignedVarint(), this.in.readDouble(),
+                    this.in.readDouble());
+            int numRooms = readLength("number of rooms");
+            int[] schedule = readSignedVarints(
+                    "maintenance schedule length", false);
+            BuildingInitialiser.addFloor(building, floor, floorRecord);
+            for (int i = 0; i < numRooms; i++) {
+                readRoom(floor);
+            }
+            if (schedule.length > 0) {
+                BuildingInitialiser.createMaintenanceSchedule(floor,
+                        schedule, floorRecord);
+            }
+        }
+
+        /**
+         * Reads a room and its sensors, adding the room to the floor.
+         *
+         * @param floor floor the room belongs to
+         */
+        private void readRoom(Floor floor)
+                throws IOException, FileFormatException {
+            int roomRecord = ++this.record;
+            int roomNumber = readSignedVarint();
+            int typeOrdinal = readVarint();
+            RoomType[] roomTypes = RoomType.values();
+            if (typeOrdinal >= roomTypes.length) {
+                throw BuildingInitialiser.error(roomRecord,
+                        "unknown room type " + typeOrdinal);
+            }
+            Room room = new Room(roomNumber, roomTypes[typeOrdinal],
+                    this.in.readDouble());
+
+            int evaluatorTag = readVarint();
+            String evaluatorType;
+            if (evaluatorTag == NO_EVALUATOR) {
+                evaluatorType = null;
+            } else if (evaluatorTag == RULE_BASED) {
+                evaluatorType = "RuleBased";
+            } else if (evaluatorTag == WEIGHTING_BASED) {
+                evaluatorType = "WeightingBased";
+            } else if (evaluatorTag == CUSTOM_RULE) {
+                evaluatorType = readString("hazard rule length");
+            } else {
+                throw BuildingInitialiser.error(roomRecord,
+                        "unknown hazard evaluator " + evaluatorTag);
+            }
+
+            int numSensors = readLength("number of sensors");
+            List<TimedSensor> sensors = new ArrayList<>();
+            int[] weightings = new int[0];
+            try {
+                for (int i = 0; i < numSensors; i++) {
+                    sensors.add(readSensor());
+                    if (evaluatorTag == WEIGHTING_BASED) {
+                        weightings = BuildingInitialiser.growWeightings(
+                                weightings, i);
+                        weightings[i] = readVarint();
+                    }
+                }
+                for (TimedSensor sensor : sensors) {
+                    BuildingInitialiser.addSensor(room, sensor, roomRecord);
+                }
+                BuildingInitialiser.setHazardEvaluator(room, evaluatorType,
+                        sensors, weightings, roomRecord);
+                BuildingInitialiser.addRoom(floor, room, roomRecord);
+            } catch (IOException | FileFormatException | RuntimeException e) {
+                BuildingInitialiser.discardSensors(sensors);
+                throw e;
+            }
+        }
+
+        /**
+         * Reads a sensor, excluding any weighting.
+         *
+         * @return sensor read
+         */
+        private TimedSensor readSensor()
+                throws IOException, FileFormatException {
+            int sensorRecord = ++this.record;
+            int tag = readVarint();
+            if (tag >= SENSOR_TYPES.length) {
+                throw BuildingInitialiser.error(sensorRecord,
+                        "unknown sensor type " + tag);
+            }
+            int frequency = readVarint();
+            int[] readings = readSignedVarints("number of readings", true);
+            int[] attributes = new int[BuildingInitialiser.sensorPartCount(
+                    SENSOR_TYPES[tag], sensorRecord) - 2];
+            if (attributes.length > 0) {
+                attributes[0] = frequency;
+            }
+            for (int i = 1; i < attributes.length; i++) {
+                attributes[i] = readVarint();
+            }
+            return BuildingInitialiser.createSensor(SENSOR_TYPES[tag],
+                    readings, attributes, sensorRecord);
+        }
+
+        /**
+         * Reads a count or length, which must not be more than the number
+         * of bytes left in the snapshot, since every item counted takes at
+         * least one byte.
+         *
+         * @param what description of the value for error messages
+         * @return value read
+         */
+        private int readLength(String what)
+                throws IOException, FileFormatException {
+            int length = readVarint();
+            if (length < 0) {
+                throw BuildingInitialiser.error(this.record, what + " "
+                        + Integer.toUnsignedString(length) + " is too large");
+            }
+            if (length > this.size - this.counter.count) {
+                throw BuildingInitialiser.error(this.record, what + " "
+                        + length + " is larger than the rest of the snapshot");
+            }
+            return length;
+        }
+
+        /**
+         * Reads a length-prefixed UTF-8 string.
+         *
+         * @param what description of the length for error messages
+         * @return string read
+         */
+        private String readString(String what)
+                throws IOException, FileFormatException {
+            int length = readLength(what);
+            // Reads in chunks, so a corrupt length cannot exhaust memory
+            byte[] bytes = this.in.readNBytes(length);
+            if (bytes.length < length) {
+                throw new EOFException();
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads a count followed by that many zig-zag encoded signed
+         * variable-length integers.
+         *
+         * @param what  description of the count for error messages
+         * @param delta true if each value is written as the difference from
+         *              the previous one
+         * @return values read
+         */
+        private int[] readSignedVarints(String what, boolean delta)
+                throws IOException, FileFormatException {
+            int length = readLength(what);
+            // The length is only bounded by the rest of the snapshot if its
+            // size is known, so otherwise the array grows as values are read
+            int[] values = new int[this.size == Long.MAX_VALUE
+                    ? Math.min(length, CHUNK) : length];
+            int previous = 0;
+            for (int i = 0; i < length; i++) {
+                if (i == values.length) {
+                    values = Arrays.copyOf(values,
+                            (int) Math.min(length, 2L * i));
+                }
+                int value = readSignedVarint();
+                values[i] = delta ? previous + value : value;
+                previous = values[i];
+            }
+            return values;
+        }
+
+        /**
+         * Reads an unsigned variable-length integer.
+         *
+         * @return value read
+         */
+        private int readVarint() throws IOException, FileFormatException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = this.in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw BuildingInitialiser.error(this.record,
+                    "malformed variable-length integer");
+        }
+
+        /**
+         * Reads a zig-zag encoded signed variable-length integer.
+         *
+         * @return value read
+         */
+        private int readSignedVarint()
+                throws IOException, FileFormatException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
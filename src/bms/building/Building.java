@@ -1,13 +1,23 @@
 package bms.building;
 
 import bms.exceptions.DuplicateFloorException;
+import bms.exceptions.FileFormatException;
 import bms.exceptions.FireDrillException;
 import bms.exceptions.FloorTooSmallException;
 import bms.exceptions.NoFloorBelowException;
 import bms.floor.Floor;
+import bms.hazardevaluation.MaxHazardTracker;
+import bms.room.Room;
 import bms.room.RoomType;
+import bms.sensors.Sensor;
+import bms.sensors.TimedSensor;
+import bms.util.Encodable;
+import bms.util.EncodeFormat;
 import bms.util.FireDrill;
+import bms.util.TimedItem;
+import bms.util.TimedItemManager;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -23,7 +33,7 @@ import java.util.Objects;
  *
  * @ass1
  */
-public class Building implements FireDrill {
+public class Building implements FireDrill, Encodable {
 
     /**
      * The name of the building.
@@ -35,6 +45,40 @@ public class Building implements FireDrill {
      */
     private List<Floor> floors;
 
+    /**
+     * Whether floors have been added to this building since it was last
+     * marked clean.
+     */
+    private boolean layoutDirty;
+
+    /**
+     * Record of this building in a mapped save file, from which its floors
+     * are read the first time they are needed; null once they have been
+     * read, or if the building was not loaded lazily.
+     */
+    private MappedBuildingParser source;
+
+    /**
+     * Minutes elapsed on the timed item manager when this building was
+     * indexed, used to bring sensors read later up to the same time as
+     * sensors that were loaded straight away.
+     */
+    private long sourceMinutes;
+
+    /**
+     * Timed item manager this building's maintenance schedules and sensors
+     * are registered with.
+     */
+    private TimedItemManager timedItemManager =
+            TimedItemManager.getInstance();
+
+    /**
+     * Tracker following the hazard levels of this building's rooms, or null
+     * if their hazard evaluators read the sensors each time they are
+     * evaluated.
+     */
+    private MaxHazardTracker hazardTracker;
+
     /**
      * Creates a new empty building with no rooms.
      *
@@ -44,6 +88,24 @@ public class Building implements FireDrill {
     public Building(String name) {
         this.name = name;
         this.floors = new ArrayList<>();
+        this.layoutDirty = true;
+    }
+
+    /**
+     * Creates a building whose floors are read from the given record the
+     * first time they are needed.
+     * <p>
+     * Until then, the building is reported as having no changes to its
+     * floors, and saving it copies the record as it is.
+     *
+     * @param name   name of this building
+     * @param source parser covering exactly this building's record
+     */
+    Building(String name, MappedBuildingParser source) {
+        this(name);
+        this.source = source;
+        this.sourceMinutes = TimedItemManager.getInstance()
+                .getMinutesElapsed();
     }
 
     /**
@@ -56,6 +118,227 @@ public class Building implements FireDrill {
         return name;
     }
 
+    /**
+     * Returns whether this building's floors, rooms and sensors have been
+     * read.
+     * <p>
+     * This is only false for buildings loaded by
+     * {@link BuildingInitialiser#loadBuildingsLazy(String)} whose floors
+     * have not been used yet.
+     *
+     * @return true if this building's floors are in memory
+     */
+    public boolean isLoaded() {
+        return this.source == null;
+    }
+
+    /**
+     * Reads this building's floors, rooms and sensors from its save file
+     * record, if they have not been read already.
+     * <p>
+     * Every sensor read is advanced by the number of minutes elapsed since
+     * the building was indexed, so that it shows the same reading as it
+     * would have if it had been loaded straight away. If the building had
+     * been marked clean, the floors read are marked clean too.
+     * <p>
+     * Methods that use the floors call this automatically; it only needs to
+     * be called directly to handle an invalid record as a checked exception.
+     * If the record is invalid, the building is left unloaded.
+     *
+     * @throws FileFormatException if the building's record is not in the
+     *                             expected format
+     */
+    public void load() throws FileFormatException {
+        if (this.source == null) {
+            return;
+        }
+        Building loaded = this.source.rewind().readBuilding();
+        long minutes = TimedItemManager.getInstance().getMinutesElapsed()
+                - this.sourceMinutes;
+        for (Floor floor : loaded.floors) {
+            if (minutes > 0) {
+                elapseSensors(floor, minutes);
+            }
+            floor.setTimedItemManager(this.timedItemManager);
+            floor.setHazardTracker(this.hazardTracker);
+            if (!this.layoutDirty) {
+                floor.markClean();
+            }
+        }
+        this.floors = loaded.floors;
+        this.source = null;
+    }
+
+    /**
+     * Elapses the given number of minutes on every sensor in every room on
+     * the given floor.
+     *
+     * @param floor   floor whose sensors to advance
+     * @param minutes number of minutes to elapse
+     */
+    private static void elapseSensors(Floor floor, long minutes) {
+        for (Room room : floor.getRooms()) {
+            for (Sensor sensor : room.getSensors()) {
+                if (sensor instanceof TimedSensor) {
+                    ((TimedSensor) sensor).fastForward((int) minutes);
+                } else if (sensor instanceof TimedItem) {
+                    for (long i = 0; i < minutes; i++) {
+                        ((TimedItem) sensor).elapseOneMinute();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Unregisters the maintenance schedules and sensors on this building's
+     * floors from the timed item manager, once the building has been
+     * removed from the model for good.
+     * <p>
+     * A building whose floors have not been read has nothing registered, so
+     * is left unread. This must not be called on a snapshot (see
+     * {@link Building#snapshot()}), which shares its sensors with the
+     * building it was taken from.
+     */
+    public void discard() {
+        if (this.source != null) {
+            return;
+        }
+        for (Floor floor : this.floors) {
+            floor.discard();
+        }
+        this.hazardTracker = null;
+    }
+
+    /**
+     * Returns the timed item manager this building's maintenance schedules
+     * and sensors are registered with.
+     * <p>
+     * This is the singleton manager (see
+     * {@link TimedItemManager#getInstance()}) unless the building has been
+     * given its own manager.
+     *
+     * @return manager elapsing this building's timed items
+     */
+    public TimedItemManager getTimedItemManager() {
+        return this.timedItemManager;
+    }
+
+    /**
+     * Moves this building's maintenance schedules and sensors to the given
+     * timed item manager, which will elapse them from now on.
+     * <p>
+     * Buildings do not affect one another, so each building can be given a
+     * manager of its own and elapsed on a separate thread. Floors added to
+     * the building later, and the floors of a lazily loaded building once
+     * they are read, are moved to the same manager.
+     *
+     * @param manager manager to register this building's timed items with
+     */
+    public void setTimedItemManager(TimedItemManager manager) {
+        if (manager == this.timedItemManager) {
+            return;
+        }
+        if (this.source == null) {
+            for (Floor floor : this.floors) {
+                floor.setTimedItemManager(manager);
+            }
+        }
+        this.timedItemManager = manager;
+    }
+
+    /**
+     * Sets whether this building keeps the hazard levels of its rooms up to
+     * date as their sensors' readings change, rather than reading every
+     * sensor each time a room's hazard evaluator is evaluated.
+     * <p>
+     * In incremental mode, every room's hazard evaluator is put in
+     * incremental mode (see
+     * {@link bms.hazardevaluation.IncrementalHazardEvaluator}), including
+     * evaluators set and rooms or floors added later, and the highest
+     * hazard level in the building is kept up to date as well (see
+     * {@link Building#getMaxHazardLevel()}). The floors of a lazily loaded
+     * building are read if necessary.
+     *
+     * @param incremental true to keep hazard levels up to date as readings
+     *                    change, false to read the sensors on each
+     *                    evaluation
+     * @throws IllegalStateException if incremental is true and a room's
+     *                               hazard evaluator uses a sensor that is
+     *                               not a timed sensor
+     */
+    public void setIncrementalHazards(boolean incremental) {
+        if (incremental == (this.hazardTracker != null)) {
+            return;
+        }
+        MaxHazardTracker tracker = incremental ? new MaxHazardTracker()
+                : null;
+        MaxHazardTracker previous = this.hazardTracker;
+        this.hazardTracker = tracker;
+        for (Floor floor : floors()) {
+            floor.setHazardTracker(tracker);
+        }
+        if (previous != null) {
+            previous.clear();
+        }
+    }
+
+    /**
+     * Returns whether this building keeps the hazard levels of its rooms up
+     * to date as their sensors' readings change.
+     *
+     * @return true if in incremental mode
+     */
+    public boolean isIncrementalHazards() {
+        return this.hazardTracker != null;
+    }
+
+    /**
+     * Returns the highest hazard level of any room in this building with a
+     * hazard evaluator, or 0 if there is none.
+     * <p>
+     * In incremental mode (see {@link #setIncrementalHazards(boolean)}) this
+     * is kept up to date as readings change, so no sensor is read;
+     * otherwise every room's hazard evaluator is evaluated.
+     *
+     * @return highest hazard level in this building
+     */
+    public int getMaxHazardLevel() {
+        if (this.hazardTracker != null) {
+            return this.hazardTracker.getMaxHazardLevel();
+        }
+        int max = 0;
+        for (Floor floor : floors()) {
+            for (Room room : floor.getRooms()) {
+                if (room.getHazardEvaluator() != null) {
+                    max = Math.max(max,
+                            room.getHazardEvaluator().evaluateHazardLevel());
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns this building's list of floors, reading them first if
+     * necessary.
+     *
+     * @return this building's internal list of floors
+     * @throws IllegalStateException if the floors had not been read and the
+     *                               building's record is invalid
+     */
+    private List<Floor> floors() {
+        if (this.source != null) {
+            try {
+                load();
+            } catch (FileFormatException e) {
+                throw new IllegalStateException("Could not load building \""
+                        + this.name + "\"", e);
+            }
+        }
+        return this.floors;
+    }
+
     /**
      * Returns a new list containing all the floors in this building.
      * <p>
@@ -66,7 +349,7 @@ public class Building implements FireDrill {
      * @ass1
      */
     public List<Floor> getFloors() {
-        return new ArrayList<>(this.floors);
+        return new ArrayList<>(floors());
     }
 
     /**
@@ -80,7 +363,7 @@ public class Building implements FireDrill {
      * @ass1
      */
     public Floor getFloorByNumber(int floorNumber) {
-        for (Floor floor : this.floors) {
+        for (Floor floor : floors()) {
             if (floor.getFloorNumber() == floorNumber) {
                 return floor;
             }
@@ -139,7 +422,79 @@ public class Building implements FireDrill {
         }
 
         // No problems, so add floor to the list of floors
-        floors.add(newFloor);
+        floors().add(newFloor);
+        newFloor.setTimedItemManager(this.timedItemManager);
+        newFloor.setHazardTracker(this.hazardTracker);
+        this.layoutDirty = true;
+    }
+
+    /**
+     * Replaces the floor with the same floor number as the given floor.
+     * <p>
+     * Used when replaying a save journal, where the replacement floor was
+     * encoded from a floor that was valid in this building, so the checks in
+     * {@link Building#addFloor(Floor)} are not repeated.
+     *
+     * @param floor replacement floor
+     * @return the floor that was replaced, or null if this building has no
+     * floor with that number
+     */
+    Floor replaceFloor(Floor floor) {
+        List<Floor> floors = floors();
+        for (int i = 0; i < floors.size(); i++) {
+            if (floors.get(i).getFloorNumber()
+                    == floor.getFloorNumber()) {
+                floor.setTimedItemManager(this.timedItemManager);
+                floor.setHazardTracker(this.hazardTracker);
+                return floors.set(i, floor);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether this building's encoded state (see
+     * {@link Building#encode()}) may have changed since the building was
+     * last marked clean, including changes to any of its floors and rooms.
+     *
+     * @return true if this building has changed since it was last saved
+     */
+    public boolean isDirty() {
+        if (this.layoutDirty) {
+            return true;
+        }
+        for (Floor floor : this.floors) {
+            if (floor.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether floors have been added to this building since it was
+     * last marked clean.
+     * <p>
+     * Changes to the floors themselves are reported by
+     * {@link Floor#isDirty()}.
+     *
+     * @return true if this building's list of floors has changed since it
+     * was last saved
+     */
+    public boolean isLayoutDirty() {
+        return this.layoutDirty;
+    }
+
+    /**
+     * Records that this building's current encoded state, including that of
+     * all its floors and rooms, has been saved.
+     */
+    public void markClean() {
+        this.layoutDirty = false;
+        // Floors that have not been read yet are marked clean when they are
+        for (Floor floor : this.floors) {
+            floor.markClean();
+        }
     }
 
     /**
@@ -161,12 +516,13 @@ public class Building implements FireDrill {
      * @ass1
      */
     public void fireDrill(RoomType roomType) throws FireDrillException {
-        if (this.floors.size() < 1) {
+        List<Floor> floors = floors();
+        if (floors.size() < 1) {
             throw new FireDrillException("Cannot conduct fire drill because "
                     + "there are no floors in the building yet!");
         }
         boolean hasRooms = false;
-        for (Floor floor : this.floors) {
+        for (Floor floor : floors) {
             if (!floor.getRooms().isEmpty()) {
                 hasRooms = true;
             }
@@ -175,7 +531,7 @@ public class Building implements FireDrill {
             throw new FireDrillException("Cannot conduct fire drill because "
                     + "there are no rooms in the building yet!");
         } else {
-            for (Floor floor : this.floors) {
+            for (Floor floor : floors) {
                 floor.fireDrill(roomType);
             }
         }
@@ -189,7 +545,7 @@ public class Building implements FireDrill {
      * @ass1
      */
     public void cancelFireDrill() {
-        for (Floor floor : this.floors) {
+        for (Floor floor : floors()) {
             floor.cancelFireDrill();
         }
     }
@@ -218,14 +574,15 @@ public class Building implements FireDrill {
             return false;
         }
         Building building = (Building) obj;
-        for (int i = 0; i < this.floors.size(); i++) {
-            if (!this.floors.get(i).equals(building.getFloors().get(i))) {
+        List<Floor> floors = floors();
+        for (int i = 0; i < floors.size(); i++) {
+            if (!floors.get(i).equals(building.getFloors().get(i))) {
                 floorEqual = false;
                 break;
             }
         }
         return (this.name.equals(building.getName())
-                && this.floors.size() == building.getFloors().size()
+                && floors.size() == building.getFloors().size()
                 && floorEqual);
     }
 
@@ -239,7 +596,36 @@ public class Building implements FireDrill {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(this.name, this.floors.size(), this.floors);
+        List<Floor> floors = floors();
+        return Objects.hash(this.name, floors.size(), floors);
+    }
+
+    /**
+     * Returns a copy of this building's encoded state.
+     * <p>
+     * The copy has the same name as this building and a snapshot of each of
+     * its floors (see {@link Floor#snapshot()}), so its encoding is the same
+     * as this building's encoding at the time this method was called, even
+     * if this building is modified afterwards.
+     * <p>
+     * The copy is intended to be encoded on another thread while this
+     * building continues to be updated, and should not otherwise be used as
+     * part of the model.
+     *
+     * @return copy of this building for encoding
+     */
+    public Building snapshot() {
+        Building copy = new Building(this.name);
+        if (this.source != null) {
+            // The record cannot change, so the copy can share it
+            copy.source = this.source;
+            copy.sourceMinutes = this.sourceMinutes;
+            return copy;
+        }
+        for (Floor floor : this.floors) {
+            copy.floors.add(floor.snapshot());
+        }
+        return copy;
     }
 
     /**
@@ -249,13 +635,36 @@ public class Building implements FireDrill {
      * @return encoded string representation of this building
      */
     public String encode() {
-        StringBuilder encodedFloor = new StringBuilder();
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this building and all
+     * of its floors, rooms and sensors to the given destination.
+     * <p>
+     * Appends the same characters as {@link Building#encode()}, so a building
+     * can be streamed straight to a writer without building its whole
+     * encoding in memory first.
+     * <p>
+     * If the building's floors have not been loaded yet (see
+     * {@link Building#isLoaded()}), its record is copied from the save file
+     * line by line instead of being parsed.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        if (this.source != null) {
+            this.source.rewind().copyTo(out);
+            return;
+        }
+        out.append(this.name).append(System.lineSeparator());
+        EncodeFormat.appendFormattedInt(out, this.floors.size());
+        out.append(System.lineSeparator());
         for (Floor floor : this.floors) {
-            encodedFloor.append(floor.encode());
+            floor.encodeTo(out);
         }
-        return String.format("%s" + System.lineSeparator()
-                + "%d" + System.lineSeparator()
-                + "%s", this.name, this.floors.size(), encodedFloor);
     }
 
     /**
@@ -323,6 +732,6 @@ public class Building implements FireDrill {
     @Override
     public String toString() {
         return String.format("Building: name=\"%s\", floors=%d",
-                this.name, this.floors.size());
+                this.name, floors().size());
     }
 }
@@ -0,0 +1,1024 @@
+package bms.building;
+
+import bms.exceptions.DuplicateFloorException;
+import bms.exceptions.DuplicateRoomException;
+import bms.exceptions.DuplicateSensorException;
+import bms.exceptions.FileFormatException;
+import bms.exceptions.FloorTooSmallException;
+import bms.exceptions.InsufficientSpaceException;
+import bms.exceptions.NoFloorBelowException;
+import bms.floor.Floor;
+import bms.hazardevaluation.CustomRuleHazardEvaluator;
+import bms.hazardevaluation.RuleBasedHazardEvaluator;
+import bms.hazardevaluation.WeightingBasedHazardEvaluator;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.HazardSensor;
+import bms.sensors.NoiseSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.Sensor;
+import bms.sensors.TemperatureSensor;
+import bms.sensors.TimedSensor;
+import bms.util.TimedItemManager;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class which manages the initialisation of lists of buildings from files.
+ * <p>
+ * The file format is the one produced by {@link Building#encode()}, with
+ * each encoded building following directly after the previous one. The
+ * file is read in a single pass, one line (record) at a time, so memory use
+ * while loading is bounded by the current record rather than by the size of
+ * the file.
+ */
+public class BuildingInitialiser {
+    /**
+     * Size of the character buffer used when reading save files.
+     */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Loads a list of buildings from a save file with the given filename.
+     * <p>
+     * Save files have the following structure. Square brackets indicate that
+     * the data inside them is optional. See the demo save file for an example
+     * (uqstlucia.txt).
+     * <pre>
+     * buildingName1
+     * numFloors1
+     * floorNumber1:floorWidth1:floorLength1:numRooms1[:rooms,in,maintenance,schedule]
+     * roomNumber1:ROOM_TYPE1:roomArea1:numSensors1[:hazardEvaluatorType]
+     * sensorType1:sensorReading1,sensorReading2,...:sensorAttr1:...[@weighting]
+     * ...
+     * </pre>
+     * A sensor reading may be written as "reading*count" to stand for count
+     * consecutive equal readings. The hazard evaluator type is "RuleBased",
+     * "WeightingBased" or "Rules(rule)", where 'rule' is a user-defined
+     * {@link bms.hazardevaluation.HazardRule}.
+     * A FileFormatException is thrown if the file is not in this format,
+     * including (but not limited to) when:
+     * <ul>
+     * <li>a building, floor or room declares a different number of floors,
+     * rooms or sensors than actually follow it</li>
+     * <li>a record has too many or too few colon-separated parts</li>
+     * <li>a number, room type, sensor type or hazard evaluator type cannot
+     * be parsed</li>
+     * <li>a floor, room, sensor, maintenance schedule or hazard evaluator
+     * could not be added to the model because it is invalid</li>
+     * </ul>
+     * The message of each FileFormatException contains the line number at
+     * which the problem was found.
+     *
+     * @param filename path of the file from which to load a list of buildings
+     * @return a list containing all the buildings loaded from the file
+     * @throws IOException         if an IOException is encountered when
+     *                             calling any IO methods
+     * @throws FileFormatException if the file format of the given file is
+     *                             invalid according to the rules above
+     */
+    public static List<Building> loadBuildings(String filename)
+            throws IOException, FileFormatException {
+        try (BufferedReader reader = new BufferedReader(
+                new FileReader(filename), READ_BUFFER_SIZE)) {
+            return loadBuildings(reader);
+        }
+    }
+
+    /**
+     * Loads a list of buildings from the save file with the given filename
+     * by memory-mapping the file and parsing records directly from the
+     * mapped bytes.
+     * <p>
+     * The buildings returned are the same as those returned by
+     * {@link #loadBuildings(String)}, but no intermediate Strings are created
+     * while tokenising the file, which makes this considerably faster for
+     * very large save files.
+     *
+     * @param filename path of the file from which to load a list of buildings
+     * @return a list containing all the buildings loaded from the file
+     * @throws IOException         if the file cannot be opened or mapped
+     * @throws FileFormatException if the file format of the given file is
+     *                             invalid, see {@link #loadBuildings(String)}
+     */
+    public static List<Building> loadBuildingsMapped(String filename)
+            throws IOException, FileFormatException {
+        MappedByteBuffer[] segments =
+                MappedBuildingParser.map(Paths.get(filename));
+        return new MappedBuildingParser(segments, 0,
+                MappedBuildingParser.size(segments), 1).readBuildings();
+    }
+
+    /**
+     * Loads a list of buildings from the save file with the given filename,
+     * decoding the buildings in parallel.
+     * <p>
+     * The memory-mapped file is first scanned for building boundaries, using
+     * only the floor, room and sensor counts in each building. Each building
+     * is then decoded as a separate task on the common
+     * {@link ForkJoinPool}. The returned list is in the same order as the
+     * buildings in the file, and equal to the list returned by
+     * {@link #loadBuildings(String)}.
+     * <p>
+     * If more than one building is invalid, the FileFormatException for the
+     * first invalid building in the file is thrown.
+     *
+     * @param filename path of the file from which to load a list of buildings
+     * @return a list containing all the buildings loaded from the file
+     * @throws IOException         if the file cannot be opened or mapped
+     * @throws FileFormatException if the file format of the given file is
+     *                             invalid, see {@link #loadBuildings(String)}
+     */
+    public static List<Building> loadBuildingsParallel(String filename)
+            throws IOException, FileFormatException {
+        MappedByteBuffer[] segments =
+                MappedBuildingParser.map(Paths.get(filename));
+        long size = MappedBuildingParser.size(segments);
+
+        MappedBuildingParser scanner =
+                new MappedBuildingParser(segments, 0, size, 1);
+        List<BuildingTask> tasks = new ArrayList<>();
+        AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+        while (scanner.hasRemaining()) {
+            long start = scanner.getPosition();
+            int startLine = scanner.getLineNumber();
+            scanner.skipBuilding();
+            tasks.add(new BuildingTask(new MappedBuildingParser(segments,
+                    start, scanner.getPosition(), startLine), tasks.size(),
+                    firstFailure));
+        }
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for (BuildingTask task : tasks) {
+            pool.execute(task);
+        }
+        // Every task is waited for, so that no building is still being
+        // decoded, and registering its sensors, once this returns
+        List<Building> buildings = new ArrayList<>(tasks.size());
+        RuntimeException failure = null;
+        for (BuildingTask task : tasks) {
+            try {
+                Building building = task.join();
+                if (building != null) {
+                    buildings.add(building);
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            discard(buildings);
+            if (failure instanceof BuildingFormatFailure) {
+                throw formatException((BuildingFormatFailure) failure);
+            }
+            throw failure;
+        }
+        return buildings;
+    }
+
+    /**
+     * Returns the FileFormatException that made a building task fail.
+     * <p>
+     * A failure rethrown on another thread may wrap the one thrown by the
+     * task, so the whole chain of causes is searched. A failure that does
+     * not hold a FileFormatException is rethrown.
+     *
+     * @param failure failure thrown by joining a building task
+     * @return format exception thrown while decoding the building
+     */
+    private static FileFormatException formatException(
+            BuildingFormatFailure failure) {
+        for (Throwable cause = failure; cause != null;
+                cause = cause.getCause()) {
+            if (cause instanceof FileFormatException) {
+                return (FileFormatException) cause;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Loads a list of buildings from the save file with the given filename,
+     * reading each building's floors, rooms and sensors only when they are
+     * first needed.
+     * <p>
+     * The memory-mapped file is scanned for building boundaries as in
+     * {@link #loadBuildingsParallel(String)}, and only the name of each
+     * building is read. The rest of a building's record is parsed the first
+     * time its floors are used (see {@link Building#load()}), so startup
+     * time and memory use depend on the number of buildings rather than the
+     * size of the file.
+     * <p>
+     * Only the floor, room and sensor counts are checked here. Any other
+     * problem with a building's record is reported when that building is
+     * loaded. The file stays mapped until every building has been loaded,
+     * so it must only be replaced by renaming another file over it, as
+     * {@link BuildingWriter} does.
+     *
+     * @param filename path of the file from which to load a list of buildings
+     * @return a list containing all the buildings indexed from the file
+     * @throws IOException         if the file cannot be opened or mapped
+     * @throws FileFormatException if a count in the file is invalid, or the
+     *                             file ends part-way through a building
+     */
+    public static List<Building> loadBuildingsLazy(String filename)
+            throws IOException, FileFormatException {
+        return loadBuildingsLazy(
+                MappedBuildingParser.map(Paths.get(filename)));
+    }
+
+    /**
+     * Indexes the buildings in the given mapped save file, as for
+     * {@link #loadBuildingsLazy(String)}.
+     *
+     * @param segments mapped segments of the whole file
+     * @return a list containing all the buildings indexed from the file
+     * @throws FileFormatException if a count in the file is invalid, or the
+     *                             file ends part-way through a building
+     */
+    static List<Building> loadBuildingsLazy(MappedByteBuffer[] segments)
+            throws FileFormatException {
+        MappedBuildingParser scanner = new MappedBuildingParser(segments, 0,
+                MappedBuildingParser.size(segments), 1);
+        List<Building> buildings = new ArrayList<>();
+        while (scanner.hasRemaining()) {
+            long start = scanner.getPosition();
+            int startLine = scanner.getLineNumber();
+            scanner.skipBuilding();
+            MappedBuildingParser record = new MappedBuildingParser(segments,
+                    start, scanner.getPosition(), startLine);
+            buildings.add(new Building(record.rewind().readName(), record));
+        }
+        return buildings;
+    }
+
+    /**
+     * Loads a list of buildings from the given reader.
+     * <p>
+     * The reader is consumed until the end of the stream but is not closed.
+     * See {@link #loadBuildings(String)} for the expected format.
+     *
+     * @param reader reader from which to load a list of buildings
+     * @return a list containing all the buildings read
+     * @throws IOException         if an IOException is encountered when
+     *                             reading
+     * @throws FileFormatException if the data read is not in the expected
+     *                             format
+     */
+    public static List<Building> loadBuildings(Reader reader)
+            throws IOException, FileFormatException {
+        LineReader lines = new LineReader(reader instanceof BufferedReader
+                ? (BufferedReader) reader
+                : new BufferedReader(reader, READ_BUFFER_SIZE));
+        List<Building> buildings = new ArrayList<>();
+        try {
+            while (lines.hasNext()) {
+                buildings.add(readBuilding(lines));
+            }
+        } catch (IOException | FileFormatException | RuntimeException e) {
+            discard(buildings);
+            throw e;
+        }
+        return buildings;
+    }
+
+    /**
+     * Stops elapsing the sensors and maintenance schedules of buildings
+     * read before a problem was found later in the same file.
+     *
+     * @param buildings buildings read so far
+     */
+    static void discard(List<Building> buildings) {
+        for (Building building : buildings) {
+            building.discard();
+        }
+    }
+
+    /**
+     * Stops elapsing sensors read for a room that could not be read in
+     * full, whether or not they were added to the room.
+     *
+     * @param sensors sensors read, none of them in a room on a floor
+     */
+    static void discardSensors(List<TimedSensor> sensors) {
+        for (TimedSensor sensor : sensors) {
+            TimedItemManager.getInstance().unregisterTimedItem(sensor);
+        }
+    }
+
+    /**
+     * Reads a building and all of its floors.
+     *
+     * @param lines source of lines, positioned at the building's name
+     * @return the building read
+     */
+    static Building readBuilding(LineReader lines)
+            throws IOException, FileFormatException {
+        Building building = new Building(lines.next());
+        int numFloors = parseCount(lines.next(), lines.getLineNumber(),
+                "number of floors");
+        try {
+            for (int i = 0; i < numFloors; i++) {
+                readFloor(lines, building);
+            }
+        } catch (IOException | FileFormatException | RuntimeException e) {
+            // Stop elapsing the sensors already read
+            building.discard();
+            throw e;
+        }
+        return building;
+    }
+
+    /**
+     * Reads a floor, adds it to the given building and reads all of the rooms
+     * on that floor.
+     *
+     * @param lines    source of lines, positioned at the floor's header
+     * @param building building to which the floor belongs; null if the floor
+     *                 should not be added to a building
+     * @return the floor read
+     */
+    static Floor readFloor(LineReader lines, Building building)
+            throws IOException, FileFormatException {
+        String[] parts = lines.next().split(":", -1);
+        int lineNumber = lines.getLineNumber();
+        if (parts.length != 4 && parts.length != 5) {
+            throw error(lineNumber, "floor must have 4 or 5 parts, found "
+                    + parts.length);
+        }
+        Floor floor = new Floor(
+                parseInt(parts[0], lineNumber, "floor number"),
+                parseDouble(parts[1], lineNumber, "floor width"),
+                parseDouble(parts[2], lineNumber, "floor length"));
+        int numRooms = parseCount(parts[3], lineNumber, "number of rooms");
+        if (building != null) {
+            addFloor(building, floor, lineNumber);
+        }
+
+        for (int i = 0; i < numRooms; i++) {
+            readRoom(lines, floor);
+        }
+
+        if (parts.length == 5) {
+            String[] schedule = parts[4].split(",", -1);
+            int[] roomNumbers = new int[schedule.length];
+            for (int i = 0; i < schedule.length; i++) {
+                roomNumbers[i] = parseInt(schedule[i], lineNumber,
+                        "maintenance schedule room number");
+            }
+            createMaintenanceSchedule(floor, roomNumbers, lineNumber);
+        }
+        return floor;
+    }
+
+    /**
+     * Reads a room and its sensors, and adds the room to the given floor.
+     *
+     * @param lines source of lines, positioned at the room's header
+     * @param floor floor to which the room belongs; null if the room should
+     *              not be added to a floor
+     * @return the room read
+     */
+    static Room readRoom(LineReader lines, Floor floor)
+            throws IOException, FileFormatException {
+        String[] parts = lines.next().split(":", -1);
+        int lineNumber = lines.getLineNumber();
+        if (parts.length != 4 && parts.length != 5) {
+            throw error(lineNumber, "room must have 4 or 5 parts, found "
+                    + parts.length);
+        }
+        Room room = new Room(
+                parseInt(parts[0], lineNumber, "room number"),
+                parseRoomType(parts[1], lineNumber),
+                parseDouble(parts[2], lineNumber, "room area"));
+        int numSensors = parseCount(parts[3], lineNumber,
+                "number of sensors");
+        String evaluatorType = parts.length == 5 ? parts[4] : null;
+        boolean weighted = checkEvaluatorType(evaluatorType, lineNumber);
+
+        // The count is not trusted, so storage grows as sensors are read
+        List<TimedSensor> sensors = new ArrayList<>();
+        int[] weightings = new int[0];
+        try {
+            for (int i = 0; i < numSensors; i++) {
+                String line = lines.next();
+                int sensorLine = lines.getLineNumber();
+                int at = line.indexOf('@');
+                if (weighted != (at >= 0)) {
+                    throw error(sensorLine, weighted
+                            ? "sensor is missing a weighting"
+                            : "weighting given without a WeightingBased "
+                            + "hazard evaluator");
+                }
+                if (weighted) {
+                    weightings = growWeightings(weightings, i);
+                    weightings[i] = parseInt(line.substring(at + 1),
+                            sensorLine, "weighting");
+                    line = line.substring(0, at);
+                }
+                sensors.add(parseSensor(line.split(":", -1), sensorLine));
+            }
+
+            for (TimedSensor sensor : sensors) {
+                addSensor(room, sensor, lineNumber);
+            }
+            setHazardEvaluator(room, evaluatorType, sensors, weightings,
+                    lineNumber);
+            if (floor != null) {
+                addRoom(floor, room, lineNumber);
+            }
+        } catch (IOException | FileFormatException | RuntimeException e) {
+            discardSensors(sensors);
+            throw e;
+        }
+        return room;
+    }
+
+    /**
+     * Returns an array of weightings with room for the weighting at the
+     * given index, growing the given array if needed.
+     *
+     * @param weightings weightings read so far
+     * @param index      index of the next weighting
+     * @return the given array, or a larger copy of it
+     */
+    static int[] growWeightings(int[] weightings, int index) {
+        if (index < weightings.length) {
+            return weightings;
+        }
+        return Arrays.copyOf(weightings, Math.max(index + 1,
+                2 * weightings.length));
+    }
+
+    /**
+     * Creates the sensor described by the given colon-separated parts.
+     *
+     * @param parts      parts of the sensor record, starting with the
+     *                   sensor's simple class name
+     * @param lineNumber line the sensor was read from
+     * @return new sensor
+     */
+    private static TimedSensor parseSensor(String[] parts, int lineNumber)
+            throws FileFormatException {
+        if (parts.length < 2) {
+            throw error(lineNumber, "sensor must have a type and readings");
+        }
+        int[] readings = parseReadings(parts[1], lineNumber);
+        int expectedParts = sensorPartCount(parts[0], lineNumber);
+        if (parts.length != expectedParts) {
+            throw error(lineNumber, parts[0] + " must have " + expectedParts
+                    + " parts, found " + parts.length);
+        }
+        int[] attributes = new int[parts.length - 2];
+        for (int i = 2; i < parts.length; i++) {
+            attributes[i - 2] = parseInt(parts[i], lineNumber,
+                    "sensor attribute");
+        }
+        return createSensor(parts[0], readings, attributes, lineNumber);
+    }
+
+    /**
+     * Parses a sensor's comma-separated readings.
+     * <p>
+     * A reading written as "reading*count" is repeated count times, as
+     * written by {@link TimedSensor#encode()} for sensors whose readings are
+     * stored as runs.
+     *
+     * @param value      comma-separated readings
+     * @param lineNumber line the readings were read from
+     * @return parsed readings
+     */
+    private static int[] parseReadings(String value, int lineNumber)
+            throws FileFormatException {
+        String[] readingParts = value.split(",", -1);
+        int[] readings = new int[readingParts.length];
+        int count = 0;
+        for (String part : readingParts) {
+            int star = part.indexOf('*');
+            if (star < 0) {
+                if (count == readings.length) {
+                    readings = Arrays.copyOf(readings, 2 * count);
+                }
+                readings[count++] = parseInt(part, lineNumber,
+                        "sensor reading");
+                continue;
+            }
+            int reading = parseInt(part.substring(0, star), lineNumber,
+                    "sensor reading");
+            int repeat = parseInt(part.substring(star + 1), lineNumber,
+                    "sensor reading count");
+            if (repeat < 1 || repeat > Integer.MAX_VALUE - count) {
+                throw error(lineNumber, "sensor reading count " + repeat
+                        + " is out of range");
+            }
+            if (count + repeat > readings.length) {
+                readings = Arrays.copyOf(readings, Math.max(count + repeat,
+                        2 * readings.length));
+            }
+            Arrays.fill(readings, count, count + repeat, reading);
+            count += repeat;
+        }
+        return count < readings.length
+                ? Arrays.copyOf(readings, count) : readings;
+    }
+
+    /**
+     * Returns the number of colon-separated parts in the record of a sensor
+     * with the given simple class name.
+     *
+     * @param sensorType simple class name of the sensor
+     * @param lineNumber line the sensor was read from
+     * @return number of parts, including the type and readings
+     * @throws FileFormatException if the sensor type is unknown
+     */
+    static int sensorPartCount(String sensorType, int lineNumber)
+            throws FileFormatException {
+        switch (sensorType) {
+            case "TemperatureSensor":
+                return 2;
+            case "NoiseSensor":
+                return 3;
+            case "OccupancySensor":
+                return 4;
+            case "CarbonDioxideSensor":
+                return 5;
+            default:
+                throw error(lineNumber, "unknown sensor type \""
+                        + sensorType + "\"");
+        }
+    }
+
+    /**
+     * Creates a sensor of the given type.
+     *
+     * @param sensorType simple class name of the sensor
+     * @param readings   sensor readings
+     * @param attributes integer attributes following the readings in the
+     *                   sensor's encoding, e.g. update frequency and capacity
+     * @param lineNumber line the sensor was read from
+     * @return new sensor
+     * @throws FileFormatException if the sensor type is unknown or the
+     *                             sensor's constructor rejects the values
+     */
+    static TimedSensor createSensor(String sensorType, int[] readings,
+                                    int[] attributes, int lineNumber)
+            throws FileFormatException {
+        try {
+            switch (sensorType) {
+                case "TemperatureSensor":
+                    return new TemperatureSensor(readings);
+                case "NoiseSensor":
+                    return new NoiseSensor(readings, attributes[0]);
+                case "OccupancySensor":
+                    return new OccupancySensor(readings, attributes[0],
+                            attributes[1]);
+                case "CarbonDioxideSensor":
+                    return new CarbonDioxideSensor(readings, attributes[0],
+                            attributes[1], attributes[2]);
+                default:
+                    throw error(lineNumber, "unknown sensor type \""
+                            + sensorType + "\"");
+            }
+        } catch (IllegalArgumentException e) {
+            throw error(lineNumber, "invalid " + sensorType, e);
+        }
+    }
+
+    /**
+     * Checks that the given hazard evaluator type is valid.
+     *
+     * @param evaluatorType type read from a room record; null if the room
+     *                      has no hazard evaluator
+     * @param lineNumber    line of the room record
+     * @return true if the evaluator is weighting based, and so its sensors
+     * carry weightings
+     * @throws FileFormatException if the type is not recognised
+     */
+    static boolean checkEvaluatorType(String evaluatorType, int lineNumber)
+            throws FileFormatException {
+        if (evaluatorType == null || evaluatorType.equals("RuleBased")
+                || CustomRuleHazardEvaluator.isCustomRule(evaluatorType)) {
+            return false;
+        }
+        if (evaluatorType.equals("WeightingBased")) {
+            return true;
+        }
+        throw error(lineNumber, "unknown hazard evaluator \""
+                + evaluatorType + "\"");
+    }
+
+    /**
+     * Gives the room a hazard evaluator of the given type over its sensors.
+     * <p>
+     * Sensors are handed to the evaluator in the room's (alphabetical)
+     * sensor order, so that the weightings line up with the sensors when
+     * the room is encoded again.
+     *
+     * @param room          room whose sensors have all been added
+     * @param evaluatorType evaluator type; null if the room has none
+     * @param sensors       sensors in the order they were read
+     * @param weightings    weighting of each sensor, in read order
+     * @param lineNumber    line of the room record
+     */
+    static void setHazardEvaluator(Room room, String evaluatorType,
+                                   List<TimedSensor> sensors,
+                                   int[] weightings, int lineNumber)
+            throws FileFormatException {
+        if (evaluatorType == null) {
+            return;
+        }
+        if (!checkEvaluatorType(evaluatorType, lineNumber)) {
+            List<HazardSensor> hazardSensors = new ArrayList<>();
+            for (Sensor sensor : room.getSensors()) {
+                if (sensor instanceof HazardSensor) {
+                    hazardSensors.add((HazardSensor) sensor);
+                }
+            }
+            if (!CustomRuleHazardEvaluator.isCustomRule(evaluatorType)) {
+                room.setHazardEvaluator(
+                        new RuleBasedHazardEvaluator(hazardSensors));
+                return;
+            }
+            try {
+                room.setHazardEvaluator(new CustomRuleHazardEvaluator(
+                        CustomRuleHazardEvaluator.parseRule(evaluatorType),
+                        room.getType(), hazardSensors));
+            } catch (IllegalArgumentException e) {
+                throw error(lineNumber, "invalid hazard rule", e);
+            }
+            return;
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < sensors.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(
+                i -> sensors.get(i).getClass().getSimpleName()));
+        Map<HazardSensor, Integer> weightingMap = new LinkedHashMap<>();
+        for (int i : order) {
+            if (!(sensors.get(i) instanceof HazardSensor)) {
+                throw error(lineNumber, "weighting given for a sensor that "
+                        + "is not a hazard sensor");
+            }
+            weightingMap.put((HazardSensor) sensors.get(i), weightings[i]);
+        }
+        try {
+            room.setHazardEvaluator(
+                    new WeightingBasedHazardEvaluator(weightingMap));
+        } catch (IllegalArgumentException e) {
+            throw error(lineNumber, "invalid hazard evaluator weightings", e);
+        }
+    }
+
+    /**
+     * Adds the floor to the building, reporting any problems as file format
+     * errors.
+     *
+     * @param building   building to add to
+     * @param floor      floor to add
+     * @param lineNumber line of the floor record
+     */
+    static void addFloor(Building building, Floor floor, int lineNumber)
+            throws FileFormatException {
+        try {
+            building.addFloor(floor);
+        } catch (IllegalArgumentException | DuplicateFloorException
+                | NoFloorBelowException | FloorTooSmallException e) {
+            throw error(lineNumber, "could not add floor", e);
+        }
+    }
+
+    /**
+     * Adds the room to the floor, reporting any problems as file format
+     * errors.
+     *
+     * @param floor      floor to add to
+     * @param room       room to add
+     * @param lineNumber line of the room record
+     */
+    static void addRoom(Floor floor, Room room, int lineNumber)
+            throws FileFormatException {
+        try {
+            floor.addRoom(room);
+        } catch (IllegalArgumentException | DuplicateRoomException
+                | InsufficientSpaceException e) {
+            throw error(lineNumber, "could not add room", e);
+        }
+    }
+
+    /**
+     * Adds the sensor to the room, reporting any problems as file format
+     * errors.
+     *
+     * @param room       room to add to
+     * @param sensor     sensor to add
+     * @param lineNumber line of the room record
+     */
+    static void addSensor(Room room, Sensor sensor, int lineNumber)
+            throws FileFormatException {
+        try {
+            room.addSensor(sensor);
+        } catch (DuplicateSensorException e) {
+            throw error(lineNumber, "could not add sensor", e);
+        }
+    }
+
+    /**
+     * Creates the floor's maintenance schedule from the given room numbers,
+     * once all of the floor's rooms have been added.
+     *
+     * @param floor       floor to create the schedule on
+     * @param roomNumbers room numbers in schedule order
+     * @param lineNumber  line of the floor record
+     */
+    static void createMaintenanceSchedule(Floor floor, int[] roomNumbers,
+                                          int lineNumber)
+            throws FileFormatException {
+        List<Room> roomOrder = new ArrayList<>(roomNumbers.length);
+        for (int roomNumber : roomNumbers) {
+            Room room = floor.getRoomByNumber(roomNumber);
+            if (room == null) {
+                throw error(lineNumber, "maintenance schedule room "
+                        + roomNumber + " is not on floor "
+                        + floor.getFloorNumber());
+            }
+            roomOrder.add(room);
+        }
+        try {
+            floor.createMaintenanceSchedule(roomOrder);
+        } catch (IllegalArgumentException e) {
+            throw error(lineNumber, "invalid maintenance schedule", e);
+        }
+    }
+
+    /**
+     * Parses a room type.
+     *
+     * @param value      name of a room type
+     * @param lineNumber line the value was read from
+     * @return room type with the given name
+     */
+    static RoomType parseRoomType(String value, int lineNumber)
+            throws FileFormatException {
+        try {
+            return RoomType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw error(lineNumber, "unknown room type \"" + value + "\"", e);
+        }
+    }
+
+    /**
+     * Parses a non-negative count of child records.
+     *
+     * @param value      value to parse
+     * @param lineNumber line the value was read from
+     * @param what       description of the value for error messages
+     * @return parsed count
+     */
+    static int parseCount(String value, int lineNumber, String what)
+            throws FileFormatException {
+        int count = parseInt(value, lineNumber, what);
+        if (count < 0) {
+            throw error(lineNumber, what + " must not be negative");
+        }
+        return count;
+    }
+
+    /**
+     * Parses an integer.
+     *
+     * @param value      value to parse
+     * @param lineNumber line the value was read from
+     * @param what       description of the value for error messages
+     * @return parsed integer
+     */
+    static int parseInt(String value, int lineNumber, String what)
+            throws FileFormatException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw error(lineNumber, what + " \"" + value
+                    + "\" is not an integer", e);
+        }
+    }
+
+    /**
+     * Parses a double.
+     *
+     * @param value      value to parse
+     * @param lineNumber line the value was read from
+     * @param what       description of the value for error messages
+     * @return parsed double
+     */
+    static double parseDouble(String value, int lineNumber, String what)
+            throws FileFormatException {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw error(lineNumber, what + " \"" + value
+                    + "\" is not a number", e);
+        }
+    }
+
+    /**
+     * Creates a FileFormatException for a problem on the given line.
+     *
+     * @param lineNumber line on which the problem was found (1-based)
+     * @param message    description of the problem
+     * @return new exception
+     */
+    static FileFormatException error(int lineNumber, String message) {
+        return new FileFormatException("Line " + lineNumber + ": " + message);
+    }
+
+    /**
+     * Creates a FileFormatException for a problem on the given line, caused
+     * by another exception.
+     *
+     * @param lineNumber line on which the problem was found (1-based)
+     * @param message    description of the problem
+     * @param cause      underlying cause
+     * @return new exception
+     */
+    static FileFormatException error(int lineNumber, String message,
+                                     Throwable cause) {
+        return new FileFormatException("Line " + lineNumber + ": " + message
+                + (cause.getMessage() == null ? "" : " (" + cause.getMessage()
+                + ")"), cause);
+    }
+
+    /**
+     * Task which decodes a single building from its range of a mapped file.
+     */
+    private static class BuildingTask extends RecursiveTask<Building> {
+        /**
+         * Version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Parser limited to the building's range of the file.
+         */
+        private final MappedBuildingParser parser;
+
+        /**
+         * Position of the building in the file, counting from 0.
+         */
+        private final int index;
+
+        /**
+         * Position of the first building in the file found to be invalid so
+         * far, shared by the tasks for every building in the file.
+         */
+        private final AtomicInteger firstFailure;
+
+        /**
+         * Creates a task to decode the building covered by the given parser.
+         *
+         * @param parser       parser positioned at the start of the building
+         * @param index        position of the building in the file
+         * @param firstFailure position of the first invalid building found
+         *                     so far, shared by every task for the file
+         */
+        private BuildingTask(MappedBuildingParser parser, int index,
+                             AtomicInteger firstFailure) {
+            this.parser = parser;
+            this.index = index;
+            this.firstFailure = firstFailure;
+        }
+
+        /**
+         * Decodes the building, unless a building earlier in the file has
+         * already been found to be invalid.
+         *
+         * @return decoded building, or null if it was not decoded
+         * @throws BuildingFormatFailure wrapping the FileFormatException if the
+         *                             building is invalid
+         */
+        @Override
+        protected Building compute() {
+            if (this.firstFailure.get() < this.index) {
+                // The load fails anyway, and this building would be discarded
+                return null;
+            }
+            try {
+                Building building = this.parser.readBuilding();
+                if (this.parser.hasRemaining()) {
+                    building.discard();
+                    throw error(this.parser.getLineNumber(),
+                            "unexpected data after building");
+                }
+                return building;
+            } catch (FileFormatException e) {
+                this.firstFailure.accumulateAndGet(this.index, Math::min);
+                throw new BuildingFormatFailure(e);
+            } catch (RuntimeException e) {
+                this.firstFailure.accumulateAndGet(this.index, Math::min);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Unchecked carrier for a FileFormatException thrown inside a
+     * BuildingTask.
+     */
+    private static class BuildingFormatFailure extends RuntimeException {
+        /**
+         * Version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Wraps the given exception.
+         *
+         * @param cause format exception thrown while decoding
+         */
+        private BuildingFormatFailure(FileFormatException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Line-at-a-time view of a reader that keeps track of the current line
+     * number.
+     */
+    static class LineReader {
+        /**
+         * Underlying reader.
+         */
+        private final BufferedReader reader;
+        /**
+         * Line read ahead by hasNext(), or null.
+         */
+        private String peeked;
+        /**
+         * Number of the line most recently returned by next().
+         */
+        private int lineNumber;
+
+        /**
+         * Creates a line reader over the given reader.
+         *
+         * @param reader reader to read lines from
+         */
+        LineReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Returns whether there is another line to read.
+         *
+         * @return true if next() will return a line
+         */
+        boolean hasNext() throws IOException {
+            if (this.peeked == null) {
+                this.peeked = this.reader.readLine();
+            }
+            return this.peeked != null;
+        }
+
+        /**
+         * Returns the next line.
+         *
+         * @return next line
+         * @throws FileFormatException if the end of the input was reached
+         */
+        String next() throws IOException, FileFormatException {
+            if (!hasNext()) {
+                throw error(this.lineNumber + 1, "unexpected end of file");
+            }
+            String line = this.peeked;
+            this.peeked = null;
+            this.lineNumber++;
+            return line;
+        }
+
+        /**
+         * Returns the number of the line most recently returned by next().
+         *
+         * @return current line number (1-based)
+         */
+        int getLineNumber() {
+            return this.lineNumber;
+        }
+    }
+}
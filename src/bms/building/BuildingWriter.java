@@ -0,0 +1,216 @@
+package bms.building;
+
+import bms.util.EncodeWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Class which manages writing lists of buildings to save files.
+ * <p>
+ * Save files contain the encoded representation of each building (see
+ * {@link Building#encode()}), one after the other, and can be read back with
+ * {@link BuildingInitialiser#loadBuildings(String)}.
+ * <p>
+ * Saves are crash-safe: the buildings are written to a temporary file in the
+ * same directory as the save file, which is flushed to disk and then renamed
+ * over the save file. If the process stops part way through a save, the
+ * previous save file (if any) is left intact.
+ */
+public class BuildingWriter {
+    /**
+     * Suffix of the temporary file a save is written to before it is renamed.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * Number of temporary files created by this process, used to give
+     * concurrent saves to the same file distinct temporary files.
+     */
+    private static final AtomicLong TEMP_COUNTER = new AtomicLong();
+
+    /**
+     * Returns a snapshot of the given buildings that can be saved on another
+     * thread while the buildings continue to be modified.
+     * <p>
+     * This method should be called on the thread that modifies the
+     * buildings. See {@link Building#snapshot()}.
+     *
+     * @param buildings buildings to take a snapshot of
+     * @return snapshot of each building, in order
+     */
+    public static List<Building> snapshot(List<Building> buildings) {
+        List<Building> snapshot = new ArrayList<>(buildings.size());
+        for (Building building : buildings) {
+            snapshot.add(building.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Saves the given buildings to the file with the given name, replacing
+     * it atomically.
+     *
+     * @param buildings buildings to save
+     * @param filename  path of the file to save to
+     * @throws IOException if the buildings could not be written; the
+     *                     existing file is unchanged
+     */
+    public static void save(List<Building> buildings, String filename)
+            throws IOException {
+        save(buildings, filename, written -> { });
+    }
+
+    /**
+     * Saves the given buildings to the file with the given name, replacing
+     * it atomically, and reports progress after each building is written.
+     * <p>
+     * The temporary file is forced to disk before it is renamed over the
+     * save file, so a completed save survives a crash of the process or
+     * operating system.
+     *
+     * @param buildings buildings to save
+     * @param filename  path of the file to save to
+     * @param progress  called with the number of buildings written so far,
+     *                  after each building is written
+     * @throws IOException if the buildings could not be written; the
+     *                     existing file is unchanged
+     */
+    public static void save(List<Building> buildings, String filename,
+                            IntConsumer progress) throws IOException {
+        Path target = Paths.get(filename).toAbsolutePath();
+        Path temp = writeTemporary(buildings, target, progress, null);
+        replace(temp, target);
+    }
+
+    /**
+     * Writes the given buildings to a new temporary file next to the target
+     * file and forces it to disk.
+     * <p>
+     * The temporary file is deleted if writing fails.
+     *
+     * @param buildings buildings to write
+     * @param target    absolute path of the file that will be replaced
+     * @param progress  called with the number of buildings written so far,
+     *                  after each building is written
+     * @param checksum  updated with every byte written; may be null
+     * @return path of the temporary file
+     * @throws IOException if the buildings could not be written
+     */
+    static Path writeTemporary(List<Building> buildings, Path target,
+                               IntConsumer progress, Checksum checksum)
+            throws IOException {
+        Path temp = temporaryPath(target);
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                OutputStream stream = Channels.newOutputStream(channel);
+                if (checksum != null) {
+                    stream = new CheckedOutputStream(stream, checksum);
+                }
+                // Not closed here: closing it would close the channel before
+                // it is forced to disk
+                EncodeWriter out = new EncodeWriter(new OutputStreamWriter(
+                        stream, Charset.defaultCharset()));
+                int written = 0;
+                for (Building building : buildings) {
+                    building.encodeTo(out);
+                    progress.accept(++written);
+                }
+                out.flush();
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Returns a new path for a temporary file that will be renamed over the
+     * given target file once it has been written.
+     * <p>
+     * The path is in the same directory as the target, so that the rename
+     * can be atomic, and is unique within this process.
+     *
+     * @param target file that will be replaced
+     * @return path for a temporary file
+     */
+    static Path temporaryPath(Path target) {
+        // Files.createTempFile() would give the save owner-only permissions
+        return target.resolveSibling(target.getFileName() + "."
+                + ProcessHandle.current().pid() + "."
+                + TEMP_COUNTER.incrementAndGet() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Renames a fully written temporary file over the target file, and
+     * forces the rename to disk where possible.
+     * <p>
+     * The temporary file is deleted if it cannot be renamed.
+     *
+     * @param temp   temporary file returned by writeTemporary()
+     * @param target file to replace
+     * @throws IOException if the file could not be renamed
+     */
+    static void replace(Path temp, Path target) throws IOException {
+        try {
+            move(temp, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * Renames the temporary file over the target file, atomically if the
+     * file system supports it.
+     *
+     * @param temp   file to rename
+     * @param target file to replace
+     * @throws IOException if the file could not be renamed
+     */
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces the directory entry for a renamed file to disk.
+     * <p>
+     * Not every platform allows a directory to be opened, so failures are
+     * ignored; the save itself has already completed.
+     *
+     * @param directory directory containing the renamed file
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // best effort only
+        }
+    }
+}
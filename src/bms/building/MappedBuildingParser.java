@@ -0,0 +1,877 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import bms.floor.Floor;
+import bms.hazardevaluation.CustomRuleHazardEvaluator;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.TimedSensor;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser for the encoded building format which reads directly from a
+ * memory-mapped save file.
+ * <p>
+ * Separators and numbers are tokenised straight out of the mapped bytes, so
+ * no intermediate String or split arrays are created for records. The only
+ * Strings created are building names (and the text of invalid tokens, when
+ * reporting an error).
+ * <p>
+ * The resulting buildings are the same as those produced by
+ * {@link BuildingInitialiser#loadBuildings(String)}, and the same model
+ * checks are applied through the shared helpers in BuildingInitialiser.
+ */
+class MappedBuildingParser {
+    /**
+     * Number of bits used to address a byte within one mapped segment.
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * Mask selecting the offset within a mapped segment.
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * Powers of ten that are exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4,
+            1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15,
+            1e16, 1e17, 1e18};
+
+    /**
+     * Sensor type names, in the order used for token matching.
+     */
+    private static final String[] SENSOR_TYPES = {"TemperatureSensor",
+            "NoiseSensor", "OccupancySensor", "CarbonDioxideSensor"};
+    /**
+     * Number of integer attributes following the readings of each sensor
+     * type, indexed as SENSOR_TYPES.
+     */
+    private static final int[] SENSOR_ATTRIBUTES = {0, 1, 2, 3};
+    /**
+     * Hazard evaluator type names.
+     */
+    private static final String[] EVALUATOR_TYPES = {"RuleBased",
+            "WeightingBased"};
+
+    /**
+     * ASCII bytes of the sensor type names.
+     */
+    private static final byte[][] SENSOR_TYPE_BYTES = toBytes(SENSOR_TYPES);
+    /**
+     * ASCII bytes of the room type names.
+     */
+    private static final byte[][] ROOM_TYPE_BYTES;
+    /**
+     * ASCII bytes of the hazard evaluator type names.
+     */
+    private static final byte[][] EVALUATOR_TYPE_BYTES =
+            toBytes(EVALUATOR_TYPES);
+    /**
+     * ASCII bytes at the start of a custom rule hazard evaluator.
+     */
+    private static final byte[] CUSTOM_RULE_BYTES =
+            CustomRuleHazardEvaluator.PREFIX.getBytes(
+                    StandardCharsets.US_ASCII);
+
+    static {
+        RoomType[] roomTypes = RoomType.values();
+        String[] names = new String[roomTypes.length];
+        for (int i = 0; i < roomTypes.length; i++) {
+            names[i] = roomTypes[i].name();
+        }
+        ROOM_TYPE_BYTES = toBytes(names);
+    }
+
+    /**
+     * Mapped segments of the file, each covering up to 2^SEGMENT_BITS bytes.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * Segment most recently read from.
+     */
+    private MappedByteBuffer segment;
+    /**
+     * Absolute position of the first byte of the current segment.
+     */
+    private long segmentStart;
+    /**
+     * Absolute position of the next byte to read.
+     */
+    private long position;
+    /**
+     * Absolute position at which this parser started.
+     */
+    private final long start;
+    /**
+     * Absolute position just past the last byte this parser may read.
+     */
+    private final long limit;
+    /**
+     * Number of the line at which this parser started.
+     */
+    private final int startLine;
+    /**
+     * Number of the line currently being read (1-based).
+     */
+    private int lineNumber;
+
+    /**
+     * Creates a parser over the given mapped segments.
+     *
+     * @param segments   mapped segments of the whole file
+     * @param start      absolute position at which to start parsing
+     * @param limit      absolute position at which to stop parsing
+     * @param lineNumber number of the line starting at {@code start}
+     */
+    MappedBuildingParser(MappedByteBuffer[] segments, long start, long limit,
+                         int lineNumber) {
+        this.segments = segments;
+        this.segment = segments.length > 0 ? segments[0] : null;
+        this.start = start;
+        this.position = start;
+        this.limit = limit;
+        this.startLine = lineNumber;
+        this.lineNumber = lineNumber;
+    }
+
+    /**
+     * Returns a new parser over the same bytes as this one, positioned where
+     * this parser started.
+     * <p>
+     * The mapped segments are shared but each parser has its own position,
+     * so the new parser may be used on a different thread to this one.
+     *
+     * @return new parser at this parser's starting position
+     */
+    MappedBuildingParser rewind() {
+        return new MappedBuildingParser(this.segments, this.start,
+                this.limit, this.startLine);
+    }
+
+    /**
+     * Maps the whole of the given file into memory, read-only.
+     *
+     * @param path file to map
+     * @return mapped segments covering the file in order
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    static MappedByteBuffer[] map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long offset = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset, Math.min(size - offset, 1L << SEGMENT_BITS));
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Returns the total number of bytes covered by the given segments.
+     *
+     * @param segments mapped segments
+     * @return total size in bytes
+     */
+    static long size(MappedByteBuffer[] segments) {
+        if (segments.length == 0) {
+            return 0;
+        }
+        return ((long) (segments.length - 1) << SEGMENT_BITS)
+                + segments[segments.length - 1].capacity();
+    }
+
+    /**
+     * Parses every building between the start and limit of this parser.
+     *
+     * @return buildings in the order they appear
+     * @throws FileFormatException if the data is not in the expected format
+     */
+    List<Building> readBuildings() throws FileFormatException {
+        List<Building> buildings = new ArrayList<>();
+        try {
+            while (this.position < this.limit) {
+                buildings.add(readBuilding());
+            }
+        } catch (FileFormatException | RuntimeException e) {
+            BuildingInitialiser.discard(buildings);
+            throw e;
+        }
+        return buildings;
+    }
+
+    /**
+     * Returns the absolute position of the next byte to be read.
+     *
+     * @return current position
+     */
+    long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Returns the number of the line currently being read.
+     *
+     * @return current line number (1-based)
+     */
+    int getLineNumber() {
+        return this.lineNumber;
+    }
+
+    /**
+     * Returns whether any bytes remain before the limit.
+     *
+     * @return true if there is more to parse
+     */
+    boolean hasRemaining() {
+        return this.position < this.limit;
+    }
+
+    /**
+     * Moves past one building without constructing anything.
+     * <p>
+     * Only the floor, room and sensor counts are parsed, which is enough to
+     * find where the next building starts; all other lines are skipped
+     * byte by byte.
+     *
+     * @throws FileFormatException if a count is missing or invalid, or the
+     *                             data ends part-way through the building
+     */
+    void skipBuilding() throws FileFormatException {
+        skipLine();
+        int numFloors = readCount("number of floors");
+        endLine();
+        for (int i = 0; i < numFloors; i++) {
+            skipFields(3);
+            int numRooms = readCount("number of rooms");
+            skipLine();
+            for (int j = 0; j < numRooms; j++) {
+                skipFields(3);
+                int numSensors = readCount("number of sensors");
+                skipLine();
+                for (int k = 0; k < numSensors; k++) {
+                    skipLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves past the given number of colon-terminated fields on the current
+     * line.
+     *
+     * @param fields number of fields to skip
+     * @throws FileFormatException if the line ends first
+     */
+    private void skipFields(int fields) throws FileFormatException {
+        for (int i = 0; i < fields; i++) {
+            int next;
+            while ((next = peek()) != ':') {
+                if (next == '\n' || next == '\r' || next == -1) {
+                    throw error("expected ':' but found " + describeNext());
+                }
+                this.position++;
+            }
+            this.position++;
+        }
+    }
+
+    /**
+     * Moves past the rest of the current line and its line ending, if any.
+     * <p>
+     * A truncated final line is not an error here; it is reported when the
+     * building is actually parsed.
+     */
+    private void skipLine() {
+        this.position = afterLineEnding(lineEnd(this.position));
+        this.lineNumber++;
+    }
+
+    /**
+     * Parses the name line at the start of a building, leaving the parser
+     * positioned at its number of floors.
+     *
+     * @return the building's name
+     * @throws FileFormatException if the data ends before the name does
+     */
+    String readName() throws FileFormatException {
+        return readLine();
+    }
+
+    /**
+     * Appends every line between the current position and the limit to the
+     * given destination, each followed by the platform line separator.
+     * <p>
+     * Lines are copied as they are, without being checked; a final line
+     * with no line ending is given one.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    void copyTo(Appendable out) throws IOException {
+        while (this.position < this.limit) {
+            long end = lineEnd(this.position);
+            byte[] bytes = new byte[(int) (end - this.position)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(this.position + i);
+            }
+            out.append(new String(bytes, StandardCharsets.UTF_8))
+                    .append(System.lineSeparator());
+            this.position = afterLineEnding(end);
+            this.lineNumber++;
+        }
+    }
+
+    /**
+     * Parses one building and all of its floors.
+     *
+     * @return the building read
+     */
+    Building readBuilding() throws FileFormatException {
+        Building building = new Building(readLine());
+        int numFloors = readCount("number of floors");
+        endLine();
+        try {
+            for (int i = 0; i < numFloors; i++) {
+                readFloor(building);
+            }
+        } catch (FileFormatException | RuntimeException e) {
+            // Stop elapsing the sensors already read
+            building.discard();
+            throw e;
+        }
+        return building;
+    }
+
+    /**
+     * Parses a floor record, adds the floor to the building, and parses its
+     * rooms.
+     *
+     * @param building building the floor belongs to
+     */
+    private void readFloor(Building building) throws FileFormatException {
+        int floorLine = this.lineNumber;
+        int floorNumber = readInt("floor number");
+        expect(':');
+        double width = readDouble("floor width");
+        expect(':');
+        double length = readDouble("floor length");
+        expect(':');
+        int numRooms = readCount("number of rooms");
+
+        int[] schedule = null;
+        if (peek() == ':') {
+            this.position++;
+            schedule = new int[countValues()];
+            for (int i = 0; i < schedule.length; i++) {
+                if (i > 0) {
+                    expect(',');
+                }
+                schedule[i] = readInt("maintenance schedule room number");
+            }
+        }
+        endLine();
+
+        Floor floor = new Floor(floorNumber, width, length);
+        BuildingInitialiser.addFloor(building, floor, floorLine);
+        for (int i = 0; i < numRooms; i++) {
+            readRoom(floor);
+        }
+        if (schedule != null) {
+            BuildingInitialiser.createMaintenanceSchedule(floor, schedule,
+                    floorLine);
+        }
+    }
+
+    /**
+     * Parses a room record and its sensors, and adds the room to the floor.
+     *
+     * @param floor floor the room belongs to
+     */
+    private void readRoom(Floor floor) throws FileFormatException {
+        int roomLine = this.lineNumber;
+        int roomNumber = readInt("room number");
+        expect(':');
+        RoomType type = RoomType.values()[
+                matchToken(ROOM_TYPE_BYTES, "room type")];
+        expect(':');
+        double area = readDouble("room area");
+        expect(':');
+        int numSensors = readCount("number of sensors");
+        String evaluatorType = null;
+        if (peek() == ':') {
+            this.position++;
+            if (lookingAt(CUSTOM_RULE_BYTES)) {
+                // Rules are rare and free-form, so are read as text
+                evaluatorType = readLine();
+            } else {
+                evaluatorType = EVALUATOR_TYPES[matchToken(
+                        EVALUATOR_TYPE_BYTES, "hazard evaluator")];
+                endLine();
+            }
+        } else {
+            endLine();
+        }
+        boolean weighted = BuildingInitialiser.checkEvaluatorType(
+                evaluatorType, roomLine);
+
+        Room room = new Room(roomNumber, type, area);
+        // The count is not trusted, so storage grows as sensors are read
+        List<TimedSensor> sensors = new ArrayList<>();
+        int[] weightings = new int[0];
+        try {
+            for (int i = 0; i < numSensors; i++) {
+                sensors.add(readSensor());
+                if (weighted) {
+                    expect('@');
+                    weightings = BuildingInitialiser.growWeightings(
+                            weightings, i);
+                    weightings[i] = readInt("weighting");
+                } else if (peek() == '@') {
+                    throw error("weighting given without a WeightingBased "
+                            + "hazard evaluator");
+                }
+                endLine();
+            }
+            for (TimedSensor sensor : sensors) {
+                BuildingInitialiser.addSensor(room, sensor, roomLine);
+            }
+            BuildingInitialiser.setHazardEvaluator(room, evaluatorType,
+                    sensors, weightings, roomLine);
+            BuildingInitialiser.addRoom(floor, room, roomLine);
+        } catch (FileFormatException | RuntimeException e) {
+            BuildingInitialiser.discardSensors(sensors);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a sensor record, up to (but not including) any weighting.
+     * <p>
+     * Readings written as "reading*count" are repeated count times.
+     *
+     * @return the sensor read
+     */
+    private TimedSensor readSensor() throws FileFormatException {
+        int type = matchToken(SENSOR_TYPE_BYTES, "sensor type");
+        expect(':');
+        int[] readings = new int[countValues()];
+        int count = 0;
+        while (true) {
+            int reading = readInt("sensor reading");
+            int repeat = 1;
+            if (peek() == '*') {
+                this.position++;
+                repeat = readInt("sensor reading count");
+                if (repeat < 1 || repeat > Integer.MAX_VALUE - count) {
+                    throw error("sensor reading count " + repeat
+                            + " is out of range");
+                }
+            }
+            if (count + repeat > readings.length) {
+                readings = Arrays.copyOf(readings, Math.max(count + repeat,
+                        2 * readings.length));
+            }
+            Arrays.fill(readings, count, count + repeat, reading);
+            count += repeat;
+            if (peek() != ',') {
+                break;
+            }
+            this.position++;
+        }
+        if (count < readings.length) {
+            readings = Arrays.copyOf(readings, count);
+        }
+        int[] attributes = new int[SENSOR_ATTRIBUTES[type]];
+        for (int i = 0; i < attributes.length; i++) {
+            expect(':');
+            attributes[i] = readInt("sensor attribute");
+        }
+        return BuildingInitialiser.createSensor(SENSOR_TYPES[type], readings,
+                attributes, this.lineNumber);
+    }
+
+    /**
+     * Returns the byte at the given absolute position.
+     *
+     * @param at absolute position, less than the limit
+     * @return byte at that position
+     */
+    private byte byteAt(long at) {
+        long offset = at - this.segmentStart;
+        if (offset < 0 || offset >= this.segment.limit()) {
+            this.segment = this.segments[(int) (at >>> SEGMENT_BITS)];
+            this.segmentStart = at & ~SEGMENT_MASK;
+            offset = at - this.segmentStart;
+        }
+        return this.segment.get((int) offset);
+    }
+
+    /**
+     * Returns the next byte without consuming it, or -1 at the limit.
+     *
+     * @return next byte, or -1
+     */
+    private int peek() {
+        return this.position < this.limit ? byteAt(this.position) : -1;
+    }
+
+    /**
+     * Consumes the given separator.
+     *
+     * @param separator expected separator character
+     * @throws FileFormatException if the next byte is something else
+     */
+    private void expect(char separator) throws FileFormatException {
+        if (peek() != separator) {
+            throw error("expected '" + separator + "' but found "
+                    + describeNext());
+        }
+        this.position++;
+    }
+
+    /**
+     * Consumes the end of the current line ("\n", "\r\n", "\r" or the
+     * limit).
+     *
+     * @throws FileFormatException if the line has unexpected trailing data
+     */
+    private void endLine() throws FileFormatException {
+        int next = peek();
+        if (next == '\n' || next == '\r') {
+            this.position = afterLineEnding(this.position);
+        } else if (next != -1) {
+            throw error("expected end of line but found " + describeNext());
+        }
+        this.lineNumber++;
+    }
+
+    /**
+     * Returns the position of the line ending that ends the line holding
+     * the given position, or the limit if that line has no line ending.
+     * <p>
+     * As with {@link java.io.BufferedReader#readLine()}, a line ends at
+     * "\n", "\r\n" or a lone "\r".
+     *
+     * @param from absolute position within the line
+     * @return position of the line's ending, or the limit
+     */
+    private long lineEnd(long from) {
+        long end = from;
+        while (end < this.limit) {
+            byte b = byteAt(end);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the position just after the line ending at the given
+     * position.
+     *
+     * @param end position of a line ending, or the limit
+     * @return position of the start of the next line, or the limit
+     */
+    private long afterLineEnding(long end) {
+        if (end >= this.limit) {
+            return this.limit;
+        }
+        if (byteAt(end) == '\r' && end + 1 < this.limit
+                && byteAt(end + 1) == '\n') {
+            return end + 2;
+        }
+        return end + 1;
+    }
+
+    /**
+     * Returns whether the given bytes come next, without consuming them.
+     *
+     * @param bytes bytes to look for
+     * @return true if the input continues with the bytes
+     */
+    private boolean lookingAt(byte[] bytes) {
+        if (this.limit - this.position < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (byteAt(this.position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the rest of the current line as a UTF-8 String, and consumes
+     * the line ending.
+     *
+     * @return contents of the line
+     */
+    private String readLine() throws FileFormatException {
+        long start = this.position;
+        long end = lineEnd(start);
+        if (end == this.limit) {
+            throw error("unexpected end of file");
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        this.position = afterLineEnding(end);
+        this.lineNumber++;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts the comma-separated values from the current position up to the
+     * next ':', '@' or end of line, without consuming anything.
+     *
+     * @return number of values (at least one)
+     */
+    private int countValues() {
+        int count = 1;
+        for (long at = this.position; at < this.limit; at++) {
+            byte b = byteAt(at);
+            if (b == ',') {
+                count++;
+            } else if (b == ':' || b == '@' || b == '\n' || b == '\r') {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads a non-negative count of child records.
+     *
+     * @param what description of the value for error messages
+     * @return parsed count
+     */
+    private int readCount(String what) throws FileFormatException {
+        int count = readInt(what);
+        if (count < 0) {
+            throw error(what + " must not be negative");
+        }
+        return count;
+    }
+
+    /**
+     * Reads an optionally signed decimal integer.
+     *
+     * @param what description of the value for error messages
+     * @return parsed integer
+     */
+    private int readInt(String what) throws FileFormatException {
+        long start = this.position;
+        boolean negative = false;
+        int next = peek();
+        if (next == '-' || next == '+') {
+            negative = next == '-';
+            this.position++;
+        }
+        long value = 0;
+        int digits = 0;
+        while ((next = peek()) >= '0' && next <= '9') {
+            value = value * 10 + (next - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw error(what + " " + describeToken(start)
+                        + " is out of range");
+            }
+            digits++;
+            this.position++;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (digits == 0 || value > Integer.MAX_VALUE) {
+            throw error(what + " " + describeToken(start)
+                    + " is not an integer");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads a decimal number such as those written with "%.2f".
+     * <p>
+     * Plain decimals with up to 18 significant digits are converted exactly
+     * as {@link Double#parseDouble(String)} would; anything else (exponents,
+     * very long values) falls back to parseDouble on the token's text.
+     *
+     * @param what description of the value for error messages
+     * @return parsed number
+     */
+    private double readDouble(String what) throws FileFormatException {
+        long start = this.position;
+        boolean negative = false;
+        int next = peek();
+        if (next == '-' || next == '+') {
+            negative = next == '-';
+            this.position++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        while (true) {
+            next = peek();
+            if (next >= '0' && next <= '9') {
+                mantissa = mantissa * 10 + (next - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (next == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+            this.position++;
+        }
+        if (next == ':' || next == '\r' || next == '\n' || next == -1) {
+            if (digits > 0 && digits <= 18
+                    && fractionDigits <= 18) {
+                // both operands are exact doubles, so the quotient is
+                // correctly rounded, as parseDouble would be
+                double value = fractionDigits <= 0 ? (double) mantissa
+                        : mantissa / POWERS_OF_TEN[fractionDigits];
+                if (mantissa < (1L << 53)) {
+                    return negative ? -value : value;
+                }
+            }
+        }
+        while ((next = peek()) != ':' && next != '\r' && next != '\n'
+                && next != -1) {
+            this.position++;
+        }
+        String token = tokenText(start, this.position);
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw error(what + " \"" + token + "\" is not a number");
+        }
+    }
+
+    /**
+     * Reads a token and returns the index of the candidate it matches.
+     * <p>
+     * The token extends up to the next ':', ',', '@' or end of line.
+     *
+     * @param candidates ASCII bytes of each valid token
+     * @param what       description of the token for error messages
+     * @return index into candidates of the matching token
+     * @throws FileFormatException if no candidate matches
+     */
+    private int matchToken(byte[][] candidates, String what)
+            throws FileFormatException {
+        long start = this.position;
+        long end = start;
+        int b;
+        while (end < this.limit && (b = byteAt(end)) != ':' && b != ','
+                && b != '@' && b != '\n' && b != '\r') {
+            end++;
+        }
+        int length = (int) (end - start);
+        for (int i = 0; i < candidates.length; i++) {
+            byte[] candidate = candidates[i];
+            if (candidate.length != length) {
+                continue;
+            }
+            int j = 0;
+            while (j < length && byteAt(start + j) == candidate[j]) {
+                j++;
+            }
+            if (j == length) {
+                this.position = end;
+                return i;
+            }
+        }
+        throw error("unknown " + what + " \"" + tokenText(start, end) + "\"");
+    }
+
+    /**
+     * Describes the token starting at the given position, for error
+     * messages.
+     *
+     * @param start absolute position of the token
+     * @return the token's text in double quotes
+     */
+    private String describeToken(long start) {
+        long end = start;
+        int b;
+        while (end < this.limit && (b = byteAt(end)) != ':' && b != ','
+                && b != '@' && b != '\n' && b != '\r') {
+            end++;
+        }
+        return "\"" + tokenText(start, end) + "\"";
+    }
+
+    /**
+     * Describes the next byte, for error messages.
+     *
+     * @return description of the next byte
+     */
+    private String describeNext() {
+        int next = peek();
+        if (next == -1) {
+            return "end of file";
+        }
+        if (next == '\n' || next == '\r') {
+            return "end of line";
+        }
+        return "'" + (char) next + "'";
+    }
+
+    /**
+     * Decodes the bytes between the given positions as UTF-8.
+     *
+     * @param start absolute start position (inclusive)
+     * @param end   absolute end position (exclusive)
+     * @return decoded text
+     */
+    private String tokenText(long start, long end) {
+        byte[] bytes = new byte[(int) Math.min(end - start, 256)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a FileFormatException for a problem on the current line.
+     *
+     * @param message description of the problem
+     * @return new exception
+     */
+    private FileFormatException error(String message) {
+        return BuildingInitialiser.error(this.lineNumber, message);
+    }
+
+    /**
+     * Converts ASCII names to byte arrays.
+     *
+     * @param names names to convert
+     * @return bytes of each name
+     */
+    private static byte[][] toBytes(String[] names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+}
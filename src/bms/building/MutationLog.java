@@ -0,0 +1,887 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of the changes made to a list of buildings since it was
+ * last saved.
+ * <p>
+ * Each change is appended as a mutation: a list of string fields describing
+ * the change, which the caller knows how to apply again. Mutations are
+ * numbered with increasing sequence numbers. The log is kept in a file next
+ * to a save file, with the suffix ".wal", so that changes which have not
+ * been saved yet can be replayed on top of the save file after the process
+ * stops.
+ * <p>
+ * The log file has the following structure:
+ * <pre>
+ * &#64;wal logId baseSequence
+ * sequence	field1	field2	...	checksum
+ * ...
+ * </pre>
+ * Fields are separated by tabs, with tabs, line breaks and backslashes in
+ * fields escaped by a backslash. Each mutation ends with the CRC-32C checksum
+ * of the rest of its line, so that a mutation which was only partly written
+ * is detected and discarded. The log ID identifies this log to the save
+ * journal that records which mutations a save includes (see
+ * {@link SaveJournal#prepare(List, MutationLog)}), and the base sequence is
+ * the sequence number of the last mutation removed from the log by a
+ * checkpoint.
+ * <p>
+ * Appending a mutation only copies it to a buffer. A background thread
+ * writes the buffer to the file and forces it to disk, so the mutations
+ * appended while one write is in progress are committed together by the
+ * next write (group commit). A mutation is therefore durable shortly after
+ * it has been appended, without the thread making changes having to wait
+ * for the disk.
+ */
+public class MutationLog implements Closeable {
+    /**
+     * Suffix added to the save file's filename to give the log's filename.
+     */
+    private static final String LOG_SUFFIX = ".wal";
+    /**
+     * First word of the log's first line.
+     */
+    private static final String HEADER = "@wal";
+    /**
+     * Separator between the fields of a mutation.
+     */
+    private static final char SEPARATOR = '\t';
+    /**
+     * Character used to escape special characters in fields.
+     */
+    private static final char ESCAPE = '\\';
+
+    /**
+     * Absolute path of the log file.
+     */
+    private final Path path;
+    /**
+     * Line separator, encoded.
+     */
+    private final byte[] lineSeparator;
+    /**
+     * Lock held while appending to or swapping the buffers, and while
+     * reading or updating the sequence numbers below.
+     */
+    private final Object bufferLock = new Object();
+    /**
+     * Lock held while writing the log file.
+     */
+    private final Object fileLock = new Object();
+    /**
+     * Thread that writes appended mutations to the log file.
+     */
+    private final Thread flusher;
+
+    /**
+     * Identifier of this log, which changes when the log is reset.
+     */
+    private volatile String logId;
+    /**
+     * Sequence number of the last mutation removed by a checkpoint; every
+     * mutation in the file has a greater sequence number.
+     */
+    private long baseSequence;
+    /**
+     * Channel the log file is appended to.
+     */
+    private FileChannel channel;
+    /**
+     * Contents of the file when the log was opened, until the mutations in
+     * it are read by {@link MutationLog#readRecovered(long, Consumer)};
+     * otherwise null.
+     */
+    private byte[] recovered;
+    /**
+     * Offset of the first mutation in the recovered contents.
+     */
+    private int recoveredStart;
+    /**
+     * Offset of the end of the last valid mutation in the recovered
+     * contents.
+     */
+    private int recoveredEnd;
+    /**
+     * Number of valid mutations in the recovered contents.
+     */
+    private int recoveredCount;
+
+    /**
+     * Encoded mutations appended but not yet written.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /**
+     * Buffer to swap in for the pending buffer while it is being written,
+     * or null while a write is in progress.
+     */
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+    /**
+     * Builder reused to encode each mutation.
+     */
+    private final StringBuilder line = new StringBuilder();
+    /**
+     * Checksum reused to checksum each mutation.
+     */
+    private final CRC32C checksum = new CRC32C();
+    /**
+     * Sequence number of the last mutation appended.
+     */
+    private long lastSequence;
+    /**
+     * Sequence number of the last mutation forced to disk.
+     */
+    private long durableSequence;
+    /**
+     * Error that stopped the log being written, or null.
+     */
+    private IOException failure;
+    /**
+     * Whether the log has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * Creates a mutation log over an open log file and starts its writer
+     * thread.
+     *
+     * @param path         path of the log file
+     * @param channel      channel appending to the log file
+     * @param logId        identifier of the log
+     * @param baseSequence sequence number before the first mutation in the
+     *                     file
+     * @param lastSequence sequence number of the last mutation in the file
+     */
+    private MutationLog(Path path, FileChannel channel, String logId,
+                        long baseSequence, long lastSequence) {
+        this.path = path;
+        this.channel = channel;
+        this.logId = logId;
+        this.baseSequence = baseSequence;
+        this.lineSeparator = System.lineSeparator().getBytes(
+                Charset.defaultCharset());
+        this.lastSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        this.flusher = new Thread(this::flushLoop, "bms-mutation-log");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Opens the mutation log for the save file with the given name, creating
+     * an empty log if there is none.
+     * <p>
+     * The mutations in the log are read and checked, and can then be
+     * retrieved with {@link MutationLog#readRecovered(long, Consumer)}. If
+     * the log ends with a mutation that was only partly written, that
+     * mutation is discarded and removed from the file.
+     *
+     * @param filename path of the save file the log belongs to
+     * @return opened log
+     * @throws IOException         if the log cannot be read or written
+     * @throws FileFormatException if the log is not a valid mutation log, or
+     *                             a mutation other than the last is corrupt
+     */
+    public static MutationLog open(String filename)
+            throws IOException, FileFormatException {
+        Path path = Paths.get(filename + LOG_SUFFIX).toAbsolutePath();
+        if (!Files.exists(path)) {
+            String logId = newLogId();
+            writeLog(path, logId, 0, new byte[0], 0);
+            return new MutationLog(path, openChannel(path), logId, 0, 0);
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        Charset charset = Charset.defaultCharset();
+        int headerEnd = lineEnd(bytes, 0);
+        String[] header = headerEnd < 0 ? new String[0]
+                : decodeLine(bytes, 0, headerEnd, charset).split(" ");
+        if (header.length != 3 || !header[0].equals(HEADER)) {
+            throw error(path, 1, "missing log header");
+        }
+        long baseSequence;
+        try {
+            baseSequence = Long.parseLong(header[2]);
+        } catch (NumberFormatException e) {
+            throw error(path, 1, "invalid base sequence");
+        }
+
+        // Only checks the mutations; they are decoded as they are read, so
+        // that a long log is never held in memory as separate objects
+        CRC32C checksum = new CRC32C();
+        long previous = baseSequence;
+        int validEnd = headerEnd + 1;
+        int count = 0;
+        int lineNumber = 1;
+        int corruptLine = 0;
+        for (int start = validEnd; start < bytes.length; ) {
+            int end = lineEnd(bytes, start);
+            if (end < 0) {
+                // Partly written final line
+                break;
+            }
+            lineNumber++;
+            long sequence = checkMutation(bytes, start, end, checksum);
+            start = end + 1;
+            if (sequence <= previous) {
+                if (corruptLine == 0) {
+                    corruptLine = lineNumber;
+                }
+                continue;
+            }
+            if (corruptLine != 0) {
+                // Only the end of the log can have been left partly written
+                throw error(path, corruptLine, "corrupt mutation");
+            }
+            previous = sequence;
+            validEnd = start;
+            count++;
+        }
+
+        FileChannel channel = openChannel(path);
+        try {
+            if (validEnd < bytes.length) {
+                channel.truncate(validEnd);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        MutationLog log = new MutationLog(path, channel, header[1],
+                baseSequence, previous);
+        log.recovered = bytes;
+        log.recoveredStart = headerEnd + 1;
+        log.recoveredEnd = validEnd;
+        log.recoveredCount = count;
+        return log;
+    }
+
+    /**
+     * Returns the identifier of this log.
+     * <p>
+     * A save that records the sequence number of the last mutation it
+     * includes also records this identifier, so that the mutations of a
+     * different log are never replayed on top of it.
+     *
+     * @return identifier of this log
+     */
+    public String getLogId() {
+        return this.logId;
+    }
+
+    /**
+     * Returns the sequence number of the last mutation appended to this log,
+     * or read from it when it was opened.
+     *
+     * @return sequence number of the last mutation
+     */
+    public long getLastSequence() {
+        synchronized (this.bufferLock) {
+            return this.lastSequence;
+        }
+    }
+
+    /**
+     * Returns the number of mutations in the log file when it was opened,
+     * or 0 once they have been read or discarded.
+     *
+     * @return number of recovered mutations
+     */
+    public int getRecoveredCount() {
+        synchronized (this.bufferLock) {
+            return this.recovered == null ? 0 : this.recoveredCount;
+        }
+    }
+
+    /**
+     * Passes each mutation that was in the log file when it was opened, and
+     * has a sequence number greater than the given one, to the given action,
+     * in order.
+     * <p>
+     * Mutations are decoded one at a time as they are passed to the action.
+     * The log does not keep them once they have been read, so later calls
+     * do nothing.
+     *
+     * @param after  sequence number of the last mutation to skip
+     * @param action action to perform for each mutation
+     */
+    public void readRecovered(long after, Consumer<Mutation> action) {
+        byte[] bytes;
+        synchronized (this.bufferLock) {
+            bytes = this.recovered;
+            this.recovered = null;
+        }
+        if (bytes == null) {
+            return;
+        }
+        Charset charset = Charset.defaultCharset();
+        for (int start = this.recoveredStart; start < this.recoveredEnd; ) {
+            int end = lineEnd(bytes, start);
+            if (readSequence(bytes, start) > after) {
+                action.accept(readMutation(bytes, start, end, charset));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Appends a mutation to the log.
+     * <p>
+     * The mutation is written to the log file and forced to disk by a
+     * background thread, together with any other mutations appended in the
+     * meantime; this method does not wait for it to be written. Use
+     * {@link MutationLog#sync()} to wait.
+     *
+     * @param fields fields describing the mutation
+     * @return sequence number of the mutation
+     * @throws IOException if an earlier write to the log failed, or the log
+     *                     has been closed
+     */
+    public long append(List<String> fields) throws IOException {
+        synchronized (this.bufferLock) {
+            checkWritable();
+            long sequence = this.lastSequence + 1;
+            this.line.setLength(0);
+            this.line.append(sequence);
+            for (String field : fields) {
+                this.line.append(SEPARATOR);
+                escape(field, this.line);
+            }
+            byte[] bytes = this.line.toString().getBytes(
+                    Charset.defaultCharset());
+            this.checksum.reset();
+            this.checksum.update(bytes, 0, bytes.length);
+            this.pending.write(bytes, 0, bytes.length);
+            this.pending.write(SEPARATOR);
+            byte[] checksumBytes = Long.toHexString(this.checksum.getValue())
+                    .getBytes(Charset.defaultCharset());
+            this.pending.write(checksumBytes, 0, checksumBytes.length);
+            this.pending.write(this.lineSeparator, 0,
+                    this.lineSeparator.length);
+            this.lastSequence = sequence;
+            this.bufferLock.notifyAll();
+            return sequence;
+        }
+    }
+
+    /**
+     * Waits until every mutation appended so far has been forced to disk.
+     *
+     * @throws IOException if the mutations could not be written
+     */
+    public void sync() throws IOException {
+        synchronized (this.bufferLock) {
+            long target = this.lastSequence;
+            while (this.durableSequence < target && this.failure == null
+                    && this.flusher.isAlive()) {
+                try {
+                    this.bufferLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while writing "
+                            + this.path, e);
+                }
+            }
+            if (this.durableSequence < target) {
+                checkWritable();
+                throw new IOException("Could not write " + this.path);
+            }
+        }
+    }
+
+    /**
+     * Removes every mutation up to and including the given sequence number
+     * from the log file, once they have been saved.
+     * <p>
+     * The log file is rewritten to a temporary file and renamed into place,
+     * so an interrupted checkpoint leaves the previous log intact. Mutations
+     * appended while the checkpoint is in progress are kept.
+     *
+     * @param sequence sequence number of the last mutation included in the
+     *                 save
+     * @throws IOException if the log file could not be rewritten
+     */
+    public void checkpoint(long sequence) throws IOException {
+        sync();
+        synchronized (this.fileLock) {
+            if (sequence <= this.baseSequence) {
+                return;
+            }
+            byte[] bytes = Files.readAllBytes(this.path);
+            int start = lineEnd(bytes, 0) + 1;
+            while (start < bytes.length
+                    && readSequence(bytes, start) <= sequence) {
+                start = lineEnd(bytes, start) + 1;
+            }
+            rewrite(this.logId, sequence, bytes, start);
+        }
+    }
+
+    /**
+     * Discards every mutation in the log and gives it a new identifier.
+     * <p>
+     * This is used when the log cannot be applied to the save it belongs to,
+     * because the save has been replaced by a save that does not record
+     * which of its mutations it includes. Sequence numbers continue from the
+     * last mutation discarded.
+     *
+     * @throws IOException if the log file could not be rewritten
+     */
+    public void reset() throws IOException {
+        sync();
+        synchronized (this.fileLock) {
+            long sequence = getLastSequence();
+            rewrite(newLogId(), sequence, new byte[0], 0);
+        }
+        synchronized (this.bufferLock) {
+            this.recovered = null;
+        }
+    }
+
+    /**
+     * Writes any mutations that have been appended but not yet written,
+     * and closes the log file. Later appends fail.
+     *
+     * @throws IOException if the remaining mutations could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this.bufferLock) {
+            this.closed = true;
+            this.bufferLock.notifyAll();
+        }
+        try {
+            this.flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.fileLock) {
+            this.channel.close();
+        }
+        synchronized (this.bufferLock) {
+            if (this.failure != null) {
+                throw new IOException(this.failure.getMessage(),
+                        this.failure);
+            }
+        }
+    }
+
+    /**
+     * Writes pending mutations to the log file until the log is closed or a
+     * write fails. Run by the writer thread.
+     */
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long sequence;
+            synchronized (this.bufferLock) {
+                while (this.pending.size() == 0 && !this.closed) {
+                    try {
+                        this.bufferLock.wait();
+                    } catch (InterruptedException e) {
+                        // Only closing the log stops the writer
+                    }
+                }
+                if (this.pending.size() == 0) {
+                    return;
+                }
+                batch = this.pending;
+                this.pending = this.spare;
+                this.spare = null;
+                sequence = this.lastSequence;
+            }
+
+            IOException error = null;
+            synchronized (this.fileLock) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        this.channel.write(buffer);
+                    }
+                    this.channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+
+            synchronized (this.bufferLock) {
+                batch.reset();
+                this.spare = batch;
+                if (error == null) {
+                    this.durableSequence = sequence;
+                } else {
+                    this.failure = error;
+                }
+                this.bufferLock.notifyAll();
+                if (error != null) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws if mutations can no longer be appended. The buffer lock must be
+     * held.
+     *
+     * @throws IOException if a write has failed or the log has been closed
+     */
+    private void checkWritable() throws IOException {
+        if (this.failure != null) {
+            throw new IOException("An earlier write to " + this.path
+                    + " failed: " + this.failure.getMessage(), this.failure);
+        }
+        if (this.closed) {
+            throw new IOException(this.path + " has been closed");
+        }
+    }
+
+    /**
+     * Replaces the log file with a new one containing the given header and
+     * mutations, and reopens it for appending. The file lock must be held.
+     *
+     * @param logId        identifier for the new file's header
+     * @param baseSequence base sequence for the new file's header
+     * @param bytes        buffer containing the mutations to keep
+     * @param start        offset of the first mutation to keep
+     */
+    private void rewrite(String logId, long baseSequence, byte[] bytes,
+                         int start) throws IOException {
+        this.channel.close();
+        try {
+            writeLog(this.path, logId, baseSequence, bytes, start);
+        } finally {
+            this.channel = openChannel(this.path);
+        }
+        this.logId = logId;
+        this.baseSequence = baseSequence;
+    }
+
+    /**
+     * Atomically replaces a log file with a new one.
+     *
+     * @param path         path of the log file
+     * @param logId        identifier for the header
+     * @param baseSequence base sequence for the header
+     * @param bytes        buffer containing encoded mutations to copy
+     * @param start        offset of the first mutation to copy
+     */
+    private static void writeLog(Path path, String logId, long baseSequence,
+                                 byte[] bytes, int start) throws IOException {
+        Path temp = BuildingWriter.temporaryPath(path);
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.wrap((HEADER + " " + logId
+                        + " " + baseSequence + System.lineSeparator())
+                        .getBytes(Charset.defaultCharset()));
+                ByteBuffer mutations = ByteBuffer.wrap(bytes, start,
+                        bytes.length - start);
+                while (header.hasRemaining() || mutations.hasRemaining()) {
+                    channel.write(new ByteBuffer[]{header, mutations});
+                }
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        BuildingWriter.replace(temp, path);
+    }
+
+    /**
+     * Opens a log file for appending.
+     *
+     * @param path path of the log file
+     * @return channel appending to the file
+     */
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns a new, random log identifier.
+     *
+     * @return log identifier
+     */
+    private static String newLogId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Returns the offset of the line feed ending the line starting at the
+     * given offset.
+     *
+     * @param bytes buffer to search
+     * @param start offset of the start of the line
+     * @return offset of the line feed, or -1 if the line is not terminated
+     */
+    private static int lineEnd(byte[] bytes, int start) {
+        for (int i = start; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes a line, without its line separator.
+     *
+     * @param bytes   buffer containing the line
+     * @param start   offset of the start of the line
+     * @param end     offset of the line feed ending the line
+     * @param charset charset of the line
+     * @return decoded line
+     */
+    private static String decodeLine(byte[] bytes, int start, int end,
+                                     Charset charset) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        return new String(bytes, start, end - start, charset);
+    }
+
+    /**
+     * Reads the sequence number at the start of an encoded mutation.
+     *
+     * @param bytes buffer containing the mutation
+     * @param start offset of the start of the mutation
+     * @return sequence number
+     */
+    private static long readSequence(byte[] bytes, int start) {
+        long sequence = 0;
+        for (int i = start; i < bytes.length && bytes[i] != SEPARATOR; i++) {
+            sequence = sequence * 10 + (bytes[i] - '0');
+        }
+        return sequence;
+    }
+
+    /**
+     * Checks an encoded mutation against its checksum.
+     *
+     * @param bytes    buffer containing the mutation
+     * @param start    offset of the start of the mutation
+     * @param end      offset of the line feed ending the mutation
+     * @param checksum checksum to reuse
+     * @return sequence number of the mutation, or -1 if it is corrupt
+     */
+    private static long checkMutation(byte[] bytes, int start, int end,
+                                      CRC32C checksum) {
+        int payloadEnd = payloadEnd(bytes, start, end);
+        if (payloadEnd < 0 || payloadEnd + 1 == end
+                || bytes[payloadEnd + 1] == '\r') {
+            return -1;
+        }
+        long expected = 0;
+        for (int i = payloadEnd + 1; i < end && bytes[i] != '\r'; i++) {
+            int digit = Character.digit(bytes[i], 16);
+            if (digit < 0 || i - payloadEnd > 16) {
+                return -1;
+            }
+            expected = expected << 4 | digit;
+        }
+        checksum.reset();
+        checksum.update(bytes, start, payloadEnd - start);
+        if (checksum.getValue() != expected) {
+            return -1;
+        }
+        for (int i = start; i < payloadEnd && bytes[i] != SEPARATOR; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return -1;
+            }
+        }
+        return readSequence(bytes, start);
+    }
+
+    /**
+     * Decodes an encoded mutation that has been checked.
+     *
+     * @param bytes   buffer containing the mutation
+     * @param start   offset of the start of the mutation
+     * @param end     offset of the line feed ending the mutation
+     * @param charset charset of the mutation
+     * @return decoded mutation
+     */
+    private static Mutation readMutation(byte[] bytes, int start, int end,
+                                         Charset charset) {
+        int payloadEnd = payloadEnd(bytes, start, end);
+        int i = start;
+        while (bytes[i] != SEPARATOR && i < payloadEnd) {
+            i++;
+        }
+        List<String> fields = new ArrayList<>();
+        while (i < payloadEnd) {
+            int fieldStart = i + 1;
+            int fieldEnd = fieldStart;
+            while (fieldEnd < payloadEnd && bytes[fieldEnd] != SEPARATOR) {
+                fieldEnd++;
+            }
+            fields.add(unescape(new String(bytes, fieldStart,
+                    fieldEnd - fieldStart, charset)));
+            i = fieldEnd;
+        }
+        return new Mutation(readSequence(bytes, start),
+                fields.toArray(new String[0]));
+    }
+
+    /**
+     * Returns the offset of the separator before an encoded mutation's
+     * checksum.
+     *
+     * @param bytes buffer containing the mutation
+     * @param start offset of the start of the mutation
+     * @param end   offset of the line feed ending the mutation
+     * @return offset of the separator, or -1 if there is none
+     */
+    private static int payloadEnd(byte[] bytes, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (bytes[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends a field, escaping characters that cannot appear in it.
+     *
+     * @param field field to append
+     * @param out   builder to append to
+     */
+    private static void escape(String field, StringBuilder out) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case SEPARATOR:
+                    out.append(ESCAPE).append('t');
+                    break;
+                case '\n':
+                    out.append(ESCAPE).append('n');
+                    break;
+                case '\r':
+                    out.append(ESCAPE).append('r');
+                    break;
+                case ESCAPE:
+                    out.append(ESCAPE).append(ESCAPE);
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Reverses {@link MutationLog#escape(String, StringBuilder)}.
+     *
+     * @param field escaped field
+     * @return original field
+     */
+    private static String unescape(String field) {
+        if (field.indexOf(ESCAPE) < 0) {
+            return field;
+        }
+        StringBuilder out = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != ESCAPE || i + 1 == field.length()) {
+                out.append(c);
+                continue;
+            }
+            char escaped = field.charAt(++i);
+            switch (escaped) {
+                case 't':
+                    out.append(SEPARATOR);
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                default:
+                    out.append(escaped);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Creates an exception for a problem found in a log file.
+     *
+     * @param path       path of the log file
+     * @param lineNumber line at which the problem was found
+     * @param message    description of the problem
+     * @return new exception
+     */
+    private static FileFormatException error(Path path, int lineNumber,
+                                             String message) {
+        FileFormatException e = BuildingInitialiser.error(lineNumber, message);
+        return new FileFormatException(path + ": " + e.getMessage(), e);
+    }
+
+    /**
+     * A single change recorded in a mutation log.
+     */
+    public static class Mutation {
+        /**
+         * Sequence number of the mutation.
+         */
+        private final long sequence;
+        /**
+         * Fields describing the mutation.
+         */
+        private final String[] fields;
+
+        /**
+         * Creates a mutation.
+         *
+         * @param sequence sequence number of the mutation
+         * @param fields   fields describing the mutation
+         */
+        private Mutation(long sequence, String[] fields) {
+            this.sequence = sequence;
+            this.fields = fields;
+        }
+
+        /**
+         * Returns the sequence number of this mutation.
+         *
+         * @return sequence number
+         */
+        public long getSequence() {
+            return this.sequence;
+        }
+
+        /**
+         * Returns the fields describing this mutation, as they were
+         * appended.
+         *
+         * @return fields of this mutation
+         */
+        public List<String> getFields() {
+            return new ArrayList<>(Arrays.asList(this.fields));
+        }
+    }
+}
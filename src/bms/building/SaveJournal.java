@@ -0,0 +1,1061 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import bms.floor.Floor;
+import bms.floor.MaintenanceSchedule;
+import bms.room.Room;
+import bms.util.Encodable;
+import bms.util.EncodeWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Incremental saves of a list of buildings to a save file.
+ * <p>
+ * A save journal consists of a full snapshot, which is an ordinary save file
+ * (see {@link BuildingWriter}), and a journal file next to it with the suffix
+ * ".journal". Each save appends only the records that have changed since the
+ * previous save to the journal, so the cost of a save is proportional to the
+ * size of the change rather than the size of the campus. Changes are found
+ * using the dirty flags on {@link Building}, {@link Floor} and {@link Room}.
+ * <p>
+ * The journal has the following structure:
+ * <pre>
+ * &#64;journal snapshotSize snapshotChecksum
+ * &#64;building buildingIndex
+ * encodedBuilding
+ * &#64;floor buildingIndex
+ * encodedFloor
+ * &#64;room buildingIndex floorNumber
+ * encodedRoom
+ * ...
+ * &#64;commit [logId sequence]
+ * ...
+ * </pre>
+ * Each record replaces (or, for a building at the end of the list, adds) the
+ * building, floor or room it describes. The records written by one save are
+ * followed by a commit line, and are only applied when the journal is
+ * loaded if the commit line was written; a save interrupted part way through
+ * is discarded as a whole. The first line identifies the snapshot the journal
+ * applies to by its size and CRC-32C checksum.
+ * <p>
+ * When the buildings' changes are also recorded in a {@link MutationLog},
+ * each commit line records the log's ID and the sequence number of the last
+ * mutation the save includes, so that only later mutations are replayed on
+ * top of the save when it is loaded. The mutations included in the save are
+ * then removed from the log.
+ * <p>
+ * When the journal grows beyond half the size of the snapshot, the next save
+ * compacts it: a new full snapshot is written and the journal is replaced
+ * with an empty one. Both files are written to temporary files first and
+ * renamed into place, the snapshot first, so that an interrupted compaction
+ * leaves either the old snapshot and its journal, or the new snapshot and a
+ * journal that no longer matches it and is ignored. In the second case, the
+ * mutation log sequence included in the new snapshot is read from a line
+ * <code>&#64;compact snapshotSize snapshotChecksum logId sequence</code>
+ * appended to the old journal before the new snapshot is renamed into place.
+ * <p>
+ * Saving is split into {@link SaveJournal#prepare(List)}, which must be
+ * called on the thread that modifies the buildings, and
+ * {@link SaveJournal#write(Batch, IntConsumer)}, which may be called on a
+ * background thread. Batches must be written in the order they were
+ * prepared.
+ */
+public class SaveJournal {
+    /**
+     * Suffix added to the snapshot's filename to give the journal's filename.
+     */
+    private static final String JOURNAL_SUFFIX = ".journal";
+    /**
+     * First word of the journal's first line.
+     */
+    private static final String HEADER = "@journal";
+    /**
+     * First word of a building record.
+     */
+    private static final String BUILDING_RECORD = "@building";
+    /**
+     * First word of a floor record.
+     */
+    private static final String FLOOR_RECORD = "@floor";
+    /**
+     * First word of a room record.
+     */
+    private static final String ROOM_RECORD = "@room";
+    /**
+     * Line ending the records written by one save.
+     */
+    private static final String COMMIT = "@commit";
+    /**
+     * First word of the line added to the old journal before a new snapshot
+     * is renamed into place.
+     */
+    private static final String COMPACT = "@compact";
+    /**
+     * Size of the journal, as a fraction of the size of the snapshot, above
+     * which the next save writes a full snapshot.
+     */
+    private static final double COMPACTION_RATIO = 0.5;
+    /**
+     * Size of the buffer used when reading the snapshot.
+     */
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Absolute path of the full snapshot.
+     */
+    private final Path snapshotPath;
+    /**
+     * Absolute path of the journal.
+     */
+    private final Path journalPath;
+    /**
+     * Lock held while writing either file.
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Number of buildings when the last batch was prepared, or -1 if no
+     * batch has been prepared or loaded yet. Buildings at or beyond this
+     * index are new. Only used by the thread that modifies the buildings.
+     */
+    private int savedBuildingCount;
+    /**
+     * Whether the journal on disk cannot be appended to, because it does not
+     * exist, does not match the snapshot, ends with an incomplete save, or a
+     * write has failed. The next batch prepared will be a compaction.
+     */
+    private volatile boolean broken;
+    /**
+     * Size in bytes of the snapshot when it was last written or loaded.
+     */
+    private volatile long snapshotSize;
+    /**
+     * Modification time of the snapshot when it was last written or loaded;
+     * used to notice if it is replaced by something other than this journal.
+     */
+    private volatile FileTime snapshotModified;
+    /**
+     * CRC-32C checksum of the snapshot when it was last written or loaded.
+     */
+    private volatile long snapshotChecksum;
+    /**
+     * Size in bytes of the journal after the last write.
+     */
+    private volatile long journalSize;
+    /**
+     * Whether the buildings last written or loaded are exactly those in the
+     * snapshot, with no journal records applied.
+     */
+    private volatile boolean snapshotOnly;
+    /**
+     * ID of the mutation log recorded by the last commit, or null if the
+     * last commit did not record one.
+     */
+    private volatile String logId;
+    /**
+     * Mutation log sequence number recorded by the last commit, or -1.
+     */
+    private volatile long logSequence;
+
+    /**
+     * Creates a save journal for the save file with the given name.
+     * <p>
+     * No files are read or written until {@link SaveJournal#load()} or a
+     * save is made. Until then the journal is treated as broken, so the
+     * first save writes a full snapshot.
+     *
+     * @param filename path of the snapshot save file
+     */
+    public SaveJournal(String filename) {
+        this.snapshotPath = Paths.get(filename).toAbsolutePath();
+        this.journalPath = this.snapshotPath.resolveSibling(
+                this.snapshotPath.getFileName() + JOURNAL_SUFFIX);
+        this.savedBuildingCount = -1;
+        this.broken = true;
+        this.logSequence = -1;
+    }
+
+    /**
+     * Loads the buildings in the snapshot and applies every committed record
+     * in the journal, if there is a journal that matches the snapshot.
+     * <p>
+     * If there is no journal, this loads the same buildings as
+     * {@link BuildingInitialiser#loadBuildings(String)}. The loaded buildings
+     * are marked clean, so the next save only records later changes.
+     * <p>
+     * The mutation log ID and sequence number recorded by the last commit
+     * applied are then available from {@link SaveJournal#getLogId()} and
+     * {@link SaveJournal#getLogSequence()}.
+     *
+     * @return buildings in the save, with journalled changes applied
+     * @throws IOException         if the snapshot or journal cannot be read
+     * @throws FileFormatException if the snapshot is invalid, or a committed
+     *                             journal record is invalid
+     */
+    public List<Building> load() throws IOException, FileFormatException {
+        return load(false);
+    }
+
+    /**
+     * Loads the buildings in the snapshot and applies every committed record
+     * in the journal, as for {@link SaveJournal#load()}, optionally reading
+     * the snapshot lazily.
+     * <p>
+     * If lazy, the snapshot is indexed with
+     * {@link BuildingInitialiser#loadBuildingsLazy(String)}, so only the
+     * buildings changed by journal records are read in full.
+     *
+     * @param lazy whether to read each building only when it is first used
+     * @return buildings in the save, with journalled changes applied
+     * @throws IOException         if the snapshot or journal cannot be read
+     * @throws FileFormatException if the snapshot is invalid, or a committed
+     *                             journal record is invalid
+     */
+    public List<Building> load(boolean lazy)
+            throws IOException, FileFormatException {
+        CRC32C checksum = new CRC32C();
+        List<Building> buildings;
+        if (lazy) {
+            MappedByteBuffer[] segments =
+                    MappedBuildingParser.map(this.snapshotPath);
+            for (MappedByteBuffer segment : segments) {
+                checksum.update(segment.duplicate());
+            }
+            buildings = BuildingInitialiser.loadBuildingsLazy(segments);
+        } else {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new CheckedInputStream(
+                            Files.newInputStream(this.snapshotPath),
+                            checksum), Charset.defaultCharset()),
+                    READ_BUFFER_SIZE)) {
+                buildings = BuildingInitialiser.loadBuildings(reader);
+            }
+        }
+        long size = Files.size(this.snapshotPath);
+
+        this.logId = null;
+        this.logSequence = -1;
+        this.snapshotOnly = true;
+        boolean replayed = false;
+        if (Files.exists(this.journalPath)) {
+            replayed = replay(buildings, size, checksum.getValue());
+        }
+
+        for (Building building : buildings) {
+            building.markClean();
+        }
+        synchronized (this.writeLock) {
+            this.savedBuildingCount = buildings.size();
+            this.snapshotSize = size;
+            this.snapshotModified =
+                    Files.getLastModifiedTime(this.snapshotPath);
+            this.snapshotChecksum = checksum.getValue();
+            this.journalSize = replayed ? Files.size(this.journalPath) : 0;
+            this.broken = !replayed;
+        }
+        return buildings;
+    }
+
+    /**
+     * Collects the changes to the given buildings since the last save, and
+     * marks the buildings clean.
+     * <p>
+     * Changed buildings, floors and rooms are copied (see
+     * {@link Building#snapshot()}), so the returned batch can be written on
+     * another thread while the buildings continue to change. If the journal
+     * is due to be compacted, the batch contains a snapshot of every
+     * building instead.
+     * <p>
+     * This method must be called on the thread that modifies the buildings,
+     * and the batch must then be passed to
+     * {@link SaveJournal#write(Batch, IntConsumer)}. Buildings may be added to
+     * the end of the list between saves, but must not be removed or
+     * reordered.
+     *
+     * @param buildings every building being saved, in order
+     * @return changes to write
+     */
+    public Batch prepare(List<Building> buildings) {
+        return prepare(buildings, null);
+    }
+
+    /**
+     * Collects the changes to the given buildings since the last save, and
+     * marks the buildings clean, as for {@link SaveJournal#prepare(List)}.
+     * <p>
+     * The batch also records that it includes every mutation appended to the
+     * given mutation log so far. Once it has been written, those mutations
+     * are removed from the log (see {@link MutationLog#checkpoint(long)}).
+     *
+     * @param buildings every building being saved, in order
+     * @param log       log of the changes made to the buildings; may be
+     *                  null
+     * @return changes to write
+     */
+    public Batch prepare(List<Building> buildings, MutationLog log) {
+        Batch batch;
+        if (isCompactionDue(buildings.size())) {
+            batch = new Batch(BuildingWriter.snapshot(buildings), null, log);
+        } else {
+            batch = new Batch(null, collectChanges(buildings), log);
+        }
+        for (Building building : buildings) {
+            building.markClean();
+        }
+        this.savedBuildingCount = buildings.size();
+        return batch;
+    }
+
+    /**
+     * Takes a snapshot of every building, to be written as a new snapshot
+     * with an empty journal.
+     * <p>
+     * Unlike {@link SaveJournal#prepare(List, MutationLog)}, this does not
+     * mark the buildings clean, so it does not affect which changes are
+     * written by other journals of the same buildings.
+     * <p>
+     * This method must be called on the thread that modifies the buildings.
+     *
+     * @param buildings every building being saved, in order
+     * @param log       log of the changes made to the buildings; may be
+     *                  null
+     * @return compaction batch to write
+     */
+    public Batch prepareSnapshot(List<Building> buildings, MutationLog log) {
+        return new Batch(BuildingWriter.snapshot(buildings), null, log);
+    }
+
+    /**
+     * Writes a batch returned by {@link SaveJournal#prepare(List)}.
+     * <p>
+     * A compaction batch replaces the snapshot and the journal; any other
+     * batch is appended to the journal, followed by a commit line, and
+     * forced to disk. An empty batch writes nothing.
+     * <p>
+     * If writing fails, the journal is left unchanged or ends with an
+     * uncommitted save, which is ignored when loading. Later batches are
+     * then rejected until a compaction batch has been written; the next
+     * batch prepared will be one.
+     * <p>
+     * If the batch was prepared with a mutation log, the mutations it
+     * includes are removed from the log once it has been written.
+     *
+     * @param batch    batch to write
+     * @param progress called with the number of buildings or records written
+     *                 so far, after each one is written
+     * @throws IOException if the batch could not be written, or the mutation
+     *                     log could not be updated
+     */
+    public void write(Batch batch, IntConsumer progress) throws IOException {
+        synchronized (this.writeLock) {
+            try {
+                if (batch.isCompaction()) {
+                    compact(batch, progress);
+                } else if (this.broken) {
+                    throw new IOException("An earlier save to "
+                            + this.snapshotPath + " failed; the next save "
+                            + "will write a full snapshot");
+                } else if (!batch.records.isEmpty() || advancesLog(batch)) {
+                    append(batch, progress);
+                }
+            } catch (IOException | RuntimeException e) {
+                this.broken = true;
+                throw e;
+            }
+        }
+        if (batch.log != null) {
+            batch.log.checkpoint(batch.logSequence);
+        }
+    }
+
+    /**
+     * Records that the buildings, as loaded, include every mutation in the
+     * given log so far.
+     * <p>
+     * This is used after {@link MutationLog#reset()}, when the log's
+     * mutations could not be applied to the save, so that mutations appended
+     * from now on are replayed when the save is next loaded. A commit line
+     * is appended to the journal, or if the journal cannot be appended to,
+     * a new journal is written; only if the loaded buildings include records
+     * from a journal that cannot be appended to is a full snapshot written.
+     * <p>
+     * This method must be called on the thread that modifies the buildings,
+     * before they are changed.
+     *
+     * @param buildings every building, as loaded
+     * @param log       log of later changes to the buildings
+     * @throws IOException if the journal could not be written
+     */
+    public void attach(List<Building> buildings, MutationLog log)
+            throws IOException {
+        if (this.broken && !this.snapshotOnly) {
+            write(prepareSnapshot(buildings, log), written -> { });
+            return;
+        }
+        Batch batch = new Batch(null, new ArrayList<>(), log);
+        synchronized (this.writeLock) {
+            try {
+                if (this.broken) {
+                    Path journalTemp = writeJournal(this.snapshotSize,
+                            this.snapshotChecksum, batch);
+                    BuildingWriter.replace(journalTemp, this.journalPath);
+                    this.journalSize = Files.size(this.journalPath);
+                    this.broken = false;
+                    setLogPosition(batch);
+                } else {
+                    append(batch, written -> { });
+                }
+            } catch (IOException | RuntimeException e) {
+                this.broken = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given path names this journal's snapshot.
+     *
+     * @param filename path of a save file
+     * @return true if saving to the file would replace the snapshot
+     */
+    public boolean savesTo(String filename) {
+        return Paths.get(filename).toAbsolutePath().normalize()
+                .equals(this.snapshotPath.normalize());
+    }
+
+    /**
+     * Returns the ID of the mutation log recorded by the last commit loaded
+     * or written.
+     *
+     * @return mutation log ID, or null if the last commit did not record
+     * one, or the journal did not match the snapshot
+     */
+    public String getLogId() {
+        return this.logId;
+    }
+
+    /**
+     * Returns the sequence number of the last mutation included in the
+     * buildings loaded or written, in the log given by
+     * {@link SaveJournal#getLogId()}.
+     *
+     * @return mutation log sequence number, or -1 if unknown
+     */
+    public long getLogSequence() {
+        return this.logSequence;
+    }
+
+    /**
+     * Saves the changes to the given buildings since the last save.
+     * <p>
+     * Equivalent to preparing a batch and writing it immediately.
+     *
+     * @param buildings every building being saved, in order
+     * @throws IOException if the changes could not be written
+     */
+    public void save(List<Building> buildings) throws IOException {
+        write(prepare(buildings), written -> { });
+    }
+
+    /**
+     * Returns whether the next batch should be a full snapshot.
+     *
+     * @param buildingCount number of buildings being saved
+     * @return true if the journal is broken, has grown too large, or the
+     * snapshot has been replaced by something else
+     */
+    private boolean isCompactionDue(int buildingCount) {
+        if (this.broken || buildingCount < this.savedBuildingCount
+                || this.journalSize > this.snapshotSize * COMPACTION_RATIO) {
+            return true;
+        }
+        try {
+            return Files.size(this.snapshotPath) != this.snapshotSize
+                    || !Files.getLastModifiedTime(this.snapshotPath)
+                    .equals(this.snapshotModified);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns a record for every building, floor or room that has changed
+     * since the last save.
+     * <p>
+     * A new building, or one with new floors, is recorded as a whole. A floor
+     * whose layout has changed is recorded with all of its rooms. Otherwise,
+     * only the rooms that have changed are recorded.
+     *
+     * @param buildings every building being saved, in order
+     * @return records to append
+     */
+    private List<Record> collectChanges(List<Building> buildings) {
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < buildings.size(); i++) {
+            Building building = buildings.get(i);
+            if (i >= this.savedBuildingCount || building.isLayoutDirty()) {
+                records.add(new Record(BUILDING_RECORD + " " + i,
+                        building.snapshot()));
+                continue;
+            }
+            if (!building.isDirty()) {
+                continue;
+            }
+            for (Floor floor : building.getFloors()) {
+                if (floor.isLayoutDirty()) {
+                    records.add(new Record(FLOOR_RECORD + " " + i,
+                            floor.snapshot()));
+                    continue;
+                }
+                for (Room room : floor.getRooms()) {
+                    if (room.isDirty()) {
+                        records.add(new Record(ROOM_RECORD + " " + i + " "
+                                + floor.getFloorNumber(), room.snapshot()));
+                    }
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes a new snapshot and an empty journal that matches it, then
+     * renames both into place.
+     *
+     * @param batch    compaction batch to write
+     * @param progress called after each building is written
+     */
+    private void compact(Batch batch, IntConsumer progress)
+            throws IOException {
+        CRC32C checksum = new CRC32C();
+        Path snapshotTemp = BuildingWriter.writeTemporary(batch.snapshot,
+                this.snapshotPath, progress, checksum);
+        Path journalTemp = null;
+        try {
+            long size = Files.size(snapshotTemp);
+            journalTemp = writeJournal(size, checksum.getValue(), batch);
+            if (batch.log != null) {
+                appendCompactionHint(size, checksum.getValue(), batch);
+            }
+            BuildingWriter.replace(snapshotTemp, this.snapshotPath);
+            this.snapshotSize = size;
+            this.snapshotChecksum = checksum.getValue();
+            this.snapshotModified =
+                    Files.getLastModifiedTime(this.snapshotPath);
+            this.snapshotOnly = true;
+            BuildingWriter.replace(journalTemp, this.journalPath);
+            this.journalSize = Files.size(this.journalPath);
+            this.broken = false;
+            setLogPosition(batch);
+        } finally {
+            Files.deleteIfExists(snapshotTemp);
+            if (journalTemp != null) {
+                Files.deleteIfExists(journalTemp);
+            }
+        }
+    }
+
+    /**
+     * Writes a temporary journal containing only a header for the given
+     * snapshot and, if the batch has a mutation log, a commit line.
+     *
+     * @param size     size of the snapshot in bytes
+     * @param checksum CRC-32C checksum of the snapshot
+     * @param batch    batch being written
+     * @return path of the temporary journal
+     */
+    private Path writeJournal(long size, long checksum, Batch batch)
+            throws IOException {
+        Path journalTemp = BuildingWriter.temporaryPath(this.journalPath);
+        try {
+            try (FileChannel channel = FileChannel.open(journalTemp,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                EncodeWriter out = new EncodeWriter(new OutputStreamWriter(
+                        Channels.newOutputStream(channel),
+                        Charset.defaultCharset()));
+                out.append(header(size, checksum))
+                        .append(System.lineSeparator());
+                if (batch.log != null) {
+                    out.append(commitLine(batch))
+                            .append(System.lineSeparator());
+                }
+                out.flush();
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(journalTemp);
+            throw e;
+        }
+        return journalTemp;
+    }
+
+    /**
+     * Appends a line to the current journal recording the mutation log
+     * sequence included in a new snapshot, and forces it to disk.
+     * <p>
+     * If the process stops after the new snapshot is renamed into place but
+     * before the new journal is, this line is all that records which
+     * mutations the snapshot includes.
+     *
+     * @param size     size of the new snapshot in bytes
+     * @param checksum CRC-32C checksum of the new snapshot
+     * @param batch    compaction batch being written
+     */
+    private void appendCompactionHint(long size, long checksum, Batch batch)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(this.journalPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            EncodeWriter out = new EncodeWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel),
+                    Charset.defaultCharset()));
+            // Starts on a new line even if the journal ends part way through
+            // an interrupted save
+            out.append(System.lineSeparator())
+                    .append(COMPACT + " " + size + " "
+                            + Long.toHexString(checksum) + " "
+                            + batch.logId + " " + batch.logSequence)
+                    .append(System.lineSeparator());
+            out.flush();
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Appends a batch's records and a commit line to the journal and forces
+     * them to disk.
+     *
+     * @param batch    batch to append
+     * @param progress called after each record is written
+     */
+    private void append(Batch batch, IntConsumer progress)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(this.journalPath,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            EncodeWriter out = new EncodeWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel),
+                    Charset.defaultCharset()));
+            int written = 0;
+            for (Record record : batch.records) {
+                out.append(record.header).append(System.lineSeparator());
+                record.item.encodeTo(out);
+                progress.accept(++written);
+            }
+            out.append(commitLine(batch)).append(System.lineSeparator());
+            out.flush();
+            channel.force(false);
+            this.journalSize = channel.size();
+        }
+        if (!batch.records.isEmpty()) {
+            this.snapshotOnly = false;
+        }
+        setLogPosition(batch);
+    }
+
+    /**
+     * Returns whether writing the given batch would record a mutation log
+     * position other than the one recorded by the last commit.
+     *
+     * @param batch batch to write
+     * @return true if the batch has a mutation log and records a new
+     * position in it
+     */
+    private boolean advancesLog(Batch batch) {
+        return batch.log != null && (!batch.logId.equals(this.logId)
+                || batch.logSequence != this.logSequence);
+    }
+
+    /**
+     * Records the mutation log position of a batch that has been written.
+     *
+     * @param batch batch that has been written
+     */
+    private void setLogPosition(Batch batch) {
+        this.logId = batch.logId;
+        this.logSequence = batch.log == null ? -1 : batch.logSequence;
+    }
+
+    /**
+     * Returns the commit line for a batch.
+     *
+     * @param batch batch being written
+     * @return commit line, recording the batch's mutation log position if
+     * it has one
+     */
+    private static String commitLine(Batch batch) {
+        if (batch.log == null) {
+            return COMMIT;
+        }
+        return COMMIT + " " + batch.logId + " " + batch.logSequence;
+    }
+
+    /**
+     * Applies the committed records in the journal to the given buildings,
+     * and records the mutation log position of the last commit applied.
+     * <p>
+     * If the journal does not match the snapshot, the mutation log position
+     * is read from the compaction line matching the snapshot, if any.
+     *
+     * @param buildings    buildings loaded from the snapshot
+     * @param snapshotSize size of the snapshot in bytes
+     * @param checksum     CRC-32C checksum of the snapshot
+     * @return true if the journal matches the snapshot and ends with a
+     * complete save, so that later saves can be appended to it
+     * @throws FileFormatException if a committed record is invalid
+     */
+    private boolean replay(List<Building> buildings, long snapshotSize,
+                           long checksum)
+            throws IOException, FileFormatException {
+        try (BufferedReader reader = Files.newBufferedReader(
+                this.journalPath, Charset.defaultCharset())) {
+            BuildingInitialiser.LineReader lines =
+                    new BuildingInitialiser.LineReader(reader);
+            if (!lines.hasNext() || !lines.next().equals(
+                    header(snapshotSize, checksum))) {
+                readCompactionHint(lines, snapshotSize + " "
+                        + Long.toHexString(checksum));
+                return false;
+            }
+            List<Record> pending = new ArrayList<>();
+            while (lines.hasNext()) {
+                String header = lines.next();
+                if (isCommit(header)) {
+                    for (Record record : pending) {
+                        apply(buildings, record);
+                        this.snapshotOnly = false;
+                    }
+                    pending.clear();
+                    readLogPosition(header, lines.getLineNumber());
+                    continue;
+                }
+                if (header.isEmpty() || header.startsWith(COMPACT + " ")) {
+                    // Left by a compaction that did not complete
+                    continue;
+                }
+                try {
+                    pending.add(readRecord(lines, header));
+                } catch (FileFormatException e) {
+                    // Only an error if a later save was committed; otherwise
+                    // this is the end of an interrupted save
+                    while (lines.hasNext()) {
+                        if (isCommit(lines.next())) {
+                            throw e;
+                        }
+                    }
+                    return false;
+                }
+            }
+            return pending.isEmpty();
+        } catch (FileFormatException e) {
+            throw journalError(e);
+        }
+    }
+
+    /**
+     * Reads the mutation log position from the last compaction line for
+     * the given snapshot in a journal that does not match it.
+     *
+     * @param lines    source of lines, positioned after the header
+     * @param snapshot size and checksum of the snapshot, separated by a
+     *                 space
+     */
+    private void readCompactionHint(BuildingInitialiser.LineReader lines,
+                                    String snapshot)
+            throws IOException, FileFormatException {
+        String prefix = COMPACT + " " + snapshot + " ";
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.startsWith(prefix)) {
+                readLogPosition(COMMIT + " "
+                        + line.substring(prefix.length()),
+                        lines.getLineNumber());
+            }
+        }
+    }
+
+    /**
+     * Records the mutation log position in a commit line.
+     *
+     * @param commit     commit line
+     * @param lineNumber line number of the commit line
+     * @throws FileFormatException if the position is invalid
+     */
+    private void readLogPosition(String commit, int lineNumber)
+            throws FileFormatException {
+        String[] parts = commit.split(" ");
+        if (parts.length != 3) {
+            this.logId = null;
+            this.logSequence = -1;
+            return;
+        }
+        try {
+            this.logSequence = Long.parseLong(parts[2]);
+        } catch (NumberFormatException e) {
+            throw BuildingInitialiser.error(lineNumber,
+                    "invalid mutation log sequence \"" + parts[2] + "\"", e);
+        }
+        this.logId = parts[1];
+    }
+
+    /**
+     * Returns whether a line read from the journal is a commit line.
+     *
+     * @param line line read
+     * @return true if the line ends the records written by a save
+     */
+    private static boolean isCommit(String line) {
+        return line.equals(COMMIT) || line.startsWith(COMMIT + " ");
+    }
+
+    /**
+     * Reads the record with the given header line.
+     *
+     * @param lines  source of lines, positioned after the header
+     * @param header header line of the record
+     * @return record read, with the decoded building, floor or room as its
+     * item
+     */
+    private static Record readRecord(BuildingInitialiser.LineReader lines,
+                                     String header)
+            throws IOException, FileFormatException {
+        int lineNumber = lines.getLineNumber();
+        String[] parts = header.split(" ");
+        Record record = new Record(header, null);
+        record.lineNumber = lineNumber;
+        if (parts[0].equals(BUILDING_RECORD) && parts.length == 2) {
+            record.buildingIndex = BuildingInitialiser.parseCount(parts[1],
+                    lineNumber, "building index");
+            record.item = BuildingInitialiser.readBuilding(lines);
+        } else if (parts[0].equals(FLOOR_RECORD) && parts.length == 2) {
+            record.buildingIndex = BuildingInitialiser.parseCount(parts[1],
+                    lineNumber, "building index");
+            record.item = BuildingInitialiser.readFloor(lines, null);
+        } else if (parts[0].equals(ROOM_RECORD) && parts.length == 3) {
+            record.buildingIndex = BuildingInitialiser.parseCount(parts[1],
+                    lineNumber, "building index");
+            record.floorNumber = BuildingInitialiser.parseInt(parts[2],
+                    lineNumber, "floor number");
+            record.item = BuildingInitialiser.readRoom(lines, null);
+        } else {
+            throw BuildingInitialiser.error(lineNumber,
+                    "unknown journal record \"" + header + "\"");
+        }
+        return record;
+    }
+
+    /**
+     * Applies a record read from the journal to the given buildings.
+     *
+     * @param buildings buildings to update
+     * @param record    record to apply
+     */
+    private static void apply(List<Building> buildings, Record record)
+            throws FileFormatException {
+        int lineNumber = record.lineNumber;
+        if (record.item instanceof Building) {
+            if (record.buildingIndex < buildings.size()) {
+                buildings.set(record.buildingIndex, (Building) record.item)
+                        .discard();
+            } else if (record.buildingIndex == buildings.size()) {
+                buildings.add((Building) record.item);
+            } else {
+                throw BuildingInitialiser.error(lineNumber,
+                        "no building at index " + record.buildingIndex);
+            }
+            return;
+        }
+
+        if (record.buildingIndex >= buildings.size()) {
+            throw BuildingInitialiser.error(lineNumber,
+                    "no building at index " + record.buildingIndex);
+        }
+        Building building = buildings.get(record.buildingIndex);
+        if (record.item instanceof Floor) {
+            Floor replaced = building.replaceFloor((Floor) record.item);
+            if (replaced == null) {
+                throw BuildingInitialiser.error(lineNumber, "no floor "
+                        + ((Floor) record.item).getFloorNumber()
+                        + " in building " + record.buildingIndex);
+            }
+            replaced.discard();
+            return;
+        }
+
+        Room room = (Room) record.item;
+        Floor floor = building.getFloorByNumber(record.floorNumber);
+        Room replaced = floor == null ? null
+                : floor.getRoomByNumber(room.getRoomNumber());
+        if (replaced == null) {
+            throw BuildingInitialiser.error(lineNumber, "no room "
+                    + room.getRoomNumber() + " on floor "
+                    + record.floorNumber + " of building "
+                    + record.buildingIndex);
+        }
+        // Rebuild the floor around the new room, so that its maintenance
+        // schedule refers to the room that is actually on the floor
+        Floor copy = new Floor(floor.getFloorNumber(), floor.getWidth(),
+                floor.getLength());
+        for (Room existing : floor.getRooms()) {
+            BuildingInitialiser.addRoom(copy,
+                    existing.getRoomNumber() == room.getRoomNumber()
+                            ? room : existing, lineNumber);
+        }
+        MaintenanceSchedule schedule = floor.getMaintenanceSchedule();
+        if (schedule != null) {
+            List<Room> order = schedule.getRoomOrder();
+            int[] roomNumbers = new int[order.size()];
+            for (int i = 0; i < roomNumbers.length; i++) {
+                roomNumbers[i] = order.get(i).getRoomNumber();
+            }
+            BuildingInitialiser.createMaintenanceSchedule(copy, roomNumbers,
+                    lineNumber);
+            floor.getTimedItemManager().unregisterTimedItem(schedule);
+        }
+        building.replaceFloor(copy);
+        // The other rooms live on in the copy, so only the replaced room's
+        // sensors are dropped
+        replaced.discard();
+    }
+
+    /**
+     * Returns the first line of a journal matching a snapshot.
+     *
+     * @param snapshotSize size of the snapshot in bytes
+     * @param checksum     CRC-32C checksum of the snapshot
+     * @return journal header line
+     */
+    private static String header(long snapshotSize, long checksum) {
+        return HEADER + " " + snapshotSize + " " + Long.toHexString(checksum);
+    }
+
+    /**
+     * Wraps a format error found in the journal, so that it is not mistaken
+     * for an error in the snapshot.
+     *
+     * @param e error found in the journal
+     * @return new exception
+     */
+    private FileFormatException journalError(FileFormatException e) {
+        return new FileFormatException(this.journalPath + ": "
+                + e.getMessage(), e);
+    }
+
+    /**
+     * Changes collected by {@link SaveJournal#prepare(List)}, waiting to be
+     * written.
+     */
+    public static class Batch {
+        /**
+         * Every building, for a compaction; otherwise null.
+         */
+        private final List<Building> snapshot;
+        /**
+         * Changed records to append; null for a compaction.
+         */
+        private final List<Record> records;
+        /**
+         * Log of the changes to the buildings, or null.
+         */
+        private final MutationLog log;
+        /**
+         * ID of the mutation log when the batch was prepared, or null.
+         */
+        private final String logId;
+        /**
+         * Sequence number of the last mutation included in the batch.
+         */
+        private final long logSequence;
+
+        /**
+         * Creates a batch.
+         *
+         * @param snapshot every building, for a compaction
+         * @param records  changed records, otherwise
+         * @param log      log of the changes to the buildings, or null
+         */
+        private Batch(List<Building> snapshot, List<Record> records,
+                      MutationLog log) {
+            this.snapshot = snapshot;
+            this.records = records;
+            this.log = log;
+            this.logId = log == null ? null : log.getLogId();
+            this.logSequence = log == null ? -1 : log.getLastSequence();
+        }
+
+        /**
+         * Returns whether this batch replaces the snapshot rather than
+         * appending to the journal.
+         *
+         * @return true if this batch is a full snapshot
+         */
+        public boolean isCompaction() {
+            return this.snapshot != null;
+        }
+
+        /**
+         * Returns the number of buildings (for a compaction) or records
+         * this batch will write.
+         *
+         * @return size of this batch
+         */
+        public int size() {
+            return isCompaction() ? this.snapshot.size() : this.records.size();
+        }
+    }
+
+    /**
+     * A single journal record.
+     */
+    private static class Record {
+        /**
+         * Header line of the record.
+         */
+        private final String header;
+        /**
+         * Building, floor or room the record describes.
+         */
+        private Encodable item;
+        /**
+         * Index of the building the record applies to; only set when read.
+         */
+        private int buildingIndex;
+        /**
+         * Number of the floor a room record applies to; only set when read.
+         */
+        private int floorNumber;
+        /**
+         * Line number of the header; only set when read.
+         */
+        private int lineNumber;
+
+        /**
+         * Creates a record.
+         *
+         * @param header header line of the record
+         * @param item   building, floor or room the record describes
+         */
+        private Record(String header, Encodable item) {
+            this.header = header;
+            this.item = item;
+        }
+    }
+}
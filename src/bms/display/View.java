@@ -321,7 +321,7 @@ public class View {
             List<Optional<String>> args = new ArrayList<>();
 
             String[] evaluatorTypes = new String[]{
-                    "Rule Based", "Weighting Based"
+                    "Rule Based", "Weighting Based", "Custom Rule"
             };
             var evaluatorType = getChoice("Add Hazard Evaluator",
                     "Please choose the type of hazard evaluator",
@@ -335,6 +335,16 @@ public class View {
                 return;
             }
 
+            if (evaluatorType.get().equals("Custom Rule")) {
+                var rule = getResponse("Add Hazard Evaluator",
+                        "Please enter the hazard rule",
+                        "Rule:", "max(carbonDioxide,noise,temperature)");
+                if (rule.isEmpty()) return;
+                args.add(rule);
+                viewModel.takeInstruction(ButtonOptions.ADD_HAZARD_EVALUATOR, args);
+                return;
+            }
+
             List<Sensor> sensors = viewModel.getSelectedRoom().getSensors();
             for (Sensor s : sensors) {
                 var weighting = getResponse(
@@ -390,9 +400,14 @@ public class View {
         viewModel.setCurrentBuildingIndexProperty(tabPane.getSelectionModel()
                 .selectedIndexProperty());
 
-        // Draw the currently selected building when the selected tab changes
+        // Load and draw the currently selected building when the selected
+        // tab changes
         tabPane.getSelectionModel().selectedItemProperty().addListener(
-                (observableValue, tab, t1) -> getCurrentCanvas().draw());
+                (observableValue, tab, t1) -> {
+                    if (viewModel.loadSelectedBuilding()) {
+                        getCurrentCanvas().draw();
+                    }
+                });
 
         return tabPane;
     }
@@ -451,10 +466,16 @@ public class View {
         timeElapsedLabel.setMaxHeight(Double.MAX_VALUE); // centered vertically
         timeElapsedLabel.setAlignment(Pos.CENTER);
 
+        var saveStatusLabel = new Label();
+        saveStatusLabel.textProperty().bind(viewModel.getSaveStatusProperty());
+        saveStatusLabel.setMaxHeight(Double.MAX_VALUE); // centered vertically
+        saveStatusLabel.setAlignment(Pos.CENTER);
+
         var buttonContainer = new HBox(10);
         buttonContainer.getChildren().addAll(pauseButton, saveButton,
                 resetViewButton, helpButton);
         infoBar.setLeft(buttonContainer);
+        infoBar.setCenter(saveStatusLabel);
         infoBar.setRight(timeElapsedLabel);
         return infoBar;
     }
@@ -1,8 +1,13 @@
 package bms.display;
 
 import bms.building.Building;
+import bms.building.BuildingWriter;
+import bms.building.MutationLog;
+import bms.building.SaveJournal;
 import bms.exceptions.*;
 import bms.floor.Floor;
+import bms.hazardevaluation.CustomRuleHazardEvaluator;
+import bms.hazardevaluation.HazardRule;
 import bms.hazardevaluation.RuleBasedHazardEvaluator;
 import bms.hazardevaluation.WeightingBasedHazardEvaluator;
 import bms.room.Room;
@@ -10,16 +15,19 @@ import bms.room.RoomType;
 import bms.sensors.*;
 import bms.util.TimedItemManager;
 import com.sun.javafx.css.StyleCacheEntry;
-import com.sun.media.jfxmediaimpl.platform.Platform;
+import javafx.application.Platform;
 import javafx.beans.property.*;
 import javafx.scene.control.Alert;
 import javafx.scene.input.KeyCode;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
  * View model for the GUI - you will need to implement a few methods here.
@@ -27,6 +35,11 @@ import java.util.*;
  * @ass2_part_given
  */
 public class ViewModel {
+    /**
+     * File written by quicksaves.
+     */
+    private static final String QUICKSAVE_FILE = "saves/quicksave.txt";
+
     private List<Building> buildings;
 
     private BooleanProperty paused = new SimpleBooleanProperty(true);
@@ -39,6 +52,48 @@ public class ViewModel {
     private StringProperty infoText = new SimpleStringProperty(
             "Building/floor/room info");
 
+    private StringProperty saveStatus = new SimpleStringProperty("");
+
+    /**
+     * Executor that runs asynchronous saves one at a time, in the order they
+     * were requested. Its thread exits when it has been idle for a while.
+     */
+    private final ExecutorService saveExecutor = createSaveExecutor();
+
+    /**
+     * Journal of incremental quicksaves.
+     */
+    private final SaveJournal quicksaveJournal;
+
+    /**
+     * Journal of the save file the buildings were loaded from, or null.
+     */
+    private final SaveJournal journal;
+    /**
+     * Write-ahead log of the changes made by takeInstruction(), or null if
+     * changes are not logged.
+     */
+    private MutationLog mutationLog;
+    /**
+     * Fields of the mutation log entry for the instruction being handled by
+     * takeInstruction(), until the instruction makes a change; otherwise
+     * null.
+     */
+    private List<String> pendingMutation;
+    /**
+     * Whether logged changes are being replayed by recover().
+     */
+    private boolean replaying;
+    /**
+     * Index of the building selected when the change being replayed was
+     * made.
+     */
+    private int replayBuildingIndex;
+    /**
+     * Number of errors reported while replaying the current change.
+     */
+    private int replayErrors;
+
     private BooleanProperty changed = new SimpleBooleanProperty(false);
 
     private ReadOnlyIntegerProperty currentBuildingIndex;
@@ -53,7 +108,92 @@ public class ViewModel {
      * @ass2_given
      */
     public ViewModel(List<Building> buildings) {
+        this(buildings, null, null);
+    }
+
+    /**
+     * Creates a view model for buildings loaded from a save journal, which
+     * records every change made by
+     * {@link ViewModel#takeInstruction(ButtonOptions, List)} in the given
+     * mutation log.
+     * <p>
+     * Logged changes are durable even if the program stops before they are
+     * saved: {@link ViewModel#recover()} must be called before any changes
+     * are made, to replay the changes logged by earlier runs that are not
+     * included in the save. Saves to the journal's save file, including
+     * quicksaves if it is the quicksave file, record which changes they
+     * include, and remove them from the log.
+     *
+     * @param buildings   buildings loaded by the journal
+     * @param journal     journal the buildings were loaded by
+     * @param mutationLog log of changes to the buildings
+     */
+    public ViewModel(List<Building> buildings, SaveJournal journal,
+                     MutationLog mutationLog) {
         this.buildings = buildings;
+        this.journal = journal;
+        this.mutationLog = mutationLog;
+        this.quicksaveJournal = journal != null
+                && journal.savesTo(QUICKSAVE_FILE)
+                ? journal : new SaveJournal(QUICKSAVE_FILE);
+    }
+
+    /**
+     * Replays the changes in the mutation log that are not included in the
+     * loaded save, in the order they were made.
+     * <p>
+     * If the log does not belong to the loaded save, because the save file
+     * has since been replaced by a save that did not record which changes
+     * it includes, the logged changes cannot be replayed safely. They are
+     * discarded, and the save is updated to record that later changes
+     * belong to the log.
+     * <p>
+     * Changes are replayed with the same building, floor and room selected
+     * as when they were made. Changes which fail when replayed are skipped
+     * and reported on standard error.
+     *
+     * @return number of changes replayed
+     * @throws IOException if the save journal or mutation log could not be
+     *                     updated
+     */
+    public int recover() throws IOException {
+        if (this.journal == null || this.mutationLog == null) {
+            return 0;
+        }
+        if (!this.mutationLog.getLogId().equals(this.journal.getLogId())) {
+            int discarded = this.mutationLog.getRecoveredCount();
+            if (discarded > 0) {
+                System.err.println("Discarding " + discarded
+                        + " logged changes that do not belong to the save "
+                        + "file");
+            }
+            this.mutationLog.reset();
+            this.journal.attach(this.buildings, this.mutationLog);
+            return 0;
+        }
+
+        // Number of changes replayed, and number that failed
+        int[] counts = new int[2];
+        this.replaying = true;
+        try {
+            this.mutationLog.readRecovered(this.journal.getLogSequence(),
+                    mutation -> {
+                        counts[0]++;
+                        if (!replay(mutation.getFields())) {
+                            counts[1]++;
+                        }
+                    });
+        } finally {
+            this.replaying = false;
+            this.selectedFloor = null;
+            this.selectedRoom = null;
+        }
+        int replayed = counts[0];
+        if (counts[1] > 0) {
+            System.err.println(counts[1] + " of " + replayed
+                    + " logged changes could not be replayed");
+        }
+        return replayed;
     }
 
     /**
@@ -64,8 +204,9 @@ public class ViewModel {
      * <tr><th>Key</th><th>Action</th></tr>
      * <tr><td>P, p</td><td>Toggles whether the simulation is paused</td></tr>
      * <tr><td>Q, q</td><td>Quits the application entirely</td></tr>
-     * <tr><td>S, s</td><td>Saves the simulation data to "saves/quicksave.txt",
-     * see {@link ViewModel#save(String)}
+     * <tr><td>S, s</td><td>Saves the changes to the simulation data since the
+     * last quicksave to "saves/quicksave.txt" in the background, see
+     * {@link ViewModel#quicksave()}
      * </td></tr>
      * </table>
      *
@@ -78,11 +219,7 @@ public class ViewModel {
         } else if (keyCode == KeyCode.getKeyCode("Q") || keyCode == KeyCode.getKeyCode("q")) {
             System.exit(0);
         } else if (keyCode == KeyCode.getKeyCode("S") || keyCode == KeyCode.getKeyCode("s")) {
-            try {
-                save("saves/quicksave.txt");
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            quicksave();
         }
     }
 
@@ -117,6 +254,13 @@ public class ViewModel {
      * <p>
      * If an IOException occurs when writing to file, it should be propagated
      * out of this method.
+     * <p>
+     * The file is written to a temporary file first and then renamed over the
+     * given file, so an interrupted save never leaves a partially written
+     * file behind. See {@link BuildingWriter#save(List, String)}.
+     * <p>
+     * Saving to the file the buildings were loaded from also replaces its
+     * journal, and removes the saved changes from the mutation log.
      *
      * @param filename path of file to save to
      * @throws IOException if any IOExceptions are encountered while writing to
@@ -124,16 +268,118 @@ public class ViewModel {
      * @ass2
      */
     public void save(String filename) throws IOException {
-        BufferedWriter file;
-        try {
-            file = new BufferedWriter(new FileWriter(filename));
-        } catch (IOException ioException) {
-            throw new IOException();
+        if (this.journal != null && this.journal.savesTo(filename)) {
+            this.journal.write(this.journal.prepareSnapshot(this.buildings,
+                    this.mutationLog), written -> { });
+            return;
         }
-        for (Building building : this.buildings) {
-            file.write(building.encode());
+        BuildingWriter.save(this.buildings, filename);
+    }
+
+    /**
+     * Saves the data used by the building management system to the given file
+     * location without blocking the JavaFX application thread.
+     * <p>
+     * A snapshot of the buildings is taken when this method is called (see
+     * {@link BuildingWriter#snapshot(List)}); encoding and writing the
+     * snapshot then happens on a background thread, so the simulation can
+     * keep running while a large save is in progress. The file is replaced
+     * atomically, as for {@link ViewModel#save(String)}.
+     * <p>
+     * Progress and completion are reported through the save status property
+     * (see {@link ViewModel#getSaveStatusProperty()}). If the save fails, an
+     * error dialog is shown.
+     * <p>
+     * This method must be called on the JavaFX application thread.
+     *
+     * @param filename path of file to save to
+     */
+    public void saveAsync(String filename) {
+        if (this.journal != null && this.journal.savesTo(filename)) {
+            SaveJournal.Batch batch = this.journal.prepareSnapshot(
+                    this.buildings, this.mutationLog);
+            runSave(filename, batch.size(),
+                    progress -> this.journal.write(batch, progress));
+            return;
         }
-        file.close();
+        List<Building> snapshot = BuildingWriter.snapshot(this.buildings);
+        runSave(filename, snapshot.size(),
+                progress -> BuildingWriter.save(snapshot, filename, progress));
+    }
+
+    /**
+     * Saves the changes made since the last quicksave to
+     * "saves/quicksave.txt" without blocking the JavaFX application thread.
+     * <p>
+     * Only the buildings, floors and rooms that have changed since the last
+     * quicksave are written, to the journal next to the quicksave file (see
+     * {@link SaveJournal}). The first quicksave, and any quicksave after the
+     * journal has grown too large, writes a full snapshot instead.
+     * <p>
+     * The changes are collected when this method is called and written on a
+     * background thread, as for {@link ViewModel#saveAsync(String)}.
+     * <p>
+     * This method must be called on the JavaFX application thread.
+     */
+    public void quicksave() {
+        SaveJournal.Batch batch = this.quicksaveJournal.prepare(this.buildings,
+                this.quicksaveJournal == this.journal
+                        ? this.mutationLog : null);
+        runSave(QUICKSAVE_FILE, batch.size(),
+                progress -> this.quicksaveJournal.write(batch, progress));
+    }
+
+    /**
+     * Runs a save on the save executor, reporting its progress through the
+     * save status property.
+     *
+     * @param filename name of the file being saved to, for status messages
+     * @param total    number of items the save will write
+     * @param save     save to run, given a callback taking the number of
+     *                 items written so far
+     */
+    private void runSave(String filename, int total, SaveTask save) {
+        this.saveStatus.setValue("Saving to " + filename + "...");
+        this.saveExecutor.execute(() -> {
+            int[] lastPercent = {0};
+            try {
+                save.run(written -> {
+                    int percent = total == 0 ? 100
+                            : (int) ((long) written * 100 / total);
+                    if (percent != lastPercent[0]) {
+                        lastPercent[0] = percent;
+                        Platform.runLater(() -> this.saveStatus.setValue(
+                                "Saving to " + filename + "... "
+                                        + percent + "%"));
+                    }
+                });
+                Platform.runLater(() -> this.saveStatus.setValue(
+                        "Saved to " + filename));
+            } catch (IOException | RuntimeException e) {
+                // Anything escaping here would leave the status at "Saving"
+                String message = e.getMessage() == null ? e.toString()
+                        : e.getMessage();
+                Platform.runLater(() -> {
+                    this.saveStatus.setValue("Save to " + filename
+                            + " failed");
+                    createErrorDialog("Error saving buildings to file",
+                            message);
+                });
+            }
+        });
+    }
+
+    /**
+     * Creates the executor used for asynchronous saves.
+     *
+     * @return single-threaded executor whose thread times out when idle
+     */
+    private static ExecutorService createSaveExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "bms-save"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -143,6 +389,9 @@ public class ViewModel {
      * Otherwise, the {@link TimedItemManager#elapseOneMinute()} method should
      * be called to  elapse one minute on all registered timed items.
      * <p>
+     * The minute is elapsed on the singleton manager and on the manager of
+     * every building that has its own, as {@link #fastForward(int)} does.
+     * <p>
      * The value of the internal <code>ticks</code> IntegerProperty should be
      * incremented by one, and the value of the <code>timeElapsed</code>
      * StringProperty should be updated to contain "X minutes elapsed" where
@@ -154,13 +403,62 @@ public class ViewModel {
      */
     public void tick() {
         if (!paused.getValue()) {
-            TimedItemManager.getInstance().elapseOneMinute();
+            for (TimedItemManager manager : timedItemManagers()) {
+                manager.elapseOneMinute();
+            }
             this.ticks.setValue(ticks.get() + 1);
             timeElapsed.setValue(this.ticks.getValue() + " minutes elapsed");
             registerChange();
         }
     }
 
+    /**
+     * Moves the simulation forward by the given number of "virtual" minutes
+     * at once, as if {@link ViewModel#tick()} had been called that many times
+     * while not paused.
+     * <p>
+     * The minutes are elapsed with
+     * {@link TimedItemManager#elapseMinutes(int)} on the singleton manager
+     * and on the manager of every building that has its own (see
+     * {@link Building#setTimedItemManager(TimedItemManager)}), and the view
+     * is only updated once at the end, so long stretches such as a week can
+     * be simulated without stepping through every minute. This works whether
+     * or not the simulation is paused.
+     *
+     * @param minutes number of minutes to elapse
+     * @throws IllegalArgumentException if minutes is negative
+     */
+    public void fastForward(int minutes) {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Minutes must be non-negative");
+        }
+        for (TimedItemManager manager : timedItemManagers()) {
+            manager.elapseMinutes(minutes);
+        }
+        this.ticks.setValue(ticks.get() + minutes);
+        timeElapsed.setValue(this.ticks.getValue() + " minutes elapsed");
+        registerChange();
+    }
+
+    /**
+     * Returns the singleton timed item manager, followed by each distinct
+     * manager that a building has been given of its own.
+     *
+     * @return managers elapsing the buildings' timed items
+     */
+    private List<TimedItemManager> timedItemManagers() {
+        List<TimedItemManager> managers = new ArrayList<>();
+        managers.add(TimedItemManager.getInstance());
+        for (Building building : this.buildings) {
+            // Managers do not override equals, so this compares identity
+            if (!managers.contains(building.getTimedItemManager())) {
+                managers.add(building.getTimedItemManager());
+            }
+        }
+        return managers;
+    }
+
     /**
      * @ass2_given
      */
@@ -208,6 +506,16 @@ public class ViewModel {
         return pauseButtonText;
     }
 
+    /**
+     * Returns the property describing the progress of the most recent
+     * asynchronous save, or an empty string if no save has been started.
+     *
+     * @return save status property
+     */
+    public StringProperty getSaveStatusProperty() {
+        return saveStatus;
+    }
+
     /**
      * @ass2_given
      */
@@ -240,7 +548,8 @@ public class ViewModel {
      * @ass2_given
      */
     public Building getSelectedBuilding() {
-        int buildingIndex = currentBuildingIndex.get();
+        int buildingIndex = this.replaying ? this.replayBuildingIndex
+                : currentBuildingIndex.get();
         return this.buildings.get(buildingIndex);
     }
 
@@ -257,6 +566,27 @@ public class ViewModel {
         registerChange();
     }
 
+    /**
+     * Reads the selected building's floors and rooms from the save file, if
+     * it was loaded lazily and has not been used yet.
+     * <p>
+     * If the building's record is invalid, an error dialog is shown and the
+     * building is left unloaded.
+     *
+     * @return true if the selected building's floors are available
+     */
+    public boolean loadSelectedBuilding() {
+        Building building = getSelectedBuilding();
+        try {
+            building.load();
+        } catch (FileFormatException e) {
+            createErrorDialog("Error loading building \""
+                    + building.getName() + "\"", e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @ass2_given
      */
@@ -330,12 +660,21 @@ public class ViewModel {
      */
     public void registerChange() {
         this.changed.setValue(true);
+        if (this.pendingMutation != null) {
+            List<String> mutation = this.pendingMutation;
+            this.pendingMutation = null;
+            logMutation(mutation);
+        }
     }
 
     /**
      * @ass2_given
      */
     public void createErrorDialog(String headerText, String contentText) {
+        if (this.replaying) {
+            this.replayErrors++;
+            return;
+        }
         Alert alert = new Alert(Alert.AlertType.ERROR);
         alert.setTitle("Error");
         alert.setHeaderText(headerText);
@@ -379,6 +718,25 @@ public class ViewModel {
                 return;
             }
         }
+        if (this.mutationLog != null && !this.replaying) {
+            // Only logged once the instruction calls registerChange()
+            this.pendingMutation = describeMutation(option, args);
+        }
+        try {
+            applyInstruction(option, args);
+        } finally {
+            this.pendingMutation = null;
+        }
+    }
+
+    /**
+     * Performs the action for an instruction from the GUI.
+     *
+     * @param option instruction given
+     * @param args   arguments entered for the instruction, none of them empty
+     */
+    private void applyInstruction(ButtonOptions option,
+                                  List<Optional<String>> args) {
         switch (option) {
             case ADD_BUILDING:
                 addBuilding(args.get(0).orElse(""));
@@ -411,6 +769,98 @@ public class ViewModel {
         }
     }
 
+    /**
+     * Returns the mutation log entry for an instruction, recording the
+     * selected building, floor and room along with its arguments.
+     *
+     * @param option instruction given
+     * @param args   arguments entered for the instruction
+     * @return fields of the log entry
+     */
+    private List<String> describeMutation(ButtonOptions option,
+                                          List<Optional<String>> args) {
+        List<String> fields = new ArrayList<>(args.size() + 4);
+        fields.add(option.name());
+        fields.add(String.valueOf(this.currentBuildingIndex == null
+                ? -1 : this.currentBuildingIndex.get()));
+        fields.add(this.selectedFloor == null
+                ? "" : String.valueOf(this.selectedFloor.getFloorNumber()));
+        fields.add(this.selectedRoom == null
+                ? "" : String.valueOf(this.selectedRoom.getRoomNumber()));
+        for (Optional<String> arg : args) {
+            fields.add(arg.orElse(""));
+        }
+        return fields;
+    }
+
+    /**
+     * Appends a change to the mutation log. If the log cannot be written,
+     * an error dialog is shown and later changes are not logged.
+     *
+     * @param mutation fields of the log entry
+     */
+    private void logMutation(List<String> mutation) {
+        try {
+            this.mutationLog.append(mutation);
+        } catch (IOException e) {
+            this.mutationLog = null;
+            createErrorDialog("Could not record change", e.getMessage()
+                    + System.lineSeparator() + "Changes made from now on "
+                    + "will be lost if the program stops before they are "
+                    + "saved.");
+        }
+    }
+
+    /**
+     * Replays a change read from the mutation log, with the building, floor
+     * and room that were selected when it was made.
+     *
+     * @param fields fields of the log entry, as returned by
+     *               describeMutation()
+     * @return true if the change was made without errors
+     */
+    private boolean replay(List<String> fields) {
+        if (fields.size() < 4) {
+            return false;
+        }
+        ButtonOptions option;
+        try {
+            option = ButtonOptions.valueOf(fields.get(0));
+            this.replayBuildingIndex = Integer.parseInt(fields.get(1));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        Building building = this.replayBuildingIndex >= 0
+                && this.replayBuildingIndex < this.buildings.size()
+                ? this.buildings.get(this.replayBuildingIndex) : null;
+        this.selectedFloor = null;
+        this.selectedRoom = null;
+        try {
+            if (building != null && !fields.get(2).isEmpty()) {
+                this.selectedFloor = building.getFloorByNumber(
+                        Integer.parseInt(fields.get(2)));
+            }
+            if (this.selectedFloor != null && !fields.get(3).isEmpty()) {
+                this.selectedRoom = this.selectedFloor.getRoomByNumber(
+                        Integer.parseInt(fields.get(3)));
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        List<Optional<String>> args = new ArrayList<>(fields.size() - 4);
+        for (String arg : fields.subList(4, fields.size())) {
+            args.add(Optional.of(arg));
+        }
+        this.replayErrors = 0;
+        try {
+            takeInstruction(option, args);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return this.replayErrors == 0;
+    }
+
     private void addMaintenanceSchedule(List<Optional<String>> args) {
         if (args.size() == 0) return;
 
@@ -607,14 +1057,9 @@ public class ViewModel {
         }
 
         if (sensorType.equals("TemperatureSensor")) {
-            try {
-                getSelectedRoom().addSensor(
-                        new TemperatureSensor(sensorReadings));
-            } catch (DuplicateSensorException e) {
-                createErrorDialog("Could not add sensor", e.getMessage());
-                return;
+            if (addNewSensor(new TemperatureSensor(sensorReadings))) {
+                this.registerChange();
             }
-            this.registerChange();
             return;
         }
 
@@ -631,14 +1076,10 @@ public class ViewModel {
         }
 
         if (sensorType.equals("NoiseSensor")) {
-            try {
-                getSelectedRoom().addSensor(new NoiseSensor(sensorReadings,
-                        updateFrequency));
-            } catch (DuplicateSensorException e) {
-                createErrorDialog("Could not add sensor", e.getMessage());
-                return;
+            if (addNewSensor(new NoiseSensor(sensorReadings,
+                    updateFrequency))) {
+                this.registerChange();
             }
-            this.registerChange();
             return;
         }
 
@@ -654,14 +1095,10 @@ public class ViewModel {
                         "Sensor capacity must be an integer");
                 return;
             }
-            try {
-                getSelectedRoom().addSensor(new OccupancySensor(sensorReadings,
-                        updateFrequency, capacity));
-            } catch (DuplicateSensorException e) {
-                createErrorDialog("Could not add sensor", e.getMessage());
-                return;
+            if (addNewSensor(new OccupancySensor(sensorReadings,
+                    updateFrequency, capacity))) {
+                this.registerChange();
             }
-            this.registerChange();
             return;
         }
 
@@ -683,15 +1120,30 @@ public class ViewModel {
                     "Sensor variation limit must be an integer");
             return;
         }
+        if (addNewSensor(new CarbonDioxideSensor(sensorReadings,
+                updateFrequency, idealValue, varLimit))) {
+            this.registerChange();
+        }
+    }
+
+    /**
+     * Adds a sensor created for an instruction to the selected room.
+     * <p>
+     * If the room already has a sensor of the same type, an error dialog is
+     * shown and the new sensor is unregistered, as it belongs to no room.
+     *
+     * @param sensor new sensor to add
+     * @return true if the sensor was added
+     */
+    private boolean addNewSensor(TimedSensor sensor) {
         try {
-            getSelectedRoom().addSensor(new CarbonDioxideSensor(sensorReadings,
-                    updateFrequency, idealValue, varLimit));
+            getSelectedRoom().addSensor(sensor);
+            return true;
         } catch (DuplicateSensorException e) {
+            TimedItemManager.getInstance().unregisterTimedItem(sensor);
             createErrorDialog("Could not add sensor", e.getMessage());
-            return;
+            return false;
         }
-
-        this.registerChange();
     }
 
     private void addHazardEvaluator(List<Optional<String>> args) {
@@ -711,7 +1163,26 @@ public class ViewModel {
             return;
         }
 
-        Map<HazardSensor, Integer> weightings = new HashMap<>();
+        if (evaluatorType.equals("Custom Rule")) {
+            if (args.size() < 2 || args.get(1).isEmpty()) return;
+            HazardRule rule;
+            try {
+                rule = HazardRule.parse(args.get(1).get());
+            } catch (IllegalArgumentException e) {
+                createErrorDialog("Could not add hazard evaluator",
+                        e.getMessage());
+                return;
+            }
+            getSelectedRoom().setHazardEvaluator(
+                    new CustomRuleHazardEvaluator(rule,
+                            getSelectedRoom().getType(), hazardSensors));
+            this.registerChange();
+            return;
+        }
+
+        // Keeps the weightings in sensor order, so that a replayed
+        // evaluator is encoded the same way as the original
+        Map<HazardSensor, Integer> weightings = new LinkedHashMap<>();
         for (int i = 0; i < getSelectedRoom().getSensors().size(); ++i) {
             Sensor s = getSelectedRoom().getSensors().get(i);
             if (s instanceof HazardSensor) {
@@ -737,4 +1208,17 @@ public class ViewModel {
 
         this.registerChange();
     }
+
+    /**
+     * A save that may be run on the save executor.
+     */
+    private interface SaveTask {
+        /**
+         * Runs the save.
+         *
+         * @param progress called with the number of items written so far
+         * @throws IOException if the save fails
+         */
+        void run(IntConsumer progress) throws IOException;
+    }
 }
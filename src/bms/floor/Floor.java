@@ -3,14 +3,21 @@ package bms.floor;
 import bms.exceptions.DuplicateRoomException;
 import bms.exceptions.FloorTooSmallException;
 import bms.exceptions.InsufficientSpaceException;
+import bms.hazardevaluation.MaxHazardTracker;
 import bms.room.Room;
 import bms.room.RoomType;
 import bms.sensors.Sensor;
+import bms.util.Encodable;
+import bms.util.EncodeFormat;
 import bms.util.FireDrill;
+import bms.util.TimedItemManager;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -24,7 +31,7 @@ import java.util.Objects;
  *
  * @ass1
  */
-public class Floor implements FireDrill {
+public class Floor implements FireDrill, Encodable {
     /**
      * Minimum width of all floors, in metres.
      */
@@ -54,6 +61,22 @@ public class Floor implements FireDrill {
      * the maintenance Schedule of floor.
      */
     private MaintenanceSchedule maintenanceSchedule;
+    /**
+     * Whether this floor's dimensions, list of rooms or maintenance schedule
+     * have changed since it was last marked clean.
+     */
+    private boolean layoutDirty;
+    /**
+     * Timed item manager this floor's maintenance schedule and sensors are
+     * registered with.
+     */
+    private TimedItemManager timedItemManager =
+            TimedItemManager.getInstance();
+    /**
+     * Tracker following the hazard levels of this floor's rooms, or null if
+     * their hazard evaluators read the sensors each time they are evaluated.
+     */
+    private MaxHazardTracker hazardTracker;
 
     /**
      * Creates a new floor with the given floor number.
@@ -70,6 +93,7 @@ public class Floor implements FireDrill {
         this.length = length;
         this.rooms = new ArrayList<>();
         this.maintenanceSchedule = null;
+        this.layoutDirty = true;
     }
 
     /**
@@ -224,6 +248,9 @@ public class Floor implements FireDrill {
 
         // No problems, so add room to the list of rooms
         rooms.add(newRoom);
+        newRoom.setTimedItemManager(this.timedItemManager);
+        newRoom.setHazardTracker(this.hazardTracker);
+        this.layoutDirty = true;
     }
 
     /**
@@ -260,6 +287,73 @@ public class Floor implements FireDrill {
         }
     }
 
+    /**
+     * Unregisters this floor's maintenance schedule and the sensors in its
+     * rooms from the timed item manager, once the floor has been removed
+     * from the model for good.
+     * <p>
+     * This must not be called on a snapshot (see {@link Floor#snapshot()}),
+     * which shares its sensors with the floor it was taken from.
+     */
+    public void discard() {
+        if (this.maintenanceSchedule != null) {
+            this.timedItemManager.unregisterTimedItem(
+                    this.maintenanceSchedule);
+        }
+        for (Room room : this.rooms) {
+            room.discard();
+        }
+    }
+
+    /**
+     * Returns the timed item manager this floor's maintenance schedule and
+     * sensors are registered with.
+     *
+     * @return manager elapsing this floor's timed items
+     */
+    public TimedItemManager getTimedItemManager() {
+        return this.timedItemManager;
+    }
+
+    /**
+     * Moves this floor's maintenance schedule and the sensors in its rooms
+     * to the given timed item manager, which will elapse them from now on.
+     * <p>
+     * Rooms added to the floor later are moved to the same manager.
+     *
+     * @param manager manager to register this floor's timed items with
+     */
+    public void setTimedItemManager(TimedItemManager manager) {
+        if (manager == this.timedItemManager) {
+            return;
+        }
+        if (this.maintenanceSchedule != null) {
+            this.timedItemManager.unregisterTimedItem(
+                    this.maintenanceSchedule);
+            manager.registerTimedItem(this.maintenanceSchedule);
+        }
+        for (Room room : this.rooms) {
+            room.setTimedItemManager(manager);
+        }
+        this.timedItemManager = manager;
+    }
+
+    /**
+     * Sets the tracker to follow the hazard levels of this floor's rooms as
+     * they change, or null to stop following them (see
+     * {@link Room#setHazardTracker(MaxHazardTracker)}).
+     * <p>
+     * Rooms added to the floor later are followed by the same tracker.
+     *
+     * @param tracker tracker to follow the rooms' hazard levels, or null
+     */
+    public void setHazardTracker(MaxHazardTracker tracker) {
+        for (Room room : this.rooms) {
+            room.setHazardTracker(tracker);
+        }
+        this.hazardTracker = tracker;
+    }
+
     /**
      * Returns the floor's maintenance schedule, or null if it does not exist.
      *
@@ -299,6 +393,7 @@ public class Floor implements FireDrill {
         }
         this.length = newLength;
         this.width = newWidth;
+        this.layoutDirty = true;
     }
 
     /**
@@ -320,7 +415,8 @@ public class Floor implements FireDrill {
      * If this floor already has a maintenance schedule, it should be
      * replaced with the newly created schedule. The room currently being
      * maintained according to the old schedule should have its maintenance
-     * status set to false.
+     * status set to false. The old schedule is unregistered from the timed
+     * item manager, and the new one registered in its place.
      *
      * @param roomOrder rooms on which to perform maintenance, in order
      * @throws IllegalArgumentException if the given order is null or empty,
@@ -355,10 +451,60 @@ public class Floor implements FireDrill {
                 }
             }
         }
+        TimedItemManager manager = this.timedItemManager;
         if (this.maintenanceSchedule != null) {
+            manager.unregisterTimedItem(this.maintenanceSchedule);
             this.maintenanceSchedule.getCurrentRoom().setMaintenance(false);
         }
         this.maintenanceSchedule = new MaintenanceSchedule(roomOrder);
+        manager.registerTimedItem(this.maintenanceSchedule);
+        this.layoutDirty = true;
+    }
+
+    /**
+     * Returns whether this floor's encoded state (see {@link Floor#encode()})
+     * may have changed since the floor was last marked clean, including
+     * changes to any of its rooms.
+     *
+     * @return true if this floor or any of its rooms has changed since it
+     * was last saved
+     */
+    public boolean isDirty() {
+        if (this.layoutDirty) {
+            return true;
+        }
+        for (Room room : this.rooms) {
+            if (room.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the first line of this floor's encoding may have
+     * changed since the floor was last marked clean, i.e. whether its
+     * dimensions, list of rooms or maintenance schedule have changed.
+     * <p>
+     * Changes to the rooms themselves are reported by
+     * {@link Room#isDirty()}.
+     *
+     * @return true if this floor's layout has changed since it was last
+     * saved
+     */
+    public boolean isLayoutDirty() {
+        return this.layoutDirty;
+    }
+
+    /**
+     * Records that this floor's current encoded state, including that of
+     * all its rooms, has been saved.
+     */
+    public void markClean() {
+        this.layoutDirty = false;
+        for (Room room : this.rooms) {
+            room.markClean();
+        }
     }
 
     /**
@@ -433,6 +579,40 @@ public class Floor implements FireDrill {
                 this.rooms.size(), roomHash);
     }
 
+    /**
+     * Returns a copy of this floor's encoded state.
+     * <p>
+     * The copy has the same floor number and dimensions as this floor, a
+     * snapshot of each of its rooms (see {@link Room#snapshot()}) and, if
+     * this floor has a maintenance schedule, a schedule over those room
+     * snapshots in the same order. Its encoding is the same as this floor's
+     * encoding at the time this method was called.
+     * <p>
+     * The copy is intended to be encoded on another thread while this floor
+     * continues to be updated, and should not otherwise be used as part of
+     * the model.
+     *
+     * @return copy of this floor for encoding
+     */
+    public Floor snapshot() {
+        Floor copy = new Floor(this.floorNumber, this.width, this.length);
+        Map<Room, Room> copies = new IdentityHashMap<>();
+        for (Room room : this.rooms) {
+            Room roomCopy = room.snapshot();
+            copies.put(room, roomCopy);
+            copy.rooms.add(roomCopy);
+        }
+        if (this.maintenanceSchedule != null) {
+            List<Room> roomOrder = new ArrayList<>();
+            for (Room room : this.maintenanceSchedule.getRoomOrder()) {
+                Room roomCopy = copies.get(room);
+                roomOrder.add(roomCopy != null ? roomCopy : room.snapshot());
+            }
+            copy.maintenanceSchedule = new MaintenanceSchedule(roomOrder);
+        }
+        return copy;
+    }
+
     /**
      * Returns the machine-readable string representation of this floor
      * and all of its rooms and sensors.
@@ -469,21 +649,35 @@ public class Floor implements FireDrill {
      * @return encoded string representation of this floor
      */
     public String encode() {
-        StringBuilder roomEncode = new StringBuilder();
-        for (Room room : this.rooms) {
-            roomEncode.append(room.encode());
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this floor and all of
+     * its rooms and sensors to the given destination.
+     * <p>
+     * Appends the same characters as {@link Floor#encode()}, without building
+     * an intermediate String for the floor or its rooms.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        EncodeFormat.appendFormattedInt(out, this.floorNumber);
+        out.append(':');
+        EncodeFormat.appendTwoDecimals(out, this.width);
+        out.append(':');
+        EncodeFormat.appendTwoDecimals(out, this.length);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.rooms.size());
+        if (this.maintenanceSchedule != null) {
+            out.append(':');
+            this.maintenanceSchedule.encodeTo(out);
         }
-        if (this.maintenanceSchedule == null) {
-            return (String.format("%d:%.2f:%.2f:%d" +
-                            System.lineSeparator() + "%s",
-                    this.floorNumber, this.width, this.length,
-                    this.rooms.size(), roomEncode));
-        } else {
-            return (String.format("%d:%.2f:%.2f:%d:%s" +
-                            System.lineSeparator() + "%s",
-                    this.floorNumber, this.width, this.length,
-                    this.rooms.size(), this.maintenanceSchedule.encode(),
-                    roomEncode));
+        out.append(System.lineSeparator());
+        for (Room room : this.rooms) {
+            room.encodeTo(out);
         }
     }
 
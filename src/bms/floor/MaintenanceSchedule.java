@@ -4,11 +4,15 @@ import bms.room.Room;
 import bms.room.RoomState;
 import bms.room.RoomType;
 import bms.util.Encodable;
-import bms.util.TimedItem;
+import bms.util.EncodeFormat;
+import bms.util.ScheduledTimedItem;
+import bms.util.TimedItemManager;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
-public class MaintenanceSchedule implements TimedItem, Encodable {
+public class MaintenanceSchedule implements ScheduledTimedItem, Encodable {
     /**
      * list to hold the Room which in maintenance schedule
      */
@@ -25,12 +29,24 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      * he room which is currently in the process of being maintained.
      */
     private Room currentMaintenanceRoom;
+    /**
+     * Minute of the timed item manager that this schedule was last brought
+     * up to; -1 if it is not registered with the manager.
+     */
+    private long managerMinute = -1;
+    /**
+     * Timed item manager this schedule is registered with; null if it is
+     * not registered.
+     */
+    private TimedItemManager manager;
 
     /**
      * Creates a new maintenance schedule for a floor's list of rooms.
      * <p>
-     * In this constructor, the new maintenance schedule should be
-     * registered as a timed item with the timed item manager.
+     * The new maintenance schedule is registered as a timed item with the
+     * timed item manager by
+     * {@link Floor#createMaintenanceSchedule(List)}, rather than here, so
+     * that the copies made by {@link Floor#snapshot()} are not registered.
      *
      * @param roomOrder list of rooms on which to perform maintenance,
      *                  in order
@@ -61,6 +77,103 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      */
     @Override
     public void elapseOneMinute() {
+        catchUp();
+        elapseMinute();
+    }
+
+    /**
+     * Returns true, since a maintenance schedule checks the state of its
+     * current room, which depends on the room's sensors.
+     *
+     * @return true
+     */
+    @Override
+    public boolean readsOtherTimedItems() {
+        return true;
+    }
+
+    /**
+     * Returns the number of minutes until the current room's maintenance
+     * time is reached, or 1 if it already has been but the room could not
+     * be left because it is being evacuated.
+     *
+     * @return minutes until this schedule next checks its current room
+     */
+    @Override
+    public int getMinutesUntilDue() {
+        catchUp();
+        if (this.roomOrder == null) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(1,
+                getMaintenanceTime(getCurrentRoom()) - this.timeElapsed);
+    }
+
+    /**
+     * Elapses every minute between the minute this schedule was last
+     * brought up to and the given minute on the timed item manager.
+     * <p>
+     * Minutes before the current room's maintenance time is reached only
+     * add to the time elapsed, so they are added in one step. The current
+     * room is only checked in the minutes from its maintenance time on.
+     *
+     * @param minute number of minutes elapsed on the timed item manager
+     */
+    @Override
+    public void advanceTo(long minute) {
+        long remaining = this.managerMinute >= 0
+                ? minute - this.managerMinute : 0;
+        this.managerMinute = minute;
+        while (remaining > 0 && this.roomOrder != null) {
+            int quiet = getMaintenanceTime(getCurrentRoom())
+                    - this.timeElapsed - 1;
+            if (quiet > 0) {
+                int skipped = (int) Math.min(quiet, remaining);
+                this.timeElapsed += skipped;
+                remaining -= skipped;
+            }
+            if (remaining > 0) {
+                elapseMinute();
+                remaining--;
+            }
+        }
+    }
+
+    /**
+     * Records the timed item manager whose minutes this schedule follows.
+     *
+     * @param manager manager this schedule is registered with
+     */
+    @Override
+    public void attach(TimedItemManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Stops following the timed item manager's minutes, so this schedule
+     * stays on its current room until it is registered again.
+     */
+    @Override
+    public void detach() {
+        this.managerMinute = -1;
+        this.manager = null;
+    }
+
+    /**
+     * Brings this schedule up to the timed item manager's current minute,
+     * if it is registered with the manager.
+     */
+    private void catchUp() {
+        if (this.manager != null && this.managerMinute >= 0) {
+            advanceTo(this.manager.getMinutesElapsed());
+        }
+    }
+
+    /**
+     * Progresses the maintenance schedule by one minute, as described in
+     * {@link MaintenanceSchedule#elapseOneMinute()}.
+     */
+    private void elapseMinute() {
         this.timeElapsed++;
         Room room = getCurrentRoom();
         if (room.evaluateRoomState() != RoomState.EVACUATE) {
@@ -90,10 +203,38 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      */
     @Override
     public String encode() {
-        return String.join(",", this.roomOrder.stream()
-                .mapToInt(Room::getRoomNumber)
-                .mapToObj(String::valueOf)
-                .toArray(String[]::new));
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this maintenance
+     * schedule to the given destination.
+     * <p>
+     * Appends the same characters as {@link MaintenanceSchedule#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        for (int i = 0; i < this.roomOrder.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            EncodeFormat.appendInt(out, this.roomOrder.get(i).getRoomNumber());
+        }
+    }
+
+    /**
+     * Returns a new list containing the rooms in this schedule's order.
+     * <p>
+     * Adding or removing rooms from this list should not affect the
+     * schedule's internal room order.
+     *
+     * @return rooms in maintenance order
+     */
+    public List<Room> getRoomOrder() {
+        return new ArrayList<>(this.roomOrder);
     }
 
     /**
@@ -168,6 +309,7 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      * @return time elapsed maintaining current room
      */
     public int getTimeElapsedCurrentRoom() {
+        catchUp();
         return this.timeElapsed;
     }
 
@@ -179,10 +321,15 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      * the dot point list in elapseOneMinute().
      */
     public void skipCurrentMaintenance() {
+        catchUp();
         this.roomOrder.get(this.currentIndex).setMaintenance(false);
         this.timeElapsed = 0;
         this.currentIndex = (this.currentIndex + 1) % roomOrder.size();
         this.roomOrder.get(this.currentIndex).setMaintenance(true);
+        if (this.manager != null) {
+            // The next room may be due sooner than the one skipped
+            this.manager.reschedule(this);
+        }
     }
 
     /**
@@ -201,6 +348,7 @@ public class MaintenanceSchedule implements TimedItem, Encodable {
      */
     @Override
     public String toString() {
+        catchUp();
         return String.format("MaintenanceSchedule: currentRoom=#%d," +
                         " currentElapsed=%d",
                 this.currentMaintenanceRoom.getRoomNumber(),
@@ -0,0 +1,435 @@
+package bms.hazardevaluation;
+
+import bms.building.Building;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.HazardSensor;
+import bms.sensors.NoiseSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.TemperatureSensor;
+import bms.sensors.TimedSensor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Evaluates the hazard levels of many rooms at once, such as every room in a
+ * building or campus.
+ * <p>
+ * The hazard inputs of every room are laid out in primitive arrays: each
+ * room's sensors, in the order its hazard evaluator uses them, take up a
+ * run of entries holding the sensor's type, current reading, capacity (for
+ * occupancy sensors) and weighting (for weighting-based evaluators). The
+ * levels of all rooms are then worked out in two passes over these arrays,
+ * one turning readings into sensor hazard levels and one combining them per
+ * room, rather than through a call on every sensor for every room.
+ * <p>
+ * Rooms using a {@link RuleBasedHazardEvaluator} or a
+ * {@link WeightingBasedHazardEvaluator} get exactly the level their
+ * evaluator would give. Rooms with any other evaluator, or with sensors of
+ * a type not listed here, are still evaluated through their evaluator or
+ * sensors.
+ * <p>
+ * The layout is fixed when the batch is created; a new batch should be
+ * created after rooms, sensors or hazard evaluators are added or changed.
+ */
+public class BatchHazardEvaluator {
+    /**
+     * Hazard level given for a room without a hazard evaluator.
+     */
+    public static final int NO_EVALUATOR = -1;
+
+    /**
+     * Room kind: no hazard evaluator.
+     */
+    public static final byte NONE = 0;
+    /**
+     * Room kind: evaluated as by {@link RuleBasedHazardEvaluator}.
+     */
+    public static final byte RULE_BASED = 1;
+    /**
+     * Room kind: evaluated as by {@link WeightingBasedHazardEvaluator}.
+     */
+    public static final byte WEIGHTING_BASED = 2;
+    /**
+     * Room kind: evaluated through its own hazard evaluator.
+     */
+    public static final byte OTHER_EVALUATOR = 3;
+
+    /**
+     * Sensor type: carbon dioxide sensor; the entry holds its reading.
+     */
+    public static final byte CARBON_DIOXIDE = 0;
+    /**
+     * Sensor type: noise sensor; the entry holds its reading.
+     */
+    public static final byte NOISE = 1;
+    /**
+     * Sensor type: occupancy sensor; the entry holds its reading and
+     * capacity.
+     */
+    public static final byte OCCUPANCY = 2;
+    /**
+     * Sensor type: temperature sensor; the entry holds its reading.
+     */
+    public static final byte TEMPERATURE = 3;
+    /**
+     * Sensor type: any other hazard sensor; the entry holds its hazard level
+     * instead of its reading.
+     */
+    public static final byte OTHER_SENSOR = 4;
+
+    /**
+     * Rooms evaluated, in order.
+     */
+    private final List<Room> rooms;
+
+    /**
+     * Kind of each room (see {@link #RULE_BASED}).
+     */
+    private final byte[] roomKinds;
+
+    /**
+     * Evaluator of each room of kind {@link #OTHER_EVALUATOR}; null for
+     * other rooms.
+     */
+    private final HazardEvaluator[] otherEvaluators;
+
+    /**
+     * Index of each room's first entry; the entries of room i run up to the
+     * first entry of room i + 1.
+     */
+    private final int[] starts;
+
+    /**
+     * Sensor of each entry.
+     */
+    private final HazardSensor[] sensors;
+
+    /**
+     * Timed sensors whose readings are read, in entry order; a sensor of
+     * type {@link #OTHER_SENSOR} is read separately.
+     */
+    private final TimedSensor[] timedSensors;
+
+    /**
+     * Entry of each of the timed sensors.
+     */
+    private final int[] timedEntries;
+
+    /**
+     * Type of each entry's sensor (see {@link #CARBON_DIOXIDE}).
+     */
+    private final byte[] sensorTypes;
+
+    /**
+     * Capacity of each entry's occupancy sensor; 0 for other sensors.
+     */
+    private final int[] capacities;
+
+    /**
+     * Weighting of each entry's sensor in a weighting-based evaluator; 0
+     * for rule-based evaluators.
+     */
+    private final int[] weights;
+
+    /**
+     * Reading of each entry's sensor, read on each evaluation.
+     */
+    private final int[] readings;
+
+    /**
+     * Creates a batch covering the given rooms.
+     *
+     * @param rooms rooms to evaluate, in the order their levels are returned
+     */
+    public BatchHazardEvaluator(List<Room> rooms) {
+        this.rooms = new ArrayList<>(rooms);
+        int roomCount = this.rooms.size();
+        this.roomKinds = new byte[roomCount];
+        this.otherEvaluators = new HazardEvaluator[roomCount];
+        this.starts = new int[roomCount + 1];
+
+        List<HazardSensor> sensors = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        for (int i = 0; i < roomCount; i++) {
+            this.starts[i] = sensors.size();
+            HazardEvaluator evaluator = this.rooms.get(i)
+                    .getHazardEvaluator();
+            if (evaluator == null) {
+                this.roomKinds[i] = NONE;
+            } else if (evaluator.getClass()
+                    == RuleBasedHazardEvaluator.class) {
+                this.roomKinds[i] = RULE_BASED;
+                HazardSensor[] inOrder = ((RuleBasedHazardEvaluator)
+                        evaluator).getSensorsInOrder();
+                Collections.addAll(sensors, inOrder);
+                weights.addAll(Collections.nCopies(inOrder.length, 0));
+            } else if (evaluator.getClass()
+                    == WeightingBasedHazardEvaluator.class) {
+                this.roomKinds[i] = WEIGHTING_BASED;
+                WeightingBasedHazardEvaluator weighting =
+                        (WeightingBasedHazardEvaluator) evaluator;
+                Collections.addAll(sensors, weighting.getSensorsInOrder());
+                weights.addAll(weighting.getWeightings());
+            } else {
+                this.roomKinds[i] = OTHER_EVALUATOR;
+                this.otherEvaluators[i] = evaluator;
+            }
+        }
+        this.starts[roomCount] = sensors.size();
+
+        int entries = sensors.size();
+        this.sensors = sensors.toArray(new HazardSensor[0]);
+        this.sensorTypes = new byte[entries];
+        this.capacities = new int[entries];
+        this.weights = new int[entries];
+        this.readings = new int[entries];
+        List<TimedSensor> timedSensors = new ArrayList<>();
+        int[] timedEntries = new int[entries];
+        for (int e = 0; e < entries; e++) {
+            HazardSensor sensor = this.sensors[e];
+            this.sensorTypes[e] = sensorType(sensor);
+            if (this.sensorTypes[e] == OCCUPANCY) {
+                this.capacities[e] = ((OccupancySensor) sensor).getCapacity();
+            }
+            if (this.sensorTypes[e] != OTHER_SENSOR) {
+                timedEntries[timedSensors.size()] = e;
+                timedSensors.add((TimedSensor) sensor);
+            }
+            this.weights[e] = weights.get(e);
+        }
+        this.timedSensors = timedSensors.toArray(new TimedSensor[0]);
+        this.timedEntries = Arrays.copyOf(timedEntries,
+                this.timedSensors.length);
+    }
+
+    /**
+     * Creates a batch covering every room on the given floor.
+     *
+     * @param floor floor whose rooms to evaluate
+     * @return batch covering the floor's rooms, in order
+     */
+    public static BatchHazardEvaluator of(Floor floor) {
+        return new BatchHazardEvaluator(floor.getRooms());
+    }
+
+    /**
+     * Creates a batch covering every room in the given building, floor by
+     * floor.
+     *
+     * @param building building whose rooms to evaluate
+     * @return batch covering the building's rooms, in order
+     */
+    public static BatchHazardEvaluator of(Building building) {
+        List<Room> rooms = new ArrayList<>();
+        for (Floor floor : building.getFloors()) {
+            rooms.addAll(floor.getRooms());
+        }
+        return new BatchHazardEvaluator(rooms);
+    }
+
+    /**
+     * Returns the rooms covered by this batch, in the order their hazard
+     * levels are returned.
+     *
+     * @return rooms covered
+     */
+    public List<Room> getRooms() {
+        return new ArrayList<>(this.rooms);
+    }
+
+    /**
+     * Returns the current hazard level of every room covered by this batch.
+     * <p>
+     * Each sensor's current reading is read once, then the levels of all
+     * rooms are worked out together (see
+     * {@link #evaluate(byte[], int[], byte[], int[], int[], int[], int[])}).
+     *
+     * @return hazard level of each room, in the order of
+     * {@link #getRooms()}; {@link #NO_EVALUATOR} for rooms without a hazard
+     * evaluator
+     */
+    public int[] evaluateHazardLevels() {
+        if (this.timedSensors.length == this.sensors.length) {
+            TimedSensor.readCurrentReadings(this.timedSensors, this.readings);
+        } else {
+            int[] timedReadings = new int[this.timedSensors.length];
+            TimedSensor.readCurrentReadings(this.timedSensors, timedReadings);
+            for (int t = 0; t < timedReadings.length; t++) {
+                this.readings[this.timedEntries[t]] = timedReadings[t];
+            }
+            for (int e = 0; e < this.sensors.length; e++) {
+                if (this.sensorTypes[e] == OTHER_SENSOR) {
+                    this.readings[e] = this.sensors[e].getHazardLevel();
+                }
+            }
+        }
+        int[] hazardLevels = new int[this.roomKinds.length];
+        evaluate(this.roomKinds, this.starts, this.sensorTypes,
+                this.readings, this.capacities, this.weights, hazardLevels);
+        for (int i = 0; i < this.otherEvaluators.length; i++) {
+            if (this.otherEvaluators[i] != null) {
+                hazardLevels[i] = this.otherEvaluators[i]
+                        .evaluateHazardLevel();
+            }
+        }
+        return hazardLevels;
+    }
+
+    /**
+     * Works out the hazard level of every room from its sensors' readings.
+     * <p>
+     * The entries of room i are those from {@code starts[i]} up to
+     * {@code starts[i + 1]}, in the order the room's evaluator uses its
+     * sensors. Rooms of kind {@link #RULE_BASED} and
+     * {@link #WEIGHTING_BASED} are given exactly the level
+     * {@link RuleBasedHazardEvaluator#evaluateHazardLevel()} and
+     * {@link WeightingBasedHazardEvaluator#evaluateHazardLevel()} would give
+     * for the same readings. Rooms of kind {@link #NONE} are given
+     * {@link #NO_EVALUATOR}, and rooms of kind {@link #OTHER_EVALUATOR} are
+     * left as they are.
+     *
+     * @param roomKinds    kind of each room
+     * @param starts       index of each room's first entry, followed by the
+     *                     total number of entries
+     * @param sensorTypes  sensor type of each entry
+     * @param readings     reading of each entry's sensor; for
+     *                     {@link #OTHER_SENSOR} entries, its hazard level
+     * @param capacities   capacity of each entry's occupancy sensor
+     * @param weights      weighting of each entry's sensor, for
+     *                     weighting-based rooms
+     * @param hazardLevels array to store each room's hazard level in
+     */
+    public static void evaluate(byte[] roomKinds, int[] starts,
+                                byte[] sensorTypes, int[] readings,
+                                int[] capacities, int[] weights,
+                                int[] hazardLevels) {
+        int[] levels = new int[readings.length];
+        for (int e = 0; e < readings.length; e++) {
+            levels[e] = sensorLevel(sensorTypes[e], readings[e],
+                    capacities[e]);
+        }
+        for (int i = 0; i < roomKinds.length; i++) {
+            switch (roomKinds[i]) {
+                case RULE_BASED:
+                    hazardLevels[i] = ruleBasedLevel(sensorTypes, levels,
+                            starts[i], starts[i + 1]);
+                    break;
+                case WEIGHTING_BASED:
+                    hazardLevels[i] = weightingBasedLevel(levels, weights,
+                            starts[i], starts[i + 1]);
+                    break;
+                case NONE:
+                    hazardLevels[i] = NO_EVALUATOR;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns the hazard level of a sensor of the given type with the given
+     * reading.
+     *
+     * @param sensorType type of sensor
+     * @param reading    sensor's reading, or its hazard level for
+     *                   {@link #OTHER_SENSOR}
+     * @param capacity   capacity of an occupancy sensor
+     * @return hazard level of the sensor
+     */
+    private static int sensorLevel(byte sensorType, int reading,
+                                   int capacity) {
+        switch (sensorType) {
+            case CARBON_DIOXIDE:
+                return CarbonDioxideSensor.hazardLevelOf(reading);
+            case NOISE:
+                return NoiseSensor.hazardLevelOf(reading);
+            case OCCUPANCY:
+                return OccupancySensor.hazardLevelOf(reading, capacity);
+            case TEMPERATURE:
+                return TemperatureSensor.hazardLevelOf(reading);
+            default:
+                return reading;
+        }
+    }
+
+    /**
+     * Applies the rules of {@link RuleBasedHazardEvaluator} to the sensor
+     * levels of one room, with exactly the same arithmetic.
+     *
+     * @param sensorTypes sensor type of each entry
+     * @param levels      hazard level of each entry's sensor
+     * @param start       room's first entry
+     * @param end         entry after the room's last entry
+     * @return hazard level of the room
+     */
+    private static int ruleBasedLevel(byte[] sensorTypes, int[] levels,
+                                      int start, int end) {
+        if (end == start) {
+            return 0;
+        } else if (end - start == 1) {
+            return levels[start];
+        }
+        float average = 0;
+        for (int e = start; e < end; e++) {
+            if (sensorTypes[e] != OCCUPANCY) {
+                if (levels[e] == 100) {
+                    return 100;
+                }
+                average += (float) levels[e];
+            } else {
+                average *= ((float) levels[e] / 100);
+            }
+        }
+        return (int) average;
+    }
+
+    /**
+     * Works out the weighted average of the sensor levels of one room, with
+     * exactly the same arithmetic as {@link WeightingBasedHazardEvaluator}.
+     *
+     * @param levels  hazard level of each entry's sensor
+     * @param weights weighting of each entry's sensor
+     * @param start   room's first entry
+     * @param end     entry after the room's last entry
+     * @return hazard level of the room
+     */
+    private static int weightingBasedLevel(int[] levels, int[] weights,
+                                           int start, int end) {
+        float hazardLevel = 0;
+        float weight = 0;
+        for (int e = start; e < end; e++) {
+            hazardLevel += levels[e] * weights[e];
+            weight += weights[e];
+        }
+        return (int) Math.ceil(hazardLevel / weight);
+    }
+
+    /**
+     * Returns the type of the given sensor, as stored in the batch.
+     * <p>
+     * Only sensors of exactly the listed classes are given their type, as a
+     * subclass may work out its hazard level differently.
+     *
+     * @param sensor sensor to classify
+     * @return sensor type
+     */
+    private static byte sensorType(HazardSensor sensor) {
+        Class<?> type = sensor.getClass();
+        if (type == CarbonDioxideSensor.class) {
+            return CARBON_DIOXIDE;
+        } else if (type == NoiseSensor.class) {
+            return NOISE;
+        } else if (type == OccupancySensor.class) {
+            return OCCUPANCY;
+        } else if (type == TemperatureSensor.class) {
+            return TEMPERATURE;
+        }
+        return OTHER_SENSOR;
+    }
+}
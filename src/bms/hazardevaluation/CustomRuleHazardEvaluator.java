@@ -0,0 +1,157 @@
+package bms.hazardevaluation;
+
+import bms.room.RoomType;
+import bms.sensors.HazardSensor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hazard evaluator applying a user-defined {@link HazardRule} to the
+ * sensors of one room.
+ * <p>
+ * The rule is compiled for the room's type and sensors when the evaluator is
+ * created, so each evaluation reads the sensors the rule refers to and runs
+ * the compiled rule over their levels, without looking at the rule's text
+ * again.
+ */
+public class CustomRuleHazardEvaluator extends IncrementalHazardEvaluator {
+    /**
+     * Prefix of the string representation of a custom rule evaluator,
+     * followed by the rule and a closing parenthesis.
+     */
+    public static final String PREFIX = "Rules(";
+
+    /**
+     * Rule applied by this evaluator.
+     */
+    private final HazardRule rule;
+
+    /**
+     * Rule compiled for the room.
+     */
+    private final HazardRule.Compiled compiled;
+
+    /**
+     * Creates a new evaluator applying the given rule to the sensors of a
+     * room of the given type.
+     *
+     * @param rule    rule working out the room's hazard level
+     * @param type    type of the room
+     * @param sensors sensors in the room
+     */
+    public CustomRuleHazardEvaluator(HazardRule rule, RoomType type,
+                                     List<HazardSensor> sensors) {
+        this.rule = rule;
+        this.compiled = rule.compile(type, new ArrayList<>(sensors));
+    }
+
+    /**
+     * Returns whether the given string is the string representation of a
+     * custom rule evaluator (see {@link #toString()}).
+     *
+     * @param evaluatorType hazard evaluator type read from a save file
+     * @return true if the type describes a custom rule
+     */
+    public static boolean isCustomRule(String evaluatorType) {
+        return evaluatorType.startsWith(PREFIX)
+                && evaluatorType.endsWith(")");
+    }
+
+    /**
+     * Returns the rule in the given string representation of a custom rule
+     * evaluator.
+     *
+     * @param evaluatorType hazard evaluator type read from a save file, for
+     *                      which {@link #isCustomRule(String)} is true
+     * @return rule described
+     * @throws IllegalArgumentException if the rule is not valid
+     */
+    public static HazardRule parseRule(String evaluatorType)
+            throws IllegalArgumentException {
+        return HazardRule.parse(evaluatorType.substring(PREFIX.length(),
+                evaluatorType.length() - 1));
+    }
+
+    /**
+     * Returns the rule applied by this evaluator.
+     *
+     * @return hazard rule
+     */
+    public HazardRule getRule() {
+        return this.rule;
+    }
+
+    /**
+     * Returns the hazard level given by the rule for the current hazard
+     * levels of the room's sensors.
+     * <p>
+     * In incremental mode (see {@link #setIncremental(boolean)}), the level
+     * worked out when a sensor last changed is returned without reading the
+     * sensors.
+     *
+     * @return hazard level given by the rule
+     */
+    @Override
+    public int evaluateHazardLevel() {
+        if (isIncremental()) {
+            return getIncrementalLevel();
+        }
+        HazardSensor[] sensors = this.compiled.sensors;
+        int[] levels = new int[sensors.length];
+        for (int i = 0; i < sensors.length; i++) {
+            levels[i] = sensors[i].getHazardLevel();
+        }
+        return this.compiled.step.evaluate(levels);
+    }
+
+    /**
+     * Returns the sensors the rule refers to, in the order the compiled rule
+     * expects their levels.
+     *
+     * @return sensors used by this evaluator
+     */
+    @Override
+    protected HazardSensor[] getSensorsInOrder() {
+        return this.compiled.sensors.clone();
+    }
+
+    /**
+     * Runs the compiled rule over the given levels.
+     *
+     * @param levels hazard level of each sensor the rule refers to
+     * @return hazard level given by the rule
+     */
+    @Override
+    protected int resetLevels(int[] levels) {
+        return this.compiled.step.evaluate(levels);
+    }
+
+    /**
+     * Runs the compiled rule over the given levels.
+     *
+     * @param levels   hazard level of each sensor the rule refers to
+     * @param index    index of the sensor that changed
+     * @param previous previous hazard level of that sensor
+     * @return hazard level given by the rule
+     */
+    @Override
+    protected int updateLevel(int[] levels, int index, int previous) {
+        return this.compiled.step.evaluate(levels);
+    }
+
+    /**
+     * Returns the string representation of this hazard evaluator.
+     * <p>
+     * The format of the string to return is "Rules(rule)" without the
+     * double quotes, where 'rule' is the canonical form of the rule (see
+     * {@link HazardRule#toString()}). This is stored in place of
+     * "RuleBased" in the room record of a save file.
+     *
+     * @return string representation of this hazard evaluator
+     */
+    @Override
+    public String toString() {
+        return PREFIX + this.rule + ")";
+    }
+}
@@ -0,0 +1,21 @@
+package bms.hazardevaluation;
+
+/**
+ * Listener notified when the hazard level evaluated by an incremental
+ * hazard evaluator changes.
+ */
+public interface HazardListener {
+    /**
+     * Called after the hazard level evaluated by the given evaluator has
+     * changed.
+     * <p>
+     * This may be called on any thread elapsing time on the evaluator's
+     * sensors, so implementations must be thread-safe.
+     *
+     * @param evaluator evaluator whose hazard level changed
+     * @param previous  hazard level before the change
+     * @param level     new hazard level
+     */
+    void hazardLevelChanged(HazardEvaluator evaluator, int previous,
+                            int level);
+}
@@ -0,0 +1,1193 @@
+package bms.hazardevaluation;
+
+import bms.room.RoomType;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.HazardSensor;
+import bms.sensors.NoiseSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.TemperatureSensor;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A user-defined rule for working out the hazard level of a room from the
+ * hazard levels of its sensors.
+ * <p>
+ * A rule is an expression in the following language, where whitespace is
+ * ignored:
+ * <pre>
+ * expression := number
+ *             | sensor
+ *             | max(expression, ...)
+ *             | min(expression, ...)
+ *             | sum(expression, ...)
+ *             | scale(expression, expression)
+ *             | weighted(expression * weighting, ...)
+ *             | if(condition, expression, expression)
+ * condition  := expression op expression
+ *             | type(roomType, ...)
+ *             | anyOf(condition, ...)
+ *             | allOf(condition, ...)
+ *             | not(condition)
+ * op         := &gt;= | &gt; | &lt;= | &lt; | = | !=
+ * </pre>
+ * A sensor is named by its class name without "Sensor", starting with a
+ * lower case letter ({@code carbonDioxide}, {@code noise},
+ * {@code occupancy} or {@code temperature}), and stands for the hazard level
+ * of the room's sensor of that type, or 0 if the room has none. A room type
+ * is the name of a {@link RoomType}. {@code scale(a, b)} is a multiplied by
+ * b / 100, rounded down, and {@code weighted} is the weighted average of its
+ * expressions rounded up, as worked out by
+ * {@link WeightingBasedHazardEvaluator}. For example,
+ * <pre>
+ * if(anyOf(temperature &gt;= 100,
+ *          allOf(type(LABORATORY), carbonDioxide &gt;= 50)),
+ *    100, max(noise, scale(carbonDioxide, occupancy)))
+ * </pre>
+ * evacuates on a fire, or on a lower carbon dioxide level in laboratories
+ * than elsewhere.
+ * <p>
+ * A rule is parsed once, and compiled for each room that uses it (see
+ * {@link HazardRule#compile(RoomType, List)}) into a tree of small
+ * functions over an array of sensor hazard levels. The room's type and
+ * missing sensors are known when the rule is compiled, so conditions on
+ * them are decided then rather than on every evaluation.
+ * <p>
+ * A rule's string representation is its canonical form, without
+ * whitespace; it contains no ':', '@' or line breaks, so can be stored in
+ * the room record of a save file.
+ */
+public final class HazardRule {
+    /**
+     * Rules parsed so far, by the text they were parsed from. Rooms in a
+     * save file usually share a handful of rules.
+     */
+    private static final Map<String, HazardRule> PARSED =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Names of the sensors a rule can refer to.
+     */
+    private static final String[] SENSOR_NAMES = {"carbonDioxide", "noise",
+            "occupancy", "temperature"};
+
+    /**
+     * Sensor classes, indexed as {@link #SENSOR_NAMES}.
+     */
+    private static final Class<?>[] SENSOR_CLASSES = {
+            CarbonDioxideSensor.class, NoiseSensor.class,
+            OccupancySensor.class, TemperatureSensor.class};
+
+    /**
+     * Expression making up this rule.
+     */
+    private final Expression expression;
+
+    /**
+     * Canonical form of this rule.
+     */
+    private final String text;
+
+    /**
+     * Creates a rule from its parsed expression.
+     *
+     * @param expression expression making up the rule
+     */
+    private HazardRule(Expression expression) {
+        this.expression = expression;
+        this.text = expression.toString();
+    }
+
+    /**
+     * Returns the rule described by the given text.
+     *
+     * @param text rule, in the language described in {@link HazardRule}
+     * @return rule parsed from the text
+     * @throws IllegalArgumentException if the text is not a valid rule
+     */
+    public static HazardRule parse(String text)
+            throws IllegalArgumentException {
+        HazardRule rule = PARSED.get(text);
+        if (rule == null) {
+            rule = new HazardRule(new Parser(text).parseRule());
+            PARSED.putIfAbsent(text, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * Compiles this rule for a room of the given type with the given
+     * sensors.
+     *
+     * @param type    type of the room
+     * @param sensors sensors in the room
+     * @return compiled rule
+     */
+    Compiled compile(RoomType type, List<HazardSensor> sensors) {
+        Binding binding = new Binding(type, sensors);
+        Step step = this.expression.compile(binding);
+        return new Compiled(binding.used.toArray(new HazardSensor[0]), step);
+    }
+
+    /**
+     * Returns true if and only if the other object is a rule with the same
+     * canonical form.
+     *
+     * @param obj other object to compare equality
+     * @return true if equal, false otherwise
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof HazardRule
+                && ((HazardRule) obj).text.equals(this.text);
+    }
+
+    /**
+     * Returns the hash code of this rule.
+     *
+     * @return hash code of the rule's canonical form
+     */
+    @Override
+    public int hashCode() {
+        return this.text.hashCode();
+    }
+
+    /**
+     * Returns the canonical form of this rule, which parses back to an
+     * equal rule.
+     *
+     * @return rule without whitespace
+     */
+    @Override
+    public String toString() {
+        return this.text;
+    }
+
+    /**
+     * A rule compiled for one room: the sensors it reads, and the step
+     * working out the hazard level from their levels.
+     */
+    static final class Compiled {
+        /**
+         * Sensors whose hazard levels are passed to the step, in order.
+         */
+        final HazardSensor[] sensors;
+
+        /**
+         * Step working out the hazard level.
+         */
+        final Step step;
+
+        /**
+         * Creates a compiled rule.
+         *
+         * @param sensors sensors whose hazard levels the step reads
+         * @param step    step working out the hazard level
+         */
+        Compiled(HazardSensor[] sensors, Step step) {
+            this.sensors = sensors;
+            this.step = step;
+        }
+    }
+
+    /**
+     * A compiled expression, working out a value from the hazard levels of
+     * the sensors a rule reads.
+     */
+    @FunctionalInterface
+    interface Step {
+        /**
+         * Works out the expression's value.
+         *
+         * @param levels hazard level of each sensor read by the rule
+         * @return value of the expression
+         */
+        int evaluate(int[] levels);
+    }
+
+    /**
+     * A compiled condition.
+     */
+    @FunctionalInterface
+    private interface Test {
+        /**
+         * Works out whether the condition holds.
+         *
+         * @param levels hazard level of each sensor read by the rule
+         * @return true if the condition holds
+         */
+        boolean test(int[] levels);
+    }
+
+    /**
+     * Condition that always holds.
+     */
+    private static final Test ALWAYS = levels -> true;
+
+    /**
+     * Condition that never holds.
+     */
+    private static final Test NEVER = levels -> false;
+
+    /**
+     * Compiled expression whose value is known when it is compiled.
+     */
+    private static final class Constant implements Step {
+        /**
+         * Value of the expression.
+         */
+        private final int value;
+
+        /**
+         * Creates a constant step.
+         *
+         * @param value value of the expression
+         */
+        private Constant(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(int[] levels) {
+            return this.value;
+        }
+    }
+
+    /**
+     * What is known about a room while compiling a rule for it.
+     */
+    private static final class Binding {
+        /**
+         * Type of the room.
+         */
+        private final RoomType type;
+
+        /**
+         * Sensors in the room.
+         */
+        private final List<HazardSensor> sensors;
+
+        /**
+         * Sensors read by the rule so far, in order of first use.
+         */
+        private final List<HazardSensor> used = new ArrayList<>();
+
+        /**
+         * Creates a binding for a room.
+         *
+         * @param type    type of the room
+         * @param sensors sensors in the room
+         */
+        private Binding(RoomType type, List<HazardSensor> sensors) {
+            this.type = type;
+            this.sensors = sensors;
+        }
+
+        /**
+         * Returns the index in the levels array of the room's sensor of the
+         * given type, or -1 if the room has none.
+         *
+         * @param sensorClass exact class of the sensor
+         * @return index of the sensor's level, or -1
+         */
+        private int indexOf(Class<?> sensorClass) {
+            for (int i = 0; i < this.used.size(); i++) {
+                if (this.used.get(i).getClass() == sensorClass) {
+                    return i;
+                }
+            }
+            for (HazardSensor sensor : this.sensors) {
+                if (sensor.getClass() == sensorClass) {
+                    this.used.add(sensor);
+                    return this.used.size() - 1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Parsed expression of a rule.
+     */
+    private abstract static class Expression {
+        /**
+         * Compiles this expression for a room.
+         *
+         * @param binding room being compiled for
+         * @return compiled expression
+         */
+        abstract Step compile(Binding binding);
+    }
+
+    /**
+     * Parsed condition of a rule.
+     */
+    private abstract static class Condition {
+        /**
+         * Compiles this condition for a room.
+         *
+         * @param binding room being compiled for
+         * @return compiled condition; {@link #ALWAYS} or {@link #NEVER} if
+         * it is known for the room
+         */
+        abstract Test compile(Binding binding);
+    }
+
+    /**
+     * A number.
+     */
+    private static final class Literal extends Expression {
+        /**
+         * Value of the number.
+         */
+        private final int value;
+
+        /**
+         * Creates a number.
+         *
+         * @param value value of the number
+         */
+        private Literal(int value) {
+            this.value = value;
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            return new Constant(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(this.value);
+        }
+    }
+
+    /**
+     * The hazard level of one of the room's sensors.
+     */
+    private static final class SensorLevel extends Expression {
+        /**
+         * Index of the sensor in {@link #SENSOR_NAMES}.
+         */
+        private final int sensor;
+
+        /**
+         * Creates a reference to a sensor's hazard level.
+         *
+         * @param sensor index of the sensor in {@link #SENSOR_NAMES}
+         */
+        private SensorLevel(int sensor) {
+            this.sensor = sensor;
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            int index = binding.indexOf(SENSOR_CLASSES[this.sensor]);
+            if (index < 0) {
+                return new Constant(0);
+            }
+            return levels -> levels[index];
+        }
+
+        @Override
+        public String toString() {
+            return SENSOR_NAMES[this.sensor];
+        }
+    }
+
+    /**
+     * max, min or sum of several expressions.
+     */
+    private static final class Combination extends Expression {
+        /**
+         * Name of the combinator.
+         */
+        private final String name;
+
+        /**
+         * Expressions combined.
+         */
+        private final List<Expression> arguments;
+
+        /**
+         * Creates a combination.
+         *
+         * @param name      "max", "min" or "sum"
+         * @param arguments expressions to combine
+         */
+        private Combination(String name, List<Expression> arguments) {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        /**
+         * Combines two values.
+         *
+         * @param a first value
+         * @param b second value
+         * @return combined value
+         */
+        private int combine(int a, int b) {
+            switch (this.name) {
+                case "max":
+                    return Math.max(a, b);
+                case "min":
+                    return Math.min(a, b);
+                default:
+                    return a + b;
+            }
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            Step result = null;
+            for (Expression argument : this.arguments) {
+                Step step = argument.compile(binding);
+                result = result == null ? step : combine(result, step);
+            }
+            return result;
+        }
+
+        /**
+         * Compiles the combination of two compiled expressions.
+         *
+         * @param a first expression
+         * @param b second expression
+         * @return compiled combination
+         */
+        private Step combine(Step a, Step b) {
+            if (a instanceof Constant && b instanceof Constant) {
+                return new Constant(combine(((Constant) a).value,
+                        ((Constant) b).value));
+            }
+            switch (this.name) {
+                case "max":
+                    return levels -> Math.max(a.evaluate(levels),
+                            b.evaluate(levels));
+                case "min":
+                    return levels -> Math.min(a.evaluate(levels),
+                            b.evaluate(levels));
+                default:
+                    return levels -> a.evaluate(levels) + b.evaluate(levels);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.name + list(this.arguments);
+        }
+    }
+
+    /**
+     * One expression scaled by another as a percentage.
+     */
+    private static final class Scale extends Expression {
+        /**
+         * Expression scaled.
+         */
+        private final Expression value;
+
+        /**
+         * Percentage to scale by.
+         */
+        private final Expression percentage;
+
+        /**
+         * Creates a scaled expression.
+         *
+         * @param value      expression scaled
+         * @param percentage percentage to scale by
+         */
+        private Scale(Expression value, Expression percentage) {
+            this.value = value;
+            this.percentage = percentage;
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            Step value = this.value.compile(binding);
+            Step percentage = this.percentage.compile(binding);
+            if (value instanceof Constant && percentage instanceof Constant) {
+                return new Constant(((Constant) value).value
+                        * ((Constant) percentage).value / 100);
+            }
+            return levels -> value.evaluate(levels)
+                    * percentage.evaluate(levels) / 100;
+        }
+
+        @Override
+        public String toString() {
+            return "scale(" + this.value + "," + this.percentage + ")";
+        }
+    }
+
+    /**
+     * Weighted average of several expressions.
+     */
+    private static final class Weighted extends Expression {
+        /**
+         * Expressions averaged.
+         */
+        private final List<Expression> arguments;
+
+        /**
+         * Weighting of each expression.
+         */
+        private final int[] weightings;
+
+        /**
+         * Creates a weighted average.
+         *
+         * @param arguments  expressions to average
+         * @param weightings weighting of each expression
+         */
+        private Weighted(List<Expression> arguments, int[] weightings) {
+            this.arguments = arguments;
+            this.weightings = weightings;
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            Step[] steps = new Step[this.arguments.size()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = this.arguments.get(i).compile(binding);
+            }
+            int[] weightings = this.weightings;
+            float weight = 0;
+            for (int weighting : weightings) {
+                weight += weighting;
+            }
+            float totalWeight = weight;
+            return levels -> {
+                float hazardLevel = 0;
+                for (int i = 0; i < steps.length; i++) {
+                    hazardLevel += steps[i].evaluate(levels) * weightings[i];
+                }
+                return (int) Math.ceil(hazardLevel / totalWeight);
+            };
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("weighted(");
+            for (int i = 0; i < this.weightings.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(this.arguments.get(i)).append('*')
+                        .append(this.weightings[i]);
+            }
+            return builder.append(')').toString();
+        }
+    }
+
+    /**
+     * Choice between two expressions.
+     */
+    private static final class If extends Expression {
+        /**
+         * Condition deciding the expression used.
+         */
+        private final Condition condition;
+
+        /**
+         * Expression used if the condition holds.
+         */
+        private final Expression then;
+
+        /**
+         * Expression used otherwise.
+         */
+        private final Expression otherwise;
+
+        /**
+         * Creates a choice.
+         *
+         * @param condition condition deciding the expression used
+         * @param then      expression used if the condition holds
+         * @param otherwise expression used otherwise
+         */
+        private If(Condition condition, Expression then,
+                   Expression otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        Step compile(Binding binding) {
+            Test condition = this.condition.compile(binding);
+            if (condition == ALWAYS) {
+                return this.then.compile(binding);
+            } else if (condition == NEVER) {
+                return this.otherwise.compile(binding);
+            }
+            Step then = this.then.compile(binding);
+            Step otherwise = this.otherwise.compile(binding);
+            return levels -> condition.test(levels)
+                    ? then.evaluate(levels) : otherwise.evaluate(levels);
+        }
+
+        @Override
+        public String toString() {
+            return "if(" + this.condition + "," + this.then + ","
+                    + this.otherwise + ")";
+        }
+    }
+
+    /**
+     * Comparison of two expressions.
+     */
+    private static final class Comparison extends Condition {
+        /**
+         * Left-hand expression.
+         */
+        private final Expression left;
+
+        /**
+         * Comparison operator.
+         */
+        private final String operator;
+
+        /**
+         * Right-hand expression.
+         */
+        private final Expression right;
+
+        /**
+         * Creates a comparison.
+         *
+         * @param left     left-hand expression
+         * @param operator one of "&gt;=", "&gt;", "&lt;=", "&lt;", "=" or
+         *                 "!="
+         * @param right    right-hand expression
+         */
+        private Comparison(Expression left, String operator,
+                           Expression right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        /**
+         * Compares two values.
+         *
+         * @param a left-hand value
+         * @param b right-hand value
+         * @return result of the comparison
+         */
+        private boolean compare(int a, int b) {
+            switch (this.operator) {
+                case ">=":
+                    return a >= b;
+                case ">":
+                    return a > b;
+                case "<=":
+                    return a <= b;
+                case "<":
+                    return a < b;
+                case "=":
+                    return a == b;
+                default:
+                    return a != b;
+            }
+        }
+
+        @Override
+        Test compile(Binding binding) {
+            Step a = this.left.compile(binding);
+            Step b = this.right.compile(binding);
+            if (a instanceof Constant && b instanceof Constant) {
+                return compare(((Constant) a).value, ((Constant) b).value)
+                        ? ALWAYS : NEVER;
+            }
+            if (b instanceof Constant) {
+                int threshold = ((Constant) b).value;
+                switch (this.operator) {
+                    case ">=":
+                        return levels -> a.evaluate(levels) >= threshold;
+                    case ">":
+                        return levels -> a.evaluate(levels) > threshold;
+                    case "<=":
+                        return levels -> a.evaluate(levels) <= threshold;
+                    case "<":
+                        return levels -> a.evaluate(levels) < threshold;
+                    case "=":
+                        return levels -> a.evaluate(levels) == threshold;
+                    default:
+                        return levels -> a.evaluate(levels) != threshold;
+                }
+            }
+            return levels -> compare(a.evaluate(levels), b.evaluate(levels));
+        }
+
+        @Override
+        public String toString() {
+            return this.left + this.operator + this.right;
+        }
+    }
+
+    /**
+     * Check of the room's type.
+     */
+    private static final class TypeIs extends Condition {
+        /**
+         * Room types for which the condition holds.
+         */
+        private final Set<RoomType> types;
+
+        /**
+         * Creates a check of the room's type.
+         *
+         * @param types room types for which the condition holds
+         */
+        private TypeIs(Set<RoomType> types) {
+            this.types = types;
+        }
+
+        @Override
+        Test compile(Binding binding) {
+            return this.types.contains(binding.type) ? ALWAYS : NEVER;
+        }
+
+        @Override
+        public String toString() {
+            return "type" + list(new ArrayList<>(this.types));
+        }
+    }
+
+    /**
+     * anyOf or allOf several conditions.
+     */
+    private static final class Junction extends Condition {
+        /**
+         * Whether any condition holding is enough.
+         */
+        private final boolean any;
+
+        /**
+         * Conditions joined.
+         */
+        private final List<Condition> conditions;
+
+        /**
+         * Creates a junction.
+         *
+         * @param any        true for anyOf, false for allOf
+         * @param conditions conditions to join
+         */
+        private Junction(boolean any, List<Condition> conditions) {
+            this.any = any;
+            this.conditions = conditions;
+        }
+
+        @Override
+        Test compile(Binding binding) {
+            // A condition that decides the junction by itself decides it
+            // for every evaluation; one that cannot change it is dropped
+            Test decisive = this.any ? ALWAYS : NEVER;
+            Test result = null;
+            for (Condition condition : this.conditions) {
+                Test test = condition.compile(binding);
+                if (test == decisive) {
+                    return decisive;
+                } else if (test == ALWAYS || test == NEVER) {
+                    continue;
+                }
+                result = result == null ? test : join(result, test);
+            }
+            if (result == null) {
+                return this.any ? NEVER : ALWAYS;
+            }
+            return result;
+        }
+
+        /**
+         * Compiles the junction of two compiled conditions.
+         *
+         * @param a first condition
+         * @param b second condition
+         * @return compiled junction
+         */
+        private Test join(Test a, Test b) {
+            if (this.any) {
+                return levels -> a.test(levels) || b.test(levels);
+            }
+            return levels -> a.test(levels) && b.test(levels);
+        }
+
+        @Override
+        public String toString() {
+            return (this.any ? "anyOf" : "allOf") + list(this.conditions);
+        }
+    }
+
+    /**
+     * Negation of a condition.
+     */
+    private static final class Not extends Condition {
+        /**
+         * Condition negated.
+         */
+        private final Condition condition;
+
+        /**
+         * Creates a negation.
+         *
+         * @param condition condition to negate
+         */
+        private Not(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        Test compile(Binding binding) {
+            Test test = this.condition.compile(binding);
+            if (test == ALWAYS) {
+                return NEVER;
+            } else if (test == NEVER) {
+                return ALWAYS;
+            }
+            return levels -> !test.test(levels);
+        }
+
+        @Override
+        public String toString() {
+            return "not(" + this.condition + ")";
+        }
+    }
+
+    /**
+     * Returns the given items separated by commas, in parentheses.
+     *
+     * @param items items to list
+     * @return parenthesised list
+     */
+    private static String list(List<?> items) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(items.get(i));
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Recursive descent parser for the rule language.
+     */
+    private static final class Parser {
+        /**
+         * Text being parsed.
+         */
+        private final String text;
+
+        /**
+         * Position of the next character to read.
+         */
+        private int position;
+
+        /**
+         * Creates a parser for the given text.
+         *
+         * @param text rule to parse
+         */
+        private Parser(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Parses the whole text as a rule.
+         *
+         * @return expression making up the rule
+         * @throws IllegalArgumentException if the text is not a valid rule
+         */
+        private Expression parseRule() {
+            Expression expression = parseExpression();
+            skipWhitespace();
+            if (this.position != this.text.length()) {
+                throw error("unexpected \""
+                        + this.text.substring(this.position) + "\"");
+            }
+            return expression;
+        }
+
+        /**
+         * Parses an expression.
+         *
+         * @return expression parsed
+         */
+        private Expression parseExpression() {
+            skipWhitespace();
+            if (this.position < this.text.length()
+                    && (Character.isDigit(this.text.charAt(this.position))
+                    || this.text.charAt(this.position) == '-')) {
+                return new Literal(parseNumber());
+            }
+            String name = parseName();
+            switch (name) {
+                case "max":
+                case "min":
+                case "sum":
+                    return new Combination(name, parseExpressions());
+                case "scale":
+                    expect('(');
+                    Expression value = parseExpression();
+                    expect(',');
+                    Expression percentage = parseExpression();
+                    expect(')');
+                    return new Scale(value, percentage);
+                case "weighted":
+                    return parseWeighted();
+                case "if":
+                    expect('(');
+                    Condition condition = parseCondition();
+                    expect(',');
+                    Expression then = parseExpression();
+                    expect(',');
+                    Expression otherwise = parseExpression();
+                    expect(')');
+                    return new If(condition, then, otherwise);
+                default:
+                    for (int i = 0; i < SENSOR_NAMES.length; i++) {
+                        if (SENSOR_NAMES[i].equals(name)) {
+                            return new SensorLevel(i);
+                        }
+                    }
+                    throw error("unknown sensor or function \"" + name
+                            + "\"");
+            }
+        }
+
+        /**
+         * Parses a parenthesised list of one or more expressions.
+         *
+         * @return expressions parsed
+         */
+        private List<Expression> parseExpressions() {
+            expect('(');
+            List<Expression> expressions = new ArrayList<>();
+            do {
+                expressions.add(parseExpression());
+            } while (accept(','));
+            expect(')');
+            return expressions;
+        }
+
+        /**
+         * Parses the arguments of a weighted average.
+         *
+         * @return weighted average parsed
+         */
+        private Expression parseWeighted() {
+            expect('(');
+            List<Expression> expressions = new ArrayList<>();
+            List<Integer> weightings = new ArrayList<>();
+            int total = 0;
+            do {
+                expressions.add(parseExpression());
+                expect('*');
+                int weighting = parseNumber();
+                if (weighting < 0) {
+                    throw error("weighting must not be negative");
+                }
+                weightings.add(weighting);
+                total += weighting;
+            } while (accept(','));
+            expect(')');
+            if (total <= 0) {
+                throw error("weightings must not all be zero");
+            }
+            int[] weightingArray = new int[weightings.size()];
+            for (int i = 0; i < weightingArray.length; i++) {
+                weightingArray[i] = weightings.get(i);
+            }
+            return new Weighted(expressions, weightingArray);
+        }
+
+        /**
+         * Parses a condition.
+         *
+         * @return condition parsed
+         */
+        private Condition parseCondition() {
+            skipWhitespace();
+            int start = this.position;
+            if (this.position < this.text.length()
+                    && Character.isLetter(this.text.charAt(this.position))) {
+                String name = parseName();
+                switch (name) {
+                    case "type":
+                        return parseType();
+                    case "anyOf":
+                    case "allOf":
+                        return new Junction(name.equals("anyOf"),
+                                parseConditions());
+                    case "not":
+                        expect('(');
+                        Condition condition = parseCondition();
+                        expect(')');
+                        return new Not(condition);
+                    default:
+                        this.position = start;
+                        break;
+                }
+            }
+            Expression left = parseExpression();
+            String operator = parseOperator();
+            Expression right = parseExpression();
+            return new Comparison(left, operator, right);
+        }
+
+        /**
+         * Parses a parenthesised list of one or more conditions.
+         *
+         * @return conditions parsed
+         */
+        private List<Condition> parseConditions() {
+            expect('(');
+            List<Condition> conditions = new ArrayList<>();
+            do {
+                conditions.add(parseCondition());
+            } while (accept(','));
+            expect(')');
+            return conditions;
+        }
+
+        /**
+         * Parses the room types of a type condition.
+         *
+         * @return type condition parsed
+         */
+        private Condition parseType() {
+            expect('(');
+            Set<RoomType> types = EnumSet.noneOf(RoomType.class);
+            do {
+                String name = parseName();
+                try {
+                    types.add(RoomType.valueOf(name));
+                } catch (IllegalArgumentException e) {
+                    throw error("unknown room type \"" + name + "\"");
+                }
+            } while (accept(','));
+            expect(')');
+            return new TypeIs(types);
+        }
+
+        /**
+         * Parses a comparison operator.
+         *
+         * @return operator parsed
+         */
+        private String parseOperator() {
+            skipWhitespace();
+            for (String operator : new String[]{">=", "<=", "!=", ">", "<",
+                    "="}) {
+                if (this.text.startsWith(operator, this.position)) {
+                    this.position += operator.length();
+                    return operator;
+                }
+            }
+            throw error("expected a comparison");
+        }
+
+        /**
+         * Parses a name made of letters.
+         *
+         * @return name parsed
+         */
+        private String parseName() {
+            skipWhitespace();
+            int start = this.position;
+            while (this.position < this.text.length()
+                    && Character.isLetter(this.text.charAt(this.position))) {
+                this.position++;
+            }
+            if (start == this.position) {
+                throw error("expected a name");
+            }
+            return this.text.substring(start, this.position);
+        }
+
+        /**
+         * Parses a whole number, which may be negative.
+         *
+         * @return number parsed
+         */
+        private int parseNumber() {
+            skipWhitespace();
+            int start = this.position;
+            if (this.position < this.text.length()
+                    && this.text.charAt(this.position) == '-') {
+                this.position++;
+            }
+            while (this.position < this.text.length()
+                    && Character.isDigit(this.text.charAt(this.position))) {
+                this.position++;
+            }
+            try {
+                return Integer.parseInt(
+                        this.text.substring(start, this.position));
+            } catch (NumberFormatException e) {
+                throw error("expected a number");
+            }
+        }
+
+        /**
+         * Consumes the given character if it comes next.
+         *
+         * @param c character to accept
+         * @return true if the character was consumed
+         */
+        private boolean accept(char c) {
+            skipWhitespace();
+            if (this.position < this.text.length()
+                    && this.text.charAt(this.position) == c) {
+                this.position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consumes the given character, which must come next.
+         *
+         * @param c character expected
+         */
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        /**
+         * Skips any whitespace at the current position.
+         */
+        private void skipWhitespace() {
+            while (this.position < this.text.length()
+                    && Character.isWhitespace(
+                    this.text.charAt(this.position))) {
+                this.position++;
+            }
+        }
+
+        /**
+         * Creates an exception describing a problem at the current
+         * position.
+         *
+         * @param message description of the problem
+         * @return exception to throw
+         */
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid hazard rule \""
+                    + this.text + "\" at position " + this.position + ": "
+                    + message);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package bms.hazardevaluation;
+
+import bms.sensors.HazardSensor;
+import bms.sensors.ReadingListener;
+import bms.sensors.TimedSensor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A hazard evaluator that can keep its hazard level up to date as its
+ * sensors' readings change, instead of reading every sensor each time it is
+ * evaluated.
+ * <p>
+ * In incremental mode, the evaluator listens to each of its sensors (see
+ * {@link TimedSensor#addReadingListener(ReadingListener)}), remembers the
+ * hazard level last read from each, and updates its own hazard level from
+ * the one sensor that changed. {@link #evaluateHazardLevel()} then returns
+ * the level without reading any sensor. Evaluators start out reading their
+ * sensors on each evaluation instead.
+ */
+public abstract class IncrementalHazardEvaluator implements HazardEvaluator,
+        ReadingListener {
+    /**
+     * Sensors listened to, in the order their levels are kept; null when
+     * not in incremental mode.
+     */
+    private HazardSensor[] tracked;
+
+    /**
+     * Hazard level last read from each tracked sensor.
+     */
+    private int[] levels;
+
+    /**
+     * Hazard level evaluated from the tracked sensors' levels.
+     */
+    private volatile int hazardLevel;
+
+    /**
+     * Listeners notified when the hazard level changes.
+     */
+    private final List<HazardListener> hazardListeners =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * Sets whether this evaluator keeps its hazard level up to date as its
+     * sensors' readings change.
+     * <p>
+     * An evaluator should be taken out of incremental mode once it is no
+     * longer used, so that its sensors stop notifying it.
+     *
+     * @param incremental true to update the hazard level as readings
+     *                    change, false to read every sensor on each
+     *                    evaluation
+     * @throws IllegalStateException if incremental is true and a sensor is
+     *                               not a timed sensor, so cannot notify
+     *                               this evaluator of changes
+     */
+    public void setIncremental(boolean incremental) {
+        HazardSensor[] sensors;
+        synchronized (this) {
+            if (incremental == (this.tracked != null)) {
+                return;
+            }
+            sensors = incremental ? getSensorsInOrder() : this.tracked;
+            for (HazardSensor sensor : sensors) {
+                if (!(sensor instanceof TimedSensor)) {
+                    throw new IllegalStateException(sensor.getClass()
+                            .getSimpleName() + " is not a timed sensor");
+                }
+            }
+            if (!incremental) {
+                this.tracked = null;
+                this.levels = null;
+            }
+        }
+
+        // Sensors are not locked while this evaluator is, since the timed
+        // item manager calls readingChanged() with its own lock held
+        for (HazardSensor sensor : sensors) {
+            if (incremental) {
+                ((TimedSensor) sensor).addReadingListener(this);
+            } else {
+                ((TimedSensor) sensor).removeReadingListener(this);
+            }
+        }
+        if (incremental) {
+            synchronized (this) {
+                int[] levels = new int[sensors.length];
+                for (int i = 0; i < sensors.length; i++) {
+                    levels[i] = sensors[i].getHazardLevel();
+                }
+                this.levels = levels;
+                this.hazardLevel = resetLevels(levels);
+                this.tracked = sensors;
+            }
+        }
+    }
+
+    /**
+     * Returns whether this evaluator keeps its hazard level up to date as
+     * its sensors' readings change.
+     *
+     * @return true if in incremental mode
+     */
+    public synchronized boolean isIncremental() {
+        return this.tracked != null;
+    }
+
+    /**
+     * Adds a listener to be notified whenever the hazard level changes
+     * while this evaluator is in incremental mode.
+     *
+     * @param listener listener to add
+     */
+    public void addHazardListener(HazardListener listener) {
+        this.hazardListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with
+     * {@link #addHazardListener(HazardListener)}.
+     *
+     * @param listener listener to remove
+     */
+    public void removeHazardListener(HazardListener listener) {
+        this.hazardListeners.remove(listener);
+    }
+
+    /**
+     * Updates the hazard level after the reading of one of this evaluator's
+     * sensors has changed, and notifies the hazard listeners if the level
+     * changed.
+     *
+     * @param sensor sensor whose reading changed
+     */
+    @Override
+    public void readingChanged(TimedSensor sensor) {
+        int previous;
+        int level;
+        synchronized (this) {
+            if (this.tracked == null) {
+                return;
+            }
+            previous = this.hazardLevel;
+            level = previous;
+            for (int i = 0; i < this.tracked.length; i++) {
+                if (this.tracked[i] == sensor) {
+                    int sensorLevel = this.tracked[i].getHazardLevel();
+                    if (sensorLevel != this.levels[i]) {
+                        int sensorPrevious = this.levels[i];
+                        this.levels[i] = sensorLevel;
+                        level = updateLevel(this.levels, i, sensorPrevious);
+                    }
+                }
+            }
+            this.hazardLevel = level;
+        }
+        if (level != previous) {
+            for (HazardListener listener : this.hazardListeners) {
+                listener.hazardLevelChanged(this, previous, level);
+            }
+        }
+    }
+
+    /**
+     * Returns the hazard level kept up to date in incremental mode.
+     * <p>
+     * Only meaningful while {@link #isIncremental()} is true.
+     *
+     * @return hazard level evaluated when a sensor last changed
+     */
+    protected int getIncrementalLevel() {
+        return this.hazardLevel;
+    }
+
+    /**
+     * Returns the sensors to listen to in incremental mode, in the order in
+     * which their levels are passed to {@link #resetLevels(int[])} and
+     * {@link #updateLevel(int[], int, int)}.
+     *
+     * @return sensors used by this evaluator
+     */
+    protected abstract HazardSensor[] getSensorsInOrder();
+
+    /**
+     * Evaluates the hazard level from the current hazard level of every
+     * sensor, as {@link #evaluateHazardLevel()} would, and sets up any
+     * running totals used by {@link #updateLevel(int[], int, int)}.
+     *
+     * @param levels hazard level of each sensor, in the order given by
+     *               {@link #getSensorsInOrder()}
+     * @return hazard level
+     */
+    protected abstract int resetLevels(int[] levels);
+
+    /**
+     * Evaluates the hazard level after the level of one sensor has changed,
+     * as {@link #evaluateHazardLevel()} would.
+     *
+     * @param levels   hazard level of each sensor, including the new level
+     *                 of the sensor that changed
+     * @param index    index of the sensor that changed
+     * @param previous previous hazard level of that sensor
+     * @return hazard level
+     */
+    protected abstract int updateLevel(int[] levels, int index,
+                                       int previous);
+}
@@ -0,0 +1,129 @@
+package bms.hazardevaluation;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the highest hazard level of a group of incremental hazard
+ * evaluators, such as those of every room in a building, as their levels
+ * change.
+ * <p>
+ * The number of tracked evaluators at each hazard level is kept, so the
+ * highest level can be found without evaluating every evaluator. Hazard
+ * levels are not bounded above (a rule-based evaluator may add up several
+ * sensors' levels), so the counts are kept by level rather than in a fixed
+ * range.
+ */
+public class MaxHazardTracker implements HazardListener {
+    /**
+     * Number of tracked evaluators at each hazard level.
+     */
+    private final TreeMap<Integer, Integer> counts = new TreeMap<>();
+
+    /**
+     * Hazard level counted for each tracked evaluator.
+     */
+    private final Map<IncrementalHazardEvaluator, Integer> levels =
+            new IdentityHashMap<>();
+
+    /**
+     * Starts tracking the given evaluator, which is put in incremental mode
+     * if it is not already.
+     *
+     * @param evaluator evaluator to track
+     * @throws IllegalStateException if the evaluator cannot be put in
+     *                               incremental mode
+     */
+    public void track(IncrementalHazardEvaluator evaluator) {
+        evaluator.setIncremental(true);
+        synchronized (this) {
+            if (this.levels.containsKey(evaluator)) {
+                return;
+            }
+            evaluator.addHazardListener(this);
+            int level = evaluator.evaluateHazardLevel();
+            this.levels.put(evaluator, level);
+            this.counts.merge(level, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Stops tracking the given evaluator, and takes it out of incremental
+     * mode.
+     *
+     * @param evaluator evaluator to stop tracking
+     */
+    public void untrack(IncrementalHazardEvaluator evaluator) {
+        synchronized (this) {
+            evaluator.removeHazardListener(this);
+            Integer level = this.levels.remove(evaluator);
+            if (level != null) {
+                uncount(level);
+            }
+        }
+        evaluator.setIncremental(false);
+    }
+
+    /**
+     * Stops tracking every evaluator, and takes them out of incremental
+     * mode.
+     */
+    public void clear() {
+        IncrementalHazardEvaluator[] evaluators;
+        synchronized (this) {
+            evaluators = this.levels.keySet().toArray(
+                    new IncrementalHazardEvaluator[0]);
+        }
+        for (IncrementalHazardEvaluator evaluator : evaluators) {
+            untrack(evaluator);
+        }
+    }
+
+    /**
+     * Returns the highest hazard level of the tracked evaluators, or 0 if
+     * none are tracked.
+     *
+     * @return highest tracked hazard level
+     */
+    public synchronized int getMaxHazardLevel() {
+        return this.counts.isEmpty() ? 0 : this.counts.lastKey();
+    }
+
+    /**
+     * Moves the given evaluator's count to its current hazard level.
+     * <p>
+     * The level is read from the evaluator rather than taken from the
+     * arguments, since notifications from different threads may arrive out
+     * of order; whichever arrives last sees the latest level.
+     *
+     * @param evaluator evaluator whose hazard level changed
+     * @param previous  previous hazard level
+     * @param level     new hazard level
+     */
+    @Override
+    public synchronized void hazardLevelChanged(HazardEvaluator evaluator,
+                                                int previous, int level) {
+        Integer counted = this.levels.get(evaluator);
+        if (counted == null) {
+            return;
+        }
+        int current = evaluator.evaluateHazardLevel();
+        if (current != counted) {
+            uncount(counted);
+            this.counts.merge(current, 1, Integer::sum);
+            this.levels.put((IncrementalHazardEvaluator) evaluator, current);
+        }
+    }
+
+    /**
+     * Removes one evaluator from the count at the given level.
+     *
+     * @param level hazard level to uncount
+     */
+    private void uncount(int level) {
+        if (this.counts.merge(level, -1, Integer::sum) == 0) {
+            this.counts.remove(level);
+        }
+    }
+}
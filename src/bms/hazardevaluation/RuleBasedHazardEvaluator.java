@@ -8,12 +8,24 @@ import javafx.scene.Scene;
 import java.util.ArrayList;
 import java.util.List;
 
-public class RuleBasedHazardEvaluator implements HazardEvaluator {
+public class RuleBasedHazardEvaluator extends IncrementalHazardEvaluator {
     /**
      * the list of sensor
      */
     private List<HazardSensor> sensors;
 
+    /**
+     * Whether each sensor, in the order of the list, is an occupancy sensor;
+     * set while in incremental mode.
+     */
+    private boolean[] occupancy;
+
+    /**
+     * Number of sensors other than occupancy sensors whose hazard level is
+     * 100; kept while in incremental mode.
+     */
+    private int sensorsAt100;
+
     /**
      * Creates a new rule-based hazard evaluator
      * with the given list of sensors.
@@ -46,11 +58,18 @@ public class RuleBasedHazardEvaluator implements HazardEvaluator {
      * integer between 0 and 100.
      * You can assume that there is no more than one OccupancySensor
      * in the list passed to the constructor.
+     * <p>
+     * In incremental mode (see {@link #setIncremental(boolean)}), the level
+     * worked out when a sensor last changed is returned without reading the
+     * sensors.
      *
      * @return calculated hazard level according to a set of rules
      */
     @Override
     public int evaluateHazardLevel() {
+        if (isIncremental()) {
+            return getIncrementalLevel();
+        }
         float average = 0;
         if (sensors.isEmpty()) {
             return 0;
@@ -72,6 +91,88 @@ public class RuleBasedHazardEvaluator implements HazardEvaluator {
         }
     }
 
+    /**
+     * Returns the sensors in the order of the list passed to the
+     * constructor.
+     *
+     * @return sensors used by this evaluator
+     */
+    @Override
+    protected HazardSensor[] getSensorsInOrder() {
+        HazardSensor[] sensors = this.sensors.toArray(new HazardSensor[0]);
+        this.occupancy = new boolean[sensors.length];
+        for (int i = 0; i < sensors.length; i++) {
+            this.occupancy[i] = sensors[i].getClass() == OccupancySensor.class;
+        }
+        return sensors;
+    }
+
+    /**
+     * Counts the sensors at a hazard level of 100, and applies the rules to
+     * the given levels.
+     *
+     * @param levels hazard level of each sensor, in list order
+     * @return calculated hazard level according to the rules
+     */
+    @Override
+    protected int resetLevels(int[] levels) {
+        this.sensorsAt100 = 0;
+        for (int i = 0; i < levels.length; i++) {
+            if (!this.occupancy[i] && levels[i] == 100) {
+                this.sensorsAt100++;
+            }
+        }
+        return applyRules(levels);
+    }
+
+    /**
+     * Updates the count of sensors at a hazard level of 100, and applies the
+     * rules to the given levels.
+     *
+     * @param levels   hazard level of each sensor, in list order
+     * @param index    index of the sensor that changed
+     * @param previous previous hazard level of that sensor
+     * @return calculated hazard level according to the rules
+     */
+    @Override
+    protected int updateLevel(int[] levels, int index, int previous) {
+        if (!this.occupancy[index]) {
+            if (previous == 100) {
+                this.sensorsAt100--;
+            }
+            if (levels[index] == 100) {
+                this.sensorsAt100++;
+            }
+        }
+        return applyRules(levels);
+    }
+
+    /**
+     * Applies the rules described in {@link #evaluateHazardLevel()} to the
+     * given sensor hazard levels, with exactly the same arithmetic.
+     *
+     * @param levels hazard level of each sensor, in list order
+     * @return calculated hazard level according to the rules
+     */
+    private int applyRules(int[] levels) {
+        if (levels.length == 0) {
+            return 0;
+        } else if (levels.length == 1) {
+            return levels[0];
+        } else if (this.sensorsAt100 > 0) {
+            return 100;
+        }
+        float average = 0;
+        for (int i = 0; i < levels.length; i++) {
+            if (!this.occupancy[i]) {
+                average += (float) levels[i];
+            } else {
+                average *= ((float) levels[i] / 100);
+            }
+        }
+        return (int) average;
+    }
+
     /**
      * Returns the string representation of this hazard evaluator.
      * The format of the string to return is simply
@@ -6,12 +6,30 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-public class WeightingBasedHazardEvaluator implements HazardEvaluator {
+public class WeightingBasedHazardEvaluator
+        extends IncrementalHazardEvaluator {
     /**
      * the map hold the hazardSensor--integer
      */
     private Map<HazardSensor, Integer> sensors;
 
+    /**
+     * Weighting of each sensor, in map order; set while in incremental
+     * mode.
+     */
+    private int[] weights;
+
+    /**
+     * Sum of the weightings; kept while in incremental mode.
+     */
+    private int totalWeight;
+
+    /**
+     * Running sum of each sensor's hazard level multiplied by its
+     * weighting; kept while in incremental mode.
+     */
+    private int weightedSum;
+
     /**
      * Creates a new weighting-based hazard evaluator with the
      * given sensors and weightings.
@@ -55,11 +73,18 @@ public class WeightingBasedHazardEvaluator implements HazardEvaluator {
      * <t>OccupancySensor</t><t>40</t><t>20</t>
      * <t>NoiseSensor</t><t>65</t><t>30</t>
      * <t>TemperatureSensor</t><t>0</t><t>50</t>
+     * <p>
+     * In incremental mode (see {@link #setIncremental(boolean)}), the level
+     * worked out when a sensor last changed is returned without reading the
+     * sensors.
      *
      * @return weighted average of current sensor hazard levels
      */
     @Override
     public int evaluateHazardLevel() {
+        if (isIncremental()) {
+            return getIncrementalLevel();
+        }
         float hazardLevel = 0;
         float weight = 0;
         for (Map.Entry<HazardSensor, Integer> sensor : sensors.entrySet()) {
@@ -70,6 +95,70 @@ public class WeightingBasedHazardEvaluator implements HazardEvaluator {
         return (int) Math.ceil(hazardLevel / weight);
     }
 
+    /**
+     * Returns the sensors in map order, and records their weightings in the
+     * same order.
+     *
+     * @return sensors used by this evaluator
+     */
+    @Override
+    protected HazardSensor[] getSensorsInOrder() {
+        HazardSensor[] sensors = new HazardSensor[this.sensors.size()];
+        this.weights = new int[sensors.length];
+        int i = 0;
+        for (Map.Entry<HazardSensor, Integer> sensor
+                : this.sensors.entrySet()) {
+            sensors[i] = sensor.getKey();
+            this.weights[i] = sensor.getValue();
+            i++;
+        }
+        return sensors;
+    }
+
+    /**
+     * Works out the running weighted sum of the given levels, and returns
+     * the weighted average.
+     *
+     * @param levels hazard level of each sensor, in map order
+     * @return weighted average of the levels
+     */
+    @Override
+    protected int resetLevels(int[] levels) {
+        this.totalWeight = 0;
+        this.weightedSum = 0;
+        for (int i = 0; i < levels.length; i++) {
+            this.totalWeight += this.weights[i];
+            this.weightedSum += levels[i] * this.weights[i];
+        }
+        return weightedAverage();
+    }
+
+    /**
+     * Updates the running weighted sum for the sensor that changed, and
+     * returns the weighted average.
+     *
+     * @param levels   hazard level of each sensor, in map order
+     * @param index    index of the sensor that changed
+     * @param previous previous hazard level of that sensor
+     * @return weighted average of the levels
+     */
+    @Override
+    protected int updateLevel(int[] levels, int index, int previous) {
+        this.weightedSum += (levels[index] - previous) * this.weights[index];
+        return weightedAverage();
+    }
+
+    /**
+     * Returns the weighted average given by the running weighted sum, with
+     * the same arithmetic as {@link #evaluateHazardLevel()}.
+     *
+     * @return weighted average, rounded up
+     */
+    private int weightedAverage() {
+        return (int) Math.ceil((float) this.weightedSum
+                / (float) this.totalWeight);
+    }
+
     /**
      * Returns a list containing the weightings associated with all of
      * the sensors monitored by this hazard evaluator.
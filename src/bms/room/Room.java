@@ -2,9 +2,16 @@ package bms.room;
 
 import bms.exceptions.DuplicateSensorException;
 import bms.hazardevaluation.HazardEvaluator;
+import bms.hazardevaluation.IncrementalHazardEvaluator;
+import bms.hazardevaluation.MaxHazardTracker;
 import bms.hazardevaluation.WeightingBasedHazardEvaluator;
 import bms.sensors.*;
+import bms.util.Encodable;
+import bms.util.EncodeFormat;
+import bms.util.TimedItem;
+import bms.util.TimedItemManager;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -22,7 +29,7 @@ import java.util.*;
  *
  * @ass1
  */
-public class Room {
+public class Room implements Encodable {
 
     /**
      * Minimum area of all rooms, in square metres.
@@ -65,6 +72,20 @@ public class Room {
      * The State of room.
      */
     private RoomState roomState;
+    /**
+     * Whether this room's encoded state has changed since it was last marked
+     * clean.
+     */
+    private boolean dirty;
+    /**
+     * Timed item manager this room's sensors are registered with.
+     */
+    private TimedItemManager timedItemManager;
+    /**
+     * Tracker following this room's hazard level as it changes, or null if
+     * the hazard evaluator reads the sensors each time it is evaluated.
+     */
+    private MaxHazardTracker hazardTracker;
 
     /**
      * Creates a new room with the given room number.
@@ -84,6 +105,8 @@ public class Room {
         this.maintenance = false;
         this.hazardEvaluator = null;
         this.roomState = RoomState.OPEN;
+        this.dirty = true;
+        this.timedItemManager = TimedItemManager.getInstance();
     }
 
     /**
@@ -189,6 +212,12 @@ public class Room {
      * <p>
      * The list of sensors should be sorted after adding the new sensor, in
      * alphabetical order by simple class name ({@link Class#getSimpleName()}).
+     * <p>
+     * A sensor that is a timed item is moved to this room's timed item
+     * manager when it is added (see {@link Room#getTimedItemManager()}). A
+     * sensor that is rejected as a duplicate is left registered where it
+     * was, since it may already be in this room or another; callers that
+     * created it only to add it here should unregister it.
      *
      * @param sensor the sensor to add to the room
      * @throws DuplicateSensorException if the sensor to add is of the
@@ -206,8 +235,70 @@ public class Room {
             }
         }
         sensors.add(sensor);
-        this.hazardEvaluator = null;
+        if (sensor instanceof TimedItem) {
+            TimedItemManager singleton = TimedItemManager.getInstance();
+            if (this.timedItemManager != singleton) {
+                // New sensors register themselves with the singleton
+                singleton.unregisterTimedItem((TimedItem) sensor);
+            }
+            this.timedItemManager.registerTimedItem((TimedItem) sensor);
+        }
+        setTrackedEvaluator(null);
         sensors.sort(Comparator.comparing(s -> s.getClass().getSimpleName()));
+        this.dirty = true;
+    }
+
+    /**
+     * Unregisters this room's sensors from the timed item manager, once the
+     * room has been removed from the model for good.
+     * <p>
+     * The sensors keep the readings they have now. This must not be called
+     * on a snapshot (see {@link Room#snapshot()}), which shares its sensors
+     * with the room it was taken from.
+     */
+    public void discard() {
+        setHazardTracker(null);
+        for (Sensor sensor : this.sensors) {
+            if (sensor instanceof TimedItem) {
+                this.timedItemManager.unregisterTimedItem((TimedItem) sensor);
+            }
+        }
+    }
+
+    /**
+     * Returns the timed item manager this room's sensors are registered
+     * with.
+     * <p>
+     * This is the singleton manager (see
+     * {@link TimedItemManager#getInstance()}) unless the room is on a floor
+     * of a building with its own manager.
+     *
+     * @return manager elapsing this room's sensors
+     */
+    public TimedItemManager getTimedItemManager() {
+        return this.timedItemManager;
+    }
+
+    /**
+     * Moves this room's sensors to the given timed item manager, which will
+     * elapse them from now on.
+     * <p>
+     * Each sensor keeps its current reading, and follows the minutes of the
+     * new manager from the moment it is moved.
+     *
+     * @param manager manager to register this room's sensors with
+     */
+    public void setTimedItemManager(TimedItemManager manager) {
+        if (manager == this.timedItemManager) {
+            return;
+        }
+        for (Sensor sensor : this.sensors) {
+            if (sensor instanceof TimedItem) {
+                this.timedItemManager.unregisterTimedItem((TimedItem) sensor);
+                manager.registerTimedItem((TimedItem) sensor);
+            }
+        }
+        this.timedItemManager = manager;
     }
 
     /**
@@ -247,7 +338,70 @@ public class Room {
      * @param hazardEvaluator new hazard evaluator for the room to use
      */
     public void setHazardEvaluator(HazardEvaluator hazardEvaluator) {
+        setTrackedEvaluator(hazardEvaluator);
+        this.dirty = true;
+    }
+
+    /**
+     * Sets the tracker to follow this room's hazard level as it changes, or
+     * null to stop following it.
+     * <p>
+     * While a tracker is set, the room's hazard evaluator (and any evaluator
+     * set later) is put in incremental mode (see
+     * {@link IncrementalHazardEvaluator#setIncremental(boolean)}) and
+     * tracked, so evaluating it no longer reads every sensor.
+     *
+     * @param tracker tracker to follow this room's hazard level, or null
+     */
+    public void setHazardTracker(MaxHazardTracker tracker) {
+        if (tracker == this.hazardTracker) {
+            return;
+        }
+        HazardEvaluator evaluator = this.hazardEvaluator;
+        setTrackedEvaluator(null);
+        this.hazardTracker = tracker;
+        setTrackedEvaluator(evaluator);
+    }
+
+    /**
+     * Replaces this room's hazard evaluator, moving the hazard tracker (if
+     * any) from the old evaluator to the new one.
+     *
+     * @param hazardEvaluator new hazard evaluator, or null
+     */
+    private void setTrackedEvaluator(HazardEvaluator hazardEvaluator) {
+        if (this.hazardTracker != null && this.hazardEvaluator
+                instanceof IncrementalHazardEvaluator) {
+            this.hazardTracker.untrack(
+                    (IncrementalHazardEvaluator) this.hazardEvaluator);
+        }
         this.hazardEvaluator = hazardEvaluator;
+        if (this.hazardTracker != null
+                && hazardEvaluator instanceof IncrementalHazardEvaluator) {
+            this.hazardTracker.track(
+                    (IncrementalHazardEvaluator) hazardEvaluator);
+        }
+    }
+
+    /**
+     * Returns whether this room's encoded state (see {@link Room#encode()})
+     * may have changed since the room was last marked clean.
+     * <p>
+     * New rooms are dirty. Adding a sensor or setting the hazard evaluator
+     * makes a room dirty; fire drills and maintenance do not, as they are
+     * not part of the encoded state.
+     *
+     * @return true if this room has changed since it was last saved
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Records that this room's current encoded state has been saved.
+     */
+    public void markClean() {
+        this.dirty = false;
     }
 
     /**
@@ -357,22 +511,26 @@ public class Room {
     }
 
     /**
-     * create the encode sensor
+     * Returns a copy of this room's encoded state.
+     * <p>
+     * The copy has the same room number, type, area, sensors and hazard
+     * evaluator as this room, and its encoding is the same as this room's
+     * encoding at the time this method was called. Sensors and the hazard
+     * evaluator are shared rather than copied, since their encoded state
+     * does not change once they are created; the list holding them is
+     * copied, so adding sensors to this room later does not affect the copy.
+     * <p>
+     * The copy is intended to be encoded on another thread while this room
+     * continues to be updated, and should not otherwise be used as part of
+     * the model.
      *
-     * @param encodedSensor string hold the encodedSensor
-     * @param i             index
-     */
-    private void createEncodedSensor(StringBuffer encodedSensor, int i) {
-        Sensor sensor = this.sensors.get(i);
-        if (sensor.getClass() == CarbonDioxideSensor.class) {
-            encodedSensor.append(((CarbonDioxideSensor) sensor).encode());
-        } else if (sensor.getClass() == NoiseSensor.class) {
-            encodedSensor.append(((NoiseSensor) sensor).encode());
-        } else if (sensor.getClass() == OccupancySensor.class) {
-            encodedSensor.append(((OccupancySensor) sensor).encode());
-        } else if (sensor.getClass() == TemperatureSensor.class) {
-            encodedSensor.append(((TemperatureSensor) sensor).encode());
-        }
+     * @return copy of this room for encoding
+     */
+    public Room snapshot() {
+        Room copy = new Room(this.roomNumber, this.type, this.area);
+        copy.sensors.addAll(this.sensors);
+        copy.hazardEvaluator = this.hazardEvaluator;
+        return copy;
     }
 
     /**
@@ -418,7 +576,9 @@ public class Room {
      * the order of sensors returned by getSensors().
      * <p>
      * System.lineSeparator() should be used to separate lines.
-     * There should be no newline at the end of the string.
+     * Unlike the other encodings, every line ends with a line separator,
+     * including the last, so a room without sensors is encoded as its
+     * first line followed by a line separator.
      * <p>
      * The room's area should be formatted to two decimal places.
      * <p>
@@ -427,43 +587,49 @@ public class Room {
      * @return encoded string representation of this room
      */
     public String encode() {
-        StringBuffer encodedSensor = new StringBuffer();
-        if (this.hazardEvaluator == null) {
-            for (int i = 0; i < this.sensors.size(); i++) {
-                createEncodedSensor(encodedSensor, i);
-                if (i != this.sensors.size() - 1) {
-                    encodedSensor.append(System.lineSeparator());
-                }
-            }
-            if (!this.getSensors().isEmpty()) {
-                encodedSensor.append(System.lineSeparator());
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this room and all of
+     * its sensors to the given destination.
+     * <p>
+     * Appends the same characters as {@link Room#encode()}, without building
+     * an intermediate String for the room or its sensors.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        EncodeFormat.appendFormattedInt(out, this.roomNumber);
+        out.append(':').append(this.type.toString()).append(':');
+        EncodeFormat.appendTwoDecimals(out, this.area);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.sensors.size());
+        List<Integer> weightings = null;
+        if (this.hazardEvaluator != null) {
+            out.append(':').append(this.hazardEvaluator.toString());
+            if (this.hazardEvaluator.getClass()
+                    == WeightingBasedHazardEvaluator.class) {
+                weightings = ((WeightingBasedHazardEvaluator)
+                        this.hazardEvaluator).getWeightings();
             }
-            return String.format("%d:%s:%.2f:%d" +
-                            System.lineSeparator() + "%s",
-                    this.roomNumber, this.type, this.area,
-                    this.sensors.size(), encodedSensor);
-        } else {
-            for (int i = 0; i < this.sensors.size(); i++) {
-                createEncodedSensor(encodedSensor, i);
-                if (this.hazardEvaluator.getClass() ==
-                        WeightingBasedHazardEvaluator.class) {
-                    encodedSensor.append("@")
-                            .append(((WeightingBasedHazardEvaluator)
-                                    this.hazardEvaluator)
-                                    .getWeightings().get(i));
-                }
-                if (i != this.sensors.size() - 1) {
-                    encodedSensor.append(System.lineSeparator());
-                }
+        }
+        out.append(System.lineSeparator());
+        for (int i = 0; i < this.sensors.size(); i++) {
+            Sensor sensor = this.sensors.get(i);
+            if (sensor.getClass() == CarbonDioxideSensor.class
+                    || sensor.getClass() == NoiseSensor.class
+                    || sensor.getClass() == OccupancySensor.class
+                    || sensor.getClass() == TemperatureSensor.class) {
+                ((TimedSensor) sensor).encodeTo(out);
             }
-            if (!this.getSensors().isEmpty()) {
-                encodedSensor.append(System.lineSeparator());
+            if (weightings != null) {
+                out.append('@');
+                EncodeFormat.appendInt(out, weightings.get(i));
             }
-            return String.format("%d:%s:%.2f:%d:%s" +
-                            System.lineSeparator() + "%s",
-                    this.roomNumber, this.type, this.area,
-                    this.sensors.size(), this.hazardEvaluator.toString(),
-                    encodedSensor);
+            out.append(System.lineSeparator());
         }
     }
 
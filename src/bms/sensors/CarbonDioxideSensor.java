@@ -1,5 +1,8 @@
 package bms.sensors;
 
+import bms.util.EncodeFormat;
+
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -23,6 +26,11 @@ public class CarbonDioxideSensor extends TimedSensor
      */
     private int variationLimit;
 
+    /**
+     * Comfort level for the reading it was last worked out for.
+     */
+    private volatile long comfortCache = NO_LEVEL;
+
     /**
      * Creates a new carbon dioxide sensor with the given sensor readings,
      * update frequency, ideal CO2 value and acceptable variation limit.
@@ -114,14 +122,24 @@ public class CarbonDioxideSensor extends TimedSensor
      */
     @Override
     public int getHazardLevel() {
-        final int currentReading = this.getCurrentReading();
-        if (currentReading < 1000) {
+        return hazardLevelOf(this.getCurrentReading());
+    }
+
+    /**
+     * Returns the hazard level of a carbon dioxide sensor with the given
+     * reading, as described in {@link #getHazardLevel()}.
+     *
+     * @param reading carbon dioxide reading in parts per million
+     * @return hazard level of the reading
+     */
+    public static int hazardLevelOf(int reading) {
+        if (reading < 1000) {
             return 0;
         }
-        if (currentReading < 2000) {
+        if (reading < 2000) {
             return 25;
         }
-        if (currentReading < 5000) {
+        if (reading < 5000) {
             return 50;
         }
         return 100;
@@ -142,18 +160,28 @@ public class CarbonDioxideSensor extends TimedSensor
      * Floating point division should be used when performing the
      * calculation, however the resulting floating point number should
      * be rounded to the nearest integer before being returned.
+     * <p>
+     * The level is only worked out again once the current reading changes.
      *
      * @return the current comfort level as an integer between 0 and 100
      */
     @Override
     public int getComfortLevel() {
+        final int currentReading = this.getCurrentReading();
+        int level = cachedLevel(this.comfortCache, currentReading);
+        if (level != NOT_CACHED) {
+            return level;
+        }
+
         int conforlevel = Math.abs((this.idealValue -
-                this.getCurrentReading()) / this.getVariationLimit());
+                currentReading) / this.getVariationLimit());
         if (conforlevel > 1) {
-            return 0;
+            level = 0;
         } else {
-            return (1 - conforlevel) * 100;
+            level = (1 - conforlevel) * 100;
         }
+        this.comfortCache = levelEntry(currentReading, level);
+        return level;
     }
 
     /**
@@ -218,9 +246,28 @@ public class CarbonDioxideSensor extends TimedSensor
      * @return encoded string representation of this carbon dioxide sensor
      */
     public String encode() {
-        return (String.format("CarbonDioxideSensor:%s:%d:%d:%d",
-                super.encode(), this.getUpdateFrequency(), this.idealValue,
-                this.variationLimit));
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this carbon dioxide sensor
+     * to the given destination.
+     * <p>
+     * Appends the same characters as {@link CarbonDioxideSensor#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        out.append("CarbonDioxideSensor:");
+        this.encodeReadingsTo(out);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.getUpdateFrequency());
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.idealValue);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.variationLimit);
     }
 
     /**
@@ -1,5 +1,9 @@
 package bms.sensors;
 
+import bms.util.EncodeFormat;
+
+import java.io.IOException;
+
 /**
  * A sensor that measures the noise levels in a room.
  *
@@ -15,6 +19,16 @@ public class NoiseSensor extends TimedSensor
      */
     private static final int referenceDB = 70;
 
+    /**
+     * Hazard level for the reading it was last worked out for.
+     */
+    private volatile long hazardCache = NO_LEVEL;
+
+    /**
+     * Comfort level for the reading it was last worked out for.
+     */
+    private volatile long comfortCache = NO_LEVEL;
+
     /**
      * Creates a new noise sensor with the given sensor readings and update
      * frequency.
@@ -51,7 +65,18 @@ public class NoiseSensor extends TimedSensor
      * @ass1
      */
     public double calculateRelativeLoudness() {
-        return Math.pow(2, (this.getCurrentReading() - referenceDB) / 10.0);
+        return relativeLoudness(this.getCurrentReading());
+    }
+
+    /**
+     * Returns the relative loudness of the given reading compared to 70.0
+     * decibels, see {@link #calculateRelativeLoudness()}.
+     *
+     * @param reading noise reading in decibels
+     * @return relative loudness of the reading to 70dB
+     */
+    private static double relativeLoudness(int reading) {
+        return Math.pow(2, (reading - referenceDB) / 10.0);
     }
 
     /**
@@ -70,13 +95,31 @@ public class NoiseSensor extends TimedSensor
      * For example, if {@link #calculateRelativeLoudness()} returns 0.8968 then
      * 89 must be returned. If {@link #calculateRelativeLoudness()} returns
      * 1.7646 then 100 must be returned.
+     * <p>
+     * The level is only worked out again once the current reading changes.
      *
      * @ass1
      */
     @Override
     public int getHazardLevel() {
-        double relativeLoudnessMult100 =
-                this.calculateRelativeLoudness() * 100;
+        int reading = this.getCurrentReading();
+        int level = cachedLevel(this.hazardCache, reading);
+        if (level == NOT_CACHED) {
+            level = hazardLevelOf(reading);
+            this.hazardCache = levelEntry(reading, level);
+        }
+        return level;
+    }
+
+    /**
+     * Returns the hazard level of a noise sensor with the given reading, as
+     * described in {@link #getHazardLevel()}.
+     *
+     * @param reading noise reading in decibels
+     * @return hazard level of the reading
+     */
+    public static int hazardLevelOf(int reading) {
+        double relativeLoudnessMult100 = relativeLoudness(reading) * 100;
         return (int) Math.min(Math.floor(relativeLoudnessMult100), 100);
     }
 
@@ -91,18 +134,26 @@ public class NoiseSensor extends TimedSensor
      * to the calculated value.
      * <p>
      * If the result is < 0, 0 is returned. Otherwise, the result is returned.
+     * <p>
+     * The level is only worked out again once the current reading changes.
      *
      * @return level of comfort at sensor location, 0 to 100
      */
     @Override
     public int getComfortLevel() {
-        double comfortLevel;
-        comfortLevel = Math.floor(1 - this.calculateRelativeLoudness() * 100);
-        if (comfortLevel < 0) {
-            return 0;
-        } else {
-            return (int) comfortLevel;
+        int reading = this.getCurrentReading();
+        int level = cachedLevel(this.comfortCache, reading);
+        if (level == NOT_CACHED) {
+            double comfortLevel;
+            comfortLevel = Math.floor(1 - relativeLoudness(reading) * 100);
+            if (comfortLevel < 0) {
+                level = 0;
+            } else {
+                level = (int) comfortLevel;
+            }
+            this.comfortCache = levelEntry(reading, level);
         }
+        return level;
     }
 
     /**
@@ -120,8 +171,24 @@ public class NoiseSensor extends TimedSensor
      * @return encoded string representation of this noise sensor
      */
     public String encode() {
-        return (String.format("NoiseSensor:%s:%d",
-                super.encode(), this.getUpdateFrequency()));
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this noise sensor to the
+     * given destination.
+     * <p>
+     * Appends the same characters as {@link NoiseSensor#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        out.append("NoiseSensor:");
+        this.encodeReadingsTo(out);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.getUpdateFrequency());
     }
 
     /**
@@ -1,5 +1,8 @@
 package bms.sensors;
 
+import bms.util.EncodeFormat;
+
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -14,6 +17,16 @@ public class OccupancySensor extends TimedSensor
      */
     private int capacity;
 
+    /**
+     * Hazard level for the reading it was last worked out for.
+     */
+    private volatile long hazardCache = NO_LEVEL;
+
+    /**
+     * Comfort level for the reading it was last worked out for.
+     */
+    private volatile long comfortCache = NO_LEVEL;
+
     /**
      * Creates a new occupancy sensor with the given sensor readings, update
      * frequency and capacity.
@@ -64,6 +77,8 @@ public class OccupancySensor extends TimedSensor
      * Floating point division should be used when performing the calculation,
      * however the resulting floating point number should be <i>rounded to the
      * nearest integer</i> before being returned.
+     * <p>
+     * The level is only worked out again once the current reading changes.
      *
      * @return the current hazard level as an integer between 0 and 100
      * @ass1
@@ -71,11 +86,29 @@ public class OccupancySensor extends TimedSensor
     @Override
     public int getHazardLevel() {
         final int currentReading = this.getCurrentReading();
+        int level = cachedLevel(this.hazardCache, currentReading);
+        if (level != NOT_CACHED) {
+            return level;
+        }
+
+        level = hazardLevelOf(currentReading, this.capacity);
+        this.hazardCache = levelEntry(currentReading, level);
+        return level;
+    }
 
-        if (currentReading >= this.capacity) {
+    /**
+     * Returns the hazard level of an occupancy sensor with the given reading
+     * and capacity, as described in {@link #getHazardLevel()}.
+     *
+     * @param reading  number of people in the room
+     * @param capacity maximum number of people the room can hold
+     * @return hazard level of the reading
+     */
+    public static int hazardLevelOf(int reading, int capacity) {
+        if (reading >= capacity) {
             return 100;
         }
-        double occupancyRatio = ((double) currentReading) / this.capacity;
+        double occupancyRatio = ((double) reading) / capacity;
         double occupancyPct = 100 * occupancyRatio;
         return (int) Math.round(occupancyPct);
     }
@@ -97,19 +130,29 @@ public class OccupancySensor extends TimedSensor
      * Floating point division should be used when performing the calculation,
      * however the resulting floating point number should be rounded to the
      * nearest integer before being returned.
+     * <p>
+     * The level is only worked out again once the current reading changes.
      *
      * @return the current comfort level as an integer between 0 and 100
      */
     @Override
     public int getComfortLevel() {
+        final int currentReading = this.getCurrentReading();
+        int level = cachedLevel(this.comfortCache, currentReading);
+        if (level != NOT_CACHED) {
+            return level;
+        }
+
         double comfortLevel;
-        if (this.getCurrentReading() > this.getCapacity()) {
-            return 0;
+        if (currentReading > this.getCapacity()) {
+            level = 0;
         } else {
-            comfortLevel = (double) this.getCurrentReading()
+            comfortLevel = (double) currentReading
                     / (double) this.getCapacity();
-            return (int) (Math.round((1 - comfortLevel) * 100));
+            level = (int) (Math.round((1 - comfortLevel) * 100));
         }
+        this.comfortCache = levelEntry(currentReading, level);
+        return level;
     }
 
     /**
@@ -171,8 +214,26 @@ public class OccupancySensor extends TimedSensor
      */
     @Override
     public String encode() {
-        return (String.format("OccupancySensor:%s:%d:%d",
-                super.encode(), this.getUpdateFrequency(), this.capacity));
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this occupancy sensor
+     * to the given destination.
+     * <p>
+     * Appends the same characters as {@link OccupancySensor#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        out.append("OccupancySensor:");
+        this.encodeReadingsTo(out);
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.getUpdateFrequency());
+        out.append(':');
+        EncodeFormat.appendFormattedInt(out, this.capacity);
     }
 
     /**
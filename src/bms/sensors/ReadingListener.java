@@ -0,0 +1,23 @@
+package bms.sensors;
+
+/**
+ * Listener notified when the current reading of a timed sensor changes.
+ * <p>
+ * A sensor with listeners is visited by its timed item manager whenever its
+ * current reading may change (see
+ * {@link TimedSensor#addReadingListener(ReadingListener)}), so listeners can
+ * keep values derived from the reading up to date without reading every
+ * sensor each time they are asked.
+ */
+public interface ReadingListener {
+    /**
+     * Called after the current reading of the given sensor has changed.
+     * <p>
+     * This is called on the thread elapsing time on the sensor's timed item
+     * manager, which may be one of several threads elapsing sensors at the
+     * same time, so implementations must be thread-safe.
+     *
+     * @param sensor sensor whose reading changed
+     */
+    void readingChanged(TimedSensor sensor);
+}
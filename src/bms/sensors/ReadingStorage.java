@@ -0,0 +1,79 @@
+package bms.sensors;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where the readings of timed sensors are kept by the {@link SensorStore}
+ * (see {@link SensorStore#setReadingStorage(ReadingStorage)}).
+ * <p>
+ * Readings kept outside the Java heap are not copied or scanned by the
+ * garbage collector, which shortens collections when there are many
+ * sensors with long traces of readings. They are still freed once no
+ * sensor uses them.
+ */
+public enum ReadingStorage {
+    /** Readings are kept in int arrays on the Java heap. */
+    HEAP,
+    /** Readings are kept in direct buffers outside the Java heap. */
+    DIRECT,
+    /**
+     * Readings are kept in temporary files mapped into memory, which the
+     * operating system may page out when memory is short.
+     */
+    MAPPED;
+
+    /**
+     * Allocates space for the given number of readings, initially all zero.
+     *
+     * @param capacity number of readings to allocate space for
+     * @return buffer holding the readings
+     * @throws UncheckedIOException if a temporary file could not be created
+     *                              or mapped
+     */
+    IntBuffer allocate(int capacity) {
+        switch (this) {
+            case DIRECT:
+                return ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            case MAPPED:
+                return map(capacity);
+            default:
+                return IntBuffer.allocate(capacity);
+        }
+    }
+
+    /**
+     * Maps a new temporary file with space for the given number of readings
+     * into memory.
+     * <p>
+     * The file is deleted as soon as it has been mapped; the mapping stays
+     * valid until the buffer is garbage collected.
+     *
+     * @param capacity number of readings to allocate space for
+     * @return buffer holding the readings
+     * @throws UncheckedIOException if the file could not be created or
+     *                              mapped
+     */
+    private static IntBuffer map(int capacity) {
+        try {
+            Path file = Files.createTempFile("bms-readings", ".bin");
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        (long) capacity * Integer.BYTES)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,788 @@
+package bms.sensors;
+
+import bms.util.EncodeFormat;
+import bms.util.TimedItemManager;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar store holding the state of every timed sensor of one type.
+ * <p>
+ * Rather than each sensor keeping its own readings array and fields, the
+ * sensors of a type share a store in which each field is a column of a
+ * primitive array, and each sensor's readings are packed one after the other
+ * into large shared arrays. A {@link TimedSensor} is a view of one slot of
+ * its type's store. Working through many sensors of one type, as
+ * {@link SensorStore#currentReadings()} does, then reads memory in order
+ * instead of following a reference to each sensor and each readings array.
+ * <p>
+ * Slots are allocated in blocks that never move once created, so a sensor
+ * refers to its block directly. The slot of a sensor that has been garbage
+ * collected is reused for a new sensor; its readings are freed once no
+ * sensor sharing the same readings array is left.
+ * <p>
+ * Readings in which each value is usually repeated several times in a row,
+ * as with a temperature holding steady for hours, are stored as runs of
+ * equal readings. The run holding the last reading read is remembered, so
+ * reading a sensor's readings in order, as time passes, takes constant time
+ * however many readings it has.
+ * <p>
+ * Sensors with identical readings share a single copy of them. Readings
+ * are copied into the store when a sensor is created and never written
+ * again, so a shared copy cannot be changed through any one sensor.
+ * <p>
+ * Readings are kept on the Java heap unless another
+ * {@link ReadingStorage} is set, which takes effect for sensors created
+ * afterwards.
+ */
+public final class SensorStore {
+    /**
+     * Number of bits of a slot index used to pick a slot within its block.
+     */
+    private static final int BLOCK_BITS = 10;
+    /**
+     * Number of slots in each block.
+     */
+    private static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    /**
+     * Number of readings in each shared readings array. Sensors with more
+     * readings than this are given an array of their own.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+    /**
+     * Smallest average number of equal consecutive readings for which a
+     * sensor's readings are stored as runs rather than one by one.
+     */
+    private static final int MIN_AVERAGE_RUN = 4;
+
+    /**
+     * Store for each sensor class.
+     */
+    private static final Map<Class<?>, SensorStore> STORES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Frees the slots of sensors once they have been garbage collected.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Where the readings of new sensors are kept.
+     */
+    private static volatile ReadingStorage readingStorage =
+            ReadingStorage.HEAP;
+
+    /**
+     * Blocks of slots, in order of slot index.
+     */
+    private volatile Block[] blocks = new Block[0];
+
+    /**
+     * Number of slots allocated, including free slots.
+     */
+    private int size;
+
+    /**
+     * Indices of the slots freed by collected sensors, as a stack.
+     */
+    private int[] freeSlots = new int[16];
+
+    /**
+     * Number of entries in freeSlots.
+     */
+    private int freeCount;
+
+    /**
+     * Shared readings array that new readings are packed into.
+     */
+    private IntBuffer chunk = IntBuffer.allocate(0);
+
+    /**
+     * Where the current shared readings array is kept.
+     */
+    private ReadingStorage chunkStorage = ReadingStorage.HEAP;
+
+    /**
+     * Readings shared by the sensors in this store, keyed by their content.
+     */
+    private final Map<Trace, Trace> traces = new HashMap<>();
+
+    /**
+     * Number of readings not stored because an identical copy was already
+     * in the store, counted once for each sensor sharing a copy.
+     */
+    private long sharedReadings;
+
+    /**
+     * Number of readings used in the current shared readings array.
+     */
+    private int chunkUsed;
+
+    /**
+     * Creates a new empty store.
+     */
+    private SensorStore() {
+    }
+
+    /**
+     * Returns the store holding the sensors of the given class.
+     *
+     * @param type concrete sensor class
+     * @return store for that class
+     */
+    public static SensorStore of(Class<? extends TimedSensor> type) {
+        return STORES.computeIfAbsent(type, key -> new SensorStore());
+    }
+
+    /**
+     * Sets where the readings of sensors created from now on are kept.
+     * <p>
+     * Readings of existing sensors stay where they are.
+     *
+     * @param storage where to keep new readings
+     */
+    public static void setReadingStorage(ReadingStorage storage) {
+        readingStorage = storage;
+    }
+
+    /**
+     * Returns where the readings of new sensors are kept.
+     *
+     * @return storage used for new readings
+     */
+    public static ReadingStorage getReadingStorage() {
+        return readingStorage;
+    }
+
+    /**
+     * Returns the number of bytes taken up by the readings of every timed
+     * sensor that has not been garbage collected, counting only readings
+     * kept on the Java heap or only readings kept outside it.
+     * <p>
+     * Space in a shared readings array counts as taken until every sensor
+     * using it has been collected.
+     *
+     * @param offHeap true to count readings kept outside the Java heap,
+     *                false to count readings kept on the heap
+     * @return number of bytes used by readings
+     */
+    public static long getReadingBytes(boolean offHeap) {
+        long bytes = 0;
+        for (SensorStore store : STORES.values()) {
+            bytes += store.readingBytes(offHeap);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes taken up by the readings arrays used by
+     * the sensors in this store.
+     *
+     * @param offHeap true to count readings kept outside the Java heap,
+     *                false to count readings kept on the heap
+     * @return number of bytes used by readings
+     */
+    private synchronized long readingBytes(boolean offHeap) {
+        Set<IntBuffer> seen = Collections.newSetFromMap(
+                new IdentityHashMap<>());
+        long bytes = 0;
+        for (int index = 0; index < this.size; index++) {
+            IntBuffer readings = block(index).chunk[slot(index)];
+            if (readings != null && readings.isDirect() == offHeap
+                    && seen.add(readings)) {
+                bytes += (long) readings.capacity() * Integer.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes saved by sensors sharing identical
+     * readings instead of each keeping a copy, over every timed sensor that
+     * has not been garbage collected.
+     *
+     * @return number of bytes not used thanks to shared readings
+     */
+    public static long getSharedReadingBytes() {
+        long readings = 0;
+        for (SensorStore store : STORES.values()) {
+            synchronized (store) {
+                readings += store.sharedReadings;
+            }
+        }
+        return readings * Integer.BYTES;
+    }
+
+    /**
+     * Returns the number of slots in this store, including the slots of
+     * sensors that have been garbage collected and not yet reused.
+     * <p>
+     * Every sensor's slot index (see {@link TimedSensor#getStoreIndex()})
+     * is less than this.
+     *
+     * @return number of slots
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the current reading of every sensor in this store, indexed by
+     * slot, in a single pass over the store.
+     * <p>
+     * Free slots have a reading of -1.
+     *
+     * @return current readings, indexed by slot
+     */
+    public int[] currentReadings() {
+        // Read together, so every slot below size is in one of the blocks
+        Block[] blocks;
+        int size;
+        synchronized (this) {
+            blocks = this.blocks;
+            size = this.size;
+        }
+        int[] readings = new int[size];
+        TimedItemManager lastManager = null;
+        long minute = 0;
+        for (int index = 0; index < size; index++) {
+            Block block = blocks[index >>> BLOCK_BITS];
+            int slot = index & (BLOCK_SIZE - 1);
+            if (block.chunk[slot] == null) {
+                readings[index] = -1;
+                continue;
+            }
+            TimedItemManager manager = block.manager[slot];
+            if (manager != null && manager != lastManager) {
+                lastManager = manager;
+                minute = manager.getMinutesElapsed();
+            }
+            readings[index] = block.readingAt(slot,
+                    block.timeElapsedAt(slot, manager == null ? -1 : minute));
+        }
+        return readings;
+    }
+
+    /**
+     * Allocates a slot for the given sensor, and copies its readings into
+     * the store unless identical readings are already there.
+     *
+     * @param sensor          sensor the slot is for
+     * @param readings        sensor readings to copy
+     * @param updateFrequency sensor's update frequency
+     * @return index of the slot allocated
+     */
+    synchronized int allocate(TimedSensor sensor, int[] readings,
+                              int updateFrequency) {
+        int index;
+        if (this.freeCount > 0) {
+            index = this.freeSlots[--this.freeCount];
+        } else {
+            index = this.size++;
+            if ((index >>> BLOCK_BITS) == this.blocks.length) {
+                Block[] grown = Arrays.copyOf(this.blocks,
+                        this.blocks.length + 1);
+                grown[grown.length - 1] = new Block();
+                this.blocks = grown;
+            }
+        }
+
+        int runs = countRuns(readings);
+        int[] stored = readings;
+        if (runs * MIN_AVERAGE_RUN > readings.length) {
+            runs = 0;
+        } else {
+            stored = encodeRuns(readings, runs);
+        }
+
+        ReadingStorage storage = readingStorage;
+        Trace trace = this.traces.get(new Trace(IntBuffer.wrap(stored), 0,
+                stored.length, runs, null));
+        IntBuffer target;
+        int offset;
+        if (trace != null && trace.storage == storage) {
+            trace.users++;
+            this.sharedReadings += stored.length;
+            target = trace.chunk;
+            offset = trace.offset;
+        } else if (stored.length > CHUNK_SIZE) {
+            target = storage.allocate(stored.length);
+            offset = 0;
+        } else {
+            if (this.chunkUsed + stored.length > this.chunk.capacity()
+                    || storage != this.chunkStorage) {
+                this.chunk = storage.allocate(CHUNK_SIZE);
+                this.chunkStorage = storage;
+                this.chunkUsed = 0;
+            }
+            target = this.chunk;
+            offset = this.chunkUsed;
+            this.chunkUsed += stored.length;
+        }
+        if (trace == null || trace.storage != storage) {
+            target.put(offset, stored);
+            if (trace == null) {
+                trace = new Trace(target, offset, stored.length, runs,
+                        storage);
+                this.traces.put(trace, trace);
+            }
+        }
+
+        Block block = block(index);
+        int slot = index & (BLOCK_SIZE - 1);
+        block.chunk[slot] = target;
+        block.offset[slot] = offset;
+        block.length[slot] = readings.length;
+        block.runs[slot] = runs;
+        block.cursor[slot] = 0;
+        block.frequency[slot] = updateFrequency;
+        block.timeElapsed[slot] = 0;
+        block.managerMinute[slot] = -1;
+        block.manager[slot] = null;
+        CLEANER.register(sensor, () -> release(index));
+        return index;
+    }
+
+    /**
+     * Returns the number of runs of equal consecutive readings in the given
+     * readings.
+     *
+     * @param readings non-empty readings array
+     * @return number of runs
+     */
+    private static int countRuns(int[] readings) {
+        int runs = 1;
+        for (int i = 1; i < readings.length; i++) {
+            if (readings[i] != readings[i - 1]) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Returns the run-length encoding of the given readings: the reading of
+     * each run, followed by the index just past the end of each run.
+     *
+     * @param readings non-empty readings array
+     * @param runs     number of runs in the readings
+     * @return encoded readings, twice as long as the number of runs
+     */
+    private static int[] encodeRuns(int[] readings, int runs) {
+        int[] encoded = new int[2 * runs];
+        int run = 0;
+        for (int i = 1; i <= readings.length; i++) {
+            if (i == readings.length || readings[i] != readings[i - 1]) {
+                encoded[run] = readings[i - 1];
+                encoded[runs + run] = i;
+                run++;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the block containing the slot with the given index.
+     *
+     * @param index slot index
+     * @return block holding that slot
+     */
+    Block block(int index) {
+        return this.blocks[index >>> BLOCK_BITS];
+    }
+
+    /**
+     * Returns the position within its block of the slot with the given
+     * index.
+     *
+     * @param index slot index
+     * @return position of the slot in its block
+     */
+    static int slot(int index) {
+        return index & (BLOCK_SIZE - 1);
+    }
+
+    /**
+     * Frees the slot of a sensor that has been garbage collected.
+     *
+     * @param index index of the slot to free
+     */
+    private synchronized void release(int index) {
+        Block block = block(index);
+        int slot = index & (BLOCK_SIZE - 1);
+        int runs = block.runs[slot];
+        Trace trace = this.traces.get(new Trace(block.chunk[slot],
+                block.offset[slot], block.storedLength(slot), runs, null));
+        if (trace != null && trace.chunk == block.chunk[slot]
+                && trace.offset == block.offset[slot]) {
+            if (--trace.users == 0) {
+                this.traces.remove(trace);
+            } else {
+                this.sharedReadings -= block.storedLength(slot);
+            }
+        }
+        block.chunk[slot] = null;
+        block.manager[slot] = null;
+        if (this.freeCount == this.freeSlots.length) {
+            this.freeSlots = Arrays.copyOf(this.freeSlots,
+                    this.freeSlots.length * 2);
+        }
+        this.freeSlots[this.freeCount++] = index;
+    }
+
+    /**
+     * Readings shared by one or more sensors.
+     * <p>
+     * Traces are equal if their readings are equal, so a trace wrapping a
+     * new sensor's readings finds the shared trace with the same readings.
+     */
+    private static final class Trace {
+        /**
+         * Readings array holding the readings.
+         */
+        private final IntBuffer chunk;
+        /**
+         * Position of the first reading in the readings array.
+         */
+        private final int offset;
+        /**
+         * Number of values stored.
+         */
+        private final int length;
+        /**
+         * Number of runs if the readings are run-length encoded, otherwise
+         * 0.
+         */
+        private final int runs;
+        /**
+         * Hash code of the readings.
+         */
+        private final int hash;
+        /**
+         * Where the readings array is kept; null for traces only used to
+         * look up a shared trace.
+         */
+        private final ReadingStorage storage;
+        /**
+         * Number of sensors using these readings.
+         */
+        private int users = 1;
+
+        /**
+         * Creates a new trace used by one sensor.
+         *
+         * @param chunk   readings array holding the readings
+         * @param offset  position of the first reading in the array
+         * @param length  number of values stored
+         * @param runs    number of runs if the readings are run-length
+         *                encoded, otherwise 0
+         * @param storage where the readings array is kept
+         */
+        private Trace(IntBuffer chunk, int offset, int length, int runs,
+                      ReadingStorage storage) {
+            this.chunk = chunk;
+            this.offset = offset;
+            this.length = length;
+            this.runs = runs;
+            this.storage = storage;
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + chunk.get(offset + i);
+            }
+            this.hash = hash;
+        }
+
+        /**
+         * Returns true if the other object is a trace with the same
+         * readings.
+         *
+         * @param obj other object to compare
+         * @return true if the readings are equal
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Trace)) {
+                return false;
+            }
+            Trace other = (Trace) obj;
+            if (this.hash != other.hash || this.length != other.length
+                    || this.runs != other.runs) {
+                return false;
+            }
+            for (int i = 0; i < this.length; i++) {
+                if (this.chunk.get(this.offset + i)
+                        != other.chunk.get(other.offset + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the hash code of the readings.
+         *
+         * @return hash code
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * Columns for a block of slots.
+     * <p>
+     * Fields are accessed directly by {@link TimedSensor}, which refers to
+     * the block holding its slot.
+     */
+    static final class Block {
+        /**
+         * Readings array holding each slot's readings; null for free slots.
+         */
+        final IntBuffer[] chunk = new IntBuffer[BLOCK_SIZE];
+        /**
+         * Position of each slot's first reading in its readings array.
+         */
+        final int[] offset = new int[BLOCK_SIZE];
+        /**
+         * Number of readings of each slot.
+         */
+        final int[] length = new int[BLOCK_SIZE];
+        /**
+         * Number of runs of each slot whose readings are stored as runs, or
+         * 0 for slots whose readings are stored one by one.
+         * <p>
+         * Run-length encoded readings are stored as the reading of each run,
+         * followed by the index just past the end of each run.
+         */
+        final int[] runs = new int[BLOCK_SIZE];
+        /**
+         * Run holding the reading last read from each slot whose readings
+         * are stored as runs.
+         * <p>
+         * This is only a hint for the next read: it is written without
+         * synchronisation, and is checked before it is used.
+         */
+        final int[] cursor = new int[BLOCK_SIZE];
+        /**
+         * Update frequency of each slot, in minutes.
+         */
+        final int[] frequency = new int[BLOCK_SIZE];
+        /**
+         * Time elapsed of each slot, not counting minutes elapsed on its
+         * timed item manager since managerMinute.
+         */
+        final int[] timeElapsed = new int[BLOCK_SIZE];
+        /**
+         * Minute of each slot's timed item manager from which the manager's
+         * minutes are added to its time elapsed; -1 while not registered.
+         */
+        final long[] managerMinute = new long[BLOCK_SIZE];
+        /**
+         * Timed item manager each slot is registered with; null while not
+         * registered.
+         */
+        final TimedItemManager[] manager = new TimedItemManager[BLOCK_SIZE];
+
+        /**
+         * Returns the time elapsed of a slot, given the current minute of
+         * its timed item manager.
+         *
+         * @param slot   position of the slot in this block
+         * @param minute manager's current minute, or -1 if the slot is not
+         *               registered with a manager
+         * @return time elapsed in minutes
+         */
+        int timeElapsedAt(int slot, long minute) {
+            long origin = this.managerMinute[slot];
+            if (minute < 0 || origin < 0) {
+                return this.timeElapsed[slot];
+            }
+            return this.timeElapsed[slot] + (int) (minute - origin);
+        }
+
+        /**
+         * Returns the reading of a slot once it has been running for the
+         * given number of minutes.
+         *
+         * @param slot   position of the slot in this block
+         * @param minute number of minutes the sensor has been running
+         * @return reading at that time
+         */
+        int readingAt(int slot, long minute) {
+            int frequency = this.frequency[slot];
+            long rotationDuration = (long) this.length[slot] * frequency;
+            int index = (int) (minute % rotationDuration) / frequency;
+            return reading(slot, index);
+        }
+
+        /**
+         * Returns the number of minutes until a slot moves on from the
+         * reading it has at the given time.
+         * <p>
+         * For readings stored as runs, this is the time until the end of
+         * the current run; otherwise it is the time until the next reading
+         * in the readings array, which may be the same.
+         *
+         * @param slot   position of the slot in this block
+         * @param minute number of minutes the sensor has been running
+         * @return minutes until the reading may change; at least 1
+         */
+        int minutesUntilChange(int slot, long minute) {
+            int frequency = this.frequency[slot];
+            long rotationDuration = (long) this.length[slot] * frequency;
+            long position = minute % rotationDuration;
+            int index = (int) (position / frequency);
+            long next;
+            int runs = this.runs[slot];
+            if (runs == 0) {
+                next = (long) (index + 1) * frequency;
+            } else {
+                IntBuffer chunk = this.chunk[slot];
+                int offset = this.offset[slot];
+                int run = findRun(slot, chunk, offset, runs, index);
+                next = (long) chunk.get(offset + runs + run) * frequency;
+            }
+            return (int) Math.min(next - position, Integer.MAX_VALUE - 1);
+        }
+
+        /**
+         * Returns the reading at the given index in a slot's readings.
+         *
+         * @param slot  position of the slot in this block
+         * @param index index of the reading, less than the slot's length
+         * @return reading at that index
+         */
+        int reading(int slot, int index) {
+            IntBuffer chunk = this.chunk[slot];
+            int offset = this.offset[slot];
+            int runs = this.runs[slot];
+            if (runs == 0) {
+                return chunk.get(offset + index);
+            }
+            return chunk.get(offset + findRun(slot, chunk, offset, runs,
+                    index));
+        }
+
+        /**
+         * Returns the run holding the reading at the given index in a slot's
+         * run-length encoded readings.
+         * <p>
+         * The run last found is tried first, then the run after it and the
+         * first run, so reading in order (and wrapping around to the start)
+         * needs no search.
+         *
+         * @param slot   position of the slot in this block
+         * @param chunk  readings array holding the slot's runs
+         * @param offset position of the slot's first run in the array
+         * @param runs   number of runs
+         * @param index  index of the reading
+         * @return index of the run holding the reading
+         */
+        private int findRun(int slot, IntBuffer chunk, int offset, int runs,
+                            int index) {
+            int ends = offset + runs;
+            int run = this.cursor[slot];
+            if (run >= runs) {
+                run = 0;
+            }
+            int start = run == 0 ? 0 : chunk.get(ends + run - 1);
+            if (index >= start && index < chunk.get(ends + run)) {
+                return run;
+            }
+            if (index >= start && run + 1 < runs
+                    && index < chunk.get(ends + run + 1)) {
+                run++;
+            } else if (index < chunk.get(ends)) {
+                run = 0;
+            } else {
+                int low = 1;
+                int high = runs - 1;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    if (chunk.get(ends + middle) <= index) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                run = low;
+            }
+            this.cursor[slot] = run;
+            return run;
+        }
+
+        /**
+         * Returns the number of values stored for a slot's readings.
+         *
+         * @param slot position of the slot in this block
+         * @return number of values stored
+         */
+        int storedLength(int slot) {
+            int runs = this.runs[slot];
+            return runs == 0 ? this.length[slot] : 2 * runs;
+        }
+
+        /**
+         * Appends a slot's readings to the given destination, separated by
+         * commas.
+         * <p>
+         * If asRuns is true and the readings are stored as runs, each run of
+         * more than one reading is written as "reading*count". Otherwise
+         * every reading is written.
+         *
+         * @param slot   position of the slot in this block
+         * @param out    destination to append to
+         * @param asRuns true to write runs of readings as "reading*count"
+         * @throws IOException if appending to the destination fails
+         */
+        void appendReadings(int slot, Appendable out, boolean asRuns)
+                throws IOException {
+            IntBuffer chunk = this.chunk[slot];
+            int offset = this.offset[slot];
+            int runs = this.runs[slot];
+            if (runs == 0) {
+                int count = this.length[slot];
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        out.append(',');
+                    }
+                    EncodeFormat.appendInt(out, chunk.get(offset + i));
+                }
+                return;
+            }
+            int start = 0;
+            for (int run = 0; run < runs; run++) {
+                int reading = chunk.get(offset + run);
+                int end = chunk.get(offset + runs + run);
+                if (asRuns) {
+                    if (run > 0) {
+                        out.append(',');
+                    }
+                    EncodeFormat.appendInt(out, reading);
+                    if (end - start > 1) {
+                        out.append('*');
+                        EncodeFormat.appendInt(out, end - start);
+                    }
+                } else {
+                    for (int i = start; i < end; i++) {
+                        if (i > 0) {
+                            out.append(',');
+                        }
+                        EncodeFormat.appendInt(out, reading);
+                    }
+                }
+                start = end;
+            }
+        }
+    }
+}
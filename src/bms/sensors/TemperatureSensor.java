@@ -1,5 +1,9 @@
 package bms.sensors;
 
+import bms.util.EncodeFormat;
+
+import java.io.IOException;
+
 /**
  * A sensor that measures ambient temperature in a room.
  *
@@ -37,7 +41,18 @@ public class TemperatureSensor extends TimedSensor
      */
     @Override
     public int getHazardLevel() {
-        if (this.getCurrentReading() >= 68) {
+        return hazardLevelOf(this.getCurrentReading());
+    }
+
+    /**
+     * Returns the hazard level of a temperature sensor with the given
+     * reading, as described in {@link #getHazardLevel()}.
+     *
+     * @param reading temperature reading in degrees Celsius
+     * @return hazard level of the reading
+     */
+    public static int hazardLevelOf(int reading) {
+        if (reading >= 68) {
             return 100;
         }
         return 0;
@@ -108,6 +123,21 @@ public class TemperatureSensor extends TimedSensor
      * @return
      */
     public String encode() {
-        return (String.format("TemperatureSensor:%s", super.encode()));
+        return EncodeFormat.encode(this);
+    }
+
+    /**
+     * Appends the machine-readable representation of this temperature sensor
+     * to the given destination.
+     * <p>
+     * Appends the same characters as {@link TemperatureSensor#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        out.append("TemperatureSensor:");
+        this.encodeReadingsTo(out);
     }
 }
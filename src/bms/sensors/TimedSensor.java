@@ -1,9 +1,12 @@
 package bms.sensors;
 
 import bms.util.Encodable;
+import bms.util.ScheduledTimedItem;
 import bms.util.TimedItem;
 import bms.util.TimedItemManager;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.Objects;
 
@@ -11,32 +14,55 @@ import java.util.Objects;
  * An abstract class to represent a sensor that iterates
  * through observed values
  * on a timer.
+ * <p>
+ * A timed sensor's readings and state are kept in the {@link SensorStore}
+ * for its class, alongside those of every other sensor of the same class;
+ * the sensor itself only records where.
  */
-public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
+public abstract class TimedSensor implements ScheduledTimedItem, Sensor,
+        Encodable {
 
     /**
-     * Data array representing the readings observed by the sensor.
+     * Level cache entry holding no level (see {@link #cachedLevel(long,
+     * int)}); its reading of -1 never matches a sensor reading.
+     */
+    static final long NO_LEVEL = -1L;
+
+    /**
+     * Returned by {@link #cachedLevel(long, int)} when the cache entry does
+     * not hold the level for the reading.
+     */
+    static final int NOT_CACHED = Integer.MIN_VALUE;
+
+    /**
+     * Listeners of a sensor without any.
+     */
+    private static final ReadingListener[] NO_LISTENERS =
+            new ReadingListener[0];
+
+    /**
+     * Listeners notified when this sensor's current reading changes.
      * <p>
-     * Readings taken one minute apart.
+     * The array is replaced rather than changed, so it can be read without
+     * locking while time is elapsed.
      */
-    private int[] sensorReadings;
+    private volatile ReadingListener[] listeners = NO_LISTENERS;
 
     /**
-     * The current sensor reading observed by the sensor.
+     * Index of this sensor's slot in its class's sensor store.
      */
-    private int currentReading;
+    private final int index;
 
     /**
-     * The amount of time in minutes that the sensor has been running
-     * (according to the system, not real life).
+     * Block of the sensor store holding this sensor's readings, time
+     * elapsed, update frequency and registration.
      */
-    private int timeElapsed;
+    private final SensorStore.Block block;
 
     /**
-     * The number of minutes that must pass before the current sensor
-     * reading is updated.
+     * Position of this sensor's slot within its block.
      */
-    private int updateFrequency;
+    private final int slot;
 
     /**
      * Creates a new timed sensor, using the provided list of sensor readings.
@@ -54,6 +80,12 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * <p>
      * The sensor should be registered as a timed item, see
      * {@link TimedItemManager#registerTimedItem(TimedItem)}.
+     * <p>
+     * The sensor is registered with the singleton manager, so that it
+     * elapses even if it is never added to a room; a room moves the sensors
+     * added to it to its own manager. A sensor that is not wanted after all
+     * stays registered until it is unregistered, unless the singleton holds
+     * items weakly (see {@link TimedItemManager#setWeakRegistration(boolean)}).
      *
      * @param sensorReadings  a non-empty array of sensor readings
      * @param updateFrequency indicates how often the sensor readings updates,
@@ -81,10 +113,10 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
                         "All sensor readings must be non-negative");
             }
         }
-        this.sensorReadings = sensorReadings;
-        this.currentReading = sensorReadings[0];
-        this.updateFrequency = updateFrequency;
-        this.timeElapsed = 0;
+        SensorStore store = SensorStore.of(getClass());
+        this.index = store.allocate(this, sensorReadings, updateFrequency);
+        this.block = store.block(this.index);
+        this.slot = SensorStore.slot(this.index);
         TimedItemManager.getInstance().registerTimedItem(this);
     }
 
@@ -95,9 +127,60 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * @ass1
      */
     public int getCurrentReading() {
-        return this.currentReading;
+        return this.block.readingAt(this.slot, getTimeElapsed());
+    }
+
+    /**
+     * Stores the current reading of each of the given sensors in the given
+     * array, at the same index.
+     * <p>
+     * This gives the same readings as calling {@link #getCurrentReading()}
+     * on each sensor, but reads the minute of each timed item manager only
+     * once for each run of sensors registered with it.
+     *
+     * @param sensors  sensors to read
+     * @param readings array to store the readings in; at least as long as
+     *                 sensors
+     */
+    public static void readCurrentReadings(TimedSensor[] sensors,
+                                           int[] readings) {
+        TimedItemManager lastManager = null;
+        long minute = -1;
+        for (int i = 0; i < sensors.length; i++) {
+            SensorStore.Block block = sensors[i].block;
+            int slot = sensors[i].slot;
+            TimedItemManager manager = block.manager[slot];
+            if (manager != lastManager) {
+                lastManager = manager;
+                minute = manager == null ? -1 : manager.getMinutesElapsed();
+            }
+            readings[i] = block.readingAt(slot,
+                    block.timeElapsedAt(slot, minute));
+        }
     }
 
+    /**
+     * Returns the reading this sensor observes once it has been running for
+     * the given number of minutes.
+     * <p>
+     * Readings cycle through the readings array, each lasting for the update
+     * frequency, so the reading at any time is found directly without
+     * stepping through the minutes in between. The current reading is the
+     * reading at {@link #getTimeElapsed()}.
+     *
+     * @param minute number of minutes the sensor has been running
+     * @return sensor reading at that time
+     * @throws IllegalArgumentException if minute is negative
+     */
+    public int readingAt(long minute) {
+        if (minute < 0) {
+            throw new IllegalArgumentException(
+                    "Minute must be non-negative");
+        }
+        return this.block.readingAt(this.slot, minute);
+    }
+
+
     /**
      * Returns the number of minutes that have elapsed since the sensor was
      * instantiated. Should return 0 immediately after the constructor is
@@ -107,9 +190,12 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * @ass1
      */
     public int getTimeElapsed() {
-        return timeElapsed;
+        TimedItemManager manager = this.block.manager[this.slot];
+        return this.block.timeElapsedAt(this.slot,
+                manager == null ? -1 : manager.getMinutesElapsed());
     }
 
+
     /**
      * Returns the number of minutes in between updates to the current sensor
      * reading.
@@ -118,7 +204,41 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * @ass1
      */
     public int getUpdateFrequency() {
-        return updateFrequency;
+        return this.block.frequency[this.slot];
+    }
+
+    /**
+     * Returns the number of readings in this sensor's readings array.
+     *
+     * @return number of sensor readings
+     */
+    public int getReadingCount() {
+        return this.block.length[this.slot];
+    }
+
+    /**
+     * Returns the reading at the given index in this sensor's readings array.
+     *
+     * @param index index of the reading, from 0 to getReadingCount() - 1
+     * @return sensor reading at that index
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public int getReading(int index) {
+        Objects.checkIndex(index, this.block.length[this.slot]);
+        return this.block.reading(this.slot, index);
+    }
+
+    /**
+     * Returns the index of this sensor's slot in the sensor store for its
+     * class (see {@link SensorStore#of(Class)}).
+     * <p>
+     * This is the index of the sensor's reading in the array returned by
+     * {@link SensorStore#currentReadings()}.
+     *
+     * @return index of this sensor in its store
+     */
+    public int getStoreIndex() {
+        return this.index;
     }
 
     /**
@@ -131,26 +251,217 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * <p>
      * When the end of the sensor readings array is reached, it must start
      * again at the beginning of the array (in other words it wraps around).
+     * <p>
+     * The current reading is worked out from the time elapsed whenever it
+     * is read, so only the time elapsed is stored.
      *
      * @ass1
      */
     public void elapseOneMinute() {
-        this.timeElapsed++;
+        fastForward(1);
+    }
 
-        // calculate the time taken before wrapping around
-        // to the starting value
-        // again
-        int rotationDuration = this.sensorReadings.length
-                * this.updateFrequency;
+    /**
+     * Increments the time elapsed (in minutes) by the given number of
+     * minutes, with the same result as calling {@link #elapseOneMinute()}
+     * that many times.
+     *
+     * @param minutes number of minutes to elapse
+     * @throws IllegalArgumentException if minutes is negative
+     */
+    public void fastForward(int minutes) {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Minutes must be non-negative");
+        }
+        ReadingListener[] listeners = this.listeners;
+        if (listeners.length == 0) {
+            this.block.timeElapsed[this.slot] += minutes;
+            return;
+        }
+        int previous = getCurrentReading();
+        this.block.timeElapsed[this.slot] += minutes;
+        TimedItemManager manager = this.block.manager[this.slot];
+        if (manager != null) {
+            // The reading may now change at a different minute
+            manager.reschedule(this);
+        }
+        if (getCurrentReading() != previous) {
+            notifyListeners(listeners);
+        }
+    }
 
-        // calculate the time remaining in the current rotation
-        int timeRemainingInRotation = this.timeElapsed % rotationDuration;
+    /**
+     * Adds a listener to be notified whenever this sensor's current reading
+     * changes.
+     * <p>
+     * While a sensor has listeners, it asks its timed item manager to bring
+     * it up to date at every minute its reading may change, so that it can
+     * tell the listeners (see {@link #getMinutesUntilDue()}). Sensors
+     * without listeners are never visited by the manager, so listeners
+     * should be removed once they are no longer needed. A sensor that is
+     * not registered with a manager does not change reading by itself, and
+     * only notifies listeners when time is elapsed on it directly.
+     * <p>
+     * Adding a listener that has already been added has no effect.
+     *
+     * @param listener listener to add
+     */
+    public synchronized void addReadingListener(ReadingListener listener) {
+        ReadingListener[] listeners = this.listeners;
+        for (ReadingListener existing : listeners) {
+            if (existing == listener) {
+                return;
+            }
+        }
+        ReadingListener[] added = Arrays.copyOf(listeners,
+                listeners.length + 1);
+        added[listeners.length] = listener;
+        this.listeners = added;
+        TimedItemManager manager = this.block.manager[this.slot];
+        if (listeners.length == 0 && manager != null) {
+            manager.reschedule(this);
+        }
+    }
 
-        // index is time remaining in the current rotation divided by the update
-        // frequency
-        int index = timeRemainingInRotation / this.updateFrequency;
+    /**
+     * Removes a listener added with
+     * {@link #addReadingListener(ReadingListener)}.
+     * <p>
+     * Removing a listener that was not added has no effect.
+     *
+     * @param listener listener to remove
+     */
+    public synchronized void removeReadingListener(ReadingListener listener) {
+        ReadingListener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                ReadingListener[] removed =
+                        new ReadingListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i,
+                        removed.length - i);
+                this.listeners = removed.length == 0 ? NO_LISTENERS : removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tells each of the given listeners that this sensor's current reading
+     * has changed.
+     *
+     * @param listeners listeners to notify
+     */
+    private void notifyListeners(ReadingListener[] listeners) {
+        for (ReadingListener listener : listeners) {
+            listener.readingChanged(this);
+        }
+    }
+
+    /**
+     * Returns the number of minutes until this sensor next needs to be
+     * brought up to date by the timed item manager.
+     * <p>
+     * A sensor's time elapsed and current reading are worked out from the
+     * manager's current minute whenever they are read, without changing the
+     * sensor, so the manager never needs to visit it and the sensor can be
+     * read from any thread. This returns {@link Integer#MAX_VALUE} unless
+     * the sensor has reading listeners (see
+     * {@link #addReadingListener(ReadingListener)}), in which case it
+     * returns the number of minutes until the sensor moves on from its
+     * current reading.
+     *
+     * @return minutes until the current reading may change, or
+     * {@link Integer#MAX_VALUE} if the sensor has no reading listeners
+     */
+    @Override
+    public int getMinutesUntilDue() {
+        if (this.listeners.length == 0) {
+            return Integer.MAX_VALUE;
+        }
+        return this.block.minutesUntilChange(this.slot, getTimeElapsed());
+    }
+
+    /**
+     * Adds every minute between the minute this sensor was last brought up
+     * to and the given minute on the timed item manager to its stored time
+     * elapsed.
+     * <p>
+     * If the current reading is different afterwards, the sensor's reading
+     * listeners are notified.
+     *
+     * @param minute number of minutes elapsed on the timed item manager
+     */
+    @Override
+    public void advanceTo(long minute) {
+        ReadingListener[] listeners = this.listeners;
+        long origin = this.block.managerMinute[this.slot];
+        int elapsed = this.block.timeElapsed[this.slot];
+        if (origin >= 0 && minute > origin) {
+            this.block.timeElapsed[this.slot] =
+                    elapsed + (int) (minute - origin);
+        }
+        this.block.managerMinute[this.slot] = minute;
+        if (listeners.length > 0
+                && this.block.readingAt(this.slot, elapsed)
+                != this.block.readingAt(this.slot,
+                        this.block.timeElapsed[this.slot])) {
+            notifyListeners(listeners);
+        }
+    }
+
+    /**
+     * Records the timed item manager whose minutes are added to this
+     * sensor's time elapsed.
+     *
+     * @param manager manager this sensor is registered with
+     */
+    @Override
+    public void attach(TimedItemManager manager) {
+        this.block.manager[this.slot] = manager;
+    }
+
+    /**
+     * Stops adding the timed item manager's minutes to this sensor's time
+     * elapsed, so its reading stays where it is until it is registered
+     * again.
+     */
+    @Override
+    public void detach() {
+        this.block.managerMinute[this.slot] = -1;
+        this.block.manager[this.slot] = null;
+    }
 
-        this.currentReading = this.sensorReadings[index];
+    /**
+     * Returns the level held by a level cache entry, if the entry is for the
+     * given reading.
+     * <p>
+     * Sensors that work out hazard or comfort levels from their current
+     * reading keep the last reading and the level worked out for it together
+     * in a single long field, so that asking again before the reading
+     * changes costs a comparison, and a thread never sees a level paired
+     * with the wrong reading.
+     *
+     * @param entry   cache entry, as made by {@link #levelEntry(int, int)}
+     * @param reading current reading
+     * @return cached level, or {@link #NOT_CACHED} if the entry is for a
+     * different reading
+     */
+    static int cachedLevel(long entry, int reading) {
+        return (int) (entry >>> 32) == reading ? (int) entry : NOT_CACHED;
+    }
+
+    /**
+     * Returns a level cache entry holding the level worked out for the given
+     * reading.
+     *
+     * @param reading reading the level was worked out for
+     * @param level   level worked out
+     * @return cache entry
+     */
+    static long levelEntry(int reading, int level) {
+        return ((long) reading << 32) | (level & 0xFFFFFFFFL);
     }
 
     /**
@@ -170,10 +481,7 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
     @Override
     public String toString() {
         return String.format("TimedSensor: freq=%d, readings=%s",
-                this.updateFrequency,
-                String.join(",", Arrays.stream(this.sensorReadings)
-                        .mapToObj(String::valueOf)
-                        .toArray(String[]::new)));
+                getUpdateFrequency(), encodeReadings(false));
     }
 
     /**
@@ -200,14 +508,14 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
         }
 
         TimedSensor timedSensor = (TimedSensor) obj;
-        boolean readingEqual = true;
-        for (int i = 0; i < this.sensorReadings.length; i++) {
-            if (this.sensorReadings[i] != timedSensor.sensorReadings[i]) {
+        int count = getReadingCount();
+        boolean readingEqual = count == timedSensor.getReadingCount();
+        for (int i = 0; readingEqual && i < count; i++) {
+            if (getReading(i) != timedSensor.getReading(i)) {
                 readingEqual = false;
-                break;
             }
         }
-        return (this.updateFrequency == timedSensor.updateFrequency
+        return (getUpdateFrequency() == timedSensor.getUpdateFrequency()
                 && readingEqual);
     }
 
@@ -221,8 +529,11 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(this.getClass(), this.updateFrequency,
-                this.sensorReadings);
+        int hash = Objects.hash(this.getClass(), getUpdateFrequency());
+        for (int i = 0; i < getReadingCount(); i++) {
+            hash = 31 * hash + getReading(i);
+        }
+        return hash;
     }
 
     /**
@@ -235,12 +546,58 @@ public abstract class TimedSensor implements TimedItem, Sensor, Encodable {
      * where 'sensorReadingX' is the Xth sensor reading in this sensor's
      * list of readings, from 1 to N where N is the number of readings.
      * There should be no newline at the end of the string.
+     * <p>
+     * If the sensor's readings are stored as runs of equal readings (see
+     * {@link SensorStore}), each run of more than one reading is written as
+     * 'reading*count' instead, for example "22*90,23*45,22" rather than 136
+     * separate readings. Save files may contain either form.
      *
      * @return encoded string representation of this timed sensor
      */
     public String encode() {
-        return String.join(",", Arrays.stream(this.sensorReadings)
-                .mapToObj(String::valueOf)
-                .toArray(String[]::new));
+        return encodeReadings(true);
+    }
+
+    /**
+     * Appends the machine-readable representation of this timed sensor to the
+     * given destination.
+     * <p>
+     * Appends the same characters as {@link TimedSensor#encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    @Override
+    public void encodeTo(Appendable out) throws IOException {
+        this.encodeReadingsTo(out);
+    }
+
+    /**
+     * Returns this sensor's readings, separated by commas.
+     *
+     * @param asRuns true to write runs of equal readings as
+     *               'reading*count', as {@link #encode()} does
+     * @return comma-separated readings
+     */
+    private String encodeReadings(boolean asRuns) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            this.block.appendReadings(this.slot, builder, asRuns);
+        } catch (IOException e) {
+            // StringBuilder.append() never throws
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends this sensor's readings, separated by commas, to the given
+     * destination, in the form written by {@link #encode()}.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    protected void encodeReadingsTo(Appendable out) throws IOException {
+        this.block.appendReadings(this.slot, out, true);
     }
 }
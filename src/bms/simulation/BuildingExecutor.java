@@ -0,0 +1,152 @@
+package bms.simulation;
+
+import bms.building.Building;
+import bms.util.TimedItemManager;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Elapses time on each building on a thread of its own.
+ * <p>
+ * Fire drills, maintenance and sensors never cross buildings, so each
+ * building is given its own {@link TimedItemManager} (see
+ * {@link Building#setTimedItemManager(TimedItemManager)}), and the buildings'
+ * managers are elapsed concurrently. Each call waits for every building to
+ * finish before it returns, so all buildings are at the same minute between
+ * calls. Items that do not belong to any building stay with the singleton
+ * manager, which is elapsed on the calling thread at the same time.
+ * <p>
+ * Where the Java runtime supports virtual threads, each building is
+ * elapsed on a new virtual thread. Otherwise the buildings share a pool of
+ * platform threads, one per available processor.
+ */
+public class BuildingExecutor implements AutoCloseable {
+    /**
+     * Buildings being elapsed.
+     */
+    private List<Building> buildings;
+
+    /**
+     * Runs the task for each building.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Whether the executor starts a virtual thread for each task.
+     */
+    private boolean virtual;
+
+    /**
+     * Creates a new executor for the given buildings.
+     * <p>
+     * Buildings are given their own timed item managers the first time they
+     * are elapsed, so buildings added to the list later are included too.
+     *
+     * @param buildings buildings to elapse
+     */
+    public BuildingExecutor(List<Building> buildings) {
+        this.buildings = buildings;
+        this.executor = createVirtualExecutor();
+        this.virtual = this.executor != null;
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), runnable -> {
+                        Thread thread = new Thread(runnable, "bms-building");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task, if
+     * the Java runtime has them.
+     *
+     * @return virtual thread executor, or null if virtual threads are not
+     * available
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            // Looked up at run time, since virtual threads need Java 21
+            Method method = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether buildings are elapsed on virtual threads.
+     *
+     * @return true if each building is elapsed on a new virtual thread,
+     * false if platform threads are shared
+     */
+    public boolean usesVirtualThreads() {
+        return this.virtual;
+    }
+
+    /**
+     * Elapses the given number of minutes on every building, each on its own
+     * thread, and on the singleton timed item manager.
+     * <p>
+     * Returns once every building has been elapsed. If elapsing a building
+     * fails, the first failure is thrown once all buildings have finished.
+     *
+     * @param minutes number of minutes to elapse
+     * @throws IllegalArgumentException if minutes is negative
+     * @throws InterruptedException     if the thread is interrupted while
+     *                                  waiting for the buildings
+     */
+    public void elapseMinutes(int minutes) throws InterruptedException {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Minutes must be non-negative");
+        }
+        TimedItemManager singleton = TimedItemManager.getInstance();
+        List<Future<?>> results = new ArrayList<>(this.buildings.size());
+        for (Building building : this.buildings) {
+            if (building.getTimedItemManager() == singleton) {
+                building.setTimedItemManager(new TimedItemManager());
+            }
+            TimedItemManager manager = building.getTimedItemManager();
+            results.add(this.executor.submit(
+                    () -> manager.elapseMinutes(minutes)));
+        }
+        singleton.elapseMinutes(minutes);
+
+        Throwable failure = null;
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Moves every building's timed items back to the singleton timed item
+     * manager, and stops the threads used to elapse them.
+     */
+    @Override
+    public void close() {
+        for (Building building : this.buildings) {
+            building.setTimedItemManager(TimedItemManager.getInstance());
+        }
+        this.executor.shutdown();
+    }
+}
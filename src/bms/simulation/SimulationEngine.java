@@ -0,0 +1,321 @@
+package bms.simulation;
+
+import bms.building.Building;
+import bms.building.BuildingWriter;
+import bms.exceptions.FileFormatException;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomState;
+import bms.util.TimedItemManager;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the building simulation without a user interface.
+ * <p>
+ * The engine advances the {@link TimedItemManager}, and with it every sensor
+ * and maintenance schedule, either as fast as possible or at a fixed number
+ * of simulated minutes per wall-clock second. At a regular interval of
+ * simulated minutes it evaluates the state of every room (see
+ * {@link Room#evaluateRoomState()}) and counts how often each state was
+ * seen, so that long runs can be summarised without keeping every result.
+ * <p>
+ * Minutes between samples are elapsed as one jump with
+ * {@link TimedItemManager#elapseMinutes(int)}, so running as fast as
+ * possible costs little more than the samples themselves and the minutes at
+ * which maintenance schedules are due.
+ */
+public class SimulationEngine {
+    /**
+     * Number of simulated minutes between room state samples if no other
+     * interval is set.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 60;
+
+    /**
+     * Buildings being simulated.
+     */
+    private List<Building> buildings;
+
+    /**
+     * Simulated minutes per wall-clock second; 0 to run as fast as possible.
+     */
+    private double speed;
+
+    /**
+     * Whether each building is elapsed on a thread of its own.
+     */
+    private boolean perBuilding;
+
+    /**
+     * Simulated minutes between room state samples; 0 to take no samples.
+     */
+    private int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+    /**
+     * Number of simulated minutes run so far.
+     */
+    private long minutesRun;
+
+    /**
+     * Number of times the room states have been sampled.
+     */
+    private long sampleCount;
+
+    /**
+     * Number of rooms seen in each state, over all samples.
+     */
+    private Map<RoomState, Long> stateCounts = new EnumMap<>(RoomState.class);
+
+    /**
+     * Creates a new engine simulating the given buildings.
+     * <p>
+     * The buildings' sensors and maintenance schedules must be registered
+     * with the timed item manager, as they are when loaded from a save file.
+     *
+     * @param buildings buildings to simulate
+     */
+    public SimulationEngine(List<Building> buildings) {
+        this.buildings = buildings;
+        for (RoomState state : RoomState.values()) {
+            this.stateCounts.put(state, 0L);
+        }
+    }
+
+    /**
+     * Sets how fast the simulation runs.
+     * <p>
+     * The graphical interface runs at one simulated minute per second. A
+     * speed of 0 runs the simulation as fast as possible.
+     *
+     * @param minutesPerSecond simulated minutes per wall-clock second, or 0
+     *                         for as fast as possible
+     * @throws IllegalArgumentException if the speed is negative or not a
+     *                                  number
+     */
+    public void setSpeed(double minutesPerSecond) {
+        if (!(minutesPerSecond >= 0)) {
+            throw new IllegalArgumentException(
+                    "Speed must be non-negative");
+        }
+        this.speed = minutesPerSecond;
+    }
+
+    /**
+     * Returns how fast the simulation runs.
+     *
+     * @return simulated minutes per wall-clock second, or 0 for as fast as
+     * possible
+     */
+    public double getSpeed() {
+        return this.speed;
+    }
+
+    /**
+     * Sets whether each building is elapsed on a thread of its own, using a
+     * {@link BuildingExecutor}, rather than all together on the calling
+     * thread.
+     * <p>
+     * Each building is given its own timed item manager for the duration of
+     * a run, so campuses of many buildings can use every processor.
+     *
+     * @param perBuilding true to elapse buildings concurrently
+     */
+    public void setPerBuildingThreads(boolean perBuilding) {
+        this.perBuilding = perBuilding;
+    }
+
+    /**
+     * Returns whether each building is elapsed on a thread of its own.
+     *
+     * @return true if buildings are elapsed concurrently
+     */
+    public boolean isPerBuildingThreads() {
+        return this.perBuilding;
+    }
+
+    /**
+     * Sets the number of simulated minutes between room state samples.
+     * <p>
+     * Each sample evaluates every room in every building, which reads the
+     * floors of buildings that were loaded lazily.
+     *
+     * @param minutes minutes between samples, or 0 to take no samples
+     * @throws IllegalArgumentException if minutes is negative
+     */
+    public void setSampleInterval(int minutes) {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Sample interval must be non-negative");
+        }
+        this.sampleInterval = minutes;
+    }
+
+    /**
+     * Returns the number of simulated minutes between room state samples.
+     *
+     * @return minutes between samples, or 0 if no samples are taken
+     */
+    public int getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    /**
+     * Runs the simulation for the given number of simulated minutes.
+     * <p>
+     * Room states are sampled whenever the total number of minutes run by
+     * this engine reaches a multiple of the sample interval. If a speed has
+     * been set, this method sleeps as needed to keep to it.
+     *
+     * @param minutes number of minutes to simulate
+     * @throws IllegalArgumentException if minutes is negative
+     * @throws InterruptedException     if the thread is interrupted while
+     *                                  waiting to keep to the set speed
+     */
+    public void run(long minutes) throws InterruptedException {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Minutes must be non-negative");
+        }
+        BuildingExecutor executor = this.perBuilding
+                ? new BuildingExecutor(this.buildings) : null;
+        try {
+            run(minutes, executor);
+        } finally {
+            if (executor != null) {
+                executor.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the simulation for the given number of simulated minutes, as
+     * described in {@link SimulationEngine#run(long)}.
+     *
+     * @param minutes  number of minutes to simulate
+     * @param executor executor to elapse the buildings with, or null to
+     *                 elapse the singleton timed item manager directly
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void run(long minutes, BuildingExecutor executor)
+            throws InterruptedException {
+        TimedItemManager manager = TimedItemManager.getInstance();
+        long startTime = System.nanoTime();
+        long done = 0;
+        while (done < minutes) {
+            long step = minutes - done;
+            if (this.sampleInterval > 0) {
+                step = Math.min(step, this.sampleInterval
+                        - this.minutesRun % this.sampleInterval);
+            }
+            if (this.speed > 0) {
+                step = Math.min(step, waitForMinutes(startTime, done));
+            }
+            step = Math.min(step, Integer.MAX_VALUE);
+
+            if (executor != null) {
+                executor.elapseMinutes((int) step);
+            } else {
+                manager.elapseMinutes((int) step);
+            }
+            done += step;
+            this.minutesRun += step;
+            if (this.sampleInterval > 0
+                    && this.minutesRun % this.sampleInterval == 0) {
+                sample();
+            }
+        }
+    }
+
+    /**
+     * Waits until at least one more minute is due at the set speed, and
+     * returns the number of minutes that are due.
+     *
+     * @param startTime value of System.nanoTime() when the run started
+     * @param done      minutes simulated so far in this run
+     * @return number of minutes that may now be simulated; at least 1
+     * @throws InterruptedException if the thread is interrupted while
+     *                              waiting
+     */
+    private long waitForMinutes(long startTime, long done)
+            throws InterruptedException {
+        while (true) {
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            long due = (long) (seconds * this.speed) - done;
+            if (due > 0) {
+                return due;
+            }
+            double wait = (done + 1) / this.speed - seconds;
+            Thread.sleep(Math.max(1, (long) Math.ceil(wait * 1000)));
+        }
+    }
+
+    /**
+     * Evaluates the state of every room in every building, and counts the
+     * states seen.
+     */
+    private void sample() {
+        for (Building building : this.buildings) {
+            for (Floor floor : building.getFloors()) {
+                for (Room room : floor.getRooms()) {
+                    this.stateCounts.merge(room.evaluateRoomState(), 1L,
+                            Long::sum);
+                }
+            }
+        }
+        this.sampleCount++;
+    }
+
+    /**
+     * Returns the number of simulated minutes this engine has run.
+     *
+     * @return minutes run
+     */
+    public long getMinutesRun() {
+        return this.minutesRun;
+    }
+
+    /**
+     * Returns the number of times the room states have been sampled.
+     *
+     * @return number of samples taken
+     */
+    public long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * Returns the number of rooms seen in each state, over all samples.
+     * <p>
+     * Adding or removing elements from the returned map should not affect
+     * the original map.
+     *
+     * @return count of rooms seen in each room state
+     */
+    public Map<RoomState, Long> getRoomStateCounts() {
+        return new EnumMap<>(this.stateCounts);
+    }
+
+    /**
+     * Saves the simulated buildings, in their current state, to the file
+     * with the given name.
+     * <p>
+     * Buildings that were loaded lazily and have not been used are read
+     * first, which brings their sensors up to the current minute.
+     *
+     * @param filename path of the file to save to
+     * @throws IOException         if the buildings could not be written
+     * @throws FileFormatException if a lazily loaded building's record is
+     *                             not in the expected format
+     */
+    public void writeSnapshot(String filename)
+            throws IOException, FileFormatException {
+        for (Building building : this.buildings) {
+            building.load();
+        }
+        BuildingWriter.save(this.buildings, filename);
+    }
+}
@@ -1,5 +1,7 @@
 package bms.util;
 
+import java.io.IOException;
+
 public interface Encodable {
     /**
      * Returns the String representation of the current state of this object.
@@ -7,4 +9,20 @@ public interface Encodable {
      * @return encoded String representation
      */
     String encode();
+
+    /**
+     * Appends the String representation of the current state of this object
+     * to the given destination.
+     * <p>
+     * The characters appended are identical to those returned by
+     * {@link #encode()}. Implementations should write directly to the
+     * destination rather than building an intermediate String, so that large
+     * objects can be streamed to a writer.
+     *
+     * @param out destination to append to
+     * @throws IOException if appending to the destination fails
+     */
+    default void encodeTo(Appendable out) throws IOException {
+        out.append(this.encode());
+    }
 }
@@ -0,0 +1,170 @@
+package bms.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Static helpers for writing the machine-readable encoding of objects
+ * (see {@link Encodable}) directly to an {@link Appendable}.
+ * <p>
+ * The numeric helpers produce exactly the same characters as the
+ * {@code String.valueOf()} and {@code String.format()} calls they replace,
+ * but do not allocate a String for every number appended.
+ */
+public final class EncodeFormat {
+    /**
+     * Largest magnitude of a value formatted to two decimal places without
+     * falling back to {@code String.format()}.
+     */
+    private static final double MAX_FAST_DECIMAL = 1e15;
+
+    /**
+     * Last default format locale found to use ASCII digits and a '.' decimal
+     * separator.
+     */
+    private static volatile Locale plainLocale;
+    /**
+     * Last default format locale found not to use ASCII digits and a '.'
+     * decimal separator.
+     */
+    private static volatile Locale localisedLocale;
+
+    /**
+     * Not instantiable.
+     */
+    private EncodeFormat() {
+    }
+
+    /**
+     * Returns the encoded representation of the given object, by appending
+     * it to a new StringBuilder.
+     *
+     * @param encodable object to encode
+     * @return encoded string representation of the object
+     */
+    public static String encode(Encodable encodable) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            encodable.encodeTo(builder);
+        } catch (IOException e) {
+            // StringBuilder.append() never throws
+            throw new UncheckedIOException(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends the given int as by {@code String.valueOf(value)}.
+     *
+     * @param out   destination to append to
+     * @param value value to append
+     * @throws IOException if appending to the destination fails
+     */
+    public static void appendInt(Appendable out, int value)
+            throws IOException {
+        appendLong(out, value);
+    }
+
+    /**
+     * Appends the given int as by {@code String.format("%d", value)}, i.e.
+     * using the digits of the default format locale.
+     *
+     * @param out   destination to append to
+     * @param value value to append
+     * @throws IOException if appending to the destination fails
+     */
+    public static void appendFormattedInt(Appendable out, int value)
+            throws IOException {
+        if (hasPlainDigits()) {
+            appendLong(out, value);
+        } else {
+            out.append(String.format("%d", value));
+        }
+    }
+
+    /**
+     * Appends the given double formatted to two decimal places, as by
+     * {@code String.format("%.2f", value)}.
+     * <p>
+     * Values that are exactly representable with two decimal places (such as
+     * floor dimensions and room areas entered by users) are appended without
+     * allocation; any other value falls back to {@code String.format()} so
+     * that rounding is identical.
+     *
+     * @param out   destination to append to
+     * @param value value to append
+     * @throws IOException if appending to the destination fails
+     */
+    public static void appendTwoDecimals(Appendable out, double value)
+            throws IOException {
+        // sign bit clear excludes negative values and -0.0
+        if (Double.doubleToRawLongBits(value) >= 0
+                && value < MAX_FAST_DECIMAL && hasPlainDigits()) {
+            long hundredths = Math.round(value * 100);
+            if (hundredths / 100.0 == value) {
+                appendLong(out, hundredths / 100);
+                out.append('.');
+                long fraction = hundredths % 100;
+                out.append((char) ('0' + fraction / 10));
+                out.append((char) ('0' + fraction % 10));
+                return;
+            }
+        }
+        out.append(String.format("%.2f", value));
+    }
+
+    /**
+     * Appends the decimal digits of the given long, preceded by '-' if it is
+     * negative.
+     *
+     * @param out   destination to append to
+     * @param value value to append
+     * @throws IOException if appending to the destination fails
+     */
+    private static void appendLong(Appendable out, long value)
+            throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                out.append(String.valueOf(value));
+                return;
+            }
+            out.append('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.append((char) ('0' + value / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Returns whether the default format locale uses ASCII digits and '.' as
+     * its decimal separator, so that String.format() output can be
+     * reproduced without calling it.
+     *
+     * @return true if numbers can be appended directly
+     */
+    private static boolean hasPlainDigits() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (locale == plainLocale) {
+            return true;
+        }
+        if (locale == localisedLocale) {
+            return false;
+        }
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        if (symbols.getZeroDigit() == '0'
+                && symbols.getDecimalSeparator() == '.') {
+            plainLocale = locale;
+            return true;
+        }
+        localisedLocale = locale;
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package bms.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Unsynchronised, buffered Appendable that passes characters on to a
+ * {@link Writer} in large blocks.
+ * <p>
+ * {@link Encodable#encodeTo(Appendable)} appends most of its output a few
+ * characters at a time. Appending directly to a {@link java.io.BufferedWriter}
+ * takes the writer's lock for every call, and appending a CharSequence to
+ * a Writer copies it into a new String first; this class avoids both, so
+ * encoded objects can be streamed to a file without intermediate Strings.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class EncodeWriter implements Appendable, Flushable, Closeable {
+    /**
+     * Default size of the character buffer.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writer that buffered characters are written to.
+     */
+    private final Writer writer;
+    /**
+     * Characters not yet written to the writer.
+     */
+    private final char[] buffer;
+    /**
+     * Number of characters in the buffer.
+     */
+    private int count;
+
+    /**
+     * Creates a new encode writer writing to the given writer.
+     *
+     * @param writer writer to write to; closed when this writer is closed
+     */
+    public EncodeWriter(Writer writer) {
+        this.writer = writer;
+        this.buffer = new char[DEFAULT_BUFFER_SIZE];
+        this.count = 0;
+    }
+
+    /**
+     * Appends the given character sequence.
+     *
+     * @param csq character sequence to append; "null" is appended if null
+     * @return this writer
+     * @throws IOException if writing to the underlying writer fails
+     */
+    @Override
+    public EncodeWriter append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        return this.append(csq, 0, csq.length());
+    }
+
+    /**
+     * Appends a subsequence of the given character sequence.
+     *
+     * @param csq   character sequence to append; "null" is appended if null
+     * @param start index of the first character to append
+     * @param end   index after the last character to append
+     * @return this writer
+     * @throws IOException if writing to the underlying writer fails
+     */
+    @Override
+    public EncodeWriter append(CharSequence csq, int start, int end)
+            throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        while (start < end) {
+            if (this.count == this.buffer.length) {
+                this.flushBuffer();
+            }
+            int length = Math.min(end - start,
+                    this.buffer.length - this.count);
+            if (csq instanceof String) {
+                ((String) csq).getChars(start, start + length,
+                        this.buffer, this.count);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(start, start + length,
+                        this.buffer, this.count);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    this.buffer[this.count + i] = csq.charAt(start + i);
+                }
+            }
+            this.count += length;
+            start += length;
+        }
+        return this;
+    }
+
+    /**
+     * Appends the given character.
+     *
+     * @param c character to append
+     * @return this writer
+     * @throws IOException if writing to the underlying writer fails
+     */
+    @Override
+    public EncodeWriter append(char c) throws IOException {
+        if (this.count == this.buffer.length) {
+            this.flushBuffer();
+        }
+        this.buffer[this.count++] = c;
+        return this;
+    }
+
+    /**
+     * Writes any buffered characters and flushes the underlying writer.
+     *
+     * @throws IOException if writing to the underlying writer fails
+     */
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        this.writer.flush();
+    }
+
+    /**
+     * Writes any buffered characters and closes the underlying writer.
+     *
+     * @throws IOException if writing to the underlying writer fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flushBuffer();
+        } finally {
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Writes the buffered characters to the underlying writer.
+     *
+     * @throws IOException if writing to the underlying writer fails
+     */
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.writer.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+}
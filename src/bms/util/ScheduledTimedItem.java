@@ -0,0 +1,68 @@
+package bms.util;
+
+/**
+ * Denotes a timed item which only needs to be updated at particular
+ * minutes, rather than every minute.
+ * <p>
+ * When registered with the {@link TimedItemManager}, a scheduled item is
+ * brought up to date by {@link #advanceTo(long)} at the minutes it asks for
+ * through {@link #getMinutesUntilDue()}, instead of having
+ * {@link #elapseOneMinute()} called every minute. In between, the item must
+ * work out any time-dependent values it reports from the manager's current
+ * minute (see {@link TimedItemManager#getMinutesElapsed()}), so that it
+ * reports the same values as it would if it had been updated every minute.
+ * Since there may be more than one manager, the manager the item is
+ * registered with is passed to {@link #attach(TimedItemManager)}.
+ * <p>
+ * Calling {@link #elapseOneMinute()} directly still elapses one extra
+ * minute on the item, on top of the minutes elapsed on the manager.
+ */
+public interface ScheduledTimedItem extends TimedItem {
+    /**
+     * Returns the number of minutes until this item next needs to be
+     * brought up to date, counting from the manager's current minute.
+     * <p>
+     * This is the number of minutes until the item's state next changes in
+     * a way that cannot be worked out later, such as a maintenance schedule
+     * checking its current room. Items whose state can always be worked out
+     * from the manager's current minute are never due.
+     *
+     * @return minutes until this item is next due; at least 1, or
+     * {@link Integer#MAX_VALUE} if it is never due
+     */
+    int getMinutesUntilDue();
+
+    /**
+     * Brings this item up to date with the given minute on the manager, as
+     * if {@link #elapseOneMinute()} had been called once for every minute
+     * since it was last brought up to date.
+     * <p>
+     * The first call records the minute at which the item was registered,
+     * and does not elapse any time.
+     *
+     * @param minute number of minutes elapsed on the manager; never less
+     *               than the minute given to the previous call
+     */
+    void advanceTo(long minute);
+
+    /**
+     * Records the manager this item has been registered with, whose minutes
+     * it follows from now on.
+     * <p>
+     * This is called by the manager when the item is registered, before the
+     * first call to {@link #advanceTo(long)}.
+     *
+     * @param manager manager the item is registered with
+     */
+    void attach(TimedItemManager manager);
+
+    /**
+     * Stops this item from following the manager's minutes, after it has
+     * been brought up to date and unregistered.
+     * <p>
+     * The item keeps the state it has now until it is registered again, when
+     * the next call to {@link #advanceTo(long)} records the minute it was
+     * registered at.
+     */
+    void detach();
+}
@@ -12,4 +12,21 @@ public interface TimedItem {
      * @ass1
      */
     void elapseOneMinute();
+
+    /**
+     * Returns whether elapsing this item reads the state of other timed
+     * items, such as a schedule that checks the sensors in a room.
+     * <p>
+     * The timed item manager elapses such items one at a time, after every
+     * other item has been elapsed for the minute, so they always see the
+     * other items' values for the new minute. Items that return false may be
+     * elapsed concurrently with each other, and must not read or change any
+     * other timed item while being elapsed.
+     *
+     * @return true if this item reads other timed items when elapsed; false
+     * by default
+     */
+    default boolean readsOtherTimedItems() {
+        return false;
+    }
 }
@@ -1,11 +1,24 @@
 package bms.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 /**
  * Singleton class which manages all the timed items.
  * <p>
+ * Besides the singleton, further managers can be created for groups of
+ * items that are elapsed separately from the rest, such as the items in one
+ * building. Each manager counts its own minutes.
+ * <p>
  * All classes that implement TimedItem must be registered with this manager,
  * which will allow their {@link TimedItemManager#elapseOneMinute()} method to
  * be called at regular time intervals.
@@ -13,7 +26,35 @@ import java.util.List;
  * Once a class is registered with the timed item manager by calling
  * {@link TimedItemManager#registerTimedItem(TimedItem)} ()} and passing itself,
  * the manager will ensure that its {@code elapseOneMinute()} method is called
- * at regular intervals.
+ * at regular intervals, until it is unregistered with
+ * {@link TimedItemManager#unregisterTimedItem(TimedItem)}.
+ * <p>
+ * Items that implement {@link ScheduledTimedItem} are instead kept in a
+ * hierarchical timing wheel, keyed by the minute at which each is next due,
+ * so that a minute only visits the items that are due in that minute. The
+ * wheel has {@value #WHEEL_LEVELS} levels of {@value #WHEEL_SLOTS} slots:
+ * level 0 holds items due in the next {@value #WHEEL_SLOTS} minutes, one
+ * slot per minute, and each level above covers {@value #WHEEL_SLOTS} times
+ * as long per slot. When the slots of a level wrap around, the next slot of
+ * the level above is emptied back into the wheel. Scheduled items that are
+ * never due are only recorded as registered.
+ * <p>
+ * Each minute is elapsed in two phases. First, every item that does not
+ * read other timed items (see {@link TimedItem#readsOtherTimedItems()}) is
+ * elapsed; if a parallelism above one has been set with
+ * {@link #setParallelism(int)}, these items are split into shards that are
+ * elapsed concurrently on a pool of worker threads. Once every shard has
+ * finished, the items that do read other items are elapsed one at a time
+ * on the calling thread. Threads other than the one elapsing the minute
+ * (and its workers) see the previous minute from
+ * {@link #getMinutesElapsed()} until both phases are complete, so they
+ * never see a partly elapsed minute.
+ * <p>
+ * By default the manager holds every registered item strongly, so items
+ * stay registered until they are unregistered. In weak registration mode
+ * (see {@link #setWeakRegistration(boolean)}) items are only held weakly,
+ * and an item that is no longer reachable from anywhere else is dropped
+ * once it has been garbage collected.
  * @ass1
  */
 public class TimedItemManager implements TimedItem {
@@ -23,16 +64,135 @@ public class TimedItemManager implements TimedItem {
     private static TimedItemManager instance = new TimedItemManager();
 
     /**
-     * List of timed items currently registered with the manager.
+     * Number of bits of a minute used to pick a slot within one level of
+     * the timing wheel.
+     */
+    private static final int WHEEL_BITS = 6;
+    /**
+     * Number of slots in each level of the timing wheel.
+     */
+    private static final int WHEEL_SLOTS = 1 << WHEEL_BITS;
+    /**
+     * Number of levels in the timing wheel.
+     */
+    private static final int WHEEL_LEVELS = 4;
+    /**
+     * Longest time ahead an item can be scheduled; items due later are
+     * visited early and scheduled again.
+     */
+    private static final int MAX_DELAY =
+            (1 << (WHEEL_BITS * WHEEL_LEVELS)) - 1;
+    /**
+     * Smallest number of items elapsed in one phase that is worth splitting
+     * across worker threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * Slot recorded for registered items that are not in the wheel.
+     */
+    private static final int NOT_IN_WHEEL = -1;
+
+    /**
+     * Entries for the timed items currently registered with the manager
+     * that are not scheduled items and do not read other items, and so are
+     * called every minute.
+     * <p>
+     * Entries here and in the wheel are either the item itself or, in weak
+     * registration mode, an ItemReference to it.
      */
-    private List<TimedItem> timedItems;
+    private List<Object> timedItems;
+
+    /**
+     * Entries for the timed items currently registered with the manager
+     * that are not scheduled items and read other items when elapsed.
+     */
+    private List<Object> dependentItems;
+
+    /**
+     * Timing wheel of entries for scheduled items, indexed by level and then
+     * slot.
+     */
+    private List<List<Object>> wheel;
+
+    /**
+     * Every registered item, compared by identity, if items are held
+     * strongly; null in weak registration mode.
+     * <p>
+     * Each item is mapped to the position of its entry in the wheel, so
+     * that an item can be taken out of the wheel without searching it.
+     */
+    private Map<TimedItem, Position> strongRegistry;
+
+    /**
+     * A reference to every registered item, mapped to the position of its
+     * entry in the wheel, if items are held weakly; null otherwise.
+     */
+    private Map<ItemReference, Position> weakRegistry;
+
+    /**
+     * Queue to which references to weakly held items are added once the
+     * items have been garbage collected.
+     */
+    private ReferenceQueue<TimedItem> collected = new ReferenceQueue<>();
+
+    /**
+     * Number of weakly held items that have been garbage collected without
+     * being unregistered.
+     */
+    private long collectedCount;
+
+    /**
+     * Number of minutes completed by
+     * {@link TimedItemManager#elapseOneMinute()} and
+     * {@link TimedItemManager#elapseMinutes(int)}.
+     */
+    private volatile long minutesElapsed;
+
+    /**
+     * Minute the wheel has reached; ahead of minutesElapsed while minutes
+     * are being elapsed.
+     */
+    private long wheelMinute;
+
+    /**
+     * Thread currently elapsing a minute; null between minutes.
+     */
+    private volatile Thread tickThread;
+
+    /**
+     * Number of threads that items which do not read other items are
+     * elapsed on.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Worker threads for elapsing items concurrently; null if parallelism
+     * is one.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Due scheduled items that do not read other items, gathered while
+     * elapsing a minute.
+     */
+    private List<ScheduledTimedItem> dueItems = new ArrayList<>();
 
     /**
      * Creates a new timed item manager with an empty list of registered items.
+     * <p>
+     * Most items are registered with the singleton instance (see
+     * {@link #getInstance()}); other managers are only needed to elapse a
+     * group of items on its own.
      * @ass1
      */
-    private TimedItemManager() {
+    public TimedItemManager() {
         this.timedItems = new ArrayList<>();
+        this.dependentItems = new ArrayList<>();
+        this.wheel = new ArrayList<>(WHEEL_LEVELS * WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_LEVELS * WHEEL_SLOTS; i++) {
+            this.wheel.add(new ArrayList<>());
+        }
+        this.strongRegistry = new IdentityHashMap<>();
     }
 
     /**
@@ -50,22 +210,780 @@ public class TimedItemManager implements TimedItem {
      * <p>
      * After calling this method, the manager will call the given timed item's
      * {@code elapseOneMinute()} method at regular intervals.
+     * <p>
+     * Registration is thread-safe, so timed items may be created on several
+     * threads at once (for example while buildings are loaded in parallel).
+     * Registering an item that is already registered has no effect.
      *
      * @param timedItem a timed item to register with the manager
      * @ass1
      */
-    public void registerTimedItem(TimedItem timedItem) {
-        this.timedItems.add(timedItem);
+    public synchronized void registerTimedItem(TimedItem timedItem) {
+        Object entry;
+        if (this.weakRegistry != null) {
+            ItemReference reference =
+                    new ItemReference(timedItem, this.collected);
+            if (this.weakRegistry.putIfAbsent(reference, new Position())
+                    != null) {
+                return;
+            }
+            entry = reference;
+        } else {
+            if (this.strongRegistry.putIfAbsent(timedItem, new Position())
+                    != null) {
+                return;
+            }
+            entry = timedItem;
+        }
+
+        if (timedItem instanceof ScheduledTimedItem) {
+            ScheduledTimedItem item = (ScheduledTimedItem) timedItem;
+            item.attach(this);
+            item.advanceTo(this.wheelMinute);
+            schedule(entry, item.getMinutesUntilDue());
+        } else if (timedItem.readsOtherTimedItems()) {
+            this.dependentItems.add(entry);
+        } else {
+            this.timedItems.add(entry);
+        }
+    }
+
+    /**
+     * Unregisters a timed item, so that the manager no longer elapses it or
+     * holds a reference to it.
+     * <p>
+     * A scheduled item is first brought up to the current minute, and then
+     * detached (see {@link ScheduledTimedItem#detach()}), so it keeps the
+     * state it has now. Unregistering an item that is not registered has
+     * no effect.
+     * <p>
+     * Every-minute items are found by searching, so this is quickest for
+     * scheduled items, whose position in the wheel is recorded.
+     *
+     * @param timedItem timed item to unregister
+     * @return true if the item was registered
+     */
+    public synchronized boolean unregisterTimedItem(TimedItem timedItem) {
+        Position position = this.weakRegistry != null
+                ? this.weakRegistry.remove(new ItemReference(timedItem, null))
+                : this.strongRegistry.remove(timedItem);
+        if (position == null) {
+            return false;
+        }
+
+        if (timedItem instanceof ScheduledTimedItem) {
+            ScheduledTimedItem item = (ScheduledTimedItem) timedItem;
+            removeFromWheel(item, position);
+            item.advanceTo(this.wheelMinute);
+            item.detach();
+        } else {
+            removeEntry(this.timedItems, timedItem);
+            removeEntry(this.dependentItems, timedItem);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the given timed item is currently registered.
+     *
+     * @param timedItem timed item to look for
+     * @return true if the item is registered
+     */
+    public synchronized boolean isRegistered(TimedItem timedItem) {
+        return this.weakRegistry != null
+                ? this.weakRegistry.containsKey(
+                        new ItemReference(timedItem, null))
+                : this.strongRegistry.containsKey(timedItem);
+    }
+
+    /**
+     * Returns the number of items registered with the manager.
+     * <p>
+     * In weak registration mode, this includes items that have been garbage
+     * collected since the last minute was elapsed; the difference from
+     * {@link #getLiveCount()} is the number of such items.
+     *
+     * @return number of registered items
+     */
+    public synchronized int getRegisteredCount() {
+        return this.weakRegistry != null ? this.weakRegistry.size()
+                : this.strongRegistry.size();
+    }
+
+    /**
+     * Returns the number of registered items that have not been garbage
+     * collected.
+     * <p>
+     * Items held strongly cannot be collected, so this is the same as
+     * {@link #getRegisteredCount()} unless weak registration is in use.
+     *
+     * @return number of registered items still in memory
+     */
+    public synchronized int getLiveCount() {
+        if (this.weakRegistry == null) {
+            return this.strongRegistry.size();
+        }
+        int live = 0;
+        for (ItemReference reference : this.weakRegistry.keySet()) {
+            if (reference.get() != null) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Returns the number of weakly held items that have been garbage
+     * collected and dropped without having been unregistered.
+     *
+     * @return number of collected items dropped so far
+     */
+    public synchronized long getCollectedCount() {
+        return this.collectedCount;
+    }
+
+    /**
+     * Sets whether registered items are held weakly.
+     * <p>
+     * Weak registration suits long-running processes where items may be
+     * discarded without being unregistered, such as sensors created for a
+     * room that was then replaced, or while loading a file that turned out
+     * to be invalid: such items are dropped once they are garbage collected.
+     * Items must then be kept reachable by the model for as long as they
+     * should be elapsed. Items already registered are kept, and are held in
+     * the new way from now on.
+     *
+     * @param weak true to hold registered items weakly, false to hold them
+     *             strongly
+     */
+    public synchronized void setWeakRegistration(boolean weak) {
+        if (weak == (this.weakRegistry != null)) {
+            return;
+        }
+        if (weak) {
+            this.weakRegistry = new HashMap<>();
+            for (Map.Entry<TimedItem, Position> registered
+                    : this.strongRegistry.entrySet()) {
+                this.weakRegistry.put(new ItemReference(registered.getKey(),
+                        this.collected), registered.getValue());
+            }
+            this.strongRegistry = null;
+        } else {
+            this.strongRegistry = new IdentityHashMap<>();
+            for (Map.Entry<ItemReference, Position> registered
+                    : this.weakRegistry.entrySet()) {
+                TimedItem item = registered.getKey().get();
+                if (item != null) {
+                    this.strongRegistry.put(item, registered.getValue());
+                }
+            }
+            this.weakRegistry = null;
+        }
+        convertEntries(this.timedItems);
+        convertEntries(this.dependentItems);
+        for (List<Object> slot : this.wheel) {
+            convertEntries(slot);
+        }
     }
 
     /**
-     * Calls {@code elapseOneMinute()} on each registered timed item.
+     * Returns whether registered items are held weakly.
+     *
+     * @return true if weak registration is in use
+     */
+    public synchronized boolean isWeakRegistration() {
+        return this.weakRegistry != null;
+    }
+
+    /**
+     * Sets the number of threads that items which do not read other items
+     * are elapsed on each minute.
+     * <p>
+     * With a parallelism of one (the default), every item is elapsed on the
+     * thread calling {@link TimedItemManager#elapseOneMinute()}. Above one,
+     * a pool of that many daemon worker threads is started, and minutes
+     * with at least {@value #PARALLEL_THRESHOLD} such items due are split
+     * across it.
+     *
+     * @param threads number of threads to use; at least one
+     * @throws IllegalArgumentException if threads is less than one
+     */
+    public synchronized void setParallelism(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(
+                    "Parallelism must be at least 1");
+        }
+        if (this.pool != null) {
+            this.pool.shutdown();
+            this.pool = null;
+        }
+        this.parallelism = threads;
+        if (threads > 1) {
+            this.pool = new ForkJoinPool(threads);
+        }
+    }
+
+    /**
+     * Returns the number of threads that items which do not read other
+     * items are elapsed on.
+     *
+     * @return parallelism set by {@link #setParallelism(int)}
+     */
+    public synchronized int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Schedules a registered item again after a change that may make it due
+     * sooner than it was scheduled for.
+     * <p>
+     * The item's entry is found through its recorded position in the wheel,
+     * so this takes constant time. Items that are not registered are
+     * ignored.
+     *
+     * @param item scheduled item to reschedule
+     */
+    public synchronized void reschedule(ScheduledTimedItem item) {
+        Position position = this.weakRegistry != null
+                ? this.weakRegistry.get(new ItemReference(item, null))
+                : this.strongRegistry.get(item);
+        if (position == null) {
+            return;
+        }
+        Object entry = removeFromWheel(item, position);
+        if (entry == null) {
+            entry = entryFor(item);
+        }
+        schedule(entry, item.getMinutesUntilDue());
+    }
+
+    /**
+     * Elapses one minute on every registered timed item.
+     * <p>
+     * Items that are not scheduled items have {@code elapseOneMinute()}
+     * called. Scheduled items that are due in this minute are brought up to
+     * date and scheduled again; all other scheduled items are left alone.
+     * <p>
+     * Items that read other items are elapsed after all other items, as
+     * described in the class documentation. This method returns once every
+     * item has been elapsed.
      * @ass1
      */
     @Override
-    public void elapseOneMinute() {
-        for (TimedItem timedItem : this.timedItems) {
-            timedItem.elapseOneMinute();
+    public synchronized void elapseOneMinute() {
+        long minute = this.wheelMinute + 1;
+        this.wheelMinute = minute;
+        this.tickThread = Thread.currentThread();
+        try {
+            elapseMinute(minute);
+        } finally {
+            this.minutesElapsed = minute;
+            this.tickThread = null;
+        }
+        dropCollected();
+    }
+
+    /**
+     * Elapses the given number of minutes on every registered timed item,
+     * with the same result as calling
+     * {@link TimedItemManager#elapseOneMinute()} that many times.
+     * <p>
+     * Scheduled items are only visited at the minutes they are due, and
+     * sensors, whose readings are worked out directly from the minute, are
+     * not visited at all, so a jump costs little more than the minutes at
+     * which something actually happens. Items that are not scheduled items
+     * still have {@code elapseOneMinute()} called once for every minute.
+     * <p>
+     * Threads other than the calling thread see the minute from before the
+     * jump until the whole jump is complete.
+     *
+     * @param minutes number of minutes to elapse
+     * @throws IllegalArgumentException if minutes is negative
+     */
+    public synchronized void elapseMinutes(int minutes) {
+        if (minutes < 0) {
+            throw new IllegalArgumentException(
+                    "Minutes must be non-negative");
+        }
+        if (minutes == 0) {
+            return;
+        }
+        long target = this.wheelMinute + minutes;
+        this.tickThread = Thread.currentThread();
+        try {
+            while (this.wheelMinute < target) {
+                long minute = this.wheelMinute + 1;
+                this.wheelMinute = minute;
+                if (!isIdle(minute)) {
+                    elapseMinute(minute);
+                }
+            }
+        } finally {
+            this.minutesElapsed = this.wheelMinute;
+            this.tickThread = null;
+        }
+        dropCollected();
+    }
+
+    /**
+     * Returns whether nothing needs to be done to elapse the given minute:
+     * there are no every-minute items, nothing is due and no slot of the
+     * levels above needs to be moved down.
+     *
+     * @param minute minute the wheel has just reached
+     * @return true if the minute can be skipped
+     */
+    private boolean isIdle(long minute) {
+        if (!this.timedItems.isEmpty() || !this.dependentItems.isEmpty()
+                || !slot(0, minute).isEmpty()) {
+            return false;
+        }
+        for (int level = 1; level < WHEEL_LEVELS
+                && (minute & ((1L << (WHEEL_BITS * level)) - 1)) == 0;
+                level++) {
+            if (!slot(level, minute).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Elapses the given minute on every registered timed item.
+     *
+     * @param minute minute the wheel has just reached
+     */
+    private void elapseMinute(long minute) {
+        // Move items from the levels above whose slots start this minute
+        for (int level = 1; level < WHEEL_LEVELS
+                && (minute & ((1L << (WHEEL_BITS * level)) - 1)) == 0;
+                level++) {
+            // Items always move to a lower level, never back into this slot
+            List<Object> slot = slot(level, minute);
+            for (int i = 0; i < slot.size(); i++) {
+                Object entry = slot.get(i);
+                ScheduledTimedItem item = (ScheduledTimedItem) item(entry);
+                if (item == null) {
+                    continue;
+                }
+                // Items work out their delay from their state this minute,
+                // so one due this minute would only be due a minute later
+                Position position = position(entry);
+                long ahead = position == null ? Long.MAX_VALUE
+                        : position.due - minute;
+                if (ahead <= 0) {
+                    // This minute's slot has not been visited yet
+                    place(entry, 0);
+                } else {
+                    schedule(entry, (int) Math.min(ahead,
+                            item.getMinutesUntilDue()));
+                }
+            }
+            slot.clear();
+        }
+
+        List<Object> due = slot(0, minute);
+        this.dueItems.clear();
+        for (Object entry : due) {
+            TimedItem item = item(entry);
+            if (item != null && !item.readsOtherTimedItems()) {
+                this.dueItems.add((ScheduledTimedItem) item);
+            }
+        }
+        elapseIndependent(minute);
+
+        for (Object entry : due) {
+            TimedItem item = item(entry);
+            if (item != null && item.readsOtherTimedItems()) {
+                ((ScheduledTimedItem) item).advanceTo(minute);
+            }
+        }
+        for (Object entry : this.dependentItems) {
+            TimedItem item = item(entry);
+            if (item != null) {
+                item.elapseOneMinute();
+            }
+        }
+
+        // Items are due at least a minute later, so never land in this slot
+        for (int i = 0; i < due.size(); i++) {
+            Object entry = due.get(i);
+            ScheduledTimedItem item = (ScheduledTimedItem) item(entry);
+            if (item != null) {
+                schedule(entry, item.getMinutesUntilDue());
+            }
+        }
+        due.clear();
+        this.dueItems.clear();
+    }
+
+    /**
+     * Elapses the due scheduled items and the every-minute items that do
+     * not read other items, split across the worker threads if there are
+     * enough of them.
+     *
+     * @param minute minute being elapsed
+     */
+    private void elapseIndependent(long minute) {
+        int total = this.dueItems.size() + this.timedItems.size();
+        if (this.pool == null || total < PARALLEL_THRESHOLD) {
+            elapseRange(minute, 0, total);
+            return;
+        }
+        int shardSize = (total + this.parallelism - 1) / this.parallelism;
+        List<ForkJoinTask<?>> shards = new ArrayList<>(this.parallelism);
+        for (int from = 0; from < total; from += shardSize) {
+            int start = from;
+            int end = Math.min(total, from + shardSize);
+            shards.add(ForkJoinTask.adapt(
+                    () -> elapseRange(minute, start, end)));
+        }
+        // Returns once every shard has finished
+        this.pool.invoke(ForkJoinTask.adapt(
+                () -> ForkJoinTask.invokeAll(shards)));
+    }
+
+    /**
+     * Elapses a range of the items that do not read other items, indexed
+     * with the due scheduled items first and then the every-minute items.
+     *
+     * @param minute minute being elapsed
+     * @param from   index of the first item to elapse
+     * @param to     index after the last item to elapse
+     */
+    private void elapseRange(long minute, int from, int to) {
+        int dueCount = this.dueItems.size();
+        for (int i = from; i < to; i++) {
+            if (i < dueCount) {
+                this.dueItems.get(i).advanceTo(minute);
+            } else {
+                TimedItem item = item(this.timedItems.get(i - dueCount));
+                if (item != null) {
+                    item.elapseOneMinute();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entry to the slot of the wheel covering the given number of
+     * minutes from now, unless the item is never due, and records where the
+     * entry was put.
+     * <p>
+     * The current minute's slot has already been visited, so items are
+     * scheduled at least a minute ahead. The entry must not be in any other
+     * slot of the wheel.
+     *
+     * @param entry entry for the item to add
+     * @param delay minutes until the item is due, or
+     *              {@link Integer#MAX_VALUE} if it is never due
+     */
+    private void schedule(Object entry, int delay) {
+        if (delay == Integer.MAX_VALUE) {
+            Position position = position(entry);
+            if (position != null) {
+                position.slot = NOT_IN_WHEEL;
+            }
+            return;
+        }
+        place(entry, Math.min(Math.max(delay, 1), MAX_DELAY));
+    }
+
+    /**
+     * Adds an entry to the slot of the wheel covering the given number of
+     * minutes from now, and records where the entry was put.
+     * <p>
+     * An entry placed zero minutes ahead goes into the current minute's
+     * slot, which only makes sense before that slot is visited.
+     *
+     * @param entry entry for the item to add
+     * @param ahead minutes until the item is due, from 0 to
+     *              {@value #MAX_DELAY}
+     */
+    private void place(Object entry, int ahead) {
+        Position position = position(entry);
+        int level = 0;
+        while (level < WHEEL_LEVELS - 1
+                && ahead >= 1 << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int index = slotIndex(level, this.wheelMinute + ahead);
+        List<Object> slot = this.wheel.get(index);
+        slot.add(entry);
+        if (position != null) {
+            position.slot = index;
+            position.index = slot.size() - 1;
+            position.due = this.wheelMinute + ahead;
+        }
+    }
+
+    /**
+     * Returns the recorded position of the item an entry refers to.
+     *
+     * @param entry entry for the item
+     * @return position of the item's entry, or null if the item is no
+     * longer registered or has been garbage collected
+     */
+    private Position position(Object entry) {
+        if (this.weakRegistry != null) {
+            return entry instanceof ItemReference
+                    ? this.weakRegistry.get(entry) : null;
+        }
+        return entry instanceof ItemReference ? null
+                : this.strongRegistry.get(entry);
+    }
+
+    /**
+     * Returns the slot of the given level of the wheel that covers the
+     * given minute.
+     *
+     * @param level  level of the wheel
+     * @param minute minute covered by the slot
+     * @return entries in the slot
+     */
+    private List<Object> slot(int level, long minute) {
+        return this.wheel.get(slotIndex(level, minute));
+    }
+
+    /**
+     * Returns the index in the wheel of the slot of the given level that
+     * covers the given minute.
+     *
+     * @param level  level of the wheel
+     * @param minute minute covered by the slot
+     * @return index of the slot in the wheel
+     */
+    private static int slotIndex(int level, long minute) {
+        int index = (int) ((minute >>> (WHEEL_BITS * level))
+                & (WHEEL_SLOTS - 1));
+        return level * WHEEL_SLOTS + index;
+    }
+
+    /**
+     * Removes the entry for the given item from the wheel, if it is there.
+     * <p>
+     * The entry is replaced by the last entry of its slot, so this takes
+     * constant time, and the order of the other entries in the slot may
+     * change.
+     *
+     * @param item     item to remove
+     * @param position recorded position of the item's entry
+     * @return the entry removed, or null if the item was not in the wheel
+     */
+    private Object removeFromWheel(ScheduledTimedItem item,
+                                   Position position) {
+        if (position.slot == NOT_IN_WHEEL) {
+            return null;
+        }
+        List<Object> slot = this.wheel.get(position.slot);
+        position.slot = NOT_IN_WHEEL;
+        int index = position.index;
+        if (index >= slot.size() || item(slot.get(index)) != item) {
+            // Not where it was recorded, which should never happen
+            return removeEntry(slot, item);
+        }
+        Object entry = slot.get(index);
+        Object last = slot.remove(slot.size() - 1);
+        if (last != entry) {
+            slot.set(index, last);
+            Position moved = position(last);
+            if (moved != null) {
+                moved.index = index;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entry for the given item from a list of entries, if it is
+     * there.
+     *
+     * @param entries entries to search
+     * @param item    item to remove
+     * @return the entry removed, or null if the item was not in the list
+     */
+    private static Object removeEntry(List<Object> entries, TimedItem item) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (item(entries.get(i)) == item) {
+                return entries.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces each entry in a list with an entry of the kind used by the
+     * current registration mode, dropping entries for collected items.
+     *
+     * @param entries entries to convert
+     */
+    private void convertEntries(List<Object> entries) {
+        List<Object> converted = new ArrayList<>(entries.size());
+        for (Object entry : entries) {
+            TimedItem item = item(entry);
+            if (item != null) {
+                converted.add(entryFor(item));
+            }
+        }
+        entries.clear();
+        entries.addAll(converted);
+    }
+
+    /**
+     * Returns a new entry for a registered item, of the kind used by the
+     * current registration mode.
+     * <p>
+     * Only the registry's own references are queued once their item is
+     * collected; entries created here are simply skipped from then on.
+     *
+     * @param item registered item
+     * @return the item, or a weak reference to it
+     */
+    private Object entryFor(TimedItem item) {
+        return this.weakRegistry != null ? new ItemReference(item, null)
+                : item;
+    }
+
+    /**
+     * Removes the registry entries and every-minute entries of weakly held
+     * items that have been garbage collected.
+     * <p>
+     * Collected items in the wheel are dropped when their slot is next
+     * visited.
+     */
+    private void dropCollected() {
+        boolean dropped = false;
+        Reference<? extends TimedItem> reference;
+        while ((reference = this.collected.poll()) != null) {
+            if (this.weakRegistry != null
+                    && this.weakRegistry.remove(reference) != null) {
+                this.collectedCount++;
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            this.timedItems.removeIf(entry -> item(entry) == null);
+            this.dependentItems.removeIf(entry -> item(entry) == null);
+        }
+    }
+
+    /**
+     * Returns the item an entry refers to.
+     *
+     * @param entry an item, or a reference to one
+     * @return the item, or null if it has been garbage collected
+     */
+    private static TimedItem item(Object entry) {
+        return entry instanceof ItemReference
+                ? ((ItemReference) entry).get() : (TimedItem) entry;
+    }
+
+    /**
+     * Returns the number of minutes elapsed on the registered timed items
+     * since the manager was created.
+     * <p>
+     * Scheduled items use this to work out their state between the minutes
+     * at which they are due, and items created from saved data that was not
+     * loaded straight away can use this to catch up with the items that
+     * were.
+     * <p>
+     * While a minute is being elapsed, the thread elapsing it and its worker
+     * threads see the new minute; all other threads see the previous minute
+     * until every item has been elapsed.
+     *
+     * @return number of minutes elapsed
+     */
+    public long getMinutesElapsed() {
+        Thread thread = this.tickThread;
+        if (thread != null && (thread == Thread.currentThread()
+                || isWorker(Thread.currentThread()))) {
+            return this.wheelMinute;
+        }
+        return this.minutesElapsed;
+    }
+
+    /**
+     * Returns whether the given thread is one of this manager's worker
+     * threads.
+     *
+     * @param thread thread to check
+     * @return true if the thread belongs to the worker pool
+     */
+    private boolean isWorker(Thread thread) {
+        return thread instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) thread).getPool() == this.pool;
+    }
+
+    /**
+     * Position of a registered item's entry in the wheel.
+     */
+    private static class Position {
+        /**
+         * Index in the wheel of the slot holding the entry, or
+         * {@link #NOT_IN_WHEEL} if the item is not in the wheel.
+         */
+        private int slot = NOT_IN_WHEEL;
+
+        /**
+         * Index of the entry within its slot.
+         */
+        private int index;
+
+        /**
+         * Minute at which the entry was due when it was put in its slot.
+         */
+        private long due;
+    }
+
+    /**
+     * Weak reference to a registered item, compared by the identity of the
+     * item it refers to.
+     */
+    private static class ItemReference extends WeakReference<TimedItem> {
+        /**
+         * Identity hash code of the item.
+         */
+        private final int hash;
+
+        /**
+         * Creates a reference to the given item.
+         *
+         * @param item  item to refer to
+         * @param queue queue to add the reference to once the item has been
+         *              collected; null for references only used as keys
+         */
+        ItemReference(TimedItem item, ReferenceQueue<TimedItem> queue) {
+            super(item, queue);
+            this.hash = System.identityHashCode(item);
+        }
+
+        /**
+         * Returns true if the other object is this reference, or a reference
+         * to the same item that has not been collected.
+         *
+         * @param obj other object to compare
+         * @return true if both refer to the same item
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ItemReference)) {
+                return false;
+            }
+            TimedItem item = get();
+            return item != null && item == ((ItemReference) obj).get();
+        }
+
+        /**
+         * Returns the identity hash code of the item referred to.
+         *
+         * @return hash code of this reference
+         */
+        @Override
+        public int hashCode() {
+            return this.hash;
         }
     }
 }
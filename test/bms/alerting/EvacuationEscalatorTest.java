@@ -0,0 +1,289 @@
+package bms.alerting;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.util.TimedItemManager;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks when escalation policies trip, and that the escalator evacuates
+ * floors and buildings only when a policy starts to hold.
+ */
+public class EvacuationEscalatorTest {
+    /**
+     * Manager elapsing the buildings loaded by a test.
+     */
+    private final TimedItemManager manager = new TimedItemManager();
+
+    /**
+     * Loads the given save file onto the test's manager.
+     *
+     * @param save contents of the save file, one line per element
+     * @return first building loaded
+     * @throws Exception if the save file cannot be loaded
+     */
+    private Building load(List<String> save) throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(String.join(System.lineSeparator(), save)
+                        + System.lineSeparator()));
+        buildings.get(0).setTimedItemManager(this.manager);
+        return buildings.get(0);
+    }
+
+    /**
+     * Returns the save file lines for a room whose hazard level is the
+     * reading of its occupancy sensor, with a capacity of 100.
+     *
+     * @param number room number
+     * @param type   room type
+     * @param levels hazard levels read, one per minute from minute 0
+     * @return room and sensor lines
+     */
+    private static List<String> room(int number, RoomType type,
+                                     String levels) {
+        return List.of(number + ":" + type + ":5.00:1:WeightingBased",
+                "OccupancySensor:" + levels + ":1:100@100");
+    }
+
+    /**
+     * Loads a building whose first floor has four rooms with scripted
+     * levels, and whose second floor has two offices with a level of 0.
+     *
+     * @return building loaded
+     * @throws Exception if the building cannot be loaded
+     */
+    private Building scripted() throws Exception {
+        List<String> save = new ArrayList<>(List.of("Tower", "2",
+                "1:20.00:20.00:4"));
+        save.addAll(room(101, RoomType.STUDY, "0,60,60,60,60,10,10,60,60"));
+        save.addAll(room(102, RoomType.STUDY, "0,60,60,60,60,10,10,60,60"));
+        save.addAll(room(103, RoomType.OFFICE, "0,0,60,60,60,60,60,60,60"));
+        save.addAll(room(104, RoomType.LABORATORY, "0"));
+        save.add("2:20.00:20.00:2");
+        save.addAll(room(201, RoomType.OFFICE, "0"));
+        save.addAll(room(202, RoomType.OFFICE, "0"));
+        return load(save);
+    }
+
+    /**
+     * Returns the numbers of the rooms in the building with a fire drill
+     * ongoing.
+     *
+     * @param building building to look at
+     * @return room numbers, in order
+     */
+    private static List<Integer> drilling(Building building) {
+        List<Integer> rooms = new ArrayList<>();
+        for (Floor floor : building.getFloors()) {
+            for (Room room : floor.getRooms()) {
+                if (room.fireDrillOngoing()) {
+                    rooms.add(room.getRoomNumber());
+                }
+            }
+        }
+        return rooms;
+    }
+
+    /**
+     * Policies trip only when strictly more than their percentage of rooms
+     * are above their level, without overflowing.
+     */
+    @Test
+    public void policyTrips() {
+        EscalationPolicy policy = new EscalationPolicy(EscalationScope.FLOOR,
+                75, 30);
+        assertFalse(policy.trips(3, 10));
+        assertTrue(policy.trips(4, 10));
+        assertFalse(policy.trips(0, 0));
+        assertTrue(new EscalationPolicy(EscalationScope.FLOOR, 0, 0)
+                .trips(1, 100));
+        assertFalse(new EscalationPolicy(EscalationScope.FLOOR, 0, 100)
+                .trips(100, 100));
+        assertTrue(new EscalationPolicy(EscalationScope.BUILDING, 0, 99)
+                .trips(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals("FLOOR: over 30% of rooms above 75", policy.toString());
+        assertEquals("BUILDING: over 20% of rooms above 50 (OFFICE)",
+                new EscalationPolicy(EscalationScope.BUILDING, 50, 20,
+                        RoomType.OFFICE).toString());
+    }
+
+    /**
+     * Policies with a negative level or a percentage outside 0 to 100 are
+     * rejected.
+     */
+    @Test
+    public void invalidPoliciesRejected() {
+        int[][] invalid = {{-1, 50}, {50, -1}, {50, 101}};
+        for (int[] settings : invalid) {
+            try {
+                new EscalationPolicy(EscalationScope.FLOOR, settings[0],
+                        settings[1]);
+                fail("Accepted an invalid policy");
+            } catch (IllegalArgumentException expected) {
+                // Rejected
+            }
+        }
+    }
+
+    /**
+     * A floor is evacuated when its policy starts to hold, not again while
+     * it keeps holding, and again once it stops and starts again.
+     *
+     * @throws Exception if the building cannot be loaded
+     */
+    @Test
+    public void floorEvacuatedWhenPolicyStartsToHold() throws Exception {
+        Building building = scripted();
+        EvacuationEscalator escalator = new EvacuationEscalator(List.of(
+                new EscalationPolicy(EscalationScope.FLOOR, 50, 50)));
+        escalator.watch(building);
+        assertTrue(building.isIncrementalHazards());
+        escalator.attach(this.manager);
+
+        // Two of four rooms above 50 is not more than half
+        this.manager.elapseOneMinute();
+        assertEquals(0, escalator.getEvacuationCount());
+        this.manager.elapseOneMinute();
+        assertEquals(1, escalator.getEvacuationCount());
+        assertEquals(List.of(101, 102, 103, 104), drilling(building));
+
+        // Still holding, so a cancelled drill stays cancelled
+        this.manager.elapseOneMinute();
+        building.cancelFireDrill();
+        this.manager.elapseMinutes(2);
+        assertEquals(1, escalator.getEvacuationCount());
+        assertEquals(List.of(), drilling(building));
+
+        // Stops holding at minute 5, and holds again at minute 7
+        this.manager.elapseOneMinute();
+        assertEquals(1, escalator.getEvacuationCount());
+        this.manager.elapseOneMinute();
+        assertEquals(2, escalator.getEvacuationCount());
+        assertEquals(List.of(101, 102, 103, 104), drilling(building));
+
+        // Detached escalators stop checking
+        escalator.detach();
+        building.cancelFireDrill();
+        this.manager.elapseMinutes(20);
+        assertEquals(2, escalator.getEvacuationCount());
+        assertEquals(List.of(), drilling(building));
+    }
+
+    /**
+     * A building policy counts rooms on every floor, and evacuates only the
+     * rooms of its type.
+     *
+     * @throws Exception if the building cannot be loaded
+     */
+    @Test
+    public void buildingEvacuatesPolicyRoomType() throws Exception {
+        Building building = scripted();
+        EvacuationEscalator escalator = new EvacuationEscalator(List.of(
+                new EscalationPolicy(EscalationScope.BUILDING, 50, 40,
+                        RoomType.OFFICE)));
+        escalator.watch(building);
+        escalator.attach(this.manager);
+
+        // Two of six rooms above 50 is not more than 40%
+        this.manager.elapseOneMinute();
+        assertEquals(0, escalator.getEvacuationCount());
+        this.manager.elapseOneMinute();
+        assertEquals(1, escalator.getEvacuationCount());
+        assertEquals(List.of(103, 201, 202), drilling(building));
+        escalator.detach();
+        escalator.unwatch(building);
+    }
+
+    /**
+     * Evacuations over a campus with random readings match a direct model
+     * of the policies, counted from every room each minute.
+     *
+     * @throws Exception if the campus cannot be loaded
+     */
+    @Test
+    public void evacuationsMatchModel() throws Exception {
+        Random random = new Random(17);
+        List<String> save = new ArrayList<>(List.of("Campus", "3"));
+        for (int floor = 1; floor <= 3; floor++) {
+            save.add(floor + ":30.00:30.00:5");
+            for (int room = 0; room < 5; room++) {
+                StringBuilder levels = new StringBuilder();
+                for (int i = 0; i < 12; i++) {
+                    levels.append(i == 0 ? "" : ",")
+                            .append(random.nextInt(101)).append('*')
+                            .append(1 + random.nextInt(6));
+                }
+                save.addAll(room(floor * 100 + room,
+                        RoomType.values()[room % 3], levels.toString()));
+            }
+        }
+        Building building = load(save);
+        List<EscalationPolicy> policies = List.of(
+                new EscalationPolicy(EscalationScope.FLOOR, 60, 40),
+                new EscalationPolicy(EscalationScope.BUILDING, 70, 25,
+                        RoomType.STUDY));
+        EvacuationEscalator escalator = new EvacuationEscalator(policies);
+        escalator.watch(building);
+        escalator.attach(this.manager);
+
+        Map<Object, Boolean> holding = new IdentityHashMap<>();
+        long expected = 0;
+        for (int minute = 1; minute <= 400; minute++) {
+            this.manager.elapseOneMinute();
+            int rooms = 0;
+            int buildingAbove = 0;
+            for (Floor floor : building.getFloors()) {
+                int floorAbove = 0;
+                for (Room room : floor.getRooms()) {
+                    int level = room.getHazardEvaluator()
+                            .evaluateHazardLevel();
+                    floorAbove += level > 60 ? 1 : 0;
+                    buildingAbove += level > 70 ? 1 : 0;
+                }
+                rooms += floor.getRooms().size();
+                expected += starts(holding, floor, policies.get(0)
+                        .trips(floorAbove, floor.getRooms().size()));
+            }
+            expected += starts(holding, building, policies.get(1)
+                    .trips(buildingAbove, rooms));
+            assertEquals("minute " + minute, expected,
+                    escalator.getEvacuationCount());
+            if (minute % 50 == 0) {
+                building.cancelFireDrill();
+            }
+        }
+        assertTrue(expected > 5);
+        escalator.detach();
+    }
+
+    /**
+     * Records whether a policy holds for the given floor or building, and
+     * returns whether it has just started to hold.
+     *
+     * @param holding whether the policy held for each target when last
+     *                checked
+     * @param target  floor or building checked
+     * @param holds   whether the policy holds now
+     * @return 1 if the policy has started to hold, otherwise 0
+     */
+    private static int starts(Map<Object, Boolean> holding, Object target,
+                              boolean holds) {
+        Boolean held = holding.put(target, holds);
+        return holds && (held == null || !held) ? 1 : 0;
+    }
+}
@@ -0,0 +1,326 @@
+package bms.alerting;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.sensors.HazardSensor;
+import bms.sensors.Sensor;
+import bms.util.TimedItemManager;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the alert monitor raises and clears alerts with hysteresis
+ * and debouncing, and keeps delivering when subscribers fail.
+ */
+public class HazardAlertMonitorTest {
+    /**
+     * Hazard level at or above which alerts are raised.
+     */
+    private static final int RAISE = 40;
+
+    /**
+     * Hazard level below which alerts are cleared.
+     */
+    private static final int CLEAR = 25;
+
+    /**
+     * Number of checks a crossing must hold for.
+     */
+    private static final int DEBOUNCE = 3;
+
+    /**
+     * Manager elapsing the buildings loaded by a test.
+     */
+    private final TimedItemManager manager = new TimedItemManager();
+
+    /**
+     * Loads the given save file onto the test's manager.
+     *
+     * @param save contents of the save file, one line per element
+     * @return buildings loaded
+     * @throws Exception if the save file cannot be loaded
+     */
+    private List<Building> load(String... save) throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(String.join(System.lineSeparator(), save)
+                        + System.lineSeparator()));
+        for (Building building : buildings) {
+            building.setTimedItemManager(this.manager);
+        }
+        return buildings;
+    }
+
+    /**
+     * Loads a building with one room whose occupancy sensor, with a
+     * capacity of 100, reads the given levels in turn, one per minute.
+     *
+     * @param levels hazard levels read, starting at minute 0
+     * @return building loaded
+     * @throws Exception if the building cannot be loaded
+     */
+    private Building occupancy(String levels) throws Exception {
+        return load("Lab", "1", "1:10.00:10.00:1", "101:STUDY:5.00:1",
+                "OccupancySensor:" + levels + ":1:100").get(0);
+    }
+
+    /**
+     * Returns the descriptions of the given alerts.
+     *
+     * @param alerts alerts to describe
+     * @return string representation of each alert, in order
+     */
+    private static List<String> describe(List<HazardAlert> alerts) {
+        List<String> descriptions = new ArrayList<>();
+        for (HazardAlert alert : alerts) {
+            descriptions.add(alert.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * Flapping levels are ignored, levels between the thresholds keep the
+     * alert as it is, and crossings that hold are alerted once.
+     *
+     * @throws Exception if the building cannot be loaded
+     */
+    @Test
+    public void hysteresisAndDebounce() throws Exception {
+        Building building = occupancy(String.join(",",
+                // Flapping across the raise level
+                "0", "50", "10", "50", "10",
+                // Raised on the third check in a row
+                "50", "50", "50",
+                // Hovering above the clear level
+                "30", "39", "26", "45",
+                // Below the clear level, but not for long enough
+                "20", "20", "30",
+                // Cleared
+                "20", "20", "20",
+                // Raised again at exactly the raise level
+                "40", "40", "40", "0"));
+        HazardAlertMonitor monitor = new HazardAlertMonitor(RAISE, CLEAR,
+                DEBOUNCE, 16);
+        monitor.watch(building);
+        assertEquals(2, monitor.getSourceCount());
+        AlertRecorder recorder = new AlertRecorder();
+        monitor.subscribe(recorder);
+        monitor.attach(this.manager);
+
+        this.manager.elapseMinutes(6);
+        assertEquals(0, monitor.getRaisedCount());
+        this.manager.elapseOneMinute();
+        assertEquals(1, monitor.getRaisedCount());
+        assertEquals(1, monitor.deliverPending());
+        this.manager.elapseMinutes(14);
+        assertEquals(2, monitor.deliverPending());
+        assertEquals(List.of(
+                "7: RAISED room 101 OccupancySensor level 50",
+                "17: CLEARED room 101 OccupancySensor level 20",
+                "20: RAISED room 101 OccupancySensor level 40"),
+                describe(recorder.getAlerts()));
+
+        // Detached monitors stop checking
+        monitor.close();
+        this.manager.elapseMinutes(30);
+        assertEquals(0, monitor.deliverPending());
+    }
+
+    /**
+     * The alerts published over a campus with random readings match a
+     * direct model of the thresholds, for evaluators and sensors alike.
+     *
+     * @throws Exception if the campus cannot be loaded
+     */
+    @Test
+    public void alertsMatchModel() throws Exception {
+        checkAgainstModel(false);
+    }
+
+    /**
+     * The alerts published match the model when room levels are kept up to
+     * date incrementally.
+     *
+     * @throws Exception if the campus cannot be loaded
+     */
+    @Test
+    public void incrementalAlertsMatchModel() throws Exception {
+        checkAgainstModel(true);
+    }
+
+    /**
+     * Checks the alerts published over 300 minutes on a campus with random
+     * readings against a direct model of the thresholds.
+     *
+     * @param incremental whether the campus keeps its hazard levels up to
+     *                    date incrementally
+     * @throws Exception if the campus cannot be loaded
+     */
+    private void checkAgainstModel(boolean incremental) throws Exception {
+        Random random = new Random(11);
+        List<String> save = new ArrayList<>(List.of("Campus", "1",
+                "1:40.00:40.00:6"));
+        for (int room = 0; room < 6; room++) {
+            save.add((100 + room) + ":STUDY:5.00:2:"
+                    + (room % 2 == 0 ? "RuleBased" : "WeightingBased"));
+            save.add("OccupancySensor:" + readings(random) + ":"
+                    + (1 + room % 3) + ":100" + (room % 2 == 0 ? "" : "@50"));
+            save.add("NoiseSensor:" + readings(random) + ":" + (1 + room % 2)
+                    + (room % 2 == 0 ? "" : "@50"));
+        }
+        Building building = load(save.toArray(new String[0])).get(0);
+        building.setIncrementalHazards(incremental);
+
+        HazardAlertMonitor monitor = new HazardAlertMonitor(RAISE, CLEAR,
+                DEBOUNCE, 1 << 12);
+        monitor.watch(building);
+        AlertRecorder recorder = new AlertRecorder();
+        monitor.subscribe(recorder);
+        monitor.attach(this.manager);
+
+        List<Room> rooms = new ArrayList<>();
+        List<HazardSensor> sensors = new ArrayList<>();
+        for (Floor floor : building.getFloors()) {
+            for (Room room : floor.getRooms()) {
+                rooms.add(room);
+                sensors.add(null);
+                for (Sensor sensor : room.getSensors()) {
+                    rooms.add(room);
+                    sensors.add((HazardSensor) sensor);
+                }
+            }
+        }
+        assertEquals(rooms.size(), monitor.getSourceCount());
+        boolean[] raised = new boolean[rooms.size()];
+        int[] pending = new int[rooms.size()];
+        List<String> expected = new ArrayList<>();
+        for (int minute = 1; minute <= 300; minute++) {
+            this.manager.elapseOneMinute();
+            for (int i = 0; i < rooms.size(); i++) {
+                int level = sensors.get(i) == null
+                        ? rooms.get(i).getHazardEvaluator()
+                        .evaluateHazardLevel()
+                        : sensors.get(i).getHazardLevel();
+                boolean crossed = raised[i] ? level < CLEAR : level >= RAISE;
+                if (!crossed) {
+                    pending[i] = 0;
+                } else if (++pending[i] == DEBOUNCE) {
+                    pending[i] = 0;
+                    raised[i] = !raised[i];
+                    expected.add(new HazardAlert(rooms.get(i), sensors.get(i),
+                            raised[i], level, minute).toString());
+                }
+            }
+        }
+        monitor.deliverPending();
+        assertTrue(expected.size() > 10);
+        assertEquals(expected, describe(recorder.getAlerts()));
+        int raisedCount = 0;
+        for (boolean isRaised : raised) {
+            raisedCount += isRaised ? 1 : 0;
+        }
+        assertEquals(raisedCount, monitor.getRaisedCount());
+        assertEquals(0, monitor.getDroppedCount());
+        monitor.close();
+    }
+
+    /**
+     * Returns twenty random readings between 0 and 100, with long runs so
+     * that crossings often hold for the debounce period.
+     *
+     * @param random source of the readings
+     * @return readings separated by commas
+     */
+    private static String readings(Random random) {
+        StringBuilder readings = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) {
+                readings.append(',');
+            }
+            readings.append(random.nextInt(101)).append('*')
+                    .append(1 + random.nextInt(5));
+        }
+        return readings.toString();
+    }
+
+    /**
+     * Alerts that do not fit in the queue are dropped and counted.
+     *
+     * @throws Exception if the building cannot be loaded
+     */
+    @Test
+    public void fullQueueDropsAlerts() throws Exception {
+        Building building = occupancy("90,0");
+        HazardAlertMonitor monitor = new HazardAlertMonitor(RAISE, CLEAR, 1,
+                1);
+        monitor.watch(building);
+        monitor.watch(building);
+        monitor.check(0);
+        assertEquals(2, monitor.getRaisedCount());
+        assertEquals(1, monitor.getDroppedCount());
+        assertEquals(1, monitor.deliverPending());
+    }
+
+    /**
+     * A subscriber that throws does not stop the other subscribers, or the
+     * dispatcher thread, from receiving later alerts.
+     *
+     * @throws Exception if the building cannot be loaded, or the test is
+     *                   interrupted
+     */
+    @Test
+    public void failingSubscriberDoesNotStopDelivery() throws Exception {
+        Building building = occupancy("90,0");
+        HazardAlertMonitor monitor = new HazardAlertMonitor(RAISE, CLEAR, 1,
+                64);
+        monitor.watch(building);
+        monitor.subscribe(alert -> {
+            throw new IllegalStateException("Subscriber failed");
+        });
+        AlertRecorder recorder = new AlertRecorder();
+        monitor.subscribe(recorder);
+        monitor.start();
+        try {
+            for (int minute = 0; minute < 10; minute++) {
+                monitor.check(minute);
+                this.manager.elapseOneMinute();
+            }
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (recorder.getAlerts().size() < 10
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            monitor.close();
+        }
+        assertEquals(10, recorder.getAlerts().size());
+        assertEquals(10, monitor.getFailedDeliveryCount());
+    }
+
+    /**
+     * Thresholds and sizes that cannot work are rejected.
+     */
+    @Test
+    public void invalidSettingsRejected() {
+        int[][] invalid = {{10, 20, 1, 1}, {40, 25, 0, 1}, {40, 25, 1, 0}};
+        for (int[] settings : invalid) {
+            try {
+                new HazardAlertMonitor(settings[0], settings[1], settings[2],
+                        settings[3]);
+                fail("Accepted invalid settings");
+            } catch (IllegalArgumentException expected) {
+                assertFalse(expected.getMessage().isEmpty());
+            }
+        }
+    }
+}
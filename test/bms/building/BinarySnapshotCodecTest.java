@@ -0,0 +1,157 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that binary snapshots read back the buildings they were written
+ * from, and that invalid snapshots are rejected.
+ */
+public class BinarySnapshotCodecTest {
+    /**
+     * Buildings written to snapshots.
+     */
+    private List<Building> buildings;
+
+    /**
+     * Binary snapshot of {@link #buildings}.
+     */
+    private byte[] snapshot;
+
+    /**
+     * Loads the buildings from the loader test's save file and writes their
+     * snapshot.
+     *
+     * @throws Exception if the buildings cannot be loaded or written
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(BuildingInitialiserTest.SAVE));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinarySnapshotCodec.write(this.buildings, out);
+        this.snapshot = out.toByteArray();
+    }
+
+    /**
+     * A snapshot read from a stream gives the same buildings as the text
+     * save file.
+     *
+     * @throws Exception if the snapshot cannot be read
+     */
+    @Test
+    public void streamRoundTrips() throws Exception {
+        List<Building> read = BinarySnapshotCodec.read(
+                new ByteArrayInputStream(this.snapshot));
+        assertEquals(this.buildings, read);
+        assertEquals(BuildingInitialiserTest.encode(this.buildings),
+                BuildingInitialiserTest.encode(read));
+    }
+
+    /**
+     * A snapshot saved to a file and loaded again gives the same buildings,
+     * and loading it again writes the same snapshot.
+     *
+     * @throws Exception if the snapshot cannot be saved or loaded
+     */
+    @Test
+    public void fileRoundTrips() throws Exception {
+        Path file = Files.createTempFile("bms-snapshot", ".bin");
+        try {
+            BinarySnapshotCodec.save(this.buildings, file.toString());
+            List<Building> loaded = BinarySnapshotCodec.load(file.toString());
+            assertEquals(BuildingInitialiserTest.encode(this.buildings),
+                    BuildingInitialiserTest.encode(loaded));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinarySnapshotCodec.write(loaded, out);
+            assertEquals(Arrays.toString(this.snapshot),
+                    Arrays.toString(out.toByteArray()));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * A snapshot cut short anywhere is rejected.
+     *
+     * @throws Exception if reading fails other than by rejecting the
+     *                   snapshot
+     */
+    @Test
+    public void truncatedSnapshotsRejected() throws Exception {
+        for (int length = 0; length < this.snapshot.length; length++) {
+            assertRejected(Arrays.copyOf(this.snapshot, length));
+        }
+    }
+
+    /**
+     * A snapshot whose first length claims far more bytes than follow is
+     * rejected without allocating for it.
+     *
+     * @throws Exception if reading fails other than by rejecting the
+     *                   snapshot
+     */
+    @Test
+    public void hugeLengthRejected() throws Exception {
+        byte[] corrupt = Arrays.copyOf(this.snapshot, 10);
+        // Header and version, then the largest five-byte varint
+        Arrays.fill(corrupt, 5, 9, (byte) 0xff);
+        corrupt[9] = 0x07;
+        assertRejected(corrupt);
+    }
+
+    /**
+     * Randomly corrupted snapshots either read successfully or are
+     * rejected with a FileFormatException, never another exception.
+     *
+     * @throws Exception if a corrupted snapshot fails to read with an
+     *                   exception other than a FileFormatException
+     */
+    @Test
+    public void corruptSnapshotsReadOrRejected() throws Exception {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 500; trial++) {
+            byte[] corrupt = this.snapshot.clone();
+            int changes = 1 + random.nextInt(4);
+            for (int i = 0; i < changes; i++) {
+                int position = 4 + random.nextInt(corrupt.length - 4);
+                corrupt[position] = (byte) random.nextInt(256);
+            }
+            try {
+                BinarySnapshotCodec.read(new ByteArrayInputStream(corrupt));
+            } catch (FileFormatException expected) {
+                // Rejected
+            }
+        }
+    }
+
+    /**
+     * Checks that the given bytes are rejected as a snapshot.
+     *
+     * @param bytes snapshot to read
+     * @throws IOException if reading fails other than by rejecting the
+     *                     snapshot
+     */
+    private static void assertRejected(byte[] bytes) throws IOException {
+        try {
+            BinarySnapshotCodec.read(new ByteArrayInputStream(bytes));
+            fail("Accepted a snapshot of " + bytes.length + " bytes");
+        } catch (FileFormatException expected) {
+            // Rejected
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import bms.hazardevaluation.CustomRuleHazardEvaluator;
+import bms.hazardevaluation.HazardRule;
+import bms.room.Room;
+import bms.sensors.TimedSensor;
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the text, memory-mapped, parallel and lazy loaders read the
+ * same buildings from a save file, and reject the same invalid files.
+ */
+public class BuildingInitialiserTest {
+    /**
+     * Save file with several buildings, reading runs, a maintenance
+     * schedule and each kind of hazard evaluator.
+     */
+    static final String SAVE = String.join(System.lineSeparator(),
+            "Main",
+            "2",
+            "1:30.00:30.00:2:100,101",
+            "100:STUDY:20.00:2:WeightingBased",
+            "NoiseSensor:40,50,60*3:2@60",
+            "TemperatureSensor:20,21,22@40",
+            "101:OFFICE:15.50:1:RuleBased",
+            "OccupancySensor:1,2,3:3:40",
+            "2:30.00:30.00:1",
+            "200:LABORATORY:20.00:2:Rules(max(noise,carbonDioxide))",
+            "CarbonDioxideSensor:500,600,700:5:700:300",
+            "NoiseSensor:45:1",
+            "Annex",
+            "1",
+            "1:12.00:10.00:1",
+            "110:STUDY:8.00:1:RuleBased",
+            "TemperatureSensor:18*4,19,25,31",
+            "Empty",
+            "0") + System.lineSeparator();
+
+    /**
+     * Directory holding the save files written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Creates an empty directory for the test's save files.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("bms-loader");
+    }
+
+    /**
+     * Deletes the test's save files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Writes the given contents to a save file in the test directory.
+     *
+     * @param contents contents of the file
+     * @return path of the file
+     * @throws IOException if the file cannot be written
+     */
+    private String write(String contents) throws IOException {
+        Path file = Files.createTempFile(this.directory, "save", ".txt");
+        Files.writeString(file, contents);
+        return file.toString();
+    }
+
+    /**
+     * Returns the encoded form of the given buildings, one after another.
+     *
+     * @param buildings buildings to encode
+     * @return concatenated encodings
+     */
+    static String encode(List<Building> buildings) {
+        StringBuilder encoded = new StringBuilder();
+        for (Building building : buildings) {
+            encoded.append(building.encode()).append(System.lineSeparator());
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Loads the given file with every loader, forcing lazily loaded
+     * buildings to be read.
+     *
+     * @param filename path of the save file
+     * @return buildings loaded by the text, mapped, parallel and lazy
+     * loaders, in that order
+     * @throws IOException         if the file cannot be read
+     * @throws FileFormatException if the file is invalid
+     */
+    static List<List<Building>> loadAll(String filename)
+            throws IOException, FileFormatException {
+        List<List<Building>> loaded = new ArrayList<>();
+        loaded.add(BuildingInitialiser.loadBuildings(filename));
+        loaded.add(BuildingInitialiser.loadBuildingsMapped(filename));
+        loaded.add(BuildingInitialiser.loadBuildingsParallel(filename));
+        List<Building> lazy = BuildingInitialiser.loadBuildingsLazy(filename);
+        for (Building building : lazy) {
+            building.load();
+        }
+        loaded.add(lazy);
+        return loaded;
+    }
+
+    /**
+     * Every loader reads the same buildings as the text loader.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void loadersAgree() throws Exception {
+        String filename = write(SAVE);
+        List<List<Building>> loaded = loadAll(filename);
+        List<Building> expected = loaded.get(0);
+        assertEquals(3, expected.size());
+        assertEquals(List.of("Main", "Annex", "Empty"), List.of(
+                expected.get(0).getName(), expected.get(1).getName(),
+                expected.get(2).getName()));
+        String encoded = encode(expected);
+        String[] names = {"text", "mapped", "parallel", "lazy"};
+        for (int i = 1; i < loaded.size(); i++) {
+            assertEquals(names[i], expected, loaded.get(i));
+            assertEquals(names[i], encoded, encode(loaded.get(i)));
+        }
+        assertEquals(encoded, encode(BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE))));
+    }
+
+    /**
+     * Lazily loaded buildings are only read when their floors are used.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void lazyLoadingDefersFloors() throws Exception {
+        List<Building> lazy = BuildingInitialiser.loadBuildingsLazy(
+                write(SAVE));
+        assertFalse(lazy.get(0).isLoaded());
+        assertEquals("Annex", lazy.get(1).getName());
+        assertEquals(2, lazy.get(0).getFloors().size());
+        assertTrue(lazy.get(0).isLoaded());
+        assertFalse(lazy.get(1).isLoaded());
+    }
+
+    /**
+     * Saving the loaded buildings and loading the save again gives the same
+     * buildings.
+     *
+     * @throws Exception if a save file cannot be written or loaded
+     */
+    @Test
+    public void savesRoundTrip() throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                write(SAVE));
+        String filename = this.directory.resolve("saved.txt").toString();
+        BuildingWriter.save(buildings, filename);
+        for (List<Building> reloaded : loadAll(filename)) {
+            assertEquals(encode(buildings), encode(reloaded));
+        }
+    }
+
+    /**
+     * Readings written as runs are read by every loader as the readings
+     * they stand for, written back as the same runs, and reloaded equal.
+     *
+     * @throws Exception if a save file cannot be written or loaded
+     */
+    @Test
+    public void readingRunsRoundTrip() throws Exception {
+        String runs = "22*90,23*45,22";
+        String save = String.join(System.lineSeparator(), "Tower", "1",
+                "1:10.00:10.00:1", "100:STUDY:5.00:1",
+                "TemperatureSensor:" + runs) + System.lineSeparator();
+        String filename = write(save);
+        for (List<Building> loaded : loadAll(filename)) {
+            TimedSensor sensor = (TimedSensor) loaded.get(0)
+                    .getFloorByNumber(1).getRoomByNumber(100).getSensors()
+                    .get(0);
+            assertEquals(136, sensor.getReadingCount());
+            assertEquals(22, sensor.getReading(89));
+            assertEquals(23, sensor.getReading(90));
+            assertEquals(23, sensor.getReading(134));
+            assertEquals(22, sensor.getReading(135));
+            assertEquals(save, loaded.get(0).encode());
+            String saved = this.directory.resolve("saved.txt").toString();
+            BuildingWriter.save(loaded, saved);
+            for (List<Building> reloaded : loadAll(saved)) {
+                assertEquals(loaded, reloaded);
+                assertEquals(save, reloaded.get(0).encode());
+            }
+        }
+    }
+
+    /**
+     * Custom rules are read by every loader whatever whitespace they are
+     * written with, and saved in their canonical form.
+     *
+     * @throws Exception if a save file cannot be written or loaded
+     */
+    @Test
+    public void customRulesSavedCanonically() throws Exception {
+        String rule = "if(anyOf(temperature>=60,type(LABORATORY)),100,"
+                + "weighted(noise*3,carbonDioxide*1))";
+        String spaced = "if( anyOf( temperature >= 60, type( LABORATORY ) ),"
+                + " 100, weighted( noise * 3, carbonDioxide * 1 ) )";
+        String filename = write(SAVE.replace("max(noise,carbonDioxide)",
+                spaced));
+        for (List<Building> loaded : loadAll(filename)) {
+            Room room = loaded.get(0).getFloorByNumber(2)
+                    .getRoomByNumber(200);
+            assertEquals(HazardRule.parse(rule), ((CustomRuleHazardEvaluator)
+                    room.getHazardEvaluator()).getRule());
+            assertEquals(100, room.getHazardEvaluator().evaluateHazardLevel());
+            assertEquals(encode(BuildingInitialiser.loadBuildings(
+                    new StringReader(SAVE.replace("max(noise,carbonDioxide)",
+                            rule)))), encode(loaded));
+        }
+    }
+
+    /**
+     * Every loader rejects the same invalid files with a
+     * FileFormatException.
+     *
+     * @throws Exception if a save file cannot be written
+     */
+    @Test
+    public void loadersRejectInvalidFiles() throws Exception {
+        String[] invalid = {
+            // More sensors declared than follow
+            SAVE.replace("101:OFFICE:15.50:1", "101:OFFICE:15.50:2"),
+            // Fewer floors declared than follow
+            SAVE.replaceFirst("Main" + System.lineSeparator() + "2",
+                    "Main" + System.lineSeparator() + "1"),
+            // Trailing separator
+            SAVE.replace("NoiseSensor:45:1", "NoiseSensor:45:1:"),
+            // Invalid reading and run length
+            SAVE.replace("20,21,22", "20,x,22"),
+            SAVE.replace("60*3", "60*0"),
+            SAVE.replace("60*3", "60*-1"),
+            SAVE.replace("60*3", "60*"),
+            SAVE.replace("60*3", "x*3"),
+            SAVE.replace("60*3", "*3"),
+            SAVE.replace("60*3", "60*3*2"),
+            // Unknown room type and evaluator
+            SAVE.replace("OFFICE", "CELLAR"),
+            SAVE.replace("WeightingBased", "GuessBased"),
+            // Invalid custom rules
+            SAVE.replace("max(noise,carbonDioxide)", "max()"),
+            SAVE.replace("max(noise,carbonDioxide)", "foo"),
+            SAVE.replace("max(noise,carbonDioxide)", "if(noise,1,2)"),
+            SAVE.replace("max(noise,carbonDioxide))", "max(noise)"),
+            SAVE.replace("max(noise,carbonDioxide)", "noise) extra(noise"),
+            // Huge sensor count that is not followed by the sensors
+            SAVE.replace("100:STUDY:20.00:2", "100:STUDY:20.00:2000000000"),
+            // Truncated file
+            SAVE.substring(0, SAVE.indexOf("Annex") - 5),
+        };
+        String[] names = {"text", "mapped", "parallel", "lazy"};
+        for (String contents : invalid) {
+            String filename = write(contents);
+            for (String name : names) {
+                try {
+                    load(name, filename);
+                    fail(name + " loader accepted:" + System.lineSeparator()
+                            + contents);
+                } catch (FileFormatException expected) {
+                    // Rejected as it should be
+                }
+            }
+        }
+    }
+
+    /**
+     * The parallel loader reports the first invalid building in the file,
+     * as the mapped loader does, whichever building task fails first.
+     *
+     * @throws Exception if a save file cannot be written
+     */
+    @Test
+    public void parallelLoaderReportsFirstInvalidBuilding() throws Exception {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            String building = SAVE.replace("Main", "Main" + i);
+            if (i == 25) {
+                building = building.replace("20,21,22", "20,x,22");
+            } else if (i > 25 && i % 3 == 0) {
+                building = building.replace("OFFICE", "CELLAR");
+            }
+            contents.append(building);
+        }
+        String filename = write(contents.toString());
+        String[] messages = new String[2];
+        for (int attempt = 0; attempt < 20; attempt++) {
+            for (int i = 0; i < messages.length; i++) {
+                try {
+                    load(i == 0 ? "mapped" : "parallel", filename);
+                    fail("Accepted an invalid building");
+                } catch (FileFormatException expected) {
+                    messages[i] = expected.getMessage();
+                }
+            }
+            assertTrue(messages[0], messages[0].contains("\"x\""));
+            assertEquals(messages[0], messages[1]);
+        }
+    }
+
+    /**
+     * Loaders that reject a file leave none of the sensors or maintenance
+     * schedules they read registered, however far they got.
+     *
+     * @throws Exception if a save file cannot be written
+     */
+    @Test
+    public void rejectedFilesLeaveNothingRegistered() throws Exception {
+        String[] invalid = {
+            // Invalid reading in the last building with sensors
+            SAVE.replace("18*4,19", "18*4,x"),
+            // Duplicate sensor, once both have been read
+            SAVE.replace("NoiseSensor:45:1", "CarbonDioxideSensor:1:1:1:1"),
+            // Room too large for its floor, once its sensors were added
+            SAVE.replace("110:STUDY:8.00", "110:STUDY:800.00"),
+            // Unknown room in a schedule, once the floor was read
+            SAVE.replace(":100,101", ":100,109"),
+            // Floor declared in the last building but missing
+            SAVE.replace("Empty" + System.lineSeparator() + "0",
+                    "Empty" + System.lineSeparator() + "1"),
+        };
+        TimedItemManager manager = TimedItemManager.getInstance();
+        for (String contents : invalid) {
+            String filename = write(contents);
+            for (String name : new String[] {"text", "mapped", "parallel",
+                    "reader"}) {
+                int registered = manager.getRegisteredCount();
+                try {
+                    if (name.equals("reader")) {
+                        BuildingInitialiser.loadBuildings(
+                                new StringReader(contents));
+                    } else {
+                        load(name, filename);
+                    }
+                    fail(name + " loader accepted:" + System.lineSeparator()
+                            + contents);
+                } catch (FileFormatException expected) {
+                    assertEquals(name + " loader left items registered:"
+                            + System.lineSeparator() + contents, registered,
+                            manager.getRegisteredCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the given file with the named loader, forcing lazily loaded
+     * buildings to be read.
+     *
+     * @param name     name of the loader
+     * @param filename path of the save file
+     * @throws IOException         if the file cannot be read
+     * @throws FileFormatException if the file is invalid
+     */
+    private static void load(String name, String filename)
+            throws IOException, FileFormatException {
+        switch (name) {
+            case "text":
+                BuildingInitialiser.loadBuildings(filename);
+                break;
+            case "mapped":
+                BuildingInitialiser.loadBuildingsMapped(filename);
+                break;
+            case "parallel":
+                BuildingInitialiser.loadBuildingsParallel(filename);
+                break;
+            default:
+                for (Building building
+                        : BuildingInitialiser.loadBuildingsLazy(filename)) {
+                    building.load();
+                }
+        }
+    }
+}
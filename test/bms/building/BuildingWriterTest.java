@@ -0,0 +1,172 @@
+package bms.building;
+
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.NoiseSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that saves write a snapshot of the buildings taken when the save
+ * started, and replace the save file only once they have succeeded.
+ */
+public class BuildingWriterTest {
+    /**
+     * Directory holding the save files written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Save file written by a test.
+     */
+    private Path save;
+
+    /**
+     * Buildings read from the loader test's save file.
+     */
+    private List<Building> buildings;
+
+    /**
+     * Loads the buildings and creates an empty directory to save them in.
+     *
+     * @throws Exception if the directory cannot be created, or the
+     *                   buildings cannot be loaded
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("bms-writer");
+        this.save = this.directory.resolve("save.txt");
+        this.buildings = BuildingInitialiser.loadBuildings(new StringReader(
+                BuildingInitialiserTest.SAVE));
+    }
+
+    /**
+     * Unregisters the buildings and deletes the test's save files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        BuildingInitialiser.discard(this.buildings);
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Returns the names of the files in the test directory.
+     *
+     * @return file names
+     * @throws IOException if the directory cannot be listed
+     */
+    private List<String> files() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (var files = Files.list(this.directory)) {
+            files.forEach(file -> names.add(file.getFileName().toString()));
+        }
+        return names;
+    }
+
+    /**
+     * Adds a floor, a room and a sensor to the first building.
+     *
+     * @throws Exception if the building cannot be changed
+     */
+    private void change() throws Exception {
+        Building building = this.buildings.get(0);
+        Floor floor = new Floor(3, 30, 30);
+        building.addFloor(floor);
+        Room room = new Room(300, RoomType.OFFICE, 20);
+        floor.addRoom(room);
+        room.addSensor(new NoiseSensor(new int[] {50, 60}, 2));
+        building.getFloorByNumber(1).getRoomByNumber(101)
+                .addSensor(new NoiseSensor(new int[] {40}, 1));
+    }
+
+    /**
+     * A snapshot keeps encoding the buildings as they were when it was
+     * taken, and is saved as they were, while the buildings change.
+     *
+     * @throws Exception if the buildings cannot be changed or saved
+     */
+    @Test
+    public void snapshotSavedAsTaken() throws Exception {
+        String before = BuildingInitialiserTest.encode(this.buildings);
+        List<Building> snapshot = BuildingWriter.snapshot(this.buildings);
+        CompletableFuture<Void> saved = CompletableFuture.runAsync(() -> {
+            try {
+                BuildingWriter.save(snapshot, this.save.toString());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        change();
+        saved.join();
+        assertNotEquals(before,
+                BuildingInitialiserTest.encode(this.buildings));
+        assertEquals(before, BuildingInitialiserTest.encode(snapshot));
+        assertEquals(before, BuildingInitialiserTest.encode(
+                BuildingInitialiser.loadBuildings(this.save.toString())));
+        assertEquals(List.of("save.txt"), files());
+    }
+
+    /**
+     * Progress is reported after each building is written.
+     *
+     * @throws Exception if the buildings cannot be saved
+     */
+    @Test
+    public void progressReportedPerBuilding() throws Exception {
+        List<Integer> progress = new ArrayList<>();
+        BuildingWriter.save(this.buildings, this.save.toString(),
+                progress::add);
+        assertEquals(List.of(1, 2, 3), progress);
+    }
+
+    /**
+     * A save that fails part way through leaves the previous save file as
+     * it was, and no temporary file behind.
+     *
+     * @throws Exception if the buildings cannot be changed or saved
+     */
+    @Test
+    public void failedSaveLeavesPreviousFile() throws Exception {
+        BuildingWriter.save(this.buildings, this.save.toString());
+        String previous = Files.readString(this.save);
+        change();
+        try {
+            BuildingWriter.save(this.buildings, this.save.toString(),
+                    written -> {
+                        if (written == 2) {
+                            throw new IllegalStateException("Save failed");
+                        }
+                    });
+            fail("Save did not fail");
+        } catch (IllegalStateException expected) {
+            // Failed part way through
+        }
+        assertEquals(previous, Files.readString(this.save));
+        assertEquals(List.of("save.txt"), files());
+        BuildingWriter.save(this.buildings, this.save.toString());
+        assertEquals(BuildingInitialiserTest.encode(this.buildings),
+                BuildingInitialiserTest.encode(BuildingInitialiser
+                        .loadBuildings(this.save.toString())));
+    }
+}
@@ -0,0 +1,111 @@
+package bms.building;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the memory-mapped parser splits lines exactly as the text
+ * loader's line reader does, whatever line endings the file uses.
+ */
+public class MappedBuildingParserTest {
+    /**
+     * Directory holding the save files written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Creates an empty directory for the test's save files.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("bms-mapped");
+    }
+
+    /**
+     * Deletes the test's save files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Checks that every loader reads the given save file contents as the
+     * same buildings as the test save file.
+     *
+     * @param contents contents of the save file
+     * @throws Exception if the save file cannot be written or loaded
+     */
+    private void assertReadAsSave(String contents) throws Exception {
+        String expected = BuildingInitialiserTest.encode(
+                BuildingInitialiser.loadBuildings(new StringReader(
+                        BuildingInitialiserTest.SAVE)));
+        Path file = Files.createTempFile(this.directory, "save", ".txt");
+        Files.writeString(file, contents);
+        String shown = contents.replace("\r", "\\r").replace("\n", "\\n");
+
+        assertEquals("reader: " + shown, expected, BuildingInitialiserTest
+                .encode(BuildingInitialiser.loadBuildings(
+                        new StringReader(contents))));
+        String[] names = {"text", "mapped", "parallel", "lazy"};
+        List<List<Building>> loaded = BuildingInitialiserTest.loadAll(
+                file.toString());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i] + ": " + shown, expected,
+                    BuildingInitialiserTest.encode(loaded.get(i)));
+        }
+    }
+
+    /**
+     * Files with "\n", "\r\n" or lone "\r" line endings are read the same
+     * way, with or without a line ending after the last line.
+     *
+     * @throws Exception if a save file cannot be written or loaded
+     */
+    @Test
+    public void lineEndingsReadAsText() throws Exception {
+        String lines = BuildingInitialiserTest.SAVE
+                .replace(System.lineSeparator(), "\n");
+        for (String ending : new String[] {"\n", "\r\n", "\r"}) {
+            String contents = lines.replace("\n", ending);
+            assertReadAsSave(contents);
+            assertReadAsSave(contents.substring(0,
+                    contents.length() - ending.length()));
+        }
+    }
+
+    /**
+     * A file that mixes line endings is still split into the same lines.
+     *
+     * @throws Exception if the save file cannot be written or loaded
+     */
+    @Test
+    public void mixedLineEndingsReadAsText() throws Exception {
+        String[] lines = BuildingInitialiserTest.SAVE
+                .split(System.lineSeparator());
+        String[] endings = {"\n", "\r\n", "\r"};
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            contents.append(lines[i]).append(endings[i % endings.length]);
+        }
+        assertReadAsSave(contents.toString());
+    }
+}
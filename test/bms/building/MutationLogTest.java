@@ -0,0 +1,189 @@
+package bms.building;
+
+import bms.exceptions.FileFormatException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that mutations appended to a mutation log are recovered when it is
+ * reopened, and that checkpoints and partly written mutations are handled.
+ */
+public class MutationLogTest {
+    /**
+     * Mutations appended by the tests, including fields that must be
+     * escaped.
+     */
+    private static final List<List<String>> MUTATIONS = List.of(
+            List.of("ADD_BUILDING", "Main"),
+            List.of("ADD_FLOOR", "0", "", "30", "30"),
+            List.of("ADD_BUILDING", "tab\there", "line\nbreak",
+                    "back\\slash", ""),
+            List.of(),
+            List.of("ADD_ROOM", "0", "1", "", "101", "STUDY", "10"));
+
+    /**
+     * Directory holding the log written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Save file the log belongs to; never written.
+     */
+    private String filename;
+
+    /**
+     * Creates an empty directory for the test's log.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("bms-log");
+        this.filename = this.directory.resolve("save.txt").toString();
+    }
+
+    /**
+     * Deletes the test's log.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Opens the log, appends every test mutation and closes it.
+     *
+     * @return ID of the log
+     * @throws Exception if the log cannot be written
+     */
+    private String appendAll() throws Exception {
+        try (MutationLog log = MutationLog.open(this.filename)) {
+            for (int i = 0; i < MUTATIONS.size(); i++) {
+                assertEquals(i + 1, log.append(MUTATIONS.get(i)));
+            }
+            return log.getLogId();
+        }
+    }
+
+    /**
+     * Reads the mutations recovered by the given log after the given
+     * sequence number.
+     *
+     * @param log   opened log
+     * @param after sequence number of the last mutation to skip
+     * @return sequence number and fields of each mutation, in order
+     */
+    private static List<String> recovered(MutationLog log, long after) {
+        List<String> mutations = new ArrayList<>();
+        log.readRecovered(after, mutation -> mutations.add(
+                mutation.getSequence() + " " + mutation.getFields()));
+        return mutations;
+    }
+
+    /**
+     * Returns the descriptions of the test mutations from the given index,
+     * numbered as they were appended.
+     *
+     * @param from index of the first mutation
+     * @return sequence number and fields of each mutation, in order
+     */
+    private static List<String> expected(int from) {
+        List<String> mutations = new ArrayList<>();
+        for (int i = from; i < MUTATIONS.size(); i++) {
+            mutations.add((i + 1) + " " + MUTATIONS.get(i));
+        }
+        return mutations;
+    }
+
+    /**
+     * Mutations appended to a log are recovered, in order and unchanged,
+     * when it is reopened.
+     *
+     * @throws Exception if the log cannot be written or read
+     */
+    @Test
+    public void mutationsRecoveredOnReopen() throws Exception {
+        String logId = appendAll();
+        try (MutationLog log = MutationLog.open(this.filename)) {
+            assertEquals(logId, log.getLogId());
+            assertEquals(MUTATIONS.size(), log.getRecoveredCount());
+            assertEquals(MUTATIONS.size(), log.getLastSequence());
+            assertEquals(expected(2), recovered(log, 2));
+            // Recovered mutations are only read once
+            assertEquals(List.of(), recovered(log, 0));
+            assertEquals(MUTATIONS.size() + 1, log.append(List.of("next")));
+        }
+    }
+
+    /**
+     * A checkpoint removes the mutations it covers, keeping later ones.
+     *
+     * @throws Exception if the log cannot be written or read
+     */
+    @Test
+    public void checkpointRemovesSavedMutations() throws Exception {
+        appendAll();
+        try (MutationLog log = MutationLog.open(this.filename)) {
+            log.checkpoint(3);
+        }
+        try (MutationLog log = MutationLog.open(this.filename)) {
+            assertEquals(MUTATIONS.size() - 3, log.getRecoveredCount());
+            assertEquals(expected(3), recovered(log, 0));
+        }
+    }
+
+    /**
+     * A partly written final mutation is discarded, and sequence numbers
+     * continue from the last complete mutation.
+     *
+     * @throws Exception if the log cannot be written or read
+     */
+    @Test
+    public void partlyWrittenMutationDiscarded() throws Exception {
+        appendAll();
+        Path file = Path.of(this.filename + ".wal");
+        Files.writeString(file, (MUTATIONS.size() + 1) + "\tADD_BUI",
+                StandardOpenOption.APPEND);
+        try (MutationLog log = MutationLog.open(this.filename)) {
+            assertEquals(expected(0), recovered(log, 0));
+            assertEquals(MUTATIONS.size() + 1, log.append(List.of("next")));
+        }
+    }
+
+    /**
+     * A corrupt mutation before the end of the log is rejected.
+     *
+     * @throws Exception if the log cannot be written
+     */
+    @Test
+    public void corruptMutationRejected() throws Exception {
+        appendAll();
+        Path file = Path.of(this.filename + ".wal");
+        String contents = Files.readString(file);
+        Files.writeString(file, contents.replace("Main", "Mian"));
+        try {
+            MutationLog.open(this.filename).close();
+            fail("Opened a corrupt log");
+        } catch (FileFormatException expected) {
+            // Rejected
+        }
+    }
+}
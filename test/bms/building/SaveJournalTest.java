@@ -0,0 +1,144 @@
+package bms.building;
+
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.NoiseSensor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that saves made through a save journal load back the buildings
+ * that were saved, and that unfinished saves are ignored.
+ */
+public class SaveJournalTest {
+    /**
+     * Directory holding the save files written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Snapshot save file.
+     */
+    private Path snapshot;
+
+    /**
+     * Journal next to the snapshot.
+     */
+    private Path journalFile;
+
+    /**
+     * Writes the loader test's save file as the snapshot.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("bms-journal");
+        this.snapshot = this.directory.resolve("save.txt");
+        this.journalFile = this.directory.resolve("save.txt.journal");
+        Files.writeString(this.snapshot, BuildingInitialiserTest.SAVE);
+    }
+
+    /**
+     * Deletes the test's save files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Loads the save with a new journal.
+     *
+     * @param lazy whether to read the snapshot lazily
+     * @return buildings in the save
+     * @throws Exception if the save cannot be loaded
+     */
+    private List<Building> reload(boolean lazy) throws Exception {
+        return new SaveJournal(this.snapshot.toString()).load(lazy);
+    }
+
+    /**
+     * Changes made between saves are journalled and loaded back, whether
+     * the snapshot is read eagerly or lazily.
+     *
+     * @throws Exception if the save cannot be written or loaded
+     */
+    @Test
+    public void journalledChangesReload() throws Exception {
+        SaveJournal journal = new SaveJournal(this.snapshot.toString());
+        List<Building> buildings = journal.load();
+        assertEquals(BuildingInitialiserTest.encode(buildings),
+                BuildingInitialiserTest.encode(reload(false)));
+
+        // The first save after loading without a journal is a snapshot
+        buildings.get(1).getFloorByNumber(1).getRoomByNumber(110)
+                .addSensor(new NoiseSensor(new int[]{30, 35}, 2));
+        journal.save(buildings);
+        String expected = BuildingInitialiserTest.encode(buildings);
+        assertEquals(expected, BuildingInitialiserTest.encode(reload(false)));
+        long journalSize = Files.size(this.journalFile);
+
+        // Later small changes are appended to the journal
+        Floor floor = buildings.get(0).getFloorByNumber(2);
+        floor.addRoom(new Room(201, RoomType.OFFICE, 12));
+        Building added = new Building("Added");
+        added.addFloor(new Floor(1, 10, 10));
+        buildings.add(added);
+        journal.save(buildings);
+        assertTrue(Files.size(this.journalFile) > journalSize);
+        journalSize = Files.size(this.journalFile);
+        expected = BuildingInitialiserTest.encode(buildings);
+        assertEquals(expected, BuildingInitialiserTest.encode(reload(false)));
+        assertEquals(expected, BuildingInitialiserTest.encode(reload(true)));
+
+        // The journal is now over half the size of the snapshot, so the
+        // next save compacts it
+        journal.save(buildings);
+        assertTrue(Files.size(this.journalFile) < journalSize);
+        assertEquals(expected, BuildingInitialiserTest.encode(reload(false)));
+    }
+
+    /**
+     * Records written after the last commit line are ignored when the save
+     * is loaded.
+     *
+     * @throws Exception if the save cannot be written or loaded
+     */
+    @Test
+    public void uncommittedRecordsIgnored() throws Exception {
+        SaveJournal journal = new SaveJournal(this.snapshot.toString());
+        List<Building> buildings = journal.load();
+        journal.save(buildings);
+        buildings.get(0).getFloorByNumber(2).addRoom(
+                new Room(201, RoomType.STUDY, 12));
+        journal.save(buildings);
+        String expected = BuildingInitialiserTest.encode(buildings);
+
+        Files.writeString(this.journalFile, String.join(
+                System.lineSeparator(), "@room 1 1",
+                "110:STUDY:8.00:0", ""), StandardOpenOption.APPEND);
+        List<Building> reloaded = reload(false);
+        assertEquals(expected, BuildingInitialiserTest.encode(reloaded));
+        assertFalse(reloaded.get(0).isDirty());
+    }
+}
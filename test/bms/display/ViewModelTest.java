@@ -0,0 +1,245 @@
+package bms.display;
+
+import bms.building.Building;
+import bms.building.MutationLog;
+import bms.building.SaveJournal;
+import bms.floor.Floor;
+import bms.sensors.Sensor;
+import bms.util.TimedItemManager;
+import javafx.beans.property.SimpleIntegerProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that changes made through the view model are replayed from the
+ * mutation log on top of the save they were made to.
+ */
+public class ViewModelTest {
+    /**
+     * Save file the changes are made to.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "Main",
+            "1",
+            "1:30.00:30.00:1",
+            "100:STUDY:20.00:1:RuleBased",
+            "NoiseSensor:40,50:2") + System.lineSeparator();
+
+    /**
+     * Directory holding the save files written by a test.
+     */
+    private Path directory;
+
+    /**
+     * Save file the changes are made to.
+     */
+    private String filename;
+
+    /**
+     * View model making changes.
+     */
+    private ViewModel viewModel;
+
+    /**
+     * Index of the building selected in the view model.
+     */
+    private final SimpleIntegerProperty building = new SimpleIntegerProperty();
+
+    /**
+     * Writes the save file.
+     *
+     * @throws IOException if the save file cannot be written
+     */
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("bms-replay");
+        this.filename = this.directory.resolve("save.txt").toString();
+        Files.writeString(Path.of(this.filename), SAVE);
+    }
+
+    /**
+     * Deletes the test's save files.
+     *
+     * @throws IOException if a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    /**
+     * Loads the save and opens its mutation log, replaying any logged
+     * changes into a new view model.
+     *
+     * @return opened log
+     * @throws Exception if the save or log cannot be read
+     */
+    private MutationLog open() throws Exception {
+        SaveJournal journal = new SaveJournal(this.filename);
+        List<Building> buildings = journal.load();
+        MutationLog log = MutationLog.open(this.filename);
+        this.viewModel = new ViewModel(buildings, journal, log);
+        this.viewModel.setCurrentBuildingIndexProperty(this.building);
+        return log;
+    }
+
+    /**
+     * Gives the view model an instruction with the given arguments.
+     *
+     * @param option    instruction to give
+     * @param arguments arguments entered for the instruction
+     */
+    private void instruct(ButtonOptions option, String... arguments) {
+        List<Optional<String>> args = new ArrayList<>();
+        for (String argument : arguments) {
+            args.add(Optional.of(argument));
+        }
+        this.viewModel.takeInstruction(option, args);
+    }
+
+    /**
+     * Makes a series of changes, with different buildings, floors and rooms
+     * selected.
+     */
+    private void makeChanges() {
+        instruct(ButtonOptions.ADD_BUILDING, "Lab\tWing");
+        this.building.set(1);
+        this.viewModel.setSelected(null, null);
+        instruct(ButtonOptions.ADD_FLOOR, "40", "40");
+        instruct(ButtonOptions.ADD_FLOOR, "35", "35");
+        instruct(ButtonOptions.ADD_FLOOR, "30", "30");
+        Floor floor = this.viewModel.getSelectedBuilding().getFloorByNumber(1);
+        this.viewModel.setSelected(floor, null);
+        instruct(ButtonOptions.ADD_ROOM, "101", "LABORATORY", "12.5");
+        instruct(ButtonOptions.ADD_ROOM, "102", "OFFICE", "10");
+        this.viewModel.setSelected(floor, floor.getRoomByNumber(101));
+        instruct(ButtonOptions.ADD_SENSOR, "NoiseSensor", "40,50", "2");
+        instruct(ButtonOptions.ADD_SENSOR, "TemperatureSensor", "20,21,35");
+        instruct(ButtonOptions.ADD_HAZARD_EVALUATOR, "Weighting Based",
+                "30", "70");
+        this.viewModel.setSelected(floor, null);
+        instruct(ButtonOptions.ADD_MAINTENANCE_SCHEDULE, "102", "101");
+        this.viewModel.setSelected(
+                this.viewModel.getSelectedBuilding().getFloorByNumber(2),
+                null);
+        instruct(ButtonOptions.RENOVATE_FLOOR, "33", "33");
+        this.building.set(0);
+        this.viewModel.setSelected(null, null);
+        instruct(ButtonOptions.START_FIRE_DRILL, "STUDY");
+    }
+
+    /**
+     * Returns the encoded form of the view model's buildings.
+     *
+     * @return concatenated encodings
+     */
+    private String encode() {
+        StringBuilder encoded = new StringBuilder();
+        for (Building building : this.viewModel.getBuildings()) {
+            encoded.append(building.encode()).append(System.lineSeparator());
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Logged changes that were never saved are replayed when the save is
+     * loaded again.
+     *
+     * @throws Exception if the save or log cannot be read or written
+     */
+    @Test
+    public void unsavedChangesReplayed() throws Exception {
+        String expected;
+        long changes;
+        try (MutationLog log = open()) {
+            assertEquals(0, this.viewModel.recover());
+            makeChanges();
+            expected = encode();
+            changes = log.getLastSequence();
+        }
+        try (MutationLog log = open()) {
+            assertEquals(changes, log.getRecoveredCount());
+            assertEquals(changes, this.viewModel.recover());
+            assertEquals(expected, encode());
+            Building lab = this.viewModel.getBuildings().get(1);
+            assertEquals("Lab\tWing", lab.getName());
+            assertEquals(3, lab.getFloors().size());
+            assertEquals(33, lab.getFloorByNumber(2).getWidth(), 0);
+        }
+    }
+
+    /**
+     * Changes included in a save are not replayed again; only those made
+     * after it are.
+     *
+     * @throws Exception if the save or log cannot be read or written
+     */
+    @Test
+    public void savedChangesNotReplayed() throws Exception {
+        String expected;
+        try (MutationLog log = open()) {
+            assertEquals(0, log.getRecoveredCount());
+            this.viewModel.recover();
+            makeChanges();
+            this.viewModel.save(this.filename);
+            this.building.set(1);
+            this.viewModel.setSelected(null, null);
+            instruct(ButtonOptions.ADD_FLOOR, "20", "20");
+            expected = encode();
+        }
+        try (MutationLog log = open()) {
+            assertEquals(1, log.getRecoveredCount());
+            assertEquals(1, this.viewModel.recover());
+            assertEquals(expected, encode());
+            this.viewModel.save(this.filename);
+        }
+        try (MutationLog log = open()) {
+            assertEquals(0, log.getRecoveredCount());
+            assertEquals(0, this.viewModel.recover());
+            assertEquals(expected, encode());
+        }
+    }
+
+    /**
+     * Ticking and fast-forwarding elapse the buildings with their own timed
+     * item managers as well as those on the singleton.
+     *
+     * @throws Exception if the save or log cannot be read
+     */
+    @Test
+    public void ticksReachBuildingManagers() throws Exception {
+        try (MutationLog log = open()) {
+            assertEquals(0, log.getRecoveredCount());
+            Building main = this.viewModel.getBuildings().get(0);
+            TimedItemManager manager = new TimedItemManager();
+            main.setTimedItemManager(manager);
+            Sensor sensor = main.getFloorByNumber(1).getRoomByNumber(100)
+                    .getSensors().get(0);
+            this.viewModel.tick();
+            assertEquals(0, manager.getMinutesElapsed());
+            this.viewModel.togglePause();
+            this.viewModel.tick();
+            assertEquals(1, manager.getMinutesElapsed());
+            this.viewModel.fastForward(3);
+            assertEquals(4, manager.getMinutesElapsed());
+            // Noise readings alternate every two minutes
+            assertEquals(40, sensor.getCurrentReading());
+            main.discard();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package bms.hazardevaluation;
+
+import bms.building.Building;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomType;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.HazardSensor;
+import bms.sensors.NoiseSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.Sensor;
+import bms.sensors.TemperatureSensor;
+import bms.util.TimedItemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that evaluating many rooms at once gives each room the level its
+ * own hazard evaluator gives.
+ */
+public class BatchHazardEvaluatorTest {
+    /**
+     * Manager elapsing the rooms' sensors.
+     */
+    private TimedItemManager manager;
+
+    /**
+     * Rooms with random sensors and every kind of hazard evaluator.
+     */
+    private List<Room> rooms;
+
+    /**
+     * Creates the rooms, with sensors registered with the test's manager.
+     *
+     * @throws Exception if a sensor cannot be added to a room
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.manager = new TimedItemManager();
+        this.rooms = new ArrayList<>();
+        Random random = new Random(22);
+        for (int number = 0; number < 300; number++) {
+            Room room = new Room(number, RoomType.values()[number % 3], 10);
+            room.setTimedItemManager(this.manager);
+            List<HazardSensor> sensors = sensors(random);
+            for (HazardSensor sensor : sensors) {
+                room.addSensor((Sensor) sensor);
+            }
+            room.setHazardEvaluator(evaluator(random, room, sensors));
+            this.rooms.add(room);
+        }
+    }
+
+    /**
+     * Returns random readings with long runs, so that levels often hold.
+     *
+     * @param random source of the readings
+     * @param limit  readings are less than this
+     * @return readings
+     */
+    private static int[] readings(Random random, int limit) {
+        int[] readings = new int[1 + random.nextInt(20)];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = random.nextInt(limit);
+        }
+        return readings;
+    }
+
+    /**
+     * Returns a random selection of sensors, at most one of each type, in
+     * a random order. Some noise sensors are of a subclass that the batch
+     * does not know, and is given levels for by the sensor itself.
+     *
+     * @param random source of the sensors
+     * @return sensors for a room
+     */
+    private static List<HazardSensor> sensors(Random random) {
+        List<HazardSensor> sensors = new ArrayList<>();
+        if (random.nextBoolean()) {
+            sensors.add(new CarbonDioxideSensor(readings(random, 6000),
+                    1 + random.nextInt(5), 700, 300));
+        }
+        if (random.nextBoolean()) {
+            int[] readings = readings(random, 120);
+            int frequency = 1 + random.nextInt(5);
+            sensors.add(random.nextInt(4) == 0
+                    ? new NoiseSensor(readings, frequency) {
+                    }
+                    : new NoiseSensor(readings, frequency));
+        }
+        if (random.nextBoolean()) {
+            sensors.add(new OccupancySensor(readings(random, 60),
+                    1 + random.nextInt(5), 1 + random.nextInt(50)));
+        }
+        if (random.nextBoolean()) {
+            sensors.add(new TemperatureSensor(readings(random, 90)));
+        }
+        Collections.shuffle(sensors, random);
+        return sensors;
+    }
+
+    /**
+     * Returns a random hazard evaluator for the given room and sensors, or
+     * null for no evaluator.
+     *
+     * @param random  source of the evaluator
+     * @param room    room the evaluator is for
+     * @param sensors sensors in the room
+     * @return evaluator, or null
+     */
+    private static HazardEvaluator evaluator(Random random, Room room,
+                                             List<HazardSensor> sensors) {
+        switch (random.nextInt(5)) {
+            case 0:
+                return null;
+            case 1:
+                return new RuleBasedHazardEvaluator(sensors);
+            case 2:
+                if (sensors.isEmpty()) {
+                    return null;
+                }
+                Map<HazardSensor, Integer> weightings = new LinkedHashMap<>();
+                int left = 100;
+                for (int i = 0; i < sensors.size(); i++) {
+                    int weighting = i == sensors.size() - 1 ? left
+                            : random.nextInt(left + 1);
+                    weightings.put(sensors.get(i), weighting);
+                    left -= weighting;
+                }
+                return new WeightingBasedHazardEvaluator(weightings);
+            case 3:
+                return new CustomRuleHazardEvaluator(HazardRule.parse(
+                        "max(sum(noise,occupancy),scale(temperature,50))"),
+                        room.getType(), sensors);
+            default:
+                // A subclass the batch does not know, evaluated as such
+                return new RuleBasedHazardEvaluator(sensors) {
+                    @Override
+                    public int evaluateHazardLevel() {
+                        return Math.min(100, 1 + super.evaluateHazardLevel());
+                    }
+                };
+        }
+    }
+
+    /**
+     * Returns the level of each room given by its own evaluator.
+     *
+     * @param rooms rooms to evaluate
+     * @return hazard level of each room, or NO_EVALUATOR
+     */
+    private static int[] expectedLevels(List<Room> rooms) {
+        int[] levels = new int[rooms.size()];
+        for (int i = 0; i < levels.length; i++) {
+            HazardEvaluator evaluator = rooms.get(i).getHazardEvaluator();
+            levels[i] = evaluator == null
+                    ? BatchHazardEvaluator.NO_EVALUATOR
+                    : evaluator.evaluateHazardLevel();
+        }
+        return levels;
+    }
+
+    /**
+     * Every room is given the level its evaluator gives, at every minute
+     * over random jumps.
+     */
+    @Test
+    public void levelsMatchEvaluators() {
+        BatchHazardEvaluator batch = new BatchHazardEvaluator(this.rooms);
+        assertEquals(this.rooms, batch.getRooms());
+        Random random = new Random(23);
+        boolean changed = false;
+        int[] first = batch.evaluateHazardLevels();
+        for (int round = 0; round < 200; round++) {
+            this.manager.elapseMinutes(random.nextInt(30));
+            int[] levels = batch.evaluateHazardLevels();
+            assertArrayEquals("minute " + this.manager.getMinutesElapsed(),
+                    expectedLevels(this.rooms), levels);
+            changed |= !Arrays.equals(first, levels);
+        }
+        assertTrue(changed);
+    }
+
+    /**
+     * Batches over a floor or a building cover its rooms floor by floor,
+     * in order.
+     *
+     * @throws Exception if the rooms cannot be added
+     */
+    @Test
+    public void batchesOverFloorsAndBuildings() throws Exception {
+        Building building = new Building("Tower");
+        for (int number = 1; number <= 3; number++) {
+            Floor floor = new Floor(number, 50, 50);
+            building.addFloor(floor);
+            for (int i = 0; i < 4; i++) {
+                floor.addRoom(this.rooms.get((number - 1) * 4 + i));
+            }
+        }
+        BatchHazardEvaluator whole = BatchHazardEvaluator.of(building);
+        assertEquals(this.rooms.subList(0, 12), whole.getRooms());
+        this.manager.elapseMinutes(17);
+        assertArrayEquals(expectedLevels(this.rooms.subList(0, 12)),
+                whole.evaluateHazardLevels());
+        BatchHazardEvaluator second = BatchHazardEvaluator.of(
+                building.getFloorByNumber(2));
+        assertEquals(this.rooms.subList(4, 8), second.getRooms());
+        assertArrayEquals(expectedLevels(this.rooms.subList(4, 8)),
+                second.evaluateHazardLevels());
+    }
+}
@@ -0,0 +1,171 @@
+package bms.hazardevaluation;
+
+import bms.room.RoomType;
+import bms.sensors.CarbonDioxideSensor;
+import bms.sensors.HazardSensor;
+import bms.sensors.OccupancySensor;
+import bms.sensors.TemperatureSensor;
+import bms.sensors.TimedSensor;
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that user-defined hazard rules are parsed to their canonical
+ * form, reject invalid text, and evaluate as the language describes.
+ */
+public class HazardRuleTest {
+    /**
+     * Sensors of the room the rules are evaluated for: an occupancy level
+     * of 30, a carbon dioxide level of 25, a temperature level of 0 and no
+     * noise sensor.
+     */
+    private List<HazardSensor> sensors;
+
+    /**
+     * Creates the room's sensors.
+     */
+    @Before
+    public void setUp() {
+        this.sensors = List.of(
+                new OccupancySensor(new int[] {30}, 1, 100),
+                new CarbonDioxideSensor(new int[] {1500}, 1, 700, 300),
+                new TemperatureSensor(new int[] {20}));
+    }
+
+    /**
+     * Unregisters the room's sensors from the singleton manager.
+     */
+    @After
+    public void tearDown() {
+        for (HazardSensor sensor : this.sensors) {
+            TimedItemManager.getInstance().unregisterTimedItem(
+                    (TimedSensor) sensor);
+        }
+    }
+
+    /**
+     * Rules are written in their canonical form without whitespace, which
+     * parses back to an equal rule.
+     */
+    @Test
+    public void canonicalFormRoundTrips() {
+        String[][] rules = {
+            {"noise", "noise"},
+            {" max( noise , 5 ) ", "max(noise,5)"},
+            {"min(noise, occupancy, temperature)",
+                "min(noise,occupancy,temperature)"},
+            {"sum(noise, -1)", "sum(noise,-1)"},
+            {"scale(carbonDioxide, occupancy)",
+                "scale(carbonDioxide,occupancy)"},
+            {"weighted(noise * 3, occupancy * 1)",
+                "weighted(noise*3,occupancy*1)"},
+            {"if(anyOf(temperature >= 100,\n"
+                    + "      allOf(type(LABORATORY), carbonDioxide >= 50)),\n"
+                    + "   100, max(noise, scale(carbonDioxide, occupancy)))",
+                "if(anyOf(temperature>=100,allOf(type(LABORATORY),"
+                    + "carbonDioxide>=50)),100,max(noise,scale(carbonDioxide,"
+                    + "occupancy)))"},
+            {"if(not(type(STUDY, OFFICE)), 1, 2)",
+                "if(not(type(STUDY,OFFICE)),1,2)"},
+            {"if(noise > 1, 1, 0)", "if(noise>1,1,0)"},
+            {"if(noise <= 1, 1, 0)", "if(noise<=1,1,0)"},
+            {"if(noise < 1, 1, 0)", "if(noise<1,1,0)"},
+            {"if(noise = 1, 1, 0)", "if(noise=1,1,0)"},
+            {"if(noise != 1, 1, 0)", "if(noise!=1,1,0)"},
+        };
+        for (String[] rule : rules) {
+            HazardRule parsed = HazardRule.parse(rule[0]);
+            assertEquals(rule[1], parsed.toString());
+            HazardRule reparsed = HazardRule.parse(parsed.toString());
+            assertEquals(parsed, reparsed);
+            assertEquals(parsed.hashCode(), reparsed.hashCode());
+            assertEquals(rule[1], reparsed.toString());
+        }
+    }
+
+    /**
+     * Text that is not a valid rule is rejected, with a message quoting it.
+     */
+    @Test
+    public void invalidRulesRejected() {
+        String[] invalid = {
+            "", "max()", "foo", "if(noise,1,2)", "weighted(noise*0)",
+            "weighted(noise)", "type(LAB)", "if(type(LAB),1,2)",
+            "not(noise>1)", "noise:1", "max(noise", "max(noise,)",
+            "scale(noise)", "if(noise>=1,1)", "sum(noise,1) extra",
+            "2147483648",
+        };
+        for (String text : invalid) {
+            try {
+                HazardRule.parse(text);
+                fail("Accepted \"" + text + "\"");
+            } catch (IllegalArgumentException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage()
+                        .contains("\"" + text + "\""));
+            }
+        }
+    }
+
+    /**
+     * Rules give the levels the language describes, with missing sensors
+     * read as 0 and room types decided for the room.
+     */
+    @Test
+    public void rulesEvaluated() {
+        Object[][] rules = {
+            {"occupancy", RoomType.STUDY, 30},
+            {"noise", RoomType.STUDY, 0},
+            {"max(noise,occupancy,carbonDioxide)", RoomType.STUDY, 30},
+            {"min(occupancy,carbonDioxide)", RoomType.STUDY, 25},
+            {"sum(occupancy,carbonDioxide,-5)", RoomType.STUDY, 50},
+            {"scale(occupancy,50)", RoomType.STUDY, 15},
+            {"scale(occupancy,carbonDioxide)", RoomType.STUDY, 7},
+            {"weighted(occupancy*1,carbonDioxide*2)", RoomType.STUDY, 27},
+            {"if(occupancy>=30,1,2)", RoomType.STUDY, 1},
+            {"if(occupancy>30,1,2)", RoomType.STUDY, 2},
+            {"if(occupancy<=29,1,2)", RoomType.STUDY, 2},
+            {"if(occupancy<31,1,2)", RoomType.STUDY, 1},
+            {"if(occupancy=30,1,2)", RoomType.STUDY, 1},
+            {"if(occupancy!=30,1,2)", RoomType.STUDY, 2},
+            {"if(type(LABORATORY),1,2)", RoomType.STUDY, 2},
+            {"if(type(LABORATORY),1,2)", RoomType.LABORATORY, 1},
+            {"if(not(type(STUDY,OFFICE)),1,2)", RoomType.OFFICE, 2},
+            {"if(anyOf(temperature>=50,carbonDioxide>=25),1,2)",
+                RoomType.STUDY, 1},
+            {"if(allOf(temperature>=50,carbonDioxide>=25),1,2)",
+                RoomType.STUDY, 2},
+        };
+        for (Object[] rule : rules) {
+            HazardRule parsed = HazardRule.parse((String) rule[0]);
+            CustomRuleHazardEvaluator evaluator =
+                    new CustomRuleHazardEvaluator(parsed, (RoomType) rule[1],
+                            this.sensors);
+            assertEquals(rule[0] + " in " + rule[1], (int) rule[2],
+                    evaluator.evaluateHazardLevel());
+            assertEquals("Rules(" + rule[0] + ")", evaluator.toString());
+        }
+    }
+
+    /**
+     * The evaluator type read from a room record is recognised as a custom
+     * rule only when wrapped in "Rules(...)".
+     */
+    @Test
+    public void evaluatorTypesRecognised() {
+        assertTrue(CustomRuleHazardEvaluator.isCustomRule("Rules(noise)"));
+        assertFalse(CustomRuleHazardEvaluator.isCustomRule("Rules(noise"));
+        assertFalse(CustomRuleHazardEvaluator.isCustomRule("RuleBased"));
+        assertEquals(HazardRule.parse("max(noise,occupancy)"),
+                CustomRuleHazardEvaluator.parseRule(
+                        "Rules(max( noise, occupancy ))"));
+    }
+}
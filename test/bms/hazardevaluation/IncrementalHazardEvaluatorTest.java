@@ -0,0 +1,236 @@
+package bms.hazardevaluation;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.util.TimedItemManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that hazard levels kept up to date incrementally match those
+ * evaluated in full from every sensor.
+ */
+public class IncrementalHazardEvaluatorTest {
+    /**
+     * Save file with each kind of hazard evaluator over sensors whose
+     * readings change at different rates.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "Campus",
+            "2",
+            "1:40.00:40.00:4",
+            "100:STUDY:20.00:3:WeightingBased",
+            "NoiseSensor:40,50,60*3,90,30:2@50",
+            "TemperatureSensor:20,21,22,60,24,25,26@30",
+            "OccupancySensor:1,2,3,9,0:3:10@20",
+            "101:OFFICE:15.50:3:RuleBased",
+            "OccupancySensor:1,2,0,3:3:40",
+            "NoiseSensor:45,80,20:1",
+            "CarbonDioxideSensor:500,600,1200,800,900:5:700:300",
+            "102:LABORATORY:12.00:2:RuleBased",
+            "TemperatureSensor:20*3,70,20*2",
+            "NoiseSensor:10,95:4",
+            "103:STUDY:12.00:1",
+            "NoiseSensor:45,55:1",
+            "2:30.00:30.00:2",
+            "200:LABORATORY:20.00:3:"
+                    + "Rules(if(anyOf(temperature>=60,carbonDioxide>=50),"
+                    + "100,max(noise,occupancy)))",
+            "CarbonDioxideSensor:500*7,1650:4:700:300",
+            "NoiseSensor:45,55,85:1",
+            "TemperatureSensor:20,61,20,20",
+            "201:OFFICE:25.00:2:Rules(weighted(noise*3,occupancy*1))",
+            "NoiseSensor:30,70:3",
+            "OccupancySensor:1,8,2:2:10") + System.lineSeparator();
+
+    /**
+     * Manager elapsing the campus.
+     */
+    private TimedItemManager manager;
+
+    /**
+     * Buildings loaded from the save file.
+     */
+    private List<Building> buildings;
+
+    /**
+     * Loads the campus onto its own manager.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.manager = new TimedItemManager();
+        this.buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE));
+        for (Building building : this.buildings) {
+            building.setTimedItemManager(this.manager);
+        }
+    }
+
+    /**
+     * Returns every room in the campus with a hazard evaluator.
+     *
+     * @return rooms with hazard evaluators, in order
+     */
+    private List<Room> evaluatedRooms() {
+        List<Room> rooms = new ArrayList<>();
+        for (Building building : this.buildings) {
+            for (Floor floor : building.getFloors()) {
+                for (Room room : floor.getRooms()) {
+                    if (room.getHazardEvaluator() != null) {
+                        rooms.add(room);
+                    }
+                }
+            }
+        }
+        return rooms;
+    }
+
+    /**
+     * Returns the hazard level of each given room, followed by the highest
+     * level in each building.
+     *
+     * @param rooms rooms to evaluate
+     * @return room levels, then building maximums
+     */
+    private List<Integer> levels(List<Room> rooms) {
+        List<Integer> levels = new ArrayList<>();
+        for (Room room : rooms) {
+            levels.add(room.getHazardEvaluator().evaluateHazardLevel());
+        }
+        for (Building building : this.buildings) {
+            levels.add(building.getMaxHazardLevel());
+        }
+        return levels;
+    }
+
+    /**
+     * Incremental hazard levels match full evaluation, and batch evaluation,
+     * at every minute over random jumps.
+     */
+    @Test
+    public void incrementalMatchesFullEvaluation() {
+        List<Room> rooms = evaluatedRooms();
+        BatchHazardEvaluator batch = new BatchHazardEvaluator(rooms);
+        for (Building building : this.buildings) {
+            building.setIncrementalHazards(true);
+        }
+        Random random = new Random(3);
+        boolean levelChanged = false;
+        List<Integer> first = levels(rooms);
+        for (int round = 0; round < 300; round++) {
+            if (random.nextBoolean()) {
+                this.manager.elapseOneMinute();
+            } else {
+                this.manager.elapseMinutes(random.nextInt(40));
+            }
+            List<Integer> incremental = levels(rooms);
+            levelChanged |= !incremental.equals(first);
+            for (Building building : this.buildings) {
+                building.setIncrementalHazards(false);
+            }
+            String minute = "minute " + this.manager.getMinutesElapsed();
+            assertEquals(minute, levels(rooms), incremental);
+            int[] batchLevels = batch.evaluateHazardLevels();
+            for (int i = 0; i < rooms.size(); i++) {
+                assertEquals(minute, (int) incremental.get(i),
+                        batchLevels[i]);
+            }
+            for (Building building : this.buildings) {
+                building.setIncrementalHazards(true);
+            }
+        }
+        assertTrue(levelChanged);
+    }
+
+    /**
+     * Levels changing at a minute where a level of the timing wheel wraps
+     * around are picked up in that minute, in jumps as well as single
+     * minutes.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void changesAtWheelBoundariesFollowed() throws Exception {
+        String save = String.join(System.lineSeparator(), "Tower", "1",
+                "1:10.00:10.00:1", "100:STUDY:5.00:1:RuleBased",
+                "OccupancySensor:10*128,50:1:100") + System.lineSeparator();
+        for (boolean jump : new boolean[] {false, true}) {
+            TimedItemManager manager = new TimedItemManager();
+            Building building = BuildingInitialiser.loadBuildings(
+                    new StringReader(save)).get(0);
+            building.setTimedItemManager(manager);
+            building.setIncrementalHazards(true);
+            IncrementalHazardEvaluator evaluator = (IncrementalHazardEvaluator)
+                    building.getFloorByNumber(1).getRoomByNumber(100)
+                            .getHazardEvaluator();
+            List<String> changes = new ArrayList<>();
+            evaluator.addHazardListener((changed, previous, level) ->
+                    changes.add(manager.getMinutesElapsed() + ": "
+                            + previous + " to " + level));
+            if (jump) {
+                manager.elapseMinutes(128);
+            } else {
+                for (int minute = 0; minute < 128; minute++) {
+                    manager.elapseOneMinute();
+                }
+            }
+            assertEquals(List.of("128: 10 to 50"), changes);
+            assertEquals(50, building.getMaxHazardLevel());
+            manager.elapseOneMinute();
+            assertEquals(List.of("128: 10 to 50", "129: 50 to 10"), changes);
+            assertEquals(10, building.getMaxHazardLevel());
+        }
+    }
+
+    /**
+     * Listeners are told of every change to an evaluator's level, with the
+     * level before and after the change.
+     */
+    @Test
+    public void listenersFollowEveryChange() {
+        for (Building building : this.buildings) {
+            building.setIncrementalHazards(true);
+        }
+        Map<HazardEvaluator, Integer> followed = new IdentityHashMap<>();
+        int[] changes = new int[1];
+        HazardListener listener = (evaluator, previous, level) -> {
+            synchronized (followed) {
+                assertEquals((int) followed.get(evaluator), previous);
+                assertNotEquals(previous, level);
+                followed.put(evaluator, level);
+                changes[0]++;
+            }
+        };
+        for (Room room : evaluatedRooms()) {
+            IncrementalHazardEvaluator evaluator =
+                    (IncrementalHazardEvaluator) room.getHazardEvaluator();
+            followed.put(evaluator, evaluator.evaluateHazardLevel());
+            evaluator.addHazardListener(listener);
+        }
+        this.manager.elapseMinutes(500);
+        for (int i = 0; i < 100; i++) {
+            this.manager.elapseOneMinute();
+        }
+        assertTrue(changes[0] > 0);
+        for (Map.Entry<HazardEvaluator, Integer> entry
+                : followed.entrySet()) {
+            assertEquals((int) entry.getValue(),
+                    entry.getKey().evaluateHazardLevel());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package bms.room;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.exceptions.DuplicateSensorException;
+import bms.sensors.NoiseSensor;
+import bms.sensors.TimedSensor;
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that sensors stay registered with the right timed item manager as
+ * they are added to rooms, including when they are rejected.
+ */
+public class RoomTest {
+    /**
+     * Save file with two rooms, each with a noise sensor.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "Main",
+            "1",
+            "1:30.00:30.00:2",
+            "100:STUDY:10.00:1",
+            "NoiseSensor:1,2,3,4:1",
+            "101:OFFICE:10.00:1",
+            "NoiseSensor:5,6,7,8:1") + System.lineSeparator();
+
+    /**
+     * Singleton manager, elapsing the building.
+     */
+    private final TimedItemManager singleton = TimedItemManager.getInstance();
+
+    /**
+     * Building loaded from the save file.
+     */
+    private Building building;
+
+    /**
+     * First room of the building.
+     */
+    private Room first;
+
+    /**
+     * Second room of the building.
+     */
+    private Room second;
+
+    /**
+     * Loads the building.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Before
+    public void setUp() throws Exception {
+        this.building = BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE)).get(0);
+        this.first = this.building.getFloorByNumber(1).getRoomByNumber(100);
+        this.second = this.building.getFloorByNumber(1).getRoomByNumber(101);
+    }
+
+    /**
+     * Unregisters the building's sensors from the singleton.
+     */
+    @After
+    public void tearDown() {
+        this.building.discard();
+    }
+
+    /**
+     * Adds a sensor that is rejected as a duplicate.
+     *
+     * @param room   room to add to
+     * @param sensor sensor to add
+     */
+    private static void addDuplicate(Room room, TimedSensor sensor) {
+        try {
+            room.addSensor(sensor);
+            fail("Added a duplicate sensor");
+        } catch (DuplicateSensorException expected) {
+            // Rejected
+        }
+    }
+
+    /**
+     * A sensor rejected by the room it is already in, or by another room,
+     * keeps elapsing with its own room.
+     */
+    @Test
+    public void rejectedSensorsInRoomsKeepElapsing() {
+        TimedSensor sensor = (TimedSensor) this.first.getSensors().get(0);
+        addDuplicate(this.first, sensor);
+        addDuplicate(this.second, sensor);
+        assertTrue(this.singleton.isRegistered(sensor));
+        this.singleton.elapseMinutes(2);
+        assertEquals(3, sensor.getCurrentReading());
+        assertSame(sensor, this.first.getSensors().get(0));
+    }
+
+    /**
+     * New sensors are registered with the singleton manager until they are
+     * added to a room, which moves them to the room's manager.
+     *
+     * @throws Exception if the sensor cannot be added
+     */
+    @Test
+    public void newSensorsMovedToRoomManager() throws Exception {
+        TimedItemManager manager = new TimedItemManager();
+        NoiseSensor sensor = new NoiseSensor(new int[] {1, 2, 3}, 1);
+        try {
+            assertTrue(this.singleton.isRegistered(sensor));
+            Room room = new Room(102, RoomType.LABORATORY, 5);
+            room.setTimedItemManager(manager);
+            room.addSensor(sensor);
+            assertFalse(this.singleton.isRegistered(sensor));
+            assertTrue(manager.isRegistered(sensor));
+            manager.elapseOneMinute();
+            assertEquals(2, sensor.getCurrentReading());
+        } finally {
+            this.singleton.unregisterTimedItem(sensor);
+        }
+    }
+
+    /**
+     * Rooms are encoded with a line separator after every line, as they
+     * always have been, whether written to a string or streamed.
+     *
+     * @throws Exception if the room cannot be encoded
+     */
+    @Test
+    public void encodingEndsEveryLine() throws Exception {
+        String separator = System.lineSeparator();
+        Room room = new Room(102, RoomType.LABORATORY, 5);
+        assertEquals("102:LABORATORY:5.00:0" + separator, room.encode());
+        assertEquals("100:STUDY:10.00:1" + separator + "NoiseSensor:1,2,3,4:1"
+                + separator, this.first.encode());
+        for (Room encoded : new Room[] {room, this.first}) {
+            StringBuilder out = new StringBuilder();
+            encoded.encodeTo(out);
+            assertEquals(encoded.encode(), out.toString());
+        }
+    }
+}
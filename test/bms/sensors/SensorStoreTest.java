@@ -0,0 +1,220 @@
+package bms.sensors;
+
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that sensors read the same from the columnar sensor store as they
+ * would from readings of their own.
+ */
+public class SensorStoreTest {
+    /**
+     * Sensors created by a test.
+     */
+    private final List<TimedSensor> created = new ArrayList<>();
+
+    /**
+     * Unregisters the sensors created by the test from the singleton.
+     */
+    @After
+    public void tearDown() {
+        for (TimedSensor sensor : this.created) {
+            TimedItemManager.getInstance().unregisterTimedItem(sensor);
+        }
+    }
+
+    /**
+     * Creates a noise sensor, to be unregistered after the test.
+     *
+     * @param readings        sensor readings
+     * @param updateFrequency minutes between readings
+     * @return sensor created
+     */
+    private NoiseSensor noise(int[] readings, int updateFrequency) {
+        NoiseSensor sensor = new NoiseSensor(readings, updateFrequency);
+        this.created.add(sensor);
+        return sensor;
+    }
+
+    /**
+     * Returns random readings that no other test uses.
+     *
+     * @param random source of the readings
+     * @param count  number of readings
+     * @return readings
+     */
+    private static int[] readings(Random random, int count) {
+        int[] readings = new int[count];
+        for (int i = 0; i < count; i++) {
+            readings[i] = 1000 + random.nextInt(1_000_000);
+        }
+        return readings;
+    }
+
+    /**
+     * Reading every sensor in a single pass over the store, or a batch of
+     * sensors at once, gives each sensor's current reading, whichever
+     * manager it is registered with.
+     */
+    @Test
+    public void currentReadingsMatchSensors() {
+        Random random = new Random(16);
+        List<TimedItemManager> managers = List.of(new TimedItemManager(),
+                new TimedItemManager(), TimedItemManager.getInstance());
+        for (int i = 0; i < 2500; i++) {
+            NoiseSensor sensor = noise(readings(random, 1 + random.nextInt(9)),
+                    1 + random.nextInt(5));
+            TimedItemManager manager = managers.get(i % managers.size());
+            if (manager != TimedItemManager.getInstance()) {
+                TimedItemManager.getInstance().unregisterTimedItem(sensor);
+                manager.registerTimedItem(sensor);
+            }
+        }
+        TimedSensor[] sensors = this.created.toArray(new TimedSensor[0]);
+        int[] batch = new int[sensors.length];
+        SensorStore store = SensorStore.of(NoiseSensor.class);
+        for (int round = 0; round < 5; round++) {
+            managers.get(0).elapseMinutes(1 + random.nextInt(50));
+            managers.get(1).elapseMinutes(random.nextInt(3));
+            int[] readings = store.currentReadings();
+            TimedSensor.readCurrentReadings(sensors, batch);
+            for (int i = 0; i < sensors.length; i++) {
+                int index = sensors[i].getStoreIndex();
+                assertTrue(index < store.size());
+                assertEquals(sensors[i].getCurrentReading(),
+                        readings[index]);
+                assertEquals(sensors[i].getCurrentReading(), batch[i]);
+            }
+        }
+    }
+
+    /**
+     * Sensors of different classes are kept in different stores, each with
+     * its own slot indices.
+     */
+    @Test
+    public void storesKeptPerClass() {
+        SensorStore noise = SensorStore.of(NoiseSensor.class);
+        assertSame(noise, SensorStore.of(NoiseSensor.class));
+        assertNotSame(noise, SensorStore.of(TemperatureSensor.class));
+        TemperatureSensor temperature = new TemperatureSensor(new int[] {21});
+        this.created.add(temperature);
+        NoiseSensor sensor = noise(new int[] {50}, 1);
+        assertEquals(21, SensorStore.of(TemperatureSensor.class)
+                .currentReadings()[temperature.getStoreIndex()]);
+        assertEquals(50, noise.currentReadings()[sensor.getStoreIndex()]);
+    }
+
+    /**
+     * Readings kept outside the Java heap, directly or in mapped files,
+     * read and encode as readings kept on the heap do, including runs and
+     * traces too long to share a buffer with others.
+     */
+    @Test
+    public void offHeapReadingsMatchHeap() {
+        Random random = new Random(17);
+        int[][] traces = {
+            readings(random, 7),
+            readings(random, 100_000),
+            TimedSensorTest.runs(1234, 40, 1235, 2, 1236, 30),
+        };
+        ReadingStorage previous = SensorStore.getReadingStorage();
+        try {
+            for (ReadingStorage storage : new ReadingStorage[] {
+                    ReadingStorage.DIRECT, ReadingStorage.MAPPED}) {
+                for (int[] trace : traces) {
+                    SensorStore.setReadingStorage(ReadingStorage.HEAP);
+                    NoiseSensor onHeap = noise(trace, 3);
+                    long offHeapBytes = SensorStore.getReadingBytes(true);
+                    SensorStore.setReadingStorage(storage);
+                    assertEquals(storage, SensorStore.getReadingStorage());
+                    NoiseSensor offHeap = noise(trace, 3);
+                    if (trace.length == 100_000) {
+                        // Too long to share a buffer, so given its own
+                        assertEquals(offHeapBytes + 400_000,
+                                SensorStore.getReadingBytes(true));
+                    }
+                    assertEquals(onHeap, offHeap);
+                    assertEquals(onHeap.encode(), offHeap.encode());
+                    for (int i = 0; i < 1000; i++) {
+                        long minute = random.nextInt(Integer.MAX_VALUE);
+                        assertEquals(onHeap.readingAt(minute),
+                                offHeap.readingAt(minute));
+                    }
+                }
+            }
+        } finally {
+            SensorStore.setReadingStorage(previous);
+        }
+    }
+
+    /**
+     * Returns whether two sensors of the same class read from the same copy
+     * of their readings.
+     *
+     * @param first  first sensor
+     * @param second second sensor
+     * @return true if the sensors share their readings
+     */
+    private static boolean shared(TimedSensor first, TimedSensor second) {
+        SensorStore store = SensorStore.of(first.getClass());
+        int a = first.getStoreIndex();
+        int b = second.getStoreIndex();
+        SensorStore.Block firstBlock = store.block(a);
+        SensorStore.Block secondBlock = store.block(b);
+        return firstBlock.chunk[SensorStore.slot(a)]
+                == secondBlock.chunk[SensorStore.slot(b)]
+                && firstBlock.offset[SensorStore.slot(a)]
+                == secondBlock.offset[SensorStore.slot(b)];
+    }
+
+    /**
+     * Sensors given identical readings share one copy of them, whatever
+     * their update frequencies, while different readings, and readings
+     * kept in different storage, are copied separately.
+     */
+    @Test
+    public void identicalReadingsShared() {
+        Random random = new Random(18);
+        int[] trace = readings(random, 50);
+        int[] runs = TimedSensorTest.runs(trace[0], 30, trace[1], 50);
+        NoiseSensor first = noise(trace, 1);
+        NoiseSensor same = noise(trace.clone(), 4);
+        NoiseSensor firstRuns = noise(runs, 2);
+        NoiseSensor sameRuns = noise(runs.clone(), 2);
+        int[] changed = trace.clone();
+        changed[49]++;
+        NoiseSensor different = noise(changed, 1);
+        assertTrue(shared(first, same));
+        assertTrue(shared(firstRuns, sameRuns));
+        assertFalse(shared(first, different));
+        assertFalse(shared(first, firstRuns));
+        assertEquals(trace[49], same.getReading(49));
+        assertEquals(trace[49] + 1, different.getReading(49));
+        assertEquals(4, same.getUpdateFrequency());
+        assertEquals("NoiseSensor:" + trace[0] + "*30," + trace[1] + "*50:2",
+                sameRuns.encode());
+        assertTrue(SensorStore.getSharedReadingBytes() >= 54 * 4);
+
+        ReadingStorage previous = SensorStore.getReadingStorage();
+        try {
+            SensorStore.setReadingStorage(ReadingStorage.DIRECT);
+            NoiseSensor direct = noise(trace.clone(), 1);
+            assertFalse(shared(first, direct));
+            assertEquals(first, direct);
+        } finally {
+            SensorStore.setReadingStorage(previous);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package bms.sensors;
+
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that sensors whose readings are stored as runs read, encode and
+ * compare exactly as if every reading were stored.
+ */
+public class TimedSensorTest {
+    /**
+     * Sensors created by a test, registered with the singleton manager.
+     */
+    private final List<TimedSensor> created = new ArrayList<>();
+
+    /**
+     * Unregisters the sensors created by the test from the singleton.
+     */
+    @After
+    public void tearDown() {
+        for (TimedSensor sensor : this.created) {
+            TimedItemManager.getInstance().unregisterTimedItem(sensor);
+        }
+    }
+
+    /**
+     * Creates a noise sensor, to be unregistered after the test.
+     *
+     * @param readings        sensor readings
+     * @param updateFrequency minutes between readings
+     * @return sensor created
+     */
+    private NoiseSensor noise(int[] readings, int updateFrequency) {
+        NoiseSensor sensor = new NoiseSensor(readings, updateFrequency);
+        this.created.add(sensor);
+        return sensor;
+    }
+
+    /**
+     * Returns the readings of the given runs, one after another.
+     *
+     * @param runs pairs of a reading and the number of times it repeats
+     * @return every reading, in order
+     */
+    static int[] runs(int... runs) {
+        int count = 0;
+        for (int i = 1; i < runs.length; i += 2) {
+            count += runs[i];
+        }
+        int[] readings = new int[count];
+        int start = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            Arrays.fill(readings, start, start + runs[i + 1], runs[i]);
+            start += runs[i + 1];
+        }
+        return readings;
+    }
+
+    /**
+     * Readings that average at least four equal values in a row are
+     * encoded as runs, and other readings are encoded one by one, as they
+     * always were.
+     */
+    @Test
+    public void repetitiveReadingsEncodedAsRuns() {
+        assertEquals("NoiseSensor:22*90,23*45,22:1",
+                noise(runs(22, 90, 23, 45, 22, 1), 1).encode());
+        assertEquals("NoiseSensor:5*4,6*4:2",
+                noise(runs(5, 4, 6, 4), 2).encode());
+        assertEquals("NoiseSensor:5,5,5,6,6,6,6:2",
+                noise(runs(5, 3, 6, 4), 2).encode());
+        assertEquals("NoiseSensor:40,50,60,60,60:3",
+                noise(new int[] {40, 50, 60, 60, 60}, 3).encode());
+    }
+
+    /**
+     * Sensors stored as runs still list every reading in their string
+     * representation, and equal sensors given the same readings.
+     */
+    @Test
+    public void runsListedAndComparedByReading() {
+        int[] readings = runs(7, 6, 8, 2);
+        NoiseSensor sensor = noise(readings, 1);
+        assertEquals("TimedSensor: freq=1, readings=7,7,7,7,7,7,8,8, "
+                + "type=NoiseSensor", sensor.toString());
+        NoiseSensor same = noise(readings.clone(), 1);
+        assertEquals(sensor, same);
+        assertEquals(sensor.hashCode(), same.hashCode());
+        assertEquals(8, sensor.getReadingCount());
+        for (int i = 0; i < readings.length; i++) {
+            assertEquals(readings[i], sensor.getReading(i));
+        }
+    }
+
+    /**
+     * Readings stored as runs are read as the readings they were given, in
+     * order as time passes, across the wrap back to the first reading, and
+     * in any order.
+     */
+    @Test
+    public void runReadingsMatchModel() {
+        Random random = new Random(19);
+        for (int trial = 0; trial < 20; trial++) {
+            int[] readings = new int[1 + random.nextInt(400)];
+            int start = 0;
+            while (start < readings.length) {
+                int end = Math.min(readings.length,
+                        start + 1 + random.nextInt(12));
+                Arrays.fill(readings, start, end, random.nextInt(100));
+                start = end;
+            }
+            int frequency = 1 + random.nextInt(5);
+            NoiseSensor sensor = noise(readings, frequency);
+            long cycle = (long) readings.length * frequency;
+            for (long minute = 0; minute < 3 * cycle; minute++) {
+                assertEquals("minute " + minute,
+                        readings[(int) (minute / frequency
+                                % readings.length)],
+                        sensor.readingAt(minute));
+            }
+            for (int i = 0; i < 1000; i++) {
+                long minute = (long) (random.nextDouble() * 1e12);
+                assertEquals("minute " + minute,
+                        readings[(int) (minute / frequency
+                                % readings.length)],
+                        sensor.readingAt(minute));
+            }
+            for (int i = 0; i < readings.length; i++) {
+                assertEquals(readings[i], sensor.getReading(i));
+            }
+        }
+    }
+
+    /**
+     * The current reading of a sensor stored as runs follows the minutes
+     * elapsed by its manager, whether they elapse one at a time or jump.
+     */
+    @Test
+    public void currentRunReadingFollowsManager() {
+        TimedItemManager manager = new TimedItemManager();
+        NoiseSensor sensor = noise(runs(30, 5, 60, 5), 1);
+        TimedItemManager.getInstance().unregisterTimedItem(sensor);
+        manager.registerTimedItem(sensor);
+        assertTrue(manager.isRegistered(sensor));
+        int[] expected = {30, 30, 30, 30, 30, 60, 60, 60, 60, 60};
+        for (int minute = 0; minute < 25; minute++) {
+            assertEquals("minute " + minute, expected[minute % 10],
+                    sensor.getCurrentReading());
+            manager.elapseOneMinute();
+        }
+        manager.elapseMinutes(1003);
+        assertEquals(60, sensor.getCurrentReading());
+        manager.unregisterTimedItem(sensor);
+    }
+
+    /**
+     * Hazard and comfort levels remembered between readings change as soon
+     * as the reading does, and match the levels of a new sensor given only
+     * the current reading, which has nothing remembered.
+     */
+    @Test
+    public void cachedLevelsFollowReadings() {
+        TimedItemManager manager = new TimedItemManager();
+        int[] readings = {0, 0, 40, 70, 70, 0, 130, 12, 12, 5, 0};
+        List<TimedSensor> sensors = List.of(new NoiseSensor(readings, 1),
+                new OccupancySensor(readings, 2, 12),
+                new CarbonDioxideSensor(readings, 3, 40, 30));
+        for (TimedSensor sensor : sensors) {
+            TimedItemManager.getInstance().unregisterTimedItem(sensor);
+            manager.registerTimedItem(sensor);
+        }
+        for (int minute = 0; minute < 3 * 11 * 3; minute++) {
+            for (TimedSensor sensor : sensors) {
+                int[] current = {sensor.getCurrentReading()};
+                TimedSensor fresh = sensor instanceof NoiseSensor
+                        ? new NoiseSensor(current, 1)
+                        : sensor instanceof OccupancySensor
+                        ? new OccupancySensor(current, 1, 12)
+                        : new CarbonDioxideSensor(current, 1, 40, 30);
+                this.created.add(fresh);
+                String at = sensor.getClass().getSimpleName() + " at minute "
+                        + minute;
+                for (int i = 0; i < 2; i++) {
+                    assertEquals(at, ((HazardSensor) fresh).getHazardLevel(),
+                            ((HazardSensor) sensor).getHazardLevel());
+                    assertEquals(at, ((ComfortSensor) fresh).getComfortLevel(),
+                            ((ComfortSensor) sensor).getComfortLevel());
+                }
+            }
+            manager.elapseOneMinute();
+        }
+    }
+
+    /**
+     * A level cache entry gives back its level only for the reading it was
+     * made for, and an empty entry matches no reading.
+     */
+    @Test
+    public void levelEntriesMatchTheirReading() {
+        int[] readings = {0, 1, 68, 1 << 20, Integer.MAX_VALUE};
+        int[] levels = {0, 100, 57, -1, Integer.MIN_VALUE + 1};
+        for (int reading : readings) {
+            assertEquals(TimedSensor.NOT_CACHED,
+                    TimedSensor.cachedLevel(TimedSensor.NO_LEVEL, reading));
+            for (int level : levels) {
+                long entry = TimedSensor.levelEntry(reading, level);
+                assertEquals(level, TimedSensor.cachedLevel(entry, reading));
+                assertEquals(TimedSensor.NOT_CACHED,
+                        TimedSensor.cachedLevel(entry, reading + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package bms.simulation;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.sensors.Sensor;
+import bms.sensors.TimedSensor;
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that elapsing each building on its own thread leaves the buildings
+ * as elapsing them together does.
+ */
+public class BuildingExecutorTest {
+    /**
+     * Save file with three buildings with sensors and maintenance
+     * schedules.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "North",
+            "1",
+            "1:30.00:30.00:2:100,101",
+            "100:STUDY:20.00:2:WeightingBased",
+            "NoiseSensor:40,50,60*3,70:2@60",
+            "TemperatureSensor:20*30,70*5,21*10@40",
+            "101:OFFICE:15.50:1:RuleBased",
+            "OccupancySensor:1,2,3:3:40",
+            "South",
+            "1",
+            "1:20.00:20.00:1",
+            "200:LABORATORY:20.00:1",
+            "CarbonDioxideSensor:500*7,650:4:700:300",
+            "Annex",
+            "1",
+            "1:12.00:10.00:1",
+            "110:STUDY:8.00:1:RuleBased",
+            "TemperatureSensor:18*4,19,25,31") + System.lineSeparator();
+
+    /**
+     * Buildings loaded by the test.
+     */
+    private final List<Building> loaded = new ArrayList<>();
+
+    /**
+     * Unregisters the buildings loaded by the test.
+     */
+    @After
+    public void tearDown() {
+        for (Building building : this.loaded) {
+            building.discard();
+        }
+    }
+
+    /**
+     * Loads the buildings, moving their timed items to the given manager.
+     *
+     * @param manager manager to elapse the buildings
+     * @return buildings loaded
+     * @throws Exception if the save file cannot be loaded
+     */
+    private List<Building> load(TimedItemManager manager) throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE));
+        this.loaded.addAll(buildings);
+        for (Building building : buildings) {
+            building.setTimedItemManager(manager);
+        }
+        return buildings;
+    }
+
+    /**
+     * Describes the sensors and maintenance schedules of the buildings.
+     *
+     * @param buildings buildings to describe
+     * @return readings, sensor times and schedule positions, in order
+     */
+    private static String state(List<Building> buildings) {
+        StringBuilder state = new StringBuilder();
+        for (Building building : buildings) {
+            for (Floor floor : building.getFloors()) {
+                if (floor.getMaintenanceSchedule() != null) {
+                    state.append(floor.getMaintenanceSchedule()
+                            .getCurrentRoom().getRoomNumber()).append(' ');
+                }
+                for (Room room : floor.getRooms()) {
+                    for (Sensor sensor : room.getSensors()) {
+                        TimedSensor timed = (TimedSensor) sensor;
+                        state.append(timed.getCurrentReading()).append('@')
+                                .append(timed.getTimeElapsed()).append(' ');
+                    }
+                }
+            }
+        }
+        return state.toString();
+    }
+
+    /**
+     * Buildings elapsed on their own threads end each call in the state
+     * that elapsing them together gives, and return to the singleton
+     * manager once the executor is closed.
+     *
+     * @throws Exception if the buildings cannot be loaded or elapsed
+     */
+    @Test
+    public void matchesElapsingTogether() throws Exception {
+        TimedItemManager together = new TimedItemManager();
+        List<Building> expected = load(together);
+        TimedItemManager singleton = TimedItemManager.getInstance();
+        List<Building> buildings = load(singleton);
+        try (BuildingExecutor executor = new BuildingExecutor(buildings)) {
+            int[] minutes = {1, 0, 7, 64, 500, 3, 4096};
+            for (int step : minutes) {
+                executor.elapseMinutes(step);
+                together.elapseMinutes(step);
+                assertEquals(state(expected), state(buildings));
+            }
+            for (Building building : buildings) {
+                assertNotSame(singleton, building.getTimedItemManager());
+            }
+        }
+        for (Building building : buildings) {
+            assertSame(singleton, building.getTimedItemManager());
+        }
+        together.elapseMinutes(10);
+        singleton.elapseMinutes(10);
+        assertEquals(state(expected), state(buildings));
+    }
+
+    /**
+     * A building that fails to elapse does not stop the others, and its
+     * failure is thrown once they have all finished.
+     *
+     * @throws Exception if the buildings cannot be loaded or elapsed
+     */
+    @Test
+    public void failuresThrownOnceAllFinish() throws Exception {
+        TimedItemManager together = new TimedItemManager();
+        List<Building> expected = load(together);
+        List<Building> buildings = load(TimedItemManager.getInstance());
+        try (BuildingExecutor executor = new BuildingExecutor(buildings)) {
+            executor.elapseMinutes(5);
+            together.elapseMinutes(5);
+            buildings.get(0).getTimedItemManager().registerTimedItem(() -> {
+                throw new IllegalStateException("Building failed");
+            });
+            try {
+                executor.elapseMinutes(30);
+                fail("Failure was not thrown");
+            } catch (IllegalStateException e) {
+                assertEquals("Building failed", e.getMessage());
+            }
+            together.elapseMinutes(30);
+            assertEquals(state(expected.subList(1, 3)),
+                    state(buildings.subList(1, 3)));
+            try {
+                executor.elapseMinutes(-1);
+                fail("Accepted a negative number of minutes");
+            } catch (IllegalArgumentException expectedFailure) {
+                // Rejected
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package bms.simulation;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.room.Room;
+import bms.room.RoomState;
+import bms.util.TimedItemManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the headless engine samples room states at its interval, as
+ * elapsing the buildings directly would, and saves what it simulated.
+ */
+public class SimulationEngineTest {
+    /**
+     * Save file with maintenance schedules, fires and hazard evaluators, so
+     * that rooms pass through every state but ERROR.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "Campus",
+            "2",
+            "1:30.00:30.00:3:100,101,102",
+            "100:STUDY:20.00:2:WeightingBased",
+            "NoiseSensor:40,50,60*3,70:2@60",
+            "TemperatureSensor:20*30,70*5,21*10@40",
+            "101:OFFICE:15.50:1:RuleBased",
+            "OccupancySensor:1,2,3:3:40",
+            "102:LABORATORY:12.00:1",
+            "TemperatureSensor:20*17,90*3",
+            "2:30.00:30.00:2:201,200",
+            "200:LABORATORY:20.00:1",
+            "CarbonDioxideSensor:500*7,650:4:700:300",
+            "201:STUDY:25.00:0",
+            "Annex",
+            "1",
+            "1:12.00:10.00:1",
+            "110:STUDY:8.00:1:RuleBased",
+            "TemperatureSensor:18*4,19,25,31") + System.lineSeparator();
+
+    /**
+     * Buildings loaded by the test.
+     */
+    private final List<Building> loaded = new ArrayList<>();
+
+    /**
+     * Unregisters the buildings loaded by the test.
+     */
+    @After
+    public void tearDown() {
+        for (Building building : this.loaded) {
+            building.discard();
+        }
+    }
+
+    /**
+     * Loads the campus, registered with the singleton manager.
+     *
+     * @return buildings loaded
+     * @throws Exception if the save file cannot be loaded
+     */
+    private List<Building> load() throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE));
+        this.loaded.addAll(buildings);
+        return buildings;
+    }
+
+    /**
+     * Returns the room states seen in the campus every interval minutes,
+     * elapsing a copy of it on a manager of its own.
+     *
+     * @param minutes  number of minutes to elapse
+     * @param interval minutes between samples
+     * @return number of rooms seen in each state
+     * @throws Exception if the save file cannot be loaded
+     */
+    private Map<RoomState, Long> expectedCounts(int minutes, int interval)
+            throws Exception {
+        TimedItemManager manager = new TimedItemManager();
+        List<Building> buildings = load();
+        for (Building building : buildings) {
+            building.setTimedItemManager(manager);
+        }
+        Map<RoomState, Long> counts = new EnumMap<>(RoomState.class);
+        for (RoomState state : RoomState.values()) {
+            counts.put(state, 0L);
+        }
+        for (int done = 0; done < minutes; done += interval) {
+            manager.elapseMinutes(interval);
+            for (Building building : buildings) {
+                for (Floor floor : building.getFloors()) {
+                    for (Room room : floor.getRooms()) {
+                        counts.merge(room.evaluateRoomState(), 1L,
+                                Long::sum);
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Room states are sampled whenever the minutes run reach a multiple of
+     * the interval, across runs, and counted as elapsing the buildings
+     * directly would count them.
+     *
+     * @throws Exception if the campus cannot be loaded or run
+     */
+    @Test
+    public void samplesMatchDirectElapsing() throws Exception {
+        SimulationEngine engine = new SimulationEngine(load());
+        engine.setSampleInterval(7);
+        assertEquals(7, engine.getSampleInterval());
+        engine.run(0);
+        engine.run(20);
+        engine.run(3);
+        engine.run(977);
+        assertEquals(1000, engine.getMinutesRun());
+        assertEquals(142, engine.getSampleCount());
+        Map<RoomState, Long> counts = engine.getRoomStateCounts();
+        assertEquals(expectedCounts(994, 7), counts);
+        assertEquals(142 * 6, counts.values().stream()
+                .mapToLong(Long::longValue).sum());
+        assertTrue(counts.get(RoomState.EVACUATE) > 0);
+        assertTrue(counts.get(RoomState.MAINTENANCE) > 0);
+        assertTrue(counts.get(RoomState.OPEN) > 0);
+
+        // The counts returned are a copy
+        counts.clear();
+        assertEquals(RoomState.values().length,
+                engine.getRoomStateCounts().size());
+    }
+
+    /**
+     * Elapsing each building on its own thread counts the same room states
+     * as elapsing them together, and leaves the buildings with the
+     * singleton manager afterwards.
+     *
+     * @throws Exception if the campus cannot be loaded or run
+     */
+    @Test
+    public void perBuildingThreadsMatchTogether() throws Exception {
+        SimulationEngine together = new SimulationEngine(load());
+        together.setSampleInterval(5);
+        together.run(2000);
+        List<Building> buildings = load();
+        SimulationEngine perBuilding = new SimulationEngine(buildings);
+        perBuilding.setPerBuildingThreads(true);
+        assertTrue(perBuilding.isPerBuildingThreads());
+        perBuilding.setSampleInterval(5);
+        perBuilding.run(1500);
+        perBuilding.run(500);
+        assertEquals(together.getRoomStateCounts(),
+                perBuilding.getRoomStateCounts());
+        for (Building building : buildings) {
+            assertSame(TimedItemManager.getInstance(),
+                    building.getTimedItemManager());
+        }
+    }
+
+    /**
+     * An engine with no sample interval takes no samples.
+     *
+     * @throws Exception if the campus cannot be loaded or run
+     */
+    @Test
+    public void noIntervalTakesNoSamples() throws Exception {
+        SimulationEngine engine = new SimulationEngine(load());
+        engine.setSampleInterval(0);
+        engine.run(500);
+        assertEquals(500, engine.getMinutesRun());
+        assertEquals(0, engine.getSampleCount());
+    }
+
+    /**
+     * An engine given a speed takes at least as long as that speed allows.
+     *
+     * @throws Exception if the campus cannot be loaded or run
+     */
+    @Test
+    public void speedKeptTo() throws Exception {
+        SimulationEngine engine = new SimulationEngine(load());
+        engine.setSpeed(1000);
+        assertEquals(1000, engine.getSpeed(), 0);
+        long start = System.nanoTime();
+        engine.run(200);
+        assertTrue(System.nanoTime() - start >= 190_000_000L);
+        assertEquals(200, engine.getMinutesRun());
+    }
+
+    /**
+     * Negative speeds, intervals and run lengths are rejected.
+     *
+     * @throws Exception if the campus cannot be loaded
+     */
+    @Test
+    public void invalidSettingsRejected() throws Exception {
+        SimulationEngine engine = new SimulationEngine(load());
+        Runnable[] invalid = {
+            () -> engine.setSpeed(-1),
+            () -> engine.setSpeed(Double.NaN),
+            () -> engine.setSampleInterval(-1),
+            () -> {
+                try {
+                    engine.run(-1);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            },
+        };
+        for (Runnable setting : invalid) {
+            try {
+                setting.run();
+                fail("Accepted an invalid setting");
+            } catch (IllegalArgumentException expected) {
+                // Rejected
+            }
+        }
+        assertEquals(0, engine.getSpeed(), 0);
+        assertEquals(SimulationEngine.DEFAULT_SAMPLE_INTERVAL,
+                engine.getSampleInterval());
+    }
+
+    /**
+     * A snapshot holds the buildings simulated, and reloads equal to them.
+     *
+     * @throws Exception if the campus cannot be loaded, run or saved
+     */
+    @Test
+    public void snapshotReloadsEqual() throws Exception {
+        List<Building> buildings = load();
+        SimulationEngine engine = new SimulationEngine(buildings);
+        engine.run(300);
+        Path directory = Files.createTempDirectory("bms-engine");
+        Path file = directory.resolve("snapshot.txt");
+        try {
+            engine.writeSnapshot(file.toString());
+            List<Building> reloaded = BuildingInitialiser.loadBuildings(
+                    file.toString());
+            this.loaded.addAll(reloaded);
+            assertEquals(buildings, reloaded);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+}
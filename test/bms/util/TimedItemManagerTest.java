@@ -0,0 +1,372 @@
+package bms.util;
+
+import bms.building.Building;
+import bms.building.BuildingInitialiser;
+import bms.floor.Floor;
+import bms.floor.MaintenanceSchedule;
+import bms.room.Room;
+import bms.sensors.Sensor;
+import bms.sensors.TimedSensor;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the timing wheel elapses timed items exactly as elapsing one
+ * minute at a time does.
+ */
+public class TimedItemManagerTest {
+    /**
+     * Save file with sensors of several update frequencies and maintenance
+     * schedules of different lengths.
+     */
+    private static final String SAVE = String.join(System.lineSeparator(),
+            "Campus",
+            "2",
+            "1:30.00:30.00:3:100,101,102",
+            "100:STUDY:20.00:2:WeightingBased",
+            "NoiseSensor:40,50,60*3,70:2@60",
+            "TemperatureSensor:20,21,22,23,24,25,26@40",
+            "101:OFFICE:15.50:1:RuleBased",
+            "OccupancySensor:1,2,3:3:40",
+            "102:LABORATORY:12.00:1",
+            "CarbonDioxideSensor:500,600,700,800,900:5:700:300",
+            "2:30.00:30.00:2:201,200",
+            "200:LABORATORY:20.00:2",
+            "CarbonDioxideSensor:500*7,650:4:700:300",
+            "NoiseSensor:45,55:1",
+            "201:STUDY:25.00:0") + System.lineSeparator();
+
+    /**
+     * Timed item counting the minutes it has been elapsed.
+     */
+    private static class Counter implements TimedItem {
+        /**
+         * Number of minutes elapsed.
+         */
+        private int minutes;
+
+        /**
+         * Counts a minute.
+         */
+        @Override
+        public void elapseOneMinute() {
+            this.minutes++;
+        }
+    }
+
+    /**
+     * Loads the campus, moving its timed items to the given manager.
+     *
+     * @param manager manager to elapse the campus
+     * @return buildings loaded
+     * @throws Exception if the save file cannot be loaded
+     */
+    private static List<Building> load(TimedItemManager manager)
+            throws Exception {
+        List<Building> buildings = BuildingInitialiser.loadBuildings(
+                new StringReader(SAVE));
+        for (Building building : buildings) {
+            building.setTimedItemManager(manager);
+        }
+        return buildings;
+    }
+
+    /**
+     * Describes the state of every timed sensor and maintenance schedule in
+     * the given buildings.
+     *
+     * @param buildings buildings to describe
+     * @return readings, sensor times and schedule positions, in order
+     */
+    private static String state(List<Building> buildings) {
+        StringBuilder state = new StringBuilder();
+        for (Building building : buildings) {
+            for (Floor floor : building.getFloors()) {
+                MaintenanceSchedule schedule = floor.getMaintenanceSchedule();
+                if (schedule != null) {
+                    state.append(schedule.getCurrentRoom().getRoomNumber())
+                            .append('+')
+                            .append(schedule.getTimeElapsedCurrentRoom())
+                            .append(' ');
+                }
+                for (Room room : floor.getRooms()) {
+                    for (Sensor sensor : room.getSensors()) {
+                        TimedSensor timed = (TimedSensor) sensor;
+                        state.append(timed.getCurrentReading()).append('@')
+                                .append(timed.getTimeElapsed()).append(' ');
+                    }
+                }
+            }
+        }
+        return state.toString();
+    }
+
+    /**
+     * Jumps of random lengths leave every sensor and schedule in the same
+     * state as elapsing the same minutes one at a time.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void jumpsMatchSingleMinutes() throws Exception {
+        TimedItemManager jumping = new TimedItemManager();
+        TimedItemManager stepping = new TimedItemManager();
+        List<Building> jumped = load(jumping);
+        List<Building> stepped = load(stepping);
+        Counter jumpCounter = new Counter();
+        Counter stepCounter = new Counter();
+        jumping.registerTimedItem(jumpCounter);
+        stepping.registerTimedItem(stepCounter);
+        assertEquals(state(stepped), state(jumped));
+
+        Random random = new Random(5);
+        int total = 0;
+        for (int round = 0; round < 200; round++) {
+            int minutes = random.nextInt(4) == 0 ? random.nextInt(3)
+                    : 1 + random.nextInt(700);
+            jumping.elapseMinutes(minutes);
+            for (int i = 0; i < minutes; i++) {
+                stepping.elapseOneMinute();
+            }
+            total += minutes;
+            assertEquals("after " + total + " minutes", state(stepped),
+                    state(jumped));
+            assertEquals(total, jumping.getMinutesElapsed());
+            assertEquals(total, stepping.getMinutesElapsed());
+        }
+        assertEquals(total, jumpCounter.minutes);
+        assertEquals(total, stepCounter.minutes);
+    }
+
+    /**
+     * A jump matches single minutes when a schedule is replaced part way
+     * through, rescheduling the items it affects.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void jumpsMatchAfterLayoutChange() throws Exception {
+        TimedItemManager jumping = new TimedItemManager();
+        TimedItemManager stepping = new TimedItemManager();
+        List<Building> jumped = load(jumping);
+        List<Building> stepped = load(stepping);
+        jumping.elapseMinutes(37);
+        for (int i = 0; i < 37; i++) {
+            stepping.elapseOneMinute();
+        }
+        for (List<Building> buildings : List.of(jumped, stepped)) {
+            Floor floor = buildings.get(0).getFloorByNumber(1);
+            floor.createMaintenanceSchedule(List.of(
+                    floor.getRoomByNumber(102), floor.getRoomByNumber(100)));
+        }
+        jumping.elapseMinutes(500);
+        for (int i = 0; i < 500; i++) {
+            stepping.elapseOneMinute();
+        }
+        assertEquals(state(stepped), state(jumped));
+    }
+
+    /**
+     * Sensors whose readings change at minutes where a level of the wheel
+     * wraps around tell their listeners in that minute, in jumps as well as
+     * single minutes.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void changesAtWheelBoundariesNotified() throws Exception {
+        String save = String.join(System.lineSeparator(), "Tower", "1",
+                "1:10.00:10.00:3",
+                "100:STUDY:5.00:1", "NoiseSensor:10*64,50:1",
+                "101:STUDY:5.00:1", "NoiseSensor:10*128,50:1",
+                "102:STUDY:5.00:1", "NoiseSensor:10*4096,50:1")
+                + System.lineSeparator();
+        List<String> expected = new ArrayList<>();
+        List<List<String>> notified = new ArrayList<>();
+        for (boolean jump : new boolean[] {false, true}) {
+            TimedItemManager manager = new TimedItemManager();
+            Building building = BuildingInitialiser.loadBuildings(
+                    new StringReader(save)).get(0);
+            building.setTimedItemManager(manager);
+            List<Sensor> sensors = new ArrayList<>();
+            for (Room room : building.getFloorByNumber(1).getRooms()) {
+                sensors.addAll(room.getSensors());
+            }
+            List<String> changes = new ArrayList<>();
+            for (Sensor sensor : sensors) {
+                ((TimedSensor) sensor).addReadingListener(changed ->
+                        changes.add(sensors.indexOf(changed) + "@"
+                                + changed.getTimeElapsed() + "="
+                                + changed.getCurrentReading()));
+            }
+            if (jump) {
+                manager.elapseMinutes(4200);
+            } else {
+                for (int minute = 1; minute <= 4200; minute++) {
+                    int[] before = readings(sensors);
+                    manager.elapseOneMinute();
+                    int[] after = readings(sensors);
+                    for (int i = 0; i < after.length; i++) {
+                        if (after[i] != before[i]) {
+                            expected.add(i + "@" + minute + "=" + after[i]);
+                        }
+                    }
+                }
+            }
+            notified.add(changes);
+        }
+        assertTrue(expected.containsAll(List.of("0@64=50", "1@128=50",
+                "2@4096=50")));
+        // Sensors changing in the same minute may be notified in any order
+        Collections.sort(expected);
+        for (List<String> changes : notified) {
+            Collections.sort(changes);
+            assertEquals(expected, changes);
+        }
+    }
+
+    /**
+     * Returns the current reading of each of the given sensors.
+     *
+     * @param sensors timed sensors to read
+     * @return current readings, in order
+     */
+    private static int[] readings(List<Sensor> sensors) {
+        int[] readings = new int[sensors.size()];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = sensors.get(i).getCurrentReading();
+        }
+        return readings;
+    }
+
+    /**
+     * Items that read other items are elapsed after them, in jumps as well
+     * as single minutes.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void dependentItemsSeeCurrentReadings() throws Exception {
+        TimedItemManager manager = new TimedItemManager();
+        List<Building> buildings = load(manager);
+        TimedSensor sensor = (TimedSensor) buildings.get(0)
+                .getFloorByNumber(1).getRoomByNumber(100).getSensors().get(1);
+        StringBuilder seen = new StringBuilder();
+        manager.registerTimedItem(new TimedItem() {
+            @Override
+            public void elapseOneMinute() {
+                seen.append(sensor.getCurrentReading()).append(',');
+            }
+
+            @Override
+            public boolean readsOtherTimedItems() {
+                return true;
+            }
+        });
+        manager.elapseOneMinute();
+        manager.elapseMinutes(3);
+        // Temperature readings change every minute, starting from 20
+        assertEquals("21,22,23,24,", seen.toString());
+    }
+
+    /**
+     * With a parallelism above one, enough independent items to be split
+     * into shards are each elapsed once a minute, seeing the new minute,
+     * before the items that read them.
+     *
+     * @throws Exception if the save file cannot be loaded
+     */
+    @Test
+    public void parallelShardsElapseEveryItem() throws Exception {
+        TimedItemManager parallel = new TimedItemManager();
+        TimedItemManager serial = new TimedItemManager();
+        List<Building> shared = load(parallel);
+        List<Building> alone = load(serial);
+        parallel.setParallelism(4);
+        try {
+            assertEquals(4, parallel.getParallelism());
+            List<Counter> counters = new ArrayList<>();
+            long[] seenMinutes = new long[10_000];
+            for (int i = 0; i < seenMinutes.length; i++) {
+                int index = i;
+                Counter counter = new Counter() {
+                    @Override
+                    public void elapseOneMinute() {
+                        super.elapseOneMinute();
+                        seenMinutes[index] = parallel.getMinutesElapsed();
+                    }
+                };
+                counters.add(counter);
+                parallel.registerTimedItem(counter);
+            }
+            List<String> mismatches = new ArrayList<>();
+            parallel.registerTimedItem(new TimedItem() {
+                @Override
+                public void elapseOneMinute() {
+                    long minute = parallel.getMinutesElapsed();
+                    for (int i = 0; i < counters.size(); i++) {
+                        if (counters.get(i).minutes != minute
+                                || seenMinutes[i] != minute) {
+                            mismatches.add(minute + ": " + i);
+                        }
+                    }
+                }
+
+                @Override
+                public boolean readsOtherTimedItems() {
+                    return true;
+                }
+            });
+            for (int minute = 0; minute < 20; minute++) {
+                parallel.elapseOneMinute();
+                serial.elapseOneMinute();
+            }
+            parallel.elapseMinutes(300);
+            serial.elapseMinutes(300);
+            assertEquals(List.of(), mismatches);
+            assertEquals(state(alone), state(shared));
+        } finally {
+            parallel.setParallelism(1);
+        }
+        try {
+            parallel.setParallelism(0);
+            fail("Accepted a parallelism of 0");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, parallel.getParallelism());
+        }
+    }
+
+    /**
+     * Unregistered items are no longer elapsed, and negative jumps are
+     * rejected.
+     */
+    @Test
+    public void unregisteredItemsStop() {
+        TimedItemManager manager = new TimedItemManager();
+        Counter counter = new Counter();
+        manager.registerTimedItem(counter);
+        assertTrue(manager.isRegistered(counter));
+        manager.elapseMinutes(10);
+        assertTrue(manager.unregisterTimedItem(counter));
+        assertFalse(manager.isRegistered(counter));
+        assertFalse(manager.unregisterTimedItem(counter));
+        manager.elapseMinutes(10);
+        assertEquals(10, counter.minutes);
+        try {
+            manager.elapseMinutes(-1);
+            fail("Accepted a negative jump");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(20, manager.getMinutesElapsed());
+        }
+    }
+}